@@ -0,0 +1,94 @@
+package benchmarks;
+
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.ELFMaker;
+import miniJava.ErrorReporter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CodeGenerator and ELFMaker.outputELF over the corpus programs the code generator accepts (the test corpus or a generated program).
+ * The aux counter reports emitted code bytes/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackEndBenchmark {
+    @Param({"tests", "generated-10", "generated-100"})
+    public String corpus;
+
+    private List<Package> programs;
+    private List<byte[]> texts;
+    private List<Integer> entryPoints;
+    private long codeBytes;
+    private Path elf;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        programs = new ArrayList<>();
+        texts = new ArrayList<>();
+        entryPoints = new ArrayList<>();
+        for (byte[] source : Corpus.load(corpus)) {
+            Package ast = Corpus.analyze(source, true);
+            if (ast == null)
+                continue;
+            ErrorReporter reporter = new ErrorReporter();
+            CodeGenerator codeGen;
+            try {
+                codeGen = new CodeGenerator(reporter, ast, null);
+            } catch (RuntimeException e) {
+                // uses a construct the code generator does not support yet
+                continue;
+            }
+            if (reporter.hasErrors())
+                continue;
+            programs.add(ast);
+            byte[] text = codeGen.getInstructions().getBytes();
+            texts.add(text);
+            entryPoints.add(codeGen.getMainMethodAddr());
+            codeBytes += text.length;
+        }
+        if (programs.isEmpty())
+            throw new IllegalStateException("no program in corpus " + corpus + " is supported by the code generator");
+        elf = Files.createTempFile("miniJava-bench", ".out");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(elf);
+    }
+
+    @Benchmark
+    public void codeGeneration(Counters counters, Blackhole bh) {
+        for (Package ast : programs)
+            bh.consume(new CodeGenerator(new ErrorReporter(), ast, null));
+        counters.bytes += codeBytes;
+    }
+
+    @Benchmark
+    public void outputELF(Counters counters) {
+        String fname = elf.toString();
+        for (int i = 0; i < texts.size(); i++) {
+            byte[] text = texts.get(i);
+            new ELFMaker(new ErrorReporter(), text.length, 8).outputELF(fname, text, entryPoints.get(i));
+        }
+        counters.bytes += codeBytes;
+    }
+}
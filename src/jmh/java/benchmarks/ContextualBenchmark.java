@@ -0,0 +1,76 @@
+package benchmarks;
+
+import miniJava.AbstractSyntaxTrees.ASTCounter;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.ContextualAnalysis.ScopedIdentification;
+import miniJava.ContextualAnalysis.TypeChecker;
+import miniJava.ErrorReporter;
+import miniJava.SyntacticAnalyzer.SourceBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScopedIdentification and TypeChecker over the corpus programs that pass them (the test corpus or a generated program). Both phases
+ * decorate the AST, so every invocation starts from freshly parsed (and identified) trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextualBenchmark {
+    @Param({"tests", "generated-10", "generated-100"})
+    public String corpus;
+
+    private List<byte[]> programs;
+    private List<Package> parsed;
+    private List<Package> identified;
+    private int nodes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long nodes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        programs = new ArrayList<>();
+        for (byte[] source : Corpus.load(corpus)) {
+            Package ast = Corpus.analyze(source, true);
+            if (ast == null)
+                continue;
+            programs.add(source);
+            nodes += ASTCounter.count(ast);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void freshTrees() {
+        parsed = new ArrayList<>();
+        identified = new ArrayList<>();
+        for (byte[] source : programs) {
+            parsed.add(Corpus.parse(SourceBuffer.fromBytes(source, source.length)));
+            identified.add(Corpus.analyze(source, false));
+        }
+    }
+
+    @Benchmark
+    public void identification(Counters counters, Blackhole bh) {
+        for (Package ast : parsed)
+            bh.consume(new ScopedIdentification(new ErrorReporter(), ast));
+        counters.nodes += nodes;
+    }
+
+    @Benchmark
+    public void typeCheck(Counters counters, Blackhole bh) {
+        for (Package ast : identified)
+            bh.consume(new TypeChecker(ast, new ErrorReporter()));
+        counters.nodes += nodes;
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.ContextualAnalysis.ScopedIdentification;
+import miniJava.ContextualAnalysis.TypeChecker;
+import miniJava.ErrorReporter;
+import miniJava.IdentificationError;
+import miniJava.ProgramGenerator;
+import miniJava.SyntacticAnalyzer.LexerImpl;
+import miniJava.SyntacticAnalyzer.ParserImpl;
+import miniJava.SyntacticAnalyzer.SourceBuffer;
+import miniJava.SyntacticAnalyzer.SyntaxError;
+import miniJava.SyntacticAnalyzer.TokenStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * miniJava programs the benchmarks run over, and helpers that run the front end so each benchmark
+ * can start from the input of the phase it measures. The "tests" corpus is every .java file under
+ * the directories listed in the miniJava.corpus property (paths relative to the repository root);
+ * "generated-N" is one ProgramGenerator program with N classes.
+ */
+final class Corpus {
+    private static final String DEFAULT_DIRS = "pa2_tests,pa3_tests,pa4_tests_partial";
+    private static final String GENERATED = "generated-";
+
+    private Corpus() {
+    }
+
+    static List<byte[]> load(String corpus) {
+        if (!corpus.startsWith(GENERATED))
+            return sources();
+        int classes = Integer.parseInt(corpus.substring(GENERATED.length()));
+        String program = new ProgramGenerator(520).classes(classes).methods(10).statements(12).depth(4)
+                .exprLength(6).calls(3).generate();
+        return Collections.singletonList(program.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static List<byte[]> sources() {
+        List<byte[]> sources = new ArrayList<>();
+        for (String dir : System.getProperty("miniJava.corpus", DEFAULT_DIRS).split(",")) {
+            try (Stream<Path> files = Files.walk(Paths.get(dir))) {
+                for (Path file : files.filter(p -> p.toString().endsWith(".java")).sorted().collect(Collectors.toList()))
+                    sources.add(Files.readAllBytes(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot read corpus directory " + dir, e);
+            }
+        }
+        return sources;
+    }
+
+    static TokenStream tokenize(SourceBuffer source) {
+        ErrorReporter reporter = new ErrorReporter();
+        TokenStream tokens = new LexerImpl(source, reporter).tokenize();
+        return reporter.hasErrors() ? null : tokens;
+    }
+
+    static Package parse(SourceBuffer source) {
+        ErrorReporter reporter = new ErrorReporter();
+        try {
+            Package ast = new ParserImpl(new LexerImpl(source, reporter).tokenize(), reporter).parse();
+            return reporter.hasErrors() ? null : ast;
+        } catch (SyntaxError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return AST that passed identification (and type checking if typeCheck), null otherwise
+     */
+    static Package analyze(byte[] source, boolean typeCheck) {
+        Package ast = parse(SourceBuffer.fromBytes(source, source.length));
+        if (ast == null)
+            return null;
+        ErrorReporter reporter = new ErrorReporter();
+        try {
+            new ScopedIdentification(reporter, ast);
+            if (typeCheck && !reporter.hasErrors())
+                new TypeChecker(ast, reporter);
+        } catch (IdentificationError | RuntimeException | StackOverflowError e) {
+            return null;
+        }
+        return reporter.hasErrors() ? null : ast;
+    }
+}
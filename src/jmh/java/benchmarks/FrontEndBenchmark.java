@@ -0,0 +1,93 @@
+package benchmarks;
+
+import miniJava.AbstractSyntaxTrees.ASTCounter;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.ErrorReporter;
+import miniJava.SyntacticAnalyzer.LexerImpl;
+import miniJava.SyntacticAnalyzer.ParserImpl;
+import miniJava.SyntacticAnalyzer.SourceBuffer;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenStream;
+import miniJava.SyntacticAnalyzer.TokenType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexer and parser throughput over the test corpus and over generated programs of growing size.
+ * The score is passes over the corpus per second; the aux counters report tokens/s and AST nodes/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"tests", "generated-10", "generated-100"})
+    public String corpus;
+
+    private List<SourceBuffer> sources;
+    private List<TokenStream> tokenStreams;
+    private int tokens;
+    private int nodes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class TokenCounter {
+        public long tokens;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class NodeCounter {
+        public long nodes;
+    }
+
+    @Setup
+    public void setup() {
+        sources = new ArrayList<>();
+        tokenStreams = new ArrayList<>();
+        for (byte[] source : Corpus.load(corpus)) {
+            SourceBuffer buffer = SourceBuffer.fromBytes(source, source.length);
+            Package ast = Corpus.parse(buffer);
+            if (ast == null)
+                continue;
+            sources.add(buffer);
+            TokenStream stream = Corpus.tokenize(buffer);
+            tokenStreams.add(stream);
+            tokens += stream.size();
+            nodes += ASTCounter.count(ast);
+        }
+    }
+
+    @Benchmark
+    public void scan(TokenCounter counters, Blackhole bh) {
+        for (SourceBuffer source : sources) {
+            LexerImpl lexer = new LexerImpl(source, new ErrorReporter());
+            Token token;
+            do {
+                token = lexer.scan();
+                bh.consume(token);
+            } while (token.getTokenType() != TokenType.EOT);
+        }
+        counters.tokens += tokens;
+    }
+
+    @Benchmark
+    public void tokenize(TokenCounter counters, Blackhole bh) {
+        for (SourceBuffer source : sources)
+            bh.consume(new LexerImpl(source, new ErrorReporter()).tokenize());
+        counters.tokens += tokens;
+    }
+
+    @Benchmark
+    public void parse(NodeCounter counters, Blackhole bh) {
+        for (TokenStream stream : tokenStreams)
+            bh.consume(new ParserImpl(stream, new ErrorReporter()).parse());
+        counters.nodes += nodes;
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.ErrorReporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an executable that allocates two million small objects in a loop and keeps one in a thousand,
+ * compiled without and with --gc. The aux counter reports its peak resident set size in KB, sampled
+ * from /proc while it runs: without a collector it grows with every object, with one it levels off
+ * at the live objects plus the threshold.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GcBenchmark {
+    private static final String PROGRAM = "class B { int x; B next; int[] data;"
+            + " public static void main(String[] args) { B live = null; int i = 0;"
+            + " while (i < 2000000) { B b = new B(); b.data = new int[4]; b.x = i;"
+            + " if (i / 1000 * 1000 == i) { b.next = live; live = b; } i = i + 1; }"
+            + " int n = 0; while (live != null) { n = n + 1; live = live.next; } System.out.println(n); } }";
+
+    @Param({"-O", "-O --gc"})
+    public String flags;
+
+    private Path elf;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long peakKB;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Package ast = Corpus.analyze(PROGRAM.getBytes(StandardCharsets.US_ASCII), true);
+        elf = Files.createTempFile("miniJava-gc", ".out");
+        ErrorReporter reporter = new ErrorReporter();
+        List<String> args = new ArrayList<>(Arrays.asList(flags.split(" ")));
+        new CodeGenerator(reporter, ast, elf.toString(), CodeGenOptions.parse(args));
+        if (reporter.hasErrors() || !elf.toFile().setExecutable(true))
+            throw new IllegalStateException("cannot build the allocation loop with " + flags);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(elf);
+    }
+
+    @Benchmark
+    public void allocationLoop(Counters counters) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(elf.toString()).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        Path status = Paths.get("/proc", Long.toString(process.pid()), "status");
+        long peak = 0;
+        while (process.isAlive()) {
+            peak = Math.max(peak, peakKB(status));
+            Thread.sleep(1);
+        }
+        counters.peakKB = peak;
+    }
+
+    // VmHWM of a running process, or 0 once it is gone
+    private static long peakKB(Path status) {
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        } catch (IOException e) {
+            // exited between isAlive and the read
+        }
+        return 0;
+    }
+}
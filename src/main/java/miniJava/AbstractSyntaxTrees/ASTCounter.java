@@ -0,0 +1,154 @@
+package miniJava.AbstractSyntaxTrees;
+
+/**
+ * Counts the nodes of an AST, visiting the same children ASTDisplay shows.
+ */
+public class ASTCounter implements Visitor<Object, Integer> {
+
+    public static int count(AST ast) {
+        return new ASTCounter().visitNode(ast);
+    }
+
+    private int countAll(Iterable<? extends AST> nodes) {
+        int n = 0;
+        for (AST node : nodes)
+            n += visitNode(node);
+        return n;
+    }
+
+    private int visitNode(AST node) {
+        return node == null ? 0 : node.visit(this, null);
+    }
+
+    public Integer visitPackage(Package prog, Object arg) {
+        return 1 + countAll(prog.classDeclList);
+    }
+
+    public Integer visitClassDecl(ClassDecl cd, Object arg) {
+        return 1 + countAll(cd.fieldDeclList) + countAll(cd.methodDeclList);
+    }
+
+    public Integer visitFieldDecl(FieldDecl fd, Object arg) {
+        return 1 + visitNode(fd.type);
+    }
+
+    public Integer visitMethodDecl(MethodDecl md, Object arg) {
+        return 1 + visitNode(md.type) + countAll(md.parameterDeclList) + countAll(md.statementList);
+    }
+
+    public Integer visitParameterDecl(ParameterDecl pd, Object arg) {
+        return 1 + visitNode(pd.type);
+    }
+
+    public Integer visitVarDecl(VarDecl decl, Object arg) {
+        return 1 + visitNode(decl.type);
+    }
+
+    public Integer visitBaseType(BaseType type, Object arg) {
+        return 1;
+    }
+
+    public Integer visitClassType(ClassType type, Object arg) {
+        return 1 + visitNode(type.className);
+    }
+
+    public Integer visitArrayType(ArrayType type, Object arg) {
+        return 1 + visitNode(type.eltType);
+    }
+
+    public Integer visitBlockStmt(BlockStmt stmt, Object arg) {
+        return 1 + countAll(stmt.sl);
+    }
+
+    public Integer visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        return 1 + visitNode(stmt.varDecl) + visitNode(stmt.initExp);
+    }
+
+    public Integer visitAssignStmt(AssignStmt stmt, Object arg) {
+        return 1 + visitNode(stmt.ref) + visitNode(stmt.val);
+    }
+
+    public Integer visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        return 1 + visitNode(stmt.ref) + visitNode(stmt.ix) + visitNode(stmt.exp);
+    }
+
+    public Integer visitCallStmt(CallStmt stmt, Object arg) {
+        return 1 + visitNode(stmt.methodRef) + countAll(stmt.argList);
+    }
+
+    public Integer visitReturnStmt(ReturnStmt stmt, Object arg) {
+        return 1 + visitNode(stmt.returnExpr);
+    }
+
+    public Integer visitIfStmt(IfStmt stmt, Object arg) {
+        return 1 + visitNode(stmt.cond) + visitNode(stmt.thenStmt) + visitNode(stmt.elseStmt);
+    }
+
+    public Integer visitWhileStmt(WhileStmt stmt, Object arg) {
+        return 1 + visitNode(stmt.cond) + visitNode(stmt.body);
+    }
+
+    public Integer visitUnaryExpr(UnaryExpr expr, Object arg) {
+        return 1 + visitNode(expr.operator) + visitNode(expr.expr);
+    }
+
+    public Integer visitBinaryExpr(BinaryExpr expr, Object arg) {
+        return 1 + visitNode(expr.operator) + visitNode(expr.left) + visitNode(expr.right);
+    }
+
+    public Integer visitRefExpr(RefExpr expr, Object arg) {
+        return 1 + visitNode(expr.ref);
+    }
+
+    public Integer visitIxExpr(IxExpr expr, Object arg) {
+        return 1 + visitNode(expr.ref) + visitNode(expr.ixExpr);
+    }
+
+    public Integer visitCallExpr(CallExpr expr, Object arg) {
+        return 1 + visitNode(expr.functionRef) + countAll(expr.argList);
+    }
+
+    public Integer visitLiteralExpr(LiteralExpr expr, Object arg) {
+        return 1 + visitNode(expr.lit);
+    }
+
+    public Integer visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+        return 1 + visitNode(expr.classtype);
+    }
+
+    public Integer visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        return 1 + visitNode(expr.eltType) + visitNode(expr.sizeExpr);
+    }
+
+    public Integer visitThisRef(ThisRef ref, Object arg) {
+        return 1;
+    }
+
+    public Integer visitIdRef(IdRef ref, Object arg) {
+        return 1 + visitNode(ref.id);
+    }
+
+    public Integer visitQRef(QualRef ref, Object arg) {
+        return 1 + visitNode(ref.id) + visitNode(ref.ref);
+    }
+
+    public Integer visitIdentifier(Identifier id, Object arg) {
+        return 1;
+    }
+
+    public Integer visitOperator(Operator op, Object arg) {
+        return 1;
+    }
+
+    public Integer visitIntLiteral(IntLiteral num, Object arg) {
+        return 1;
+    }
+
+    public Integer visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+        return 1;
+    }
+
+    public Integer visitNullLiteral(NullLiteral nil, Object arg) {
+        return 1;
+    }
+}
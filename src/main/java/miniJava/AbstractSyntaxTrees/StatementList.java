@@ -21,6 +21,10 @@ public class StatementList implements Iterable<Statement>
         return slist.get(i);
     }
     
+    public void set(int i, Statement s){
+        slist.set(i, s);
+    }
+    
     public int size() {
         return slist.size();
     }
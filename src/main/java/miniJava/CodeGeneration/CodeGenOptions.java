@@ -0,0 +1,114 @@
+package miniJava.CodeGeneration;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Code generation switches, set from the compiler command line.
+ */
+public class CodeGenOptions {
+    // keep locals, parameters and temporaries in registers instead of running the stack machine
+    public boolean registers;
+    // run Peephole over the finished code
+    public boolean peephole;
+    // shorten jumps to their rel8 form where the target is near, after Peephole
+    public boolean relax;
+    // run ConstantFolder over the AST before code generation
+    public boolean fold;
+    // lower every method to IR and select instructions from it, with registers allocated over the IR
+    public boolean ir;
+    // write the IR of every method next to the executable, as <executable>.ir
+    public boolean dumpIR;
+    // optimize the IR in SSA form: sparse conditional constant propagation, then dead code elimination
+    public boolean ssa;
+    // in SSA form, move loop-invariant code to preheaders, strength-reduce induction variable products,
+    // and turn multiplications and divisions by powers of two into shifts
+    public boolean loops;
+    // replace calls to small methods by their IR, before SSA
+    public boolean inline;
+    // compile return f(...) inside f as a jump back to the top of f, in the stack machine and the IR
+    public boolean tailCalls;
+    // write what the inliner decided at every call site next to the executable, as <executable>.inline
+    public boolean inlineReport;
+    // have the executable print the number of objects and bytes it allocated to stderr as it exits
+    public boolean allocStats;
+    // put a header on every object and collect garbage with a mark-sweep collector once gcThreshold
+    // bytes have been allocated since the last collection
+    public boolean gc;
+    public int gcThreshold = 4 << 20;
+    // collect what println writes in a buffer, written out when it fills and as the program exits;
+    // what is still in it when the program crashes is lost
+    public boolean bufferOutput;
+    // have println write the int in decimal and a newline, as Java does, instead of its low byte
+    public boolean decimalPrintln;
+
+    /**
+     * remove the code generation flags from args
+     * -O turns on --ir, --ssa, --loops, --inline, --tailcalls, --peephole, --relax, --fold and --buffer-output; each flag alone turns on just
+     * the one, --ssa, --inline and --dump-ir imply --ir, --loops implies --ssa, --inline-report implies --inline.
+     * --regalloc allocates registers straight from the AST and is ignored under --ir; it keeps tail calls as calls.
+     * --alloc-stats is not part of -O, it changes what the executable prints; neither is --gc, or --gc=<bytes>
+     * to set the threshold, nor --decimal-println
+     */
+    public static CodeGenOptions parse(List<String> args) {
+        CodeGenOptions options = new CodeGenOptions();
+        for (Iterator<String> it = args.iterator(); it.hasNext(); ) {
+            String arg = it.next();
+            if (arg.equals("-O")) {
+                options.ir = true;
+                options.ssa = true;
+                options.loops = true;
+                options.inline = true;
+                options.tailCalls = true;
+                options.peephole = true;
+                options.relax = true;
+                options.fold = true;
+                options.bufferOutput = true;
+            } else if (arg.equals("--regalloc"))
+                options.registers = true;
+            else if (arg.equals("--peephole"))
+                options.peephole = true;
+            else if (arg.equals("--relax"))
+                options.relax = true;
+            else if (arg.equals("--tailcalls"))
+                options.tailCalls = true;
+            else if (arg.equals("--fold"))
+                options.fold = true;
+            else if (arg.equals("--ir"))
+                options.ir = true;
+            else if (arg.equals("--ssa")) {
+                options.ir = true;
+                options.ssa = true;
+            } else if (arg.equals("--loops")) {
+                options.ir = true;
+                options.ssa = true;
+                options.loops = true;
+            } else if (arg.equals("--inline")) {
+                options.ir = true;
+                options.inline = true;
+            } else if (arg.equals("--inline-report")) {
+                options.ir = true;
+                options.inline = true;
+                options.inlineReport = true;
+            } else if (arg.equals("--alloc-stats"))
+                options.allocStats = true;
+            else if (arg.equals("--buffer-output"))
+                options.bufferOutput = true;
+            else if (arg.equals("--decimal-println"))
+                options.decimalPrintln = true;
+            else if (arg.equals("--gc"))
+                options.gc = true;
+            else if (arg.matches("--gc=[0-9]{1,9}")) {
+                options.gc = true;
+                options.gcThreshold = Integer.parseInt(arg.substring("--gc=".length()));
+            } else if (arg.equals("--dump-ir")) {
+                options.ir = true;
+                options.dumpIR = true;
+            }
+            else
+                continue;
+            it.remove();
+        }
+        return options;
+    }
+}
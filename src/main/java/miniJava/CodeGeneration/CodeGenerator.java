@@ -5,22 +5,81 @@ import miniJava.AbstractSyntaxTrees.*;
 import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.CodeGeneration.x64.*;
 import miniJava.CodeGeneration.x64.ISA.*;
+import miniJava.IR.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CodeGenerator implements Visitor<Object, Object> {
     private ErrorReporter _errors;
     private InstructionList _asm; // our list of instructions that are used to make the code section
-    private int bssOffset;
+    private CodeGenOptions _options;
+    // .bss slots of the runtime: the allocator's next free byte and the end of its chunk, then what
+    // --alloc-stats counts, then the state of the --gc collector, see GarbageCollector, and the bytes in
+    // the output buffer; static fields follow, then the output buffer
+    static final int HEAP_NEXT = 0, HEAP_END = 8, ALLOC_COUNT = 16, ALLOC_BYTES = 24;
+    static final int GC_BASE = 32, GC_TOP = 40, GC_FREE = 48, GC_SINCE = 56, GC_STACK = 64, GC_BITMAP = 72,
+            GC_MARKS = 80, GC_COUNT = 88;
+    static final int OUTPUT_LENGTH = 96;
+    static final int RUNTIME_BSS = 104;
+    static final int OUTPUT_BUFFER = 4096;
+    // bytes the allocator maps at a time
+    static final int HEAP_CHUNK = 1 << 20;
+    // what the header word in front of an object says besides its size, under --gc: whether the
+    // collector looks for references in it, and its mark
+    public static final int HEADER_OBJECT = 0, HEADER_REFS = 2, HEADER_INTS = 4, HEADER_MARK = 1;
+    private int bssOffset = RUNTIME_BSS;
     private boolean hasMainMethod;
     private int mainMethodAddr;
+    private MethodDecl _mainMethod;
+    private String _outputName;
+    // jumps out of main, patched once the exit sequence is placed
+    private List<Instruction> _exitJumps = new ArrayList<>();
+    // calls of the allocator, patched once it is placed after the exit sequence
+    private List<Instruction> _allocCalls = new ArrayList<>();
+    // calls of the printer and of its flush, patched once they are placed after the allocator
+    private List<Instruction> _printCalls = new ArrayList<>();
+    private List<Instruction> _flushCalls = new ArrayList<>();
+    // number of local variable slots handed out in the method being generated
+    private int _localSlots;
+    // first instruction after the prologue of the method being generated, where tail calls jump
+    private int _bodyAddr;
+    // calls of a void method to itself after which it returns
+    private final Set<CallStmt> _tailCallStmts = new HashSet<>();
+    private int _peepholeRemovedBytes;
+    // the IR of every method, in code order, when options.ir is set
+    private List<IRFunction> _ir = new ArrayList<>();
+    private PassStats _passStats = new PassStats();
+    // every method lowered up front so calls can be inlined, when options.inline is set
+    private Map<MethodDecl, IRFunction> _lowered;
+    private List<String> _inlineReport = new ArrayList<>();
 
     public CodeGenerator(ErrorReporter errors, AST ast) {
+        this(errors, ast, "a.out");
+    }
+
+    /**
+     * @param outputName path of the ELF executable to write, or null to only generate code
+     */
+    public CodeGenerator(ErrorReporter errors, AST ast, String outputName) {
+        this(errors, ast, outputName, new CodeGenOptions());
+    }
+
+    public CodeGenerator(ErrorReporter errors, AST ast, String outputName, CodeGenOptions options) {
         this._errors = errors;
+        this._outputName = outputName;
+        this._options = options;
         hasMainMethod = false;
         parse((Package) ast);
     }
 
     public void parse(Package prog) {
-        _asm = new InstructionList();
+        // the peephole and relaxation passes read the instructions back
+        _asm = new InstructionList(_options.peephole || _options.relax);
         // If you haven't refactored the name "R" to something like "R",
         //  go ahead and do that now. You'll be needing that object a lot.
         // Here is some example code.
@@ -64,62 +123,134 @@ public class CodeGenerator implements Visitor<Object, Object> {
         //  Note the false means that it is a 32-bit immediate for jumping (an int)
 //             _asm.patch( someJump.listIdx, new Jmp(asm.size(), someJump.startAddress, false) );
         prog.visit(this, null);
-//        _asm.add( new Push(90));
-//        makePrintln();
+        int exitAddr = _asm.getSize();
         makeExit();
+        _exitJumps.forEach(jump -> _asm.patch(jump.listIdx, new Jmp(jump.startAddress, exitAddr, false)));
+        if (!_allocCalls.isEmpty()) {
+            int allocAddr = _asm.getSize();
+            if (_options.gc)
+                new GarbageCollector(this, _asm, _options).make(bssOffset);
+            else
+                makeAllocator();
+            _allocCalls.forEach(call -> _asm.patch(call.listIdx, new Call(call.startAddress, allocAddr)));
+            if (_options.gc) {
+                // the collector scans the stack up to where it was on entry
+                int entryAddr = _asm.getSize();
+                _asm.add(new Mov_rmr(R.rip(GC_STACK, Reg64.RSP)));
+                _asm.add(new Jmp(_asm.getSize(), mainMethodAddr, false));
+                mainMethodAddr = entryAddr;
+            }
+        }
+        if (!_printCalls.isEmpty())
+            makePrinter();
+        if (_options.peephole && !_errors.hasErrors()) {
+            Peephole peephole = new Peephole(_asm, mainMethodAddr);
+            _asm = peephole.run();
+            mainMethodAddr = peephole.mapAddress(mainMethodAddr);
+            _peepholeRemovedBytes = peephole.getRemovedBytes();
+        }
+        if (_options.relax && !_errors.hasErrors()) {
+            _passStats.add("relax.branches", _asm.relax());
+            mainMethodAddr = _asm.mapAddress(mainMethodAddr);
+        }
         if (!this.hasMainMethod)
             reportCodeGenError("main method not found for this program");
 
-        // Output the file "a.out" if no errors
-        if (!_errors.hasErrors())
-            makeElf("a.out");
+        // Output the executable if no errors
+        if (!_errors.hasErrors() && _outputName != null)
+            makeElf(_outputName);
+    }
+
+    public InstructionList getInstructions() {
+        return _asm;
+    }
+
+    public int getInstructionCount() {
+        return _asm.size();
+    }
+
+    public int getMainMethodAddr() {
+        return mainMethodAddr;
     }
 
-    private void reportCodeGenError(String msg) {
+    public List<IRFunction> getIR() {
+        return _ir;
+    }
+
+    /**
+     * @return what the IR passes removed, summed over every method
+     */
+    public PassStats getPassStats() {
+        return _passStats;
+    }
+
+    /**
+     * @return one line for every call site the inliner considered, empty when it did not run
+     */
+    public List<String> getInlineReport() {
+        return _inlineReport;
+    }
+
+    /**
+     * @return bytes of code the peephole pass removed, 0 when it did not run
+     */
+    public int getPeepholeRemovedBytes() {
+        return _peepholeRemovedBytes;
+    }
+
+    void reportCodeGenError(String msg) {
         _errors.reportError("Code Generation Error: " + msg);
     }
 
     @Override
     public Object visitPackage(Package prog, Object arg) {
-        // TODO: visit relevant parts of our AST
+        // lay out every class before generating any method, methods use fields of classes declared later
+        prog.classDeclList.forEach(cd -> {
+            cd.runtimeEntity = ObjectLayout.layOut(cd);
+            cd.fieldDeclList.forEach(fd -> fd.visit(this, null));
+            cd.methodDeclList.forEach(md -> {
+                md.runtimeEntity = null;
+                md.patchList.clear();
+            });
+        });
+        if (_options.inline)
+            lowerAndInline(prog);
         prog.classDeclList.forEach(cd -> cd.visit(this, null));
         return null;
     }
 
+    private void lowerAndInline(Package prog) {
+        _lowered = new HashMap<>();
+        List<IRFunction> functions = new ArrayList<>();
+        for (ClassDecl cd : prog.classDeclList) {
+            for (MethodDecl md : cd.methodDeclList) {
+                IRFunction fn = lower(md);
+                _lowered.put(md, fn);
+                functions.add(fn);
+            }
+        }
+        Inliner inliner = new Inliner(functions);
+        inliner.run(_passStats);
+        _inlineReport = inliner.getReport();
+    }
+
     @Override
     public Object visitClassDecl(ClassDecl cd, Object arg) {
-        RuntimeEntity classRT = new RuntimeEntity();
-        cd.fieldDeclList.forEach(fd -> fd.visit(this, classRT));
-        cd.methodDeclList.forEach(md -> md.visit(this, classRT));
+        cd.methodDeclList.forEach(md -> md.visit(this, cd.runtimeEntity));
         return null;
     }
 
     @Override
     public Object visitFieldDecl(FieldDecl fd, Object arg) {
-        // TODO
-        RuntimeEntity objRT = (RuntimeEntity) arg;
+        // instance fields were placed by ObjectLayout with their class
+        if (!fd.isStatic)
+            return null;
+        // static fields live in .bss, zero like Java's defaults, and are reached rip-relative
         RuntimeEntity fieldRT = new RuntimeEntity();
-        TypeKind fdType = (TypeKind) fd.type.visit(this, null);
-        switch (fdType) {
-            case INT:
-                fieldRT.size = 4;
-                break;
-            case BOOLEAN:
-                fieldRT.size = 1;
-                break;
-            default:
-                fieldRT.size = 8;
-                break;
-        }
-        if (fd.isStatic) {
-            // store at beginning of stack
-            fieldRT.offset = this.bssOffset;
-            this.bssOffset += fieldRT.size;
-            _asm.add(new Push(0));
-        } else {
-            fieldRT.offset = fieldRT.size + objRT.size;
-            objRT.size += fieldRT.size;
-        }
+        // a full 8-byte slot, which the collector scans for references
+        fieldRT.size = 8;
+        fieldRT.offset = this.bssOffset;
+        this.bssOffset += fieldRT.size;
         fd.runtimeEntity = fieldRT;
         return null;
     }
@@ -127,81 +258,139 @@ public class CodeGenerator implements Visitor<Object, Object> {
     @Override
     public Object visitMethodDecl(MethodDecl md, Object arg) {
         checkMainMethod(md);
-        // TODO: manage methodRT
-        RuntimeEntity classRT = (RuntimeEntity) arg;
         // base is first instruction of method
         int methodStartAddr = _asm.getSize();
         RuntimeEntity methodRT = new RuntimeEntity();
         methodRT.offset = methodStartAddr;
         md.runtimeEntity = methodRT;
-        // TODO: patching method jump location
-        md.patchList.forEach(patch -> {
-            _asm.patch(patch.listIdx, new Jmp(methodStartAddr));
-        });
-        // allocate space for local variables
+        // calls made before this method was placed
+        md.patchList.forEach(call -> _asm.patch(call.listIdx, new Call(call.startAddress, methodStartAddr)));
+        md.patchList.clear();
+        if (_options.ir) {
+            IRFunction fn = _lowered != null ? _lowered.get(md) : lower(md);
+            if (_options.ssa) {
+                SSA.construct(fn, _passStats);
+                new ConstantPropagation(fn).run(_passStats);
+                if (_options.loops)
+                    new LoopOptimizer(fn).run(_passStats);
+                new DeadCodeElimination(fn).run(_passStats);
+                if (_options.loops)
+                    _passStats.add("sr.shifts", StrengthReduction.run(fn));
+                SSA.destruct(fn);
+                _passStats.add("cfg.blocks", fn.simplifyBlocks());
+            }
+            _ir.add(fn);
+            new InstructionSelector(this, _asm, fn).generate();
+            return null;
+        }
+        if (_options.registers) {
+            new RegisterCodeGenerator(this, _asm, md).generate();
+            return null;
+        }
         // method prologue
         // save caller rbp
         _asm.add(new Push(Reg64.RBP));
         // set rsp to rbp
         _asm.add(new Mov_rmr(new R(Reg64.RBP, Reg64.RSP)));
-        md.parameterDeclList.forEach(pd -> pd.visit(this, methodRT));
-        md.statementList.forEach(stmt -> stmt.visit(this, methodRT));
-        // return to caller
-        // clean up stack space
-        _asm.add(new Mov_rmr(new R(Reg64.RSP, Reg64.RBP)));
-        // return rbp to caller
-        _asm.add(new Pop(Reg64.RBP));
-        if (!md.name.equals("main")) {
-            _asm.add(new Ret());
-        }
+        for (int i = 0; i < md.parameterDeclList.size(); i++)
+            md.parameterDeclList.get(i).visit(this, paramOffset(md, i));
+        // allocate space for local variables
+        _localSlots = 0;
+        int locals = 0;
+        for (Statement stmt : md.statementList)
+            locals += countLocals(stmt);
+        if (locals > 0)
+            _asm.add(new Sub(new R(Reg64.RSP, true), 8 * locals));
+        _bodyAddr = _asm.getSize();
+        _tailCallStmts.clear();
+        if (_options.tailCalls && md.type.typeKind == TypeKind.VOID && md != _mainMethod)
+            findTailCalls(md.statementList, md);
+        md.statementList.forEach(stmt -> stmt.visit(this, md));
+        // void methods may end without a return
+        makeReturn(md);
         return null;
     }
 
+    // the calls of md to itself in sl that are followed by the end of md or a return
+    private void findTailCalls(StatementList sl, MethodDecl md) {
+        for (int i = 0; i < sl.size(); i++) {
+            Statement next = i + 1 < sl.size() ? sl.get(i + 1) : null;
+            if (next == null || next instanceof ReturnStmt)
+                findTailCalls(sl.get(i), md);
+        }
+    }
+
+    private void findTailCalls(Statement stmt, MethodDecl md) {
+        if (stmt instanceof CallStmt && ((CallStmt) stmt).methodRef.decl == md)
+            _tailCallStmts.add((CallStmt) stmt);
+        else if (stmt instanceof BlockStmt)
+            findTailCalls(((BlockStmt) stmt).sl, md);
+        else if (stmt instanceof IfStmt) {
+            findTailCalls(((IfStmt) stmt).thenStmt, md);
+            if (((IfStmt) stmt).elseStmt != null)
+                findTailCalls(((IfStmt) stmt).elseStmt, md);
+        }
+    }
+
+    private IRFunction lower(MethodDecl md) {
+        IRFunction fn = new Lowering(_errors).lower(md);
+        if (_options.tailCalls)
+            _passStats.add("tailcall.calls", TailCalls.run(fn));
+        return fn;
+    }
+
     private void checkMainMethod(MethodDecl md) {
-        if (md.name.equals("main") && md.isStatic && md.parameterDeclList.size() == 1) {
-            ParameterDecl mainParam = md.parameterDeclList.get(0);
-            if (mainParam.name.equals("args") && mainParam.type.typeKind == TypeKind.ARRAY) {
-                this.mainMethodAddr = _asm.getSize();
-                this.hasMainMethod = true;
-            }
+        if (isEntryPoint(md)) {
+            this.mainMethodAddr = _asm.getSize();
+            this.hasMainMethod = true;
+            this._mainMethod = md;
         }
     }
 
+    /**
+     * whether md has the signature of main, whose return ends the program
+     */
+    public static boolean isEntryPoint(MethodDecl md) {
+        if (!md.name.equals("main") || !md.isStatic || md.parameterDeclList.size() != 1)
+            return false;
+        ParameterDecl mainParam = md.parameterDeclList.get(0);
+        return mainParam.name.equals("args") && mainParam.type.typeKind == TypeKind.ARRAY;
+    }
+
+    private static int countLocals(Statement stmt) {
+        if (stmt instanceof VarDeclStmt)
+            return 1;
+        if (stmt instanceof BlockStmt) {
+            int n = 0;
+            for (Statement s : ((BlockStmt) stmt).sl)
+                n += countLocals(s);
+            return n;
+        }
+        if (stmt instanceof IfStmt) {
+            IfStmt ifStmt = (IfStmt) stmt;
+            return countLocals(ifStmt.thenStmt) + (ifStmt.elseStmt != null ? countLocals(ifStmt.elseStmt) : 0);
+        }
+        if (stmt instanceof WhileStmt)
+            return countLocals(((WhileStmt) stmt).body);
+        return 0;
+    }
+
     @Override
     public Object visitParameterDecl(ParameterDecl pd, Object arg) {
-        RuntimeEntity methodRT = (RuntimeEntity) arg;
         RuntimeEntity paramRT = new RuntimeEntity();
         paramRT.size = 8;
-        paramRT.offset = paramRT.getSize() + methodRT.getSize();
-        methodRT.size += paramRT.size;
+        paramRT.offset = (int) arg;
         pd.runtimeEntity = paramRT;
         return null;
     }
 
     @Override
     public Object visitVarDecl(VarDecl decl, Object arg) {
-        RuntimeEntity methodRT = (RuntimeEntity) arg;
-        // handle class Object case
-        // base should be rbp of originating method
+        // slots below rbp were reserved in the prologue
         RuntimeEntity varRT = new RuntimeEntity();
-        TypeKind varType = (TypeKind) decl.type.visit(this, null);
-        switch (varType) {
-            case INT:
-                varRT.size = 4;
-                break;
-            case BOOLEAN:
-                varRT.size = 1;
-                break;
-            default:
-                varRT.size = 8;
-                break;
-        }
-
-        varRT.offset = -varRT.size - methodRT.size;
-        methodRT.size += varRT.size;
+        varRT.size = 8;
+        varRT.offset = -8 * ++_localSlots;
         decl.runtimeEntity = varRT;
-        // push space on stack
-        _asm.add(new Push(0));
         return null;
     }
 
@@ -229,7 +418,7 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
     @Override
     public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
-        // push space on stack and inits runtimeEntity
+        // inits runtimeEntity
         stmt.varDecl.visit(this, arg);
         // push val
         stmt.initExp.visit(this, arg);
@@ -242,148 +431,217 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
     @Override
     public Object visitAssignStmt(AssignStmt stmt, Object arg) {
-        stmt.ref.visit(this, null);
-        // push val
-        stmt.val.visit(this, null);
-        // pop val; rax := val
+        Declaration decl = stmt.ref.decl;
+        if (isStaticField(decl)) {
+            stmt.val.visit(this, arg);
+            _asm.add(new Pop(Reg64.RAX));
+            _asm.add(new Mov_rmr(R.rip(decl.runtimeEntity.offset, Reg64.RAX)));
+            return null;
+        }
+        if (decl instanceof LocalDecl) {
+            // push val
+            stmt.val.visit(this, arg);
+            // pop val; rax := val
+            _asm.add(new Pop(Reg64.RAX));
+            // mov [rbp - offset], rax; stores val in ref
+            _asm.add(new Mov_rmr(new R(Reg64.RBP, decl.runtimeEntity.offset, Reg64.RAX)));
+            return null;
+        }
+        // instance field: push object, push val
+        if (stmt.ref instanceof QualRef)
+            ((QualRef) stmt.ref).ref.visit(this, arg);
+        else
+            _asm.add(new Push(new R(Reg64.RBP, thisOffset((MethodDecl) arg))));
+        stmt.val.visit(this, arg);
+        _asm.add(new Pop(Reg64.RCX));
         _asm.add(new Pop(Reg64.RAX));
-        // mov [rbp - offset], rax; stores val in ref
-        _asm.add(new Mov_rmr(new R(Reg64.RBP, stmt.ref.decl.runtimeEntity.offset, Reg64.RAX)));
+        // mov [rax + offset], rcx
+        _asm.add(ObjectLayout.store(new R(Reg64.RAX, decl.runtimeEntity.offset, Reg64.RCX), decl.runtimeEntity.size));
         return null;
     }
 
     @Override
     public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
         // arr[index] = val;
-        // push refAddr
-        stmt.ref.visit(this, null);
-        int offset = stmt.ref.decl.runtimeEntity.offset;
+        // push array
+        stmt.ref.visit(this, arg);
         // push ix
-        stmt.ix.visit(this, null);
+        stmt.ix.visit(this, arg);
         // push val
-        stmt.exp.visit(this, null);
+        stmt.exp.visit(this, arg);
         // pop rdx; rdx = val
         _asm.add(new Pop(Reg64.RDX));
         // pop rcx; rcx = ix
         _asm.add(new Pop(Reg64.RCX));
-        // rax := rbp - offset (address of arr)
-        _asm.add(new Mov_rrm(new R(Reg64.RBP, offset, Reg64.RAX)));
-        _asm.add(new Mov_rmr(new R(Reg64.RAX, Reg64.RCX, 4, 0, Reg64.RDX)));
+        // pop rax; rax = array
+        _asm.add(new Pop(Reg64.RAX));
+        // elements follow the length
+        _asm.add(new Mov_rmr(new R(Reg64.RAX, Reg64.RCX, 8, 8, Reg64.RDX)));
         return null;
     }
 
     @Override
     public Object visitCallStmt(CallStmt stmt, Object arg) {
-        for (int i = stmt.argList.size() - 1; i > -1; i--) {
-            // push value of argument onto stack in reverse order
-            Expression a = stmt.argList.get(i);
-            a.visit(this, null);
-        }
-        if (stmt.methodRef.decl.name.equals("println")) {
-            makePrintln();
-        }
-        // if method has not been visited yet, patch
-        else if (stmt.methodRef.decl.runtimeEntity == null) {
-            ((MethodDecl)stmt.methodRef.decl).patchList.add(new Call(0));
-        } else {
-            // call method
-            _asm.add(new Call(stmt.methodRef.decl.runtimeEntity.offset) );
+        if (_tailCallStmts.contains(stmt)) {
+            makeTailCall(stmt.methodRef, stmt.argList, (MethodDecl) arg);
+            return null;
         }
+        makeCall(stmt.methodRef, stmt.argList, (MethodDecl) arg);
         return null;
     }
 
     @Override
     public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
-        // push val
-        stmt.returnExpr.visit(this, null);
-        // pop rax
-        _asm.add(new Pop(Reg64.RAX));
-        // return
-        _asm.add(new Ret());
+        MethodDecl md = (MethodDecl) arg;
+        if (_options.tailCalls && isTailCall(stmt.returnExpr, md)) {
+            CallExpr call = (CallExpr) stmt.returnExpr;
+            makeTailCall(call.functionRef, call.argList, md);
+            return null;
+        }
+        if (stmt.returnExpr != null) {
+            // push val
+            stmt.returnExpr.visit(this, arg);
+            // pop rax
+            _asm.add(new Pop(Reg64.RAX));
+        }
+        makeReturn((MethodDecl) arg);
         return null;
     }
 
     @Override
     public Object visitIfStmt(IfStmt stmt, Object arg) {
-        // evaluate condition and push result
-        stmt.cond.visit(this, null);
-        // pop rax
-        _asm.add(new Pop(Reg64.RAX));
-        // cmp rax, 0
-        _asm.add(new Cmp(new R(Reg64.RAX, 0)));
-        // jz else
-        Jmp elseJump = new Jmp(0, 0, false);
-        _asm.add(elseJump);
+        // jump to else when the condition is false
+        List<Jump> elseJumps = makeBranch(stmt.cond, false, (MethodDecl) arg);
         // visit then
-        stmt.thenStmt.visit(this, null);
-        // patch else jump
-        _asm.patch(elseJump.listIdx, new Jmp(_asm.getSize(), elseJump.startAddress, false));
-        // visit else
-        if (stmt.elseStmt != null) {
-            stmt.elseStmt.visit(this, null);
+        stmt.thenStmt.visit(this, arg);
+        if (stmt.elseStmt == null) {
+            patch(elseJumps, _asm.getSize());
+            return null;
         }
+        // jmp end
+        Jump endJump = makeJump(null);
+        // patch else jumps, visit else
+        patch(elseJumps, _asm.getSize());
+        stmt.elseStmt.visit(this, arg);
+        patch(List.of(endJump), _asm.getSize());
         return null;
     }
 
     @Override
     public Object visitWhileStmt(WhileStmt stmt, Object arg) {
-        // push condition
+        // jump to end when the condition is false
         int startAddr = _asm.getSize();
-        stmt.cond.visit(this, null);
-        // pop rax
-        _asm.add( new Pop(Reg64.RAX) );
-        // cmp rax, 0
-        _asm.add( new Cmp(new R(Reg64.RAX, 0)) );
-        // jz end
-        Jmp endJump = new Jmp(0, 0, false);
-        _asm.add( endJump );
+        List<Jump> endJumps = makeBranch(stmt.cond, false, (MethodDecl) arg);
         // visit body
-        stmt.body.visit(this, null);
-        // patch end jump
-        _asm.patch( endJump.listIdx, new Jmp(_asm.getSize(), endJump.startAddress, false) );
+        stmt.body.visit(this, arg);
         // jmp start
-        _asm.add( new Jmp(startAddr) );
-
+        _asm.add( new Jmp(_asm.getSize(), startAddr, false) );
+        // patch end jumps
+        patch(endJumps, _asm.getSize());
         return null;
     }
 
+    /**
+     * compile cond into control flow without pushing its value: jump when it evaluates to when,
+     * fall through otherwise. && and || skip their right operand as in Java, relations compare and jump.
+     * @return the jumps to patch with the target
+     */
+    private List<Jump> makeBranch(Expression cond, boolean when, MethodDecl md) {
+        List<Jump> jumps = new ArrayList<>();
+        if (cond instanceof UnaryExpr && ((UnaryExpr) cond).operator.spelling.equals("!"))
+            return makeBranch(((UnaryExpr) cond).expr, !when, md);
+        if (cond instanceof LiteralExpr && ((LiteralExpr) cond).lit instanceof BooleanLiteral) {
+            // decided at compile time
+            if (((LiteralExpr) cond).lit.spelling.equals("true") == when)
+                jumps.add(makeJump(null));
+            return jumps;
+        }
+        if (cond instanceof BinaryExpr) {
+            BinaryExpr expr = (BinaryExpr) cond;
+            String op = expr.operator.spelling;
+            if (op.equals("&&") || op.equals("||")) {
+                // the left operand alone decides when it is false for &&, true for ||
+                boolean decides = op.equals("||");
+                if (when == decides) {
+                    jumps.addAll(makeBranch(expr.left, when, md));
+                    jumps.addAll(makeBranch(expr.right, when, md));
+                } else {
+                    List<Jump> skip = makeBranch(expr.left, decides, md);
+                    jumps.addAll(makeBranch(expr.right, when, md));
+                    patch(skip, _asm.getSize());
+                }
+                return jumps;
+            }
+            Condition relation = relation(op);
+            if (relation != null) {
+                expr.left.visit(this, md);
+                expr.right.visit(this, md);
+                _asm.add(new Pop(Reg64.RCX));
+                _asm.add(new Pop(Reg64.RAX));
+                _asm.add(new Cmp(new R(Reg64.RAX, Reg64.RCX)));
+                jumps.add(makeJump(when ? relation : relation.negate()));
+                return jumps;
+            }
+        }
+        cond.visit(this, md);
+        _asm.add(new Pop(Reg64.RAX));
+        _asm.add(new Cmp(new R(Reg64.RAX, true), 0));
+        jumps.add(makeJump(when ? Condition.NE : Condition.E));
+        return jumps;
+    }
+
     @Override
     public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
         // -int
         // !boolean
         // push val
-        expr.expr.visit(this, null);
-        // value of expression stored at rsp
+        expr.expr.visit(this, arg);
+        // pop rax
+        _asm.add(new Pop(Reg64.RAX));
         if (expr.operator.spelling.equals("-")) {
-            // pop rax
-            _asm.add(new Pop(Reg64.RAX));
             // neg rax
-            _asm.add(new Neg(new R(Reg64.RAX, false)));
-            // push rax
-            _asm.add(new Push(Reg64.RAX));
+            _asm.add(new Neg(new R(Reg64.RAX, true)));
         } else {
-            // pop rax
-            _asm.add(new Pop(Reg64.RAX));
-            // not rax
-            _asm.add(new Not(new R(Reg64.RAX, false)));
-            // push rax
-            _asm.add(new Push(Reg64.RAX));
+            // booleans are 0 or 1: xor rax, 1
+            _asm.add(new Xor(new R(Reg64.RAX, true), 1));
         }
+        // push rax
+        _asm.add(new Push(Reg64.RAX));
         return null;
     }
 
     @Override
     public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        String op = expr.operator.spelling;
+        if (op.equals("&&") || op.equals("||")) {
+            // push 1 or 0, evaluating the right operand only when the left does not decide
+            List<Jump> falseJumps = makeBranch(expr, false, (MethodDecl) arg);
+            _asm.add(new Push(1));
+            Jump endJump = makeJump(null);
+            patch(falseJumps, _asm.getSize());
+            _asm.add(new Push(0));
+            patch(List.of(endJump), _asm.getSize());
+            return null;
+        }
         // push val
-        expr.left.visit(this, null);
+        expr.left.visit(this, arg);
         // push val
-        expr.right.visit(this, null);
+        expr.right.visit(this, arg);
         // pop right
         _asm.add(new Pop(Reg64.RCX));
         // pop left
         _asm.add(new Pop(Reg64.RAX));
         R rightLeftVal = new R(Reg64.RAX, Reg64.RCX);
-        switch (expr.operator.spelling) {
+        Condition relation = relation(op);
+        if (relation != null) {
+            // cmp rax, rcx; rax := flags satisfy relation
+            _asm.add(new Cmp(rightLeftVal));
+            _asm.add(new Setcc(relation, Reg64.RAX));
+            _asm.add(new Movzx(Reg64.RAX, Reg64.RAX));
+            _asm.add(new Push(Reg64.RAX));
+            return null;
+        }
+        switch (op) {
             case "+":
                 _asm.add(new Add(rightLeftVal));
                 break;
@@ -391,21 +649,13 @@ public class CodeGenerator implements Visitor<Object, Object> {
                 _asm.add(new Sub(rightLeftVal));
                 break;
             case "*":
-                _asm.add(new Imul(new R(Reg64.RCX, true)));
+                _asm.add(new Imul(Reg64.RAX, new R(Reg64.RCX, true)));
                 break;
             case "/":
-                _asm.add(new Xor(new R(Reg64.RDX, Reg64.RDX)));
+                // sign extend rax into rdx
+                _asm.add(new Cqo());
                 _asm.add(new Idiv(new R(Reg64.RCX, true)));
                 break;
-            case "&&":
-                _asm.add(new Add(rightLeftVal));
-                break;
-            case "||":
-                _asm.add(new Or(rightLeftVal));
-                break;
-            case "==":
-                _asm.add(new Cmp(rightLeftVal));
-                break;
         }
         _asm.add(new Push(Reg64.RAX));
         return null;
@@ -413,45 +663,32 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
     @Override
     public Object visitRefExpr(RefExpr expr, Object arg) {
-        RuntimeEntity refRT = (RuntimeEntity) expr.ref.visit(this, null);
         // push ref value
-        _asm.add( new Push(new R(Reg64.RBP, expr.ref.decl.runtimeEntity.offset)) );
+        expr.ref.visit(this, arg);
         return null;
     }
 
     @Override
     public Object visitIxExpr(IxExpr expr, Object arg) {
         // ref[ix]
-        // push refAddr
-        expr.ref.visit(this, null);
+        // push array
+        expr.ref.visit(this, arg);
         // push ix
-        expr.ixExpr.visit(this, null);
+        expr.ixExpr.visit(this, arg);
         // pop ix
         _asm.add(new Pop(Reg64.RCX));
-        // pop refAddr
+        // pop array
         _asm.add(new Pop(Reg64.RAX));
-        expr.ref.visit(this, null);
+        // push [rax + rcx*8 + 8]
+        _asm.add(new Push(new R(Reg64.RAX, Reg64.RCX, 8, 8)));
         return null;
     }
 
     @Override
     public Object visitCallExpr(CallExpr expr, Object arg) {
-        // patch if method has not been visited yet
-        // push all arguments in reverse order
-        for (int i = expr.argList.size() - 1; i > -1; i--) {
-            Expression param = expr.argList.get(i);
-            param.visit(this, null);
-        }
-        if (expr.functionRef.decl.runtimeEntity == null) {
-            ((MethodDecl)expr.functionRef.decl).patchList.add(new Call(0));
-        } else {
-            // call method
-            _asm.add(new Call(expr.functionRef.decl.runtimeEntity.offset));
-        }
-        for (int i = 0; i < expr.argList.size(); i++) {
-            // pop all arguments to clean up stack
-            _asm.add(new Pop(Reg64.RAX));
-        }
+        makeCall(expr.functionRef, expr.argList, (MethodDecl) arg);
+        // push result
+        _asm.add(new Push(Reg64.RAX));
         return null;
     }
 
@@ -465,33 +702,77 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
     @Override
     public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
-        makeMalloc();
+        _asm.add(new Mov_rmi(new R(Reg64.RSI, true), objectSize(expr.classtype)));
+        makeMalloc(HEADER_OBJECT);
+        _asm.add(new Push(Reg64.RAX));
         return null;
     }
 
     @Override
     public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        // push length
+        expr.sizeExpr.visit(this, arg);
+        // rsi := length*8 + 8, the length is stored before the elements
+        _asm.add(new Mov_rrm(new R(Reg64.RSP, 0, Reg64.RSI)));
+        _asm.add(new Imul(Reg64.RSI, new R(Reg64.RSI, true), 8));
+        _asm.add(new Add(new R(Reg64.RSI, true), 8));
+        makeMalloc(headerKind(expr));
+        _asm.add(new Pop(Reg64.RCX));
+        _asm.add(new Mov_rmr(new R(Reg64.RAX, 0, Reg64.RCX)));
+        _asm.add(new Push(Reg64.RAX));
         return null;
     }
 
     @Override
     public Object visitThisRef(ThisRef ref, Object arg) {
+        _asm.add(new Push(new R(Reg64.RBP, thisOffset((MethodDecl) arg))));
         return null;
     }
 
     @Override
     public Object visitIdRef(IdRef ref, Object arg) {
-        RuntimeEntity idRT = (RuntimeEntity) ref.id.visit(this, null);
-        return idRT;
+        Declaration decl = ref.decl;
+        if (isStaticField(decl)) {
+            _asm.add(new Push(R.rip(decl.runtimeEntity.offset)));
+        } else if (decl instanceof FieldDecl) {
+            // field of this
+            _asm.add(new Mov_rrm(new R(Reg64.RBP, thisOffset((MethodDecl) arg), Reg64.RAX)));
+            pushField(decl.runtimeEntity.offset, decl.runtimeEntity.size);
+        } else {
+            _asm.add(new Push(new R(Reg64.RBP, decl.runtimeEntity.offset)));
+        }
+        return null;
     }
 
     @Override
     public Object visitQRef(QualRef ref, Object arg) {
-        // push refAddr
-        RuntimeEntity refRT = ref.id.decl.runtimeEntity;
+        Declaration decl = ref.decl;
+        // the qualifier of a static field only names it
+        if (isStaticField(decl)) {
+            _asm.add(new Push(R.rip(decl.runtimeEntity.offset)));
+            return null;
+        }
+        // push object
+        ref.ref.visit(this, arg);
+        _asm.add(new Pop(Reg64.RAX));
+        // arrays keep their length at offset 0
+        if (isArrayLength(ref))
+            pushField(0, 8);
+        else
+            pushField(decl.runtimeEntity.offset, decl.runtimeEntity.size);
         return null;
     }
 
+    // pushes the field of size bytes at [rax + offset]
+    private void pushField(int offset, int size) {
+        if (size == 8) {
+            _asm.add(new Push(new R(Reg64.RAX, offset)));
+            return;
+        }
+        _asm.add(ObjectLayout.load(new R(Reg64.RAX, offset, Reg64.RAX), size));
+        _asm.add(new Push(Reg64.RAX));
+    }
+
     @Override
     public Object visitIdentifier(Identifier id, Object arg) {
         return id.decl.runtimeEntity;
@@ -518,19 +799,222 @@ public class CodeGenerator implements Visitor<Object, Object> {
         return 0;
     }
 
+    /**
+     * push the receiver and arguments, call, and pop them again; the result is left in rax
+     */
+    private void makeCall(Reference methodRef, ExprList args, MethodDecl context) {
+        MethodDecl md = (MethodDecl) methodRef.decl;
+        if (isPrintln(md)) {
+            args.get(0).visit(this, context);
+            makePrintln();
+            return;
+        }
+        pushArguments(methodRef, args, context);
+        makeCall(md);
+        int pushed = args.size() + (md.isStatic ? 0 : 1);
+        if (pushed > 0)
+            _asm.add(new Add(new R(Reg64.RSP, true), 8 * pushed));
+    }
+
+    private void pushArguments(Reference methodRef, ExprList args, MethodDecl context) {
+        if (!((MethodDecl) methodRef.decl).isStatic) {
+            // receiver
+            if (methodRef instanceof QualRef)
+                ((QualRef) methodRef).ref.visit(this, context);
+            else
+                _asm.add(new Push(new R(Reg64.RBP, thisOffset(context))));
+        }
+        args.forEach(a -> a.visit(this, context));
+    }
+
+    // the arguments go where the caller put those of md, then md starts over in the same frame
+    private void makeTailCall(Reference methodRef, ExprList args, MethodDecl md) {
+        pushArguments(methodRef, args, md);
+        for (int i = md.parameterDeclList.size() - 1; i >= 0; i--)
+            _asm.add(new Pop(new R(Reg64.RBP, paramOffset(md, i))));
+        if (!md.isStatic)
+            _asm.add(new Pop(new R(Reg64.RBP, thisOffset(md))));
+        _asm.add(new Jmp(_asm.getSize(), _bodyAddr, false));
+    }
+
+    // return md(...), which can reuse the frame of md; main's return exits instead
+    private boolean isTailCall(Expression returned, MethodDecl md) {
+        return returned instanceof CallExpr && ((CallExpr) returned).functionRef.decl == md && md != _mainMethod;
+    }
+
+    // call md, or leave a call for visitMethodDecl to patch if md has not been placed yet
+    void makeCall(MethodDecl md) {
+        if (md.runtimeEntity == null) {
+            Instruction call = new Call(0);
+            _asm.add(call);
+            md.patchList.add(call);
+        } else {
+            _asm.add(new Call(_asm.getSize(), md.runtimeEntity.offset));
+        }
+    }
+
+    // leave md with the value in rax
+    private void makeReturn(MethodDecl md) {
+        if (md == _mainMethod) {
+            makeExitJump();
+            return;
+        }
+        _asm.add(new Mov_rmr(new R(Reg64.RSP, Reg64.RBP)));
+        _asm.add(new Pop(Reg64.RBP));
+        _asm.add(new Ret());
+    }
+
+    // main returns by jumping to the exit sequence
+    void makeExitJump() {
+        Instruction jump = new Jmp(0);
+        _asm.add(jump);
+        _exitJumps.add(jump);
+    }
+
+    boolean isMainMethod(MethodDecl md) {
+        return md == _mainMethod;
+    }
+
+    // jmp, or jcc when cond is not null, to a target patched later
+    Jump makeJump(Condition cond) {
+        Instruction jump = cond == null ? new Jmp(0) : new Jcc(cond, 0);
+        _asm.add(jump);
+        return new Jump(jump, cond);
+    }
+
+    void patch(List<Jump> jumps, int destAddr) {
+        for (Jump jump : jumps) {
+            Instruction ins = jump.ins;
+            _asm.patch(ins.listIdx, jump.cond == null
+                    ? new Jmp(ins.startAddress, destAddr, false)
+                    : new Jcc(ins.startAddress, destAddr, jump.cond, false));
+        }
+    }
+
+    /**
+     * frame layout shared by both code generators: the caller pushes the receiver, then the arguments in order
+     */
+    static int paramOffset(MethodDecl md, int i) {
+        return 16 + 8 * (md.parameterDeclList.size() - 1 - i);
+    }
+
+    static int thisOffset(MethodDecl md) {
+        return 16 + 8 * md.parameterDeclList.size();
+    }
+
+    // what the elements of an array are, for its header
+    public static int headerKind(NewArrayExpr expr) {
+        // the parser hands over the type of the whole array
+        TypeDenoter elt = expr.eltType instanceof ArrayType ? ((ArrayType) expr.eltType).eltType : expr.eltType;
+        TypeKind kind = elt.typeKind;
+        return kind == TypeKind.INT || kind == TypeKind.BOOLEAN ? HEADER_INTS : HEADER_REFS;
+    }
+
+    public static int objectSize(ClassType type) {
+        // two objects without fields must still be told apart
+        return Math.max(ObjectLayout.WORD, type.classDecl.runtimeEntity.size);
+    }
+
+    public static boolean isPrintln(MethodDecl md) {
+        return md.classContext != null && md.classContext.name.equals("_PrintStream") && md.name.equals("println");
+    }
+
+    public static boolean isStaticField(Declaration decl) {
+        return decl instanceof FieldDecl && ((FieldDecl) decl).isStatic;
+    }
+
+    public static boolean isArrayLength(QualRef ref) {
+        Declaration base = ref.ref.decl;
+        return !(ref.ref instanceof ThisRef) && base != null && base.type != null
+                && base.type.typeKind == TypeKind.ARRAY;
+    }
+
+    // the condition for which cmp left, right; jcc jumps, or null if op is not relational
+    static Condition relation(String op) {
+        switch (op) {
+            case "<":
+                return Condition.L;
+            case "<=":
+                return Condition.LE;
+            case ">":
+                return Condition.G;
+            case ">=":
+                return Condition.GE;
+            case "==":
+                return Condition.E;
+            case "!=":
+                return Condition.NE;
+            default:
+                return null;
+        }
+    }
+
     public void makeElf(String fname) {
-        ELFMaker elf = new ELFMaker(_errors, _asm.getSize(), 8); // bss ignored until PA5, set to 8
-        elf.outputELF(fname, _asm.getBytes(), this.mainMethodAddr); // TODO: set the location of the main method
+        ELFMaker elf = new ELFMaker(_errors, _asm.getSize(), bssOffset);
+        _asm.link((int) elf.getBssOffset());
+        elf.outputELF(fname, _asm.getBytes(), this.mainMethodAddr);
+    }
+
+    // size in rsi, pointer to the zeroed memory is left in rax; clobbers no more than the mmap syscall would.
+    // kind, one of the HEADER_ kinds, goes in rdi under --gc
+    int makeMalloc(int kind) {
+        int idxStart = _asm.size();
+        if (_options.gc)
+            _asm.add(new Mov_rmi(new R(Reg64.RDI, true), kind));
+        Instruction call = new Call(0);
+        _asm.add(call);
+        _allocCalls.add(call);
+        return idxStart;
+    }
+
+    /**
+     * The allocator makeMalloc calls. Objects are carved out of HEAP_CHUNK byte mappings by bumping
+     * the pointer at HEAP_NEXT, and a new chunk is mapped when one runs out; whatever is left of the
+     * old one is given up. A larger object, or a negative size, gets a mapping of its own.
+     * Sizes are multiples of 8, so every object stays 8-byte aligned. Memory is never reused, so it
+     * is always zero.
+     */
+    private void makeAllocator() {
+        if (_options.allocStats) {
+            _asm.add(new Add(R.rip(ALLOC_COUNT), 1));
+            _asm.add(new Add(R.rip(ALLOC_BYTES, Reg64.RSI)));
+        }
+        // unsigned, so a negative size is large
+        _asm.add(new Cmp(new R(Reg64.RSI, true), HEAP_CHUNK));
+        Jump large = makeJump(Condition.A);
+        _asm.add(new Mov_rrm(R.rip(HEAP_NEXT, Reg64.RAX)));
+        _asm.add(new Lea(new R(Reg64.RAX, Reg64.RSI, 1, 0, Reg64.RDX)));
+        _asm.add(new Cmp(R.rip(HEAP_END, Reg64.RDX)));
+        Jump refill = makeJump(Condition.B);
+        _asm.add(new Mov_rmr(R.rip(HEAP_NEXT, Reg64.RDX)));
+        _asm.add(new Ret());
+
+        patch(List.of(refill), _asm.getSize());
+        _asm.add(new Push(Reg64.RSI));
+        _asm.add(new Mov_rmi(new R(Reg64.RSI, true), HEAP_CHUNK));
+        makeMmap(MAP_PRIVATE_ANONYMOUS);
+        _asm.add(new Pop(Reg64.RSI));
+        _asm.add(new Lea(new R(Reg64.RAX, Reg64.RSI, 1, 0, Reg64.RDX)));
+        _asm.add(new Mov_rmr(R.rip(HEAP_NEXT, Reg64.RDX)));
+        _asm.add(new Lea(new R(Reg64.RAX, HEAP_CHUNK, Reg64.RDX)));
+        _asm.add(new Mov_rmr(R.rip(HEAP_END, Reg64.RDX)));
+        _asm.add(new Ret());
+
+        patch(List.of(large), _asm.getSize());
+        makeMmap(MAP_PRIVATE_ANONYMOUS);
+        _asm.add(new Ret());
     }
 
-    private int makeMalloc() {
+    static final int MAP_PRIVATE_ANONYMOUS = 0x22, MAP_NORESERVE = 0x4000;
+
+    // rsi bytes of zeroed memory, left in rax
+    int makeMmap(int flags) {
         // void *mmap(int addr, size_t len, int prot, int flags, int fd, off_t offset);
         int idxStart = _asm.add(new Mov_rmi(new R(Reg64.RAX, true), 0x09)); // mmap
 
         _asm.add(new Xor(new R(Reg64.RDI, Reg64.RDI))); // addr=0
-        _asm.add(new Mov_rmi(new R(Reg64.RSI, true), 0x1000)); // 4kb alloc
         _asm.add(new Mov_rmi(new R(Reg64.RDX, true), 0x03)); // prot read|write
-        _asm.add(new Mov_rmi(new R(Reg64.R10, true), 0x22)); // flags= private, anonymous
+        _asm.add(new Mov_rmi(new R(Reg64.R10, true), flags));
         _asm.add(new Mov_rmi(new R(Reg64.R8, true), -1)); // fd= -1
         _asm.add(new Xor(new R(Reg64.R9, Reg64.R9))); // offset=0
         _asm.add(new Syscall());
@@ -542,26 +1026,174 @@ public class CodeGenerator implements Visitor<Object, Object> {
     }
 
     private int makeExit() {
+        int idxStart = _asm.size();
+        if (_options.allocStats) {
+            makeWrite(2, "alloc: ");
+            makeWriteDecimal(2, ALLOC_COUNT);
+            makeWrite(2, " objects, ");
+            makeWriteDecimal(2, ALLOC_BYTES);
+            makeWrite(2, " bytes");
+            if (_options.gc) {
+                makeWrite(2, ", ");
+                makeWriteDecimal(2, GC_COUNT);
+                makeWrite(2, " collections");
+            }
+            makeWrite(2, "\n");
+        }
+        if (!_printCalls.isEmpty()) {
+            Instruction flush = new Call(0);
+            _asm.add(flush);
+            _flushCalls.add(flush);
+        }
         // exit(0)
-        int idxStart = _asm.add(new Mov_rmi(new R(Reg64.RAX, true), 0x3C));
+        _asm.add(new Mov_rmi(new R(Reg64.RAX, true), 0x3C));
         _asm.add(new Xor(new R(Reg64.RDI, Reg64.RDI))); // error_code = 0
         _asm.add(new Syscall());
         return idxStart;
     }
 
-    private int makePrintln() {
-        // TODO: how can we generate the assembly to println?
+    // writes the low byte of the value on top of the stack and pops it, or has the printer do it
+    int makePrintln() {
+        if (_options.bufferOutput || _options.decimalPrintln) {
+            int idxStart = _asm.add(new Pop(Reg64.RAX));
+            Instruction call = new Call(0);
+            _asm.add(call);
+            _printCalls.add(call);
+            return idxStart;
+        }
+        int idxStart = makeWrite(1, 1);
+        _asm.add(new Pop(Reg64.RCX));
+        // return start index of first instruction in write() procedure
+        return idxStart;
+    }
+
+    /**
+     * The printer makePrintln calls with the value in rax, and its flush. It appends the low byte, or the
+     * int in decimal and a newline under --decimal-println, to a buffer in .bss after the static fields.
+     * Under --buffer-output the buffer is only written out when the next value might not fit and as the
+     * program exits, otherwise after every value.
+     * Bytes are stored eight at a time and the buffer has room for the last seven to spill over.
+     */
+    private void makePrinter() {
+        int buffer = bssOffset;
+        bssOffset += OUTPUT_BUFFER + 8;
+        int flushAddr = _asm.getSize();
+        _asm.add(new Mov_rrm(R.rip(OUTPUT_LENGTH, Reg64.RDX)));
+        _asm.add(new Cmp(new R(Reg64.RDX, true), 0));
+        Jump empty = makeJump(Condition.E);
+        _asm.add(new Mov_rmi(new R(Reg64.RAX, true), 0x1));
+        _asm.add(new Mov_rmi(new R(Reg64.RDI, true), 1));
+        _asm.add(new Lea(R.rip(buffer, Reg64.RSI)));
+        _asm.add(new Syscall());
+        _asm.add(new Mov_rmi(R.rip(OUTPUT_LENGTH), 0));
+        patch(List.of(empty), _asm.getSize());
+        _asm.add(new Ret());
+
+        int printAddr = _asm.getSize();
+        // the longest value is -2147483648 and a newline
+        _asm.add(new Cmp(R.rip(OUTPUT_LENGTH), OUTPUT_BUFFER - 12));
+        Jump room = makeJump(Condition.BE);
+        _asm.add(new Push(Reg64.RAX));
+        _asm.add(new Call(_asm.getSize(), flushAddr));
+        _asm.add(new Pop(Reg64.RAX));
+        patch(List.of(room), _asm.getSize());
+        _asm.add(new Lea(R.rip(buffer, Reg64.RSI)));
+        _asm.add(new Mov_rrm(R.rip(OUTPUT_LENGTH, Reg64.RCX)));
+        if (_options.decimalPrintln)
+            makeDecimal();
+        else
+            makeAppend(Reg64.RAX);
+        _asm.add(new Mov_rmr(R.rip(OUTPUT_LENGTH, Reg64.RCX)));
+        if (_options.bufferOutput)
+            _asm.add(new Ret());
+        else
+            _asm.add(new Jmp(_asm.getSize(), flushAddr, false));
+
+        _printCalls.forEach(call -> _asm.patch(call.listIdx, new Call(call.startAddress, printAddr)));
+        _flushCalls.forEach(call -> _asm.patch(call.listIdx, new Call(call.startAddress, flushAddr)));
+    }
+
+    // appends the int in the low half of rax in decimal and a newline at rsi + rcx, advancing rcx
+    private void makeDecimal() {
+        _asm.add(new Shl(new R(Reg64.RAX, true), 32));
+        _asm.add(new Sar(new R(Reg64.RAX, true), 32));
+        _asm.add(new Cmp(new R(Reg64.RAX, true), 0));
+        Jump positive = makeJump(Condition.GE);
+        _asm.add(new Mov_rmi(new R(Reg64.RDX, true), '-'));
+        makeAppend(Reg64.RDX);
+        _asm.add(new Neg(new R(Reg64.RAX, true)));
+        patch(List.of(positive), _asm.getSize());
+        _asm.add(new Mov_rmi(new R(Reg64.R8, true), 10));
+        _asm.add(new Xor(new R(Reg64.R9, Reg64.R9)));
+        // push the digits, the least significant first, and append them as they come off
+        int digits = _asm.getSize();
+        _asm.add(new Xor(new R(Reg64.RDX, Reg64.RDX)));
+        _asm.add(new Idiv(new R(Reg64.R8, true)));
+        _asm.add(new Add(new R(Reg64.RDX, true), '0'));
+        _asm.add(new Push(Reg64.RDX));
+        _asm.add(new Add(new R(Reg64.R9, true), 1));
+        _asm.add(new Cmp(new R(Reg64.RAX, true), 0));
+        _asm.add(new Jcc(_asm.getSize(), digits, Condition.NE, false));
+        int append = _asm.getSize();
+        _asm.add(new Pop(Reg64.RDX));
+        makeAppend(Reg64.RDX);
+        _asm.add(new Sub(new R(Reg64.R9, true), 1));
+        _asm.add(new Jcc(_asm.getSize(), append, Condition.NE, false));
+        _asm.add(new Mov_rmi(new R(Reg64.RDX, true), '\n'));
+        makeAppend(Reg64.RDX);
+    }
+
+    // appends the low byte of r at rsi + rcx, advancing rcx
+    private void makeAppend(Reg64 r) {
+        _asm.add(new Mov_rmr(new R(Reg64.RSI, Reg64.RCX, 1, 0, r)));
+        _asm.add(new Add(new R(Reg64.RCX, true), 1));
+    }
+
+    // writes the first nbyte bytes on the stack to fd
+    private int makeWrite(int fd, int nbyte) {
         // write(int fildes, const void *buf, size_t nbyte)
         int idxStart = _asm.add(new Mov_rmi(new R(Reg64.RAX, true), 0x1));
-        // fidles = 1;
-        _asm.add(new Mov_rmi(new R(Reg64.RDI, true), 0x1));
+        _asm.add(new Mov_rmi(new R(Reg64.RDI, true), fd));
         // *buf = val;
         _asm.add(new Mov_rmr(new R(Reg64.RSI, Reg64.RSP)));
-        _asm.add(new Pop(Reg64.RCX));
-        // nbyte = 4;
-        _asm.add(new Mov_rmi(new R(Reg64.RDX, true), 0x1));
+        _asm.add(new Mov_rmi(new R(Reg64.RDX, true), nbyte));
         _asm.add(new Syscall());
-        // return start index of first instruction in write() procedure
         return idxStart;
     }
+
+    // writes s to fd, pushed onto the stack eight characters at a time
+    void makeWrite(int fd, String s) {
+        int words = (s.length() + 7) / 8;
+        for (int w = words - 1; w >= 0; w--) {
+            long word = 0;
+            for (int i = Math.min(s.length(), 8 * w + 8) - 1; i >= 8 * w; i--)
+                word = word << 8 | s.charAt(i);
+            _asm.add(new Mov_ri64(Reg64.RAX, word));
+            _asm.add(new Push(Reg64.RAX));
+        }
+        makeWrite(fd, s.length());
+        _asm.add(new Add(new R(Reg64.RSP, true), 8 * words));
+    }
+
+    // writes the non-negative .bss slot at offset in decimal to fd; only for the exit sequence, it takes rbx
+    private void makeWriteDecimal(int fd, int offset) {
+        _asm.add(new Mov_rrm(R.rip(offset, Reg64.RAX)));
+        _asm.add(new Xor(new R(Reg64.RBX, Reg64.RBX)));
+        _asm.add(new Mov_rmi(new R(Reg64.R8, true), 10));
+        // push the digits, the least significant first
+        int digits = _asm.getSize();
+        _asm.add(new Xor(new R(Reg64.RDX, Reg64.RDX)));
+        _asm.add(new Idiv(new R(Reg64.R8, true)));
+        _asm.add(new Add(new R(Reg64.RDX, true), '0'));
+        _asm.add(new Push(Reg64.RDX));
+        _asm.add(new Add(new R(Reg64.RBX, true), 1));
+        _asm.add(new Cmp(new R(Reg64.RAX, true), 0));
+        _asm.add(new Jcc(_asm.getSize(), digits, Condition.NE, false));
+        // and write them back off the stack
+        int write = _asm.getSize();
+        makeWrite(fd, 1);
+        _asm.add(new Pop(Reg64.RCX));
+        _asm.add(new Sub(new R(Reg64.RBX, true), 1));
+        _asm.add(new Jcc(_asm.getSize(), write, Condition.NE, false));
+    }
 }
@@ -21,6 +21,7 @@ public class ELFMaker {
 	private ELFSection shstrtab = new ELFSection();
 	private ELFSegment phdr = new ELFSegment();
 	private ELFSegment textSeg = new ELFSegment();
+	private ELFSegment bssSeg = new ELFSegment();
 	private long phStartAddress = 0x40;
 	private long shStartAddress;
 	private long sdataStartAddress;
@@ -34,6 +35,7 @@ public class ELFMaker {
 		
 		segments.add(phdr);
 		segments.add(textSeg);
+		segments.add(bssSeg);
 		
 		// next is the .text
 		text.sectionName = ".text";
@@ -78,8 +80,8 @@ public class ELFMaker {
 			vSectionSizes += sh.sh_size;
 		}
 		
-		// I mean, it isn't really bss, it's got/plt, but it will eventually
-		// resolve to bss when we check RIP+(entry-textStart+textSize)
+		// .bss gets pages of its own, so mapping it writable leaves the end of .text executable
+		bss.sh_addr = (text.sh_addr + text.sh_size + PAGE_SIZE - 1) & -PAGE_SIZE;
 		bssOffset = bss.sh_addr - text.sh_addr;
 	}
 	
@@ -110,6 +112,15 @@ public class ELFMaker {
 		textSeg.p_filesz = text.sh_size;
 		textSeg.p_memsz = text.sh_size;
 		
+		// nothing of it is in the file, the loader hands out zeroed pages
+		bssSeg.p_type = PT_LOAD;
+		bssSeg.p_flags = PF_R | PF_W;
+		bssSeg.p_offset = bss.sh_addr;
+		bssSeg.p_vaddr = bss.sh_addr;
+		bssSeg.p_paddr = bss.sh_addr;
+		bssSeg.p_filesz = 0;
+		bssSeg.p_memsz = bss.sh_size;
+		
 		elf.e_entry = text.sh_addr + entrypoint;
 		elf.e_shoff = shStartAddress;
 		elf.e_phnum = (short)segments.size();
@@ -303,6 +314,8 @@ public class ELFMaker {
 		x64.writeString(b, v);
 	}
 	
+	private static final long PAGE_SIZE = 0x1000;
+	
 	private static final int PT_NULL 	= 0;
 	private static final int PT_LOAD 	= 1;
 	private static final int PT_DYNAMIC = 2;
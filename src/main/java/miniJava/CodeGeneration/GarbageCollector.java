@@ -0,0 +1,346 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static miniJava.CodeGeneration.CodeGenerator.*;
+
+/**
+ * The allocator and mark-sweep collector of --gc, placed where makeAllocator would be.
+ * Every object gets a header word in front: its size in bytes, a HEADER_ kind and the mark bit. The
+ * heap is one reservation, mapped on the first allocation, followed by a bitmap with a bit for every
+ * 8 bytes that is set where an object starts, and by the mark stack. Below GC_TOP the heap is a row of
+ * blocks, each a header and what it describes; a block that is not an object is free.
+ * Objects are bumped out of a run, a free block taken off GC_FREE or a HEAP_CHUNK at GC_TOP. When the
+ * run is used up, what is left of it becomes a free block, and if GC_SINCE bytes have been allocated
+ * since the last collection, the collector runs first:
+ *  mark: conservatively, every word on the stack from the allocation up to where the program started
+ *        and every static field is taken for a reference if it points past the header of an object,
+ *        and the objects it reaches are scanned word by word, arrays of ints and booleans excepted
+ *  sweep: the unmarked blocks are cleared and merged with their neighbours into runs of zeros, which
+ *         go on GC_FREE, or give back GC_TOP when they end there
+ * Objects larger than a chunk come from GC_TOP.
+ */
+class GarbageCollector {
+    // the reservation: the heap, its bitmap and room to push every object on the mark stack
+    private static final long HEAP_MAX = 1L << 32, BITMAP_BYTES = HEAP_MAX / 64, MARKS_BYTES = HEAP_MAX / 2;
+
+    private final CodeGenerator _gen;
+    private final InstructionList _asm;
+    private final CodeGenOptions _options;
+    private final List<Instruction> _retireCalls = new ArrayList<>(), _collectCalls = new ArrayList<>();
+
+    GarbageCollector(CodeGenerator gen, InstructionList asm, CodeGenOptions options) {
+        this._gen = gen;
+        this._asm = asm;
+        this._options = options;
+    }
+
+    /**
+     * @param bssEnd end of the static fields
+     */
+    void make(int bssEnd) {
+        makeAllocate();
+        int retire = makeRetire();
+        _retireCalls.forEach(call -> _asm.patch(call.listIdx, new Call(call.startAddress, retire)));
+        int collect = makeCollect(bssEnd);
+        _collectCalls.forEach(call -> _asm.patch(call.listIdx, new Call(call.startAddress, collect)));
+    }
+
+    // rsi bytes for an object of the kind in rdi, left in rax
+    private void makeAllocate() {
+        if (_options.allocStats) {
+            _asm.add(new Add(R.rip(ALLOC_COUNT), 1));
+            _asm.add(new Add(R.rip(ALLOC_BYTES, Reg64.RSI)));
+        }
+        // rdx := block size, with the header
+        int bump = _asm.getSize();
+        _asm.add(new Lea(new R(Reg64.RSI, 8, Reg64.RDX)));
+        _asm.add(new Mov_rrm(R.rip(HEAP_NEXT, Reg64.RAX)));
+        _asm.add(new Lea(new R(Reg64.RAX, Reg64.RDX, 1, 0, Reg64.RCX)));
+        _asm.add(new Cmp(R.rip(HEAP_END, Reg64.RCX)));
+        Jump slow = _gen.makeJump(Condition.B);
+        _asm.add(new Mov_rmr(R.rip(HEAP_NEXT, Reg64.RCX)));
+
+        // the block at rax becomes the object
+        int place = _asm.getSize();
+        _asm.add(new Add(R.rip(GC_SINCE, Reg64.RDX)));
+        _asm.add(new Or(new R(Reg64.RDI, Reg64.RSI)));
+        _asm.add(new Mov_rmr(new R(Reg64.RAX, 0, Reg64.RDI)));
+        makeBit(Reg64.RAX);
+        _asm.add(new Or(new R(Reg64.RDX, 0, Reg64.R8)));
+        _asm.add(new Add(new R(Reg64.RAX, true), 8));
+        _asm.add(new Ret());
+
+        _gen.patch(List.of(slow), _asm.getSize());
+        _asm.add(new Push(Reg64.RSI));
+        _asm.add(new Push(Reg64.RDI));
+        _asm.add(new Cmp(R.rip(GC_BASE), 0));
+        Jump ready = _gen.makeJump(Condition.NE);
+        _asm.add(new Mov_ri64(Reg64.RSI, HEAP_MAX + BITMAP_BYTES + MARKS_BYTES));
+        _gen.makeMmap(MAP_PRIVATE_ANONYMOUS | MAP_NORESERVE);
+        // mmap returns -errno on failure
+        _asm.add(new Cmp(new R(Reg64.RAX, true), -4096));
+        Jump unmapped = _gen.makeJump(Condition.A);
+        _asm.add(new Mov_rmr(R.rip(GC_BASE, Reg64.RAX)));
+        _asm.add(new Mov_rmr(R.rip(GC_TOP, Reg64.RAX)));
+        _asm.add(new Mov_ri64(Reg64.RCX, HEAP_MAX));
+        _asm.add(new Add(new R(Reg64.RAX, Reg64.RCX)));
+        _asm.add(new Mov_rmr(R.rip(GC_BITMAP, Reg64.RAX)));
+        _asm.add(new Add(new R(Reg64.RAX, true), (int) BITMAP_BYTES));
+        _asm.add(new Mov_rmr(R.rip(GC_MARKS, Reg64.RAX)));
+        _gen.patch(List.of(ready), _asm.getSize());
+        call(_retireCalls);
+        // unsigned, as are the sizes below
+        _asm.add(new Cmp(R.rip(GC_SINCE), _options.gcThreshold));
+        Jump young = _gen.makeJump(Condition.B);
+        call(_collectCalls);
+        _gen.patch(List.of(young), _asm.getSize());
+        _asm.add(new Pop(Reg64.RDI));
+        _asm.add(new Pop(Reg64.RSI));
+        _asm.add(new Lea(new R(Reg64.RSI, 8, Reg64.RDX)));
+        _asm.add(new Cmp(new R(Reg64.RDX, true), HEAP_CHUNK));
+        Jump large = _gen.makeJump(Condition.A);
+
+        // the next free block becomes the run, or is left for the next sweep if it is too small
+        int runs = _asm.getSize();
+        _asm.add(new Mov_rrm(R.rip(GC_FREE, Reg64.RAX)));
+        _asm.add(new Cmp(new R(Reg64.RAX, true), 0));
+        Jump noRuns = _gen.makeJump(Condition.E);
+        _asm.add(new Mov_rrm(new R(Reg64.RAX, 8, Reg64.RCX)));
+        _asm.add(new Mov_rmr(R.rip(GC_FREE, Reg64.RCX)));
+        _asm.add(new Mov_rmi(new R(Reg64.RAX, 8), 0));
+        _asm.add(new Mov_rrm(new R(Reg64.RAX, 0, Reg64.RCX)));
+        _asm.add(new Lea(new R(Reg64.RAX, Reg64.RCX, 1, 8, Reg64.RCX)));
+        _asm.add(new Mov_rmr(R.rip(HEAP_NEXT, Reg64.RAX)));
+        _asm.add(new Mov_rmr(R.rip(HEAP_END, Reg64.RCX)));
+        _asm.add(new Lea(new R(Reg64.RAX, Reg64.RDX, 1, 0, Reg64.R8)));
+        _asm.add(new Cmp(new R(Reg64.RCX, Reg64.R8)));
+        _asm.add(new Jcc(_asm.getSize(), bump, Condition.AE, false));
+        call(_retireCalls);
+        _asm.add(new Jmp(_asm.getSize(), runs, false));
+
+        // or a new chunk at the top
+        _gen.patch(List.of(noRuns), _asm.getSize());
+        _asm.add(new Mov_rrm(R.rip(GC_TOP, Reg64.RAX)));
+        _asm.add(new Lea(new R(Reg64.RAX, HEAP_CHUNK, Reg64.RCX)));
+        _asm.add(new Cmp(R.rip(GC_BITMAP, Reg64.RCX)));
+        Jump full = _gen.makeJump(Condition.B);
+        _asm.add(new Mov_rmr(R.rip(GC_TOP, Reg64.RCX)));
+        _asm.add(new Mov_rmr(R.rip(HEAP_NEXT, Reg64.RAX)));
+        _asm.add(new Mov_rmr(R.rip(HEAP_END, Reg64.RCX)));
+        _asm.add(new Jmp(_asm.getSize(), bump, false));
+
+        // a large object, or a negative size, goes on top by itself
+        _gen.patch(List.of(large), _asm.getSize());
+        _asm.add(new Mov_rrm(R.rip(GC_TOP, Reg64.RAX)));
+        _asm.add(new Lea(new R(Reg64.RAX, Reg64.RDX, 1, 0, Reg64.RCX)));
+        _asm.add(new Cmp(new R(Reg64.RCX, Reg64.RAX)));
+        Jump wrapped = _gen.makeJump(Condition.B);
+        _asm.add(new Cmp(R.rip(GC_BITMAP, Reg64.RCX)));
+        Jump tooLarge = _gen.makeJump(Condition.B);
+        _asm.add(new Mov_rmr(R.rip(GC_TOP, Reg64.RCX)));
+        _asm.add(new Jmp(_asm.getSize(), place, false));
+
+        _gen.patch(List.of(unmapped, full, wrapped, tooLarge), _asm.getSize());
+        _gen.makeWrite(2, "out of memory\n");
+        _asm.add(new Mov_rmi(new R(Reg64.RAX, true), 0x3C));
+        _asm.add(new Mov_rmi(new R(Reg64.RDI, true), 1));
+        _asm.add(new Syscall());
+    }
+
+    // the rest of the run becomes a free block, and there is no run; takes rax and rcx
+    private int makeRetire() {
+        int addr = _asm.getSize();
+        _asm.add(new Mov_rrm(R.rip(HEAP_NEXT, Reg64.RAX)));
+        _asm.add(new Mov_rrm(R.rip(HEAP_END, Reg64.RCX)));
+        _asm.add(new Sub(new R(Reg64.RCX, Reg64.RAX)));
+        _asm.add(new Mov_rmi(R.rip(HEAP_NEXT), 0));
+        _asm.add(new Mov_rmi(R.rip(HEAP_END), 0));
+        Jump empty = _gen.makeJump(Condition.E);
+        _asm.add(new Sub(new R(Reg64.RCX, true), 8));
+        _asm.add(new Mov_rmr(new R(Reg64.RAX, 0, Reg64.RCX)));
+        _gen.patch(List.of(empty), _asm.getSize());
+        _asm.add(new Ret());
+        return addr;
+    }
+
+    // marks everything reachable, then sweeps; the callee-saved registers are roots too
+    private int makeCollect(int bssEnd) {
+        int consider = makeConsider();
+        int finish = makeFinish();
+        int addr = _asm.getSize();
+        Reg64[] saved = {Reg64.RBX, Reg64.RBP, Reg64.R12, Reg64.R13, Reg64.R14, Reg64.R15};
+        for (Reg64 r : saved)
+            _asm.add(new Push(r));
+        _asm.add(new Mov_rmi(R.rip(GC_FREE), 0));
+        _asm.add(new Mov_rrm(R.rip(GC_MARKS, Reg64.R15)));
+
+        // the stack, then the static fields
+        _asm.add(new Mov_rmr(new R(Reg64.RBX, Reg64.RSP)));
+        int stack = _asm.getSize();
+        _asm.add(new Cmp(R.rip(GC_STACK, Reg64.RBX)));
+        Jump stackDone = _gen.makeJump(Condition.BE);
+        _asm.add(new Mov_rrm(new R(Reg64.RBX, 0, Reg64.RAX)));
+        _asm.add(new Call(_asm.getSize(), consider));
+        _asm.add(new Add(new R(Reg64.RBX, true), 8));
+        _asm.add(new Jmp(_asm.getSize(), stack, false));
+        _gen.patch(List.of(stackDone), _asm.getSize());
+        _asm.add(new Lea(R.rip(RUNTIME_BSS, Reg64.RBX)));
+        _asm.add(new Lea(R.rip(bssEnd, Reg64.RBP)));
+        makeScan(consider);
+
+        // what is on the mark stack is marked but not scanned yet
+        int drain = _asm.getSize();
+        _asm.add(new Mov_rrm(R.rip(GC_MARKS, Reg64.RAX)));
+        _asm.add(new Cmp(new R(Reg64.R15, Reg64.RAX)));
+        Jump marked = _gen.makeJump(Condition.E);
+        _asm.add(new Sub(new R(Reg64.R15, true), 8));
+        _asm.add(new Mov_rrm(new R(Reg64.R15, 0, Reg64.RBX)));
+        _asm.add(new Mov_rrm(new R(Reg64.RBX, -8, Reg64.RBP)));
+        _asm.add(new Mov_rmr(new R(Reg64.RCX, Reg64.RBP)));
+        _asm.add(new And(new R(Reg64.RCX, true), HEADER_INTS));
+        _asm.add(new Jcc(_asm.getSize(), drain, Condition.NE, false));
+        _asm.add(new And(new R(Reg64.RBP, true), -8));
+        _asm.add(new Add(new R(Reg64.RBP, Reg64.RBX)));
+        makeScan(consider);
+        _asm.add(new Jmp(_asm.getSize(), drain, false));
+
+        // rbx walks the blocks, rbp is where the current run of unmarked ones started, or 0
+        _gen.patch(List.of(marked), _asm.getSize());
+        _asm.add(new Mov_rrm(R.rip(GC_BASE, Reg64.RBX)));
+        _asm.add(new Xor(new R(Reg64.RBP, Reg64.RBP)));
+        int sweep = _asm.getSize();
+        _asm.add(new Cmp(R.rip(GC_TOP, Reg64.RBX)));
+        Jump swept = _gen.makeJump(Condition.BE);
+        _asm.add(new Mov_rrm(new R(Reg64.RBX, 0, Reg64.R12)));
+        _asm.add(new Mov_rmr(new R(Reg64.RCX, Reg64.R12)));
+        _asm.add(new And(new R(Reg64.RCX, true), HEADER_MARK));
+        Jump dead = _gen.makeJump(Condition.E);
+        _asm.add(new And(new R(Reg64.R12, true), ~HEADER_MARK));
+        _asm.add(new Mov_rmr(new R(Reg64.RBX, 0, Reg64.R12)));
+        _asm.add(new Cmp(new R(Reg64.RBP, true), 0));
+        Jump noRun = _gen.makeJump(Condition.E);
+        _asm.add(new Call(_asm.getSize(), finish));
+        _asm.add(new Xor(new R(Reg64.RBP, Reg64.RBP)));
+        Jump live = _gen.makeJump(null);
+        _gen.patch(List.of(dead), _asm.getSize());
+        makeBit(Reg64.RBX);
+        _asm.add(new Not(new R(Reg64.R8, true)));
+        _asm.add(new And(new R(Reg64.RDX, 0, Reg64.R8)));
+        _asm.add(new Cmp(new R(Reg64.RBP, true), 0));
+        Jump inRun = _gen.makeJump(Condition.NE);
+        _asm.add(new Mov_rmr(new R(Reg64.RBP, Reg64.RBX)));
+        _gen.patch(List.of(noRun, live, inRun), _asm.getSize());
+        _asm.add(new And(new R(Reg64.R12, true), -8));
+        _asm.add(new Lea(new R(Reg64.RBX, Reg64.R12, 1, 8, Reg64.RBX)));
+        _asm.add(new Jmp(_asm.getSize(), sweep, false));
+        _gen.patch(List.of(swept), _asm.getSize());
+        _asm.add(new Cmp(new R(Reg64.RBP, true), 0));
+        Jump done = _gen.makeJump(Condition.E);
+        _asm.add(new Call(_asm.getSize(), finish));
+        _gen.patch(List.of(done), _asm.getSize());
+
+        _asm.add(new Mov_rmi(R.rip(GC_SINCE), 0));
+        _asm.add(new Add(R.rip(GC_COUNT), 1));
+        for (int i = saved.length - 1; i >= 0; i--)
+            _asm.add(new Pop(saved[i]));
+        _asm.add(new Ret());
+        return addr;
+    }
+
+    // considers every word from rbx up to rbp
+    private void makeScan(int consider) {
+        int loop = _asm.getSize();
+        _asm.add(new Cmp(new R(Reg64.RBX, Reg64.RBP)));
+        Jump done = _gen.makeJump(Condition.AE);
+        _asm.add(new Mov_rrm(new R(Reg64.RBX, 0, Reg64.RAX)));
+        _asm.add(new Call(_asm.getSize(), consider));
+        _asm.add(new Add(new R(Reg64.RBX, true), 8));
+        _asm.add(new Jmp(_asm.getSize(), loop, false));
+        _gen.patch(List.of(done), _asm.getSize());
+    }
+
+    // if rax points past the header of an unmarked object, marks it and pushes rax on the mark stack at r15
+    private int makeConsider() {
+        int addr = _asm.getSize();
+        _asm.add(new Sub(new R(Reg64.RAX, true), 8));
+        _asm.add(new Cmp(R.rip(GC_BASE, Reg64.RAX)));
+        Jump below = _gen.makeJump(Condition.A);
+        _asm.add(new Cmp(R.rip(GC_TOP, Reg64.RAX)));
+        Jump above = _gen.makeJump(Condition.BE);
+        _asm.add(new Mov_rmr(new R(Reg64.RCX, Reg64.RAX)));
+        _asm.add(new And(new R(Reg64.RCX, true), 7));
+        Jump unaligned = _gen.makeJump(Condition.NE);
+        makeBit(Reg64.RAX);
+        _asm.add(new Mov_rrm(new R(Reg64.RDX, 0, Reg64.R9)));
+        _asm.add(new And(new R(Reg64.R9, Reg64.R8)));
+        Jump noObject = _gen.makeJump(Condition.E);
+        _asm.add(new Mov_rrm(new R(Reg64.RAX, 0, Reg64.RCX)));
+        _asm.add(new Mov_rmr(new R(Reg64.RDX, Reg64.RCX)));
+        _asm.add(new And(new R(Reg64.RDX, true), HEADER_MARK));
+        Jump seen = _gen.makeJump(Condition.NE);
+        _asm.add(new Or(new R(Reg64.RCX, true), HEADER_MARK));
+        _asm.add(new Mov_rmr(new R(Reg64.RAX, 0, Reg64.RCX)));
+        _asm.add(new Add(new R(Reg64.RAX, true), 8));
+        _asm.add(new Mov_rmr(new R(Reg64.R15, 0, Reg64.RAX)));
+        _asm.add(new Add(new R(Reg64.R15, true), 8));
+        _gen.patch(List.of(below, above, unaligned, noObject, seen), _asm.getSize());
+        _asm.add(new Ret());
+        return addr;
+    }
+
+    // clears the run from rbp to rbx, then lists it on GC_FREE, or lowers GC_TOP to rbp if the run ends there
+    private int makeFinish() {
+        int addr = _asm.getSize();
+        _asm.add(new Mov_rmr(new R(Reg64.RDI, Reg64.RBP)));
+        int clear = _asm.getSize();
+        _asm.add(new Cmp(new R(Reg64.RDI, Reg64.RBX)));
+        Jump cleared = _gen.makeJump(Condition.AE);
+        _asm.add(new Mov_rmi(new R(Reg64.RDI, 0), 0));
+        _asm.add(new Add(new R(Reg64.RDI, true), 8));
+        _asm.add(new Jmp(_asm.getSize(), clear, false));
+        _gen.patch(List.of(cleared), _asm.getSize());
+        _asm.add(new Cmp(R.rip(GC_TOP, Reg64.RBX)));
+        Jump inside = _gen.makeJump(Condition.NE);
+        _asm.add(new Mov_rmr(R.rip(GC_TOP, Reg64.RBP)));
+        _asm.add(new Ret());
+        _gen.patch(List.of(inside), _asm.getSize());
+        _asm.add(new Mov_rmr(new R(Reg64.RCX, Reg64.RBX)));
+        _asm.add(new Sub(new R(Reg64.RCX, Reg64.RBP)));
+        _asm.add(new Sub(new R(Reg64.RCX, true), 8));
+        _asm.add(new Mov_rmr(new R(Reg64.RBP, 0, Reg64.RCX)));
+        // a lone header cannot hold the link
+        Jump tiny = _gen.makeJump(Condition.E);
+        _asm.add(new Mov_rrm(R.rip(GC_FREE, Reg64.RDX)));
+        _asm.add(new Mov_rmr(new R(Reg64.RBP, 8, Reg64.RDX)));
+        _asm.add(new Mov_rmr(R.rip(GC_FREE, Reg64.RBP)));
+        _gen.patch(List.of(tiny), _asm.getSize());
+        _asm.add(new Ret());
+        return addr;
+    }
+
+    // rdx := address of the bitmap word for the block at p, r8 := its bit; takes rcx and r9
+    private void makeBit(Reg64 p) {
+        _asm.add(new Mov_rmr(new R(Reg64.RCX, p)));
+        _asm.add(new Mov_rrm(R.rip(GC_BASE, Reg64.R9)));
+        _asm.add(new Sub(new R(Reg64.RCX, Reg64.R9)));
+        _asm.add(new Shr(new R(Reg64.RCX, true), 3));
+        _asm.add(new Mov_rmr(new R(Reg64.RDX, Reg64.RCX)));
+        _asm.add(new Shr(new R(Reg64.RDX, true), 6));
+        _asm.add(new Mov_rrm(R.rip(GC_BITMAP, Reg64.R9)));
+        _asm.add(new Lea(new R(Reg64.R9, Reg64.RDX, 8, 0, Reg64.RDX)));
+        _asm.add(new And(new R(Reg64.RCX, true), 63));
+        _asm.add(new Mov_rmi(new R(Reg64.R8, true), 1));
+        _asm.add(new Shl(new R(Reg64.R8, true)));
+    }
+
+    private void call(List<Instruction> calls) {
+        Instruction call = new Call(0);
+        _asm.add(call);
+        calls.add(call);
+    }
+}
@@ -0,0 +1,471 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+import miniJava.IR.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects x64 instructions for the IR of one method, with its virtual registers placed by
+ * LinearScanAllocator over intervals taken from Liveness.
+ * Calls keep the stack machine's convention (receiver and arguments pushed, result in rax),
+ * so a method generated here can call and be called by any other.
+ */
+class InstructionSelector {
+    private final CodeGenerator _gen;
+    private final InstructionList _asm;
+    private final IRFunction _fn;
+
+    private final Map<VReg, LiveInterval> _intervals = new HashMap<>();
+    private List<Reg64> _saved;
+    // [rbp+_savedOffset] holds the first saved callee-saved register
+    private int _savedOffset;
+    private final Map<BasicBlock, Integer> _blockAddr = new HashMap<>();
+    // jumps to blocks, patched once every block is placed
+    private final List<Jump> _jumps = new ArrayList<>();
+    private final List<BasicBlock> _jumpTargets = new ArrayList<>();
+    // relations whose only use is the branch right after them, which compares and jumps itself
+    private final Map<VReg, Instr> _fused = new HashMap<>();
+
+    InstructionSelector(CodeGenerator gen, InstructionList asm, IRFunction fn) {
+        this._gen = gen;
+        this._asm = asm;
+        this._fn = fn;
+    }
+
+    void generate() {
+        findFusedCompares();
+        buildIntervals();
+        LinearScanAllocator allocator = new LinearScanAllocator();
+        allocator.allocate(new ArrayList<>(_intervals.values()));
+        _saved = allocator.getUsedCalleeSaved();
+        _savedOffset = -8 * (allocator.getSpillSlots() + _saved.size());
+
+        // method prologue
+        _asm.add(new Push(Reg64.RBP));
+        _asm.add(new Mov_rmr(new R(Reg64.RBP, Reg64.RSP)));
+        if (_savedOffset != 0)
+            _asm.add(new Sub(new R(Reg64.RSP, true), -_savedOffset));
+        for (int i = 0; i < _saved.size(); i++)
+            _asm.add(new Mov_rmr(new R(Reg64.RBP, _savedOffset + 8 * i, _saved.get(i))));
+        // arguments arrive on the stack
+        for (VReg param : incoming()) {
+            LiveInterval argument = _intervals.get(param);
+            if (argument.reg != null && argument.end > 0)
+                _asm.add(new Mov_rrm(new R(Reg64.RBP, argument.frameOffset, argument.reg)));
+        }
+        List<BasicBlock> blocks = _fn.blocks;
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            _blockAddr.put(blocks.get(i), _asm.getSize());
+            for (Instr ins : blocks.get(i).instrs)
+                select(ins, next);
+        }
+        for (int i = 0; i < _jumps.size(); i++)
+            _gen.patch(List.of(_jumps.get(i)), _blockAddr.get(_jumpTargets.get(i)));
+    }
+
+    private void findFusedCompares() {
+        Map<VReg, Integer> uses = new HashMap<>();
+        for (BasicBlock b : _fn.blocks) {
+            for (Instr ins : b.instrs)
+                ins.uses().forEach(r -> uses.merge(r, 1, Integer::sum));
+        }
+        for (BasicBlock b : _fn.blocks) {
+            int n = b.instrs.size();
+            if (n < 2)
+                continue;
+            Instr compare = b.instrs.get(n - 2), last = b.instrs.get(n - 1);
+            if (last.op == Op.BR && compare.op.isRelation() && last.args[0] == compare.dst
+                    && uses.get(compare.dst) == 1)
+                _fused.put(compare.dst, compare);
+        }
+    }
+
+    private List<VReg> incoming() {
+        List<VReg> incoming = new ArrayList<>();
+        if (_fn.thisReg != null)
+            incoming.add(_fn.thisReg);
+        incoming.addAll(_fn.params);
+        return incoming;
+    }
+
+    // uses at even positions, definitions at the odd one after, so an operand's register may hold the result
+    private void buildIntervals() {
+        Liveness liveness = new Liveness(_fn);
+        List<VReg> incoming = incoming();
+        int n = _fn.method.parameterDeclList.size();
+        for (int i = 0; i < incoming.size(); i++) {
+            LiveInterval param = interval(incoming.get(i), 0);
+            param.hasHome = true;
+            // the receiver sits above the arguments
+            param.frameOffset = _fn.thisReg != null && i == 0
+                    ? CodeGenerator.thisOffset(_fn.method)
+                    : CodeGenerator.paramOffset(_fn.method, i - (_fn.thisReg != null ? 1 : 0));
+        }
+        List<Integer> calls = new ArrayList<>();
+        // parameters are defined at 0, before the first instruction
+        int pos = 2;
+        for (BasicBlock b : _fn.blocks) {
+            int blockStart = pos;
+            liveness.liveIn.get(b).forEach(r -> interval(r, blockStart));
+            for (Instr ins : b.instrs) {
+                boolean fused = ins.dst != null && _fused.containsKey(ins.dst);
+                for (VReg use : ins.uses()) {
+                    // the operands of a fused relation are read by the branch after it
+                    if (!_fused.containsKey(use))
+                        interval(use, fused ? pos + 2 : pos);
+                }
+                if (ins.dst != null && !fused)
+                    interval(ins.dst, pos + 1);
+                if (ins.op.isCall())
+                    calls.add(pos);
+                pos += 2;
+            }
+            int blockEnd = pos - 1;
+            liveness.liveOut.get(b).forEach(r -> interval(r, blockEnd));
+        }
+        for (LiveInterval interval : _intervals.values()) {
+            for (int call : calls) {
+                if (interval.start < call && interval.end > call + 1)
+                    interval.crossesCall = true;
+            }
+        }
+    }
+
+    private LiveInterval interval(VReg reg, int pos) {
+        LiveInterval interval = _intervals.get(reg);
+        if (interval == null) {
+            interval = new LiveInterval(pos);
+            _intervals.put(reg, interval);
+        }
+        interval.start = Math.min(interval.start, pos);
+        interval.use(pos);
+        return interval;
+    }
+
+    // where a value is: a LiveInterval, or an Integer constant
+    private Object operand(Value value) {
+        if (value instanceof Const)
+            return ((Const) value).value;
+        return _intervals.get(value);
+    }
+
+    private void select(Instr ins, BasicBlock next) {
+        switch (ins.op) {
+            case MOV:
+                assign(result(ins), operand(ins.args[0]));
+                break;
+            case NEG:
+            case NOT: {
+                LiveInterval result = result(ins);
+                Reg64 w = target(result);
+                move(w, operand(ins.args[0]));
+                if (ins.op == Op.NEG)
+                    _asm.add(new Neg(new R(w, true)));
+                else
+                    _asm.add(new Xor(new R(w, true), 1));
+                store(result, w);
+                break;
+            }
+            case DIV: {
+                // idiv divides rdx:rax
+                move(Reg64.RAX, operand(ins.args[0]));
+                _asm.add(new Cqo());
+                _asm.add(new Idiv(new R(load(operand(ins.args[1]), Reg64.R11), true)));
+                store(result(ins), Reg64.RAX);
+                break;
+            }
+            case LOAD: {
+                LiveInterval result = result(ins);
+                Reg64 w = target(result);
+                R address = address(ins);
+                address.SetRegR(w);
+                _asm.add(ObjectLayout.load(address, ins.size));
+                store(result, w);
+                break;
+            }
+            case STORE: {
+                Object value = operand(ins.args[ins.args.length - 1]);
+                R address = address(ins);
+                if (value instanceof Integer) {
+                    _asm.add(ObjectLayout.store(address, (int) value, ins.size));
+                    break;
+                }
+                address.SetRegR(load(value, Reg64.RAX));
+                _asm.add(ObjectLayout.store(address, ins.size));
+                break;
+            }
+            case ALLOC:
+                move(Reg64.RSI, operand(ins.args[0]));
+                _gen.makeMalloc(((Const) ins.args[1]).value);
+                store(result(ins), Reg64.RAX);
+                break;
+            case PRINT:
+                push(operand(ins.args[0]));
+                _gen.makePrintln();
+                break;
+            case CALL:
+                for (Value arg : ins.args)
+                    push(operand(arg));
+                _gen.makeCall(ins.callee);
+                if (ins.args.length > 0)
+                    _asm.add(new Add(new R(Reg64.RSP, true), 8 * ins.args.length));
+                if (ins.dst != null)
+                    store(result(ins), Reg64.RAX);
+                break;
+            case RET:
+                if (ins.args.length > 0)
+                    move(Reg64.RAX, operand(ins.args[0]));
+                makeReturn();
+                break;
+            case JMP:
+                jump(ins.targets[0], next);
+                break;
+            case BR:
+                branch(ins, next);
+                break;
+            default:
+                if (ins.op.isRelation())
+                    relation(ins);
+                else
+                    arithmetic(ins);
+        }
+    }
+
+    private LiveInterval result(Instr ins) {
+        return _intervals.get(ins.dst);
+    }
+
+    // [base + offset] or [base + index*8 + offset]; a constant index is folded into the displacement
+    private R address(Instr ins) {
+        if (ins.args[0] instanceof Global)
+            return R.rip(((Global) ins.args[0]).field.runtimeEntity.offset + ins.offset);
+        Reg64 base = load(operand(ins.args[0]), Reg64.R11);
+        if (!ins.isIndexed())
+            return new R(base, ins.offset);
+        Object index = operand(ins.args[1]);
+        if (index instanceof Integer)
+            return new R(base, ins.offset + 8 * (int) index);
+        return new R(base, load(index, Reg64.RCX), 8, ins.offset);
+    }
+
+    private void makeReturn() {
+        if (_gen.isMainMethod(_fn.method)) {
+            _gen.makeExitJump();
+            return;
+        }
+        for (int i = 0; i < _saved.size(); i++)
+            _asm.add(new Mov_rrm(new R(Reg64.RBP, _savedOffset + 8 * i, _saved.get(i))));
+        _asm.add(new Mov_rmr(new R(Reg64.RSP, Reg64.RBP)));
+        _asm.add(new Pop(Reg64.RBP));
+        _asm.add(new Ret());
+    }
+
+    private void jump(BasicBlock target, BasicBlock next) {
+        if (target != next)
+            addJump(null, target);
+    }
+
+    private void branch(Instr ins, BasicBlock next) {
+        BasicBlock ifTrue = ins.targets[0], ifFalse = ins.targets[1];
+        Object cond = operand(ins.args[0]);
+        if (cond instanceof Integer) {
+            // decided at compile time
+            jump((int) cond != 0 ? ifTrue : ifFalse, next);
+            return;
+        }
+        Condition taken;
+        Instr relation = _fused.get(ins.args[0]);
+        if (relation != null) {
+            // cmp and jcc on the relation's operands, its result is never materialized
+            compare(relation);
+            taken = condition(relation.op);
+        } else {
+            LiveInterval value = (LiveInterval) cond;
+            if (value.reg != null)
+                _asm.add(new Cmp(new R(value.reg, true), 0));
+            else
+                _asm.add(new Cmp(new R(Reg64.RBP, value.frameOffset), 0));
+            taken = Condition.NE;
+        }
+        if (ifTrue == next) {
+            addJump(taken.negate(), ifFalse);
+            return;
+        }
+        addJump(taken, ifTrue);
+        jump(ifFalse, next);
+    }
+
+    private void addJump(Condition cond, BasicBlock target) {
+        _jumps.add(_gen.makeJump(cond));
+        _jumpTargets.add(target);
+    }
+
+    private void compare(Instr ins) {
+        Object left = operand(ins.args[0]);
+        Object right = operand(ins.args[1]);
+        Reg64 l = load(left, Reg64.RAX);
+        if (right instanceof Integer)
+            _asm.add(new Cmp(new R(l, true), (int) right));
+        else
+            _asm.add(new Cmp(new R(l, load(right, Reg64.R11))));
+    }
+
+    private void relation(Instr ins) {
+        if (_fused.containsKey(ins.dst))
+            return;
+        LiveInterval result = result(ins);
+        compare(ins);
+        _asm.add(new Setcc(condition(ins.op), Reg64.RAX));
+        Reg64 w = target(result);
+        _asm.add(new Movzx(w, Reg64.RAX));
+        store(result, w);
+    }
+
+    private static Condition condition(Op op) {
+        switch (op) {
+            case LT:
+                return Condition.L;
+            case LE:
+                return Condition.LE;
+            case GT:
+                return Condition.G;
+            case GE:
+                return Condition.GE;
+            case EQ:
+                return Condition.E;
+            default:
+                return Condition.NE;
+        }
+    }
+
+    private void arithmetic(Instr ins) {
+        LiveInterval result = result(ins);
+        Object left = operand(ins.args[0]);
+        Object right = operand(ins.args[1]);
+        Reg64 w = target(result);
+        if (isIn(right, w) && !isIn(left, w)) {
+            if (ins.op != Op.SUB) {
+                Object swap = left;
+                left = right;
+                right = swap;
+            } else {
+                // w holds the subtrahend, work in rax instead
+                w = Reg64.RAX;
+            }
+        }
+        move(w, left);
+        if (right instanceof Integer) {
+            int imm = (int) right;
+            switch (ins.op) {
+                case ADD:
+                    _asm.add(new Add(new R(w, true), imm));
+                    break;
+                case SUB:
+                    _asm.add(new Sub(new R(w, true), imm));
+                    break;
+                case MUL:
+                    _asm.add(new Imul(w, new R(w, true), imm));
+                    break;
+                case AND:
+                    _asm.add(new And(new R(w, true), imm));
+                    break;
+                case OR:
+                    _asm.add(new Or(new R(w, true), imm));
+                    break;
+                case SHL:
+                    _asm.add(new Shl(new R(w, true), imm));
+                    break;
+                case SAR:
+                    _asm.add(new Sar(new R(w, true), imm));
+                    break;
+                case SHR:
+                    _asm.add(new Shr(new R(w, true), imm));
+                    break;
+            }
+        } else {
+            // shift counts are always constants
+            Reg64 r = load(right, Reg64.R11);
+            switch (ins.op) {
+                case ADD:
+                    _asm.add(new Add(new R(w, r)));
+                    break;
+                case SUB:
+                    _asm.add(new Sub(new R(w, r)));
+                    break;
+                case MUL:
+                    _asm.add(new Imul(w, new R(r, true)));
+                    break;
+                case AND:
+                    _asm.add(new And(new R(w, r)));
+                    break;
+                case OR:
+                    _asm.add(new Or(new R(w, r)));
+                    break;
+            }
+        }
+        store(result, w);
+    }
+
+    // the register value is in, after loading it into scratch if it is in the frame or a constant
+    private Reg64 load(Object value, Reg64 scratch) {
+        if (value instanceof LiveInterval && ((LiveInterval) value).reg != null)
+            return ((LiveInterval) value).reg;
+        move(scratch, value);
+        return scratch;
+    }
+
+    private void move(Reg64 dst, Object value) {
+        if (value instanceof Integer) {
+            _asm.add(new Mov_rmi(new R(dst, true), (int) value));
+            return;
+        }
+        LiveInterval interval = (LiveInterval) value;
+        if (interval.reg == null)
+            _asm.add(new Mov_rrm(new R(Reg64.RBP, interval.frameOffset, dst)));
+        else if (interval.reg != dst)
+            _asm.add(new Mov_rmr(new R(dst, interval.reg)));
+    }
+
+    private void assign(LiveInterval dst, Object value) {
+        if (dst.reg != null) {
+            move(dst.reg, value);
+            return;
+        }
+        if (value instanceof Integer)
+            _asm.add(new Mov_rmi(new R(Reg64.RBP, dst.frameOffset), (int) value));
+        else
+            store(dst, load(value, Reg64.RAX));
+    }
+
+    private void store(LiveInterval dst, Reg64 src) {
+        if (dst.reg == null)
+            _asm.add(new Mov_rmr(new R(Reg64.RBP, dst.frameOffset, src)));
+        else if (dst.reg != src)
+            _asm.add(new Mov_rmr(new R(dst.reg, src)));
+    }
+
+    // the register a result is computed in before store() puts it in place
+    private static Reg64 target(LiveInterval result) {
+        return result.reg != null ? result.reg : Reg64.RAX;
+    }
+
+    private static boolean isIn(Object value, Reg64 reg) {
+        return value instanceof LiveInterval && ((LiveInterval) value).reg == reg;
+    }
+
+    private void push(Object value) {
+        if (value instanceof Integer)
+            _asm.add(new Push((int) value));
+        else if (((LiveInterval) value).reg != null)
+            _asm.add(new Push(((LiveInterval) value).reg));
+        else
+            _asm.add(new Push(new R(Reg64.RBP, ((LiveInterval) value).frameOffset)));
+    }
+}
@@ -0,0 +1,17 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.Condition;
+import miniJava.CodeGeneration.x64.Instruction;
+
+/**
+ * A jump whose target is not placed yet: jmp when cond is null, jcc otherwise.
+ */
+class Jump {
+    final Instruction ins;
+    final Condition cond;
+
+    Jump(Instruction ins, Condition cond) {
+        this.ins = ins;
+        this.cond = cond;
+    }
+}
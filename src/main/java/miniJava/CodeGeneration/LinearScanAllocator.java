@@ -0,0 +1,118 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.Reg64;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static miniJava.CodeGeneration.x64.Reg64.*;
+
+/**
+ * Linear-scan register allocation (Poletto and Sarkar): intervals are taken in order of their start
+ * and given any free register; when none is free, whichever live interval ends last goes to the frame.
+ * An interval that lives across a call may only be given a callee-saved register.
+ */
+public class LinearScanAllocator {
+    // rax, rcx, rdx and r11 are left out: they are scratch for division, syscalls and spilled operands
+    public static final Reg64[] CALLER_SAVED = {RSI, RDI, R8, R9, R10};
+    public static final Reg64[] CALLEE_SAVED = {RBX, R12, R13, R14, R15};
+
+    private final Reg64[] callerSaved;
+    private final Reg64[] calleeSaved;
+    private final Set<Reg64> usedCalleeSaved = EnumSet.noneOf(Reg64.class);
+    private int spillSlots;
+
+    public LinearScanAllocator() {
+        this(CALLER_SAVED, CALLEE_SAVED);
+    }
+
+    public LinearScanAllocator(Reg64[] callerSaved, Reg64[] calleeSaved) {
+        this.callerSaved = callerSaved;
+        this.calleeSaved = calleeSaved;
+    }
+
+    /**
+     * give every interval a register, or a frame slot below rbp if it has no home in the frame
+     */
+    public void allocate(List<LiveInterval> intervals) {
+        List<LiveInterval> sorted = new ArrayList<>(intervals);
+        sorted.sort(Comparator.comparingInt((LiveInterval i) -> i.start).thenComparingInt(i -> i.end));
+        // active intervals, ordered by increasing end
+        List<LiveInterval> active = new ArrayList<>();
+        Set<Reg64> free = EnumSet.noneOf(Reg64.class);
+        free.addAll(List.of(callerSaved));
+        free.addAll(List.of(calleeSaved));
+
+        for (LiveInterval current : sorted) {
+            while (!active.isEmpty() && active.get(0).end < current.start)
+                free.add(active.remove(0).reg);
+            Reg64 reg = pick(current, free);
+            if (reg != null) {
+                free.remove(reg);
+                assign(current, reg, active);
+                continue;
+            }
+            // steal from the interval that ends last, if it ends after this one
+            LiveInterval victim = null;
+            for (int i = active.size() - 1; i >= 0 && victim == null; i--) {
+                if (allowed(current, active.get(i).reg))
+                    victim = active.get(i);
+            }
+            if (victim != null && victim.end > current.end) {
+                active.remove(victim);
+                reg = victim.reg;
+                spill(victim);
+                assign(current, reg, active);
+            } else
+                spill(current);
+        }
+    }
+
+    public List<Reg64> getUsedCalleeSaved() {
+        return new ArrayList<>(usedCalleeSaved);
+    }
+
+    /**
+     * @return number of 8-byte frame slots handed out to spilled intervals
+     */
+    public int getSpillSlots() {
+        return spillSlots;
+    }
+
+    private Reg64 pick(LiveInterval interval, Set<Reg64> free) {
+        if (!interval.crossesCall) {
+            for (Reg64 reg : callerSaved) {
+                if (free.contains(reg))
+                    return reg;
+            }
+        }
+        for (Reg64 reg : calleeSaved) {
+            if (free.contains(reg))
+                return reg;
+        }
+        return null;
+    }
+
+    private boolean allowed(LiveInterval interval, Reg64 reg) {
+        return !interval.crossesCall || List.of(calleeSaved).contains(reg);
+    }
+
+    private void assign(LiveInterval interval, Reg64 reg, List<LiveInterval> active) {
+        interval.reg = reg;
+        if (List.of(calleeSaved).contains(reg))
+            usedCalleeSaved.add(reg);
+        int i = 0;
+        while (i < active.size() && active.get(i).end <= interval.end)
+            i++;
+        active.add(i, interval);
+    }
+
+    private void spill(LiveInterval interval) {
+        interval.reg = null;
+        if (!interval.hasHome)
+            interval.frameOffset = -8 * ++spillSlots;
+    }
+}
@@ -0,0 +1,37 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.Reg64;
+
+/**
+ * The stretch of a method's code over which a value must be kept, numbered in evaluation order,
+ * and where the allocator decided to keep it: a register, or a frame slot at [rbp+frameOffset].
+ */
+public class LiveInterval {
+    public int start;
+    public int end;
+    // a call between start and end clobbers every caller-saved register
+    public boolean crossesCall;
+
+    public Reg64 reg;
+    public int frameOffset;
+    // the value already has a home in the frame (a parameter), so spilling it needs no slot
+    public boolean hasHome;
+
+    public LiveInterval(int start) {
+        this.start = start;
+        this.end = start;
+    }
+
+    public void use(int pos) {
+        end = Math.max(end, pos);
+    }
+
+    public boolean isSpilled() {
+        return reg == null;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + "," + end + "] " + (reg != null ? reg : "rbp" + (frameOffset < 0 ? "" : "+") + frameOffset);
+    }
+}
@@ -0,0 +1,335 @@
+package miniJava.CodeGeneration;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the values one method computes in evaluation order and records the interval each is live over.
+ * A node's operands are used at an even position and its result is defined at the next odd one.
+ * Visiting an expression returns where its value ends up: a LiveInterval, or an Integer for a constant.
+ */
+public class LiveIntervalBuilder implements Visitor<Object, Object> {
+    // parameters and local variables
+    public final Map<Declaration, LiveInterval> vars = new HashMap<>();
+    // expression results, keyed by the Expression or Reference that computes them
+    final Map<AST, LiveInterval> temps = new HashMap<>();
+    public final List<LiveInterval> intervals = new ArrayList<>();
+    LiveInterval thisValue;
+
+    // positions of calls, println and allocations, which clobber the caller-saved registers
+    private final List<Integer> calls = new ArrayList<>();
+    private int pos = 0;
+
+    public LiveIntervalBuilder(MethodDecl md) {
+        if (!md.isStatic)
+            thisValue = argument(CodeGenerator.thisOffset(md));
+        for (int i = 0; i < md.parameterDeclList.size(); i++)
+            vars.put(md.parameterDeclList.get(i), argument(CodeGenerator.paramOffset(md, i)));
+        md.statementList.forEach(stmt -> stmt.visit(this, null));
+        for (LiveInterval interval : intervals) {
+            for (int call : calls) {
+                if (interval.start < call && call < interval.end)
+                    interval.crossesCall = true;
+            }
+        }
+    }
+
+    // live from method entry, and already stored by the caller at [rbp+home]
+    private LiveInterval argument(int home) {
+        LiveInterval interval = new LiveInterval(0);
+        interval.hasHome = true;
+        interval.frameOffset = home;
+        intervals.add(interval);
+        return interval;
+    }
+
+    private int next() {
+        pos += 2;
+        return pos;
+    }
+
+    private static void use(Object value, int at) {
+        if (value instanceof LiveInterval)
+            ((LiveInterval) value).use(at);
+    }
+
+    private LiveInterval temp(AST node, int at) {
+        LiveInterval interval = new LiveInterval(at + 1);
+        intervals.add(interval);
+        temps.put(node, interval);
+        return interval;
+    }
+
+    private LiveInterval call(AST node, Reference methodRef, ExprList args) {
+        MethodDecl md = (MethodDecl) methodRef.decl;
+        Object receiver = null;
+        if (!md.isStatic && !CodeGenerator.isPrintln(md))
+            receiver = methodRef instanceof QualRef ? ((QualRef) methodRef).ref.visit(this, null) : thisValue;
+        List<Object> values = new ArrayList<>();
+        args.forEach(a -> values.add(a.visit(this, null)));
+        int at = next();
+        use(receiver, at);
+        values.forEach(v -> use(v, at));
+        calls.add(at);
+        return node != null ? temp(node, at) : null;
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitFieldDecl(FieldDecl fd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitVarDecl(VarDecl decl, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBaseType(BaseType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitClassType(ClassType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitArrayType(ArrayType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        stmt.sl.forEach(s -> s.visit(this, null));
+        return null;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        Object value = stmt.initExp.visit(this, null);
+        int at = next();
+        use(value, at);
+        LiveInterval var = new LiveInterval(at + 1);
+        intervals.add(var);
+        vars.put(stmt.varDecl, var);
+        return null;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        Object base = null;
+        boolean isStatic = CodeGenerator.isStaticField(stmt.ref.decl);
+        if (stmt.ref instanceof QualRef && !isStatic)
+            base = ((QualRef) stmt.ref).ref.visit(this, null);
+        else if (stmt.ref.decl instanceof FieldDecl && !isStatic)
+            base = thisValue;
+        Object value = stmt.val.visit(this, null);
+        int at = next();
+        use(base, at);
+        use(value, at);
+        if (stmt.ref.decl instanceof LocalDecl)
+            vars.get(stmt.ref.decl).use(at + 1);
+        return null;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        Object array = stmt.ref.visit(this, null);
+        Object index = stmt.ix.visit(this, null);
+        Object value = stmt.exp.visit(this, null);
+        int at = next();
+        use(array, at);
+        use(index, at);
+        use(value, at);
+        return null;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        call(null, stmt.methodRef, stmt.argList);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        Object value = stmt.returnExpr != null ? stmt.returnExpr.visit(this, null) : null;
+        use(value, next());
+        return null;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        use(stmt.cond.visit(this, null), next());
+        stmt.thenStmt.visit(this, null);
+        if (stmt.elseStmt != null)
+            stmt.elseStmt.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        // the first position inside the loop; a variable declared just before it starts here
+        int loopStart = pos + 1;
+        use(stmt.cond.visit(this, null), next());
+        stmt.body.visit(this, null);
+        int loopEnd = next();
+        // a variable used in the loop and set before it is needed again on every iteration
+        List<LiveInterval> live = new ArrayList<>(vars.values());
+        if (thisValue != null)
+            live.add(thisValue);
+        for (LiveInterval var : live) {
+            if (var.start <= loopStart && var.end > loopStart)
+                var.use(loopEnd);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        Object value = expr.expr.visit(this, null);
+        int at = next();
+        use(value, at);
+        return temp(expr, at);
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        String op = expr.operator.spelling;
+        if (op.equals("&&") || op.equals("||")) {
+            // the result is set from the left operand, then maybe overwritten by the right one
+            Object left = expr.left.visit(this, null);
+            int at = next();
+            use(left, at);
+            LiveInterval result = temp(expr, at);
+            use(expr.right.visit(this, null), next());
+            result.use(pos);
+            return result;
+        }
+        Object left = expr.left.visit(this, null);
+        Object right = expr.right.visit(this, null);
+        int at = next();
+        use(left, at);
+        use(right, at);
+        return temp(expr, at);
+    }
+
+    @Override
+    public Object visitRefExpr(RefExpr expr, Object arg) {
+        return expr.ref.visit(this, null);
+    }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        Object array = expr.ref.visit(this, null);
+        Object index = expr.ixExpr.visit(this, null);
+        int at = next();
+        use(array, at);
+        use(index, at);
+        return temp(expr, at);
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        return call(expr, expr.functionRef, expr.argList);
+    }
+
+    @Override
+    public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+        return expr.lit.visit(this, null);
+    }
+
+    @Override
+    public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+        int at = next();
+        calls.add(at);
+        return temp(expr, at);
+    }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        Object size = expr.sizeExpr.visit(this, null);
+        int at = next();
+        use(size, at);
+        calls.add(at);
+        return temp(expr, at);
+    }
+
+    @Override
+    public Object visitThisRef(ThisRef ref, Object arg) {
+        return thisValue;
+    }
+
+    @Override
+    public Object visitIdRef(IdRef ref, Object arg) {
+        if (ref.decl instanceof LocalDecl)
+            return vars.get(ref.decl);
+        if (ref.decl instanceof FieldDecl) {
+            int at = next();
+            if (!CodeGenerator.isStaticField(ref.decl))
+                use(thisValue, at);
+            return temp(ref, at);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitQRef(QualRef ref, Object arg) {
+        if (!(ref.decl instanceof FieldDecl))
+            return null;
+        Object base = CodeGenerator.isStaticField(ref.decl) ? null : ref.ref.visit(this, null);
+        int at = next();
+        use(base, at);
+        return temp(ref, at);
+    }
+
+    @Override
+    public Object visitIdentifier(Identifier id, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitOperator(Operator op, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitIntLiteral(IntLiteral num, Object arg) {
+        return Integer.parseInt(num.spelling);
+    }
+
+    @Override
+    public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+        return bool.spelling.equals("true") ? 1 : 0;
+    }
+
+    @Override
+    public Object visitNullLiteral(NullLiteral nil, Object arg) {
+        return 0;
+    }
+}
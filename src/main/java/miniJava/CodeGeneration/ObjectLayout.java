@@ -0,0 +1,67 @@
+package miniJava.CodeGeneration;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Where the instance fields of a class go in its objects. Every value is 64 bits wide and takes an
+ * 8-byte slot, except a boolean, which is only ever 0 or 1 and takes a byte. Fields are placed widest
+ * first, in declaration order among equals, so each lands on its natural boundary without padding,
+ * and the size is rounded up to a word for the allocator and the collector's bitmap. The header slot
+ * of --gc is the word just before offset 0 and is not part of the size.
+ */
+class ObjectLayout {
+    static final int WORD = 8;
+
+    /**
+     * @return the class's runtime entity, its size the bytes an object needs
+     */
+    static RuntimeEntity layOut(ClassDecl cd) {
+        List<FieldDecl> fields = new ArrayList<>();
+        for (FieldDecl fd : cd.fieldDeclList) {
+            if (!fd.isStatic)
+                fields.add(fd);
+        }
+        // a stable sort, so equal sizes keep their declaration order
+        fields.sort(Comparator.comparingInt((FieldDecl fd) -> fieldSize(fd.type)).reversed());
+        RuntimeEntity classRT = new RuntimeEntity();
+        for (FieldDecl fd : fields) {
+            RuntimeEntity fieldRT = new RuntimeEntity();
+            fieldRT.size = fieldSize(fd.type);
+            fieldRT.offset = align(classRT.size, fieldRT.size);
+            classRT.size = fieldRT.offset + fieldRT.size;
+            fd.runtimeEntity = fieldRT;
+        }
+        classRT.size = align(classRT.size, WORD);
+        return classRT;
+    }
+
+    static int fieldSize(TypeDenoter type) {
+        return type.typeKind == TypeKind.BOOLEAN ? 1 : WORD;
+    }
+
+    private static int align(int offset, int size) {
+        return (offset + size - 1) / size * size;
+    }
+
+    // r := the field of size bytes at address, whose r is set
+    static Instruction load(R address, int size) {
+        return size == 1 ? new Movzx(address) : new Mov_rrm(address);
+    }
+
+    // the field of size bytes at address := r, whose r is set
+    static Instruction store(R address, int size) {
+        return new Mov_rmr(address, size == 1);
+    }
+
+    // the field of size bytes at address := imm
+    static Instruction store(R address, int imm, int size) {
+        return new Mov_rmi(address, imm, size == 1);
+    }
+}
@@ -0,0 +1,439 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Peephole optimizer over a finished code section. Instructions are decoded just far enough to
+ * recognize what the stack machine leaves behind, rewritten by the rules below until none applies,
+ * and laid out again with every jmp, jcc and call re-aimed at the new address of its target.
+ *  push x; pop r          -> mov r, x (nothing when x is r)
+ *  push x; mov; pop r     -> mov r, x; mov, when the mov touches neither r nor rsp
+ *  mov r, a; mov r, b     -> mov r, b, when b does not read r (and mov r, r goes away)
+ *  cmp a; jcc; cmp a      -> cmp a; jcc
+ *  jmp/jcc to the next instruction, and code after jmp/ret that nothing branches to, are removed
+ * A window never extends over an instruction that is a branch target or entry point.
+ */
+public class Peephole {
+    private static final int REX_W = 8, REX_R = 4, REX_X = 2, REX_B = 1;
+    private static final int RSP = 4;
+
+    private static class Node {
+        Instruction ins;
+        byte[] bytes;
+        int newAddress;
+        // branch target of a jmp, jcc or call
+        Node target;
+        // branches aimed here, plus one for an entry point
+        int refs;
+        // set when removed: where branches aimed here go instead
+        Node forward;
+    }
+
+    private List<Node> _code = new ArrayList<>();
+    private final Map<Integer, Node> _byAddress = new HashMap<>();
+    // zero-length node after the last instruction, for branches to the end of the code
+    private final Node _end = new Node();
+    private final int _oldSize;
+    private int _newSize;
+
+    // removed nodes whose forward is the next node emitted by the current pass
+    private final List<Node> _pending = new ArrayList<>();
+    private List<Node> _out;
+
+    /**
+     * @param asm code built with keepInstructions
+     * @param entries addresses reached from outside the code, such as the entry point
+     */
+    public Peephole(InstructionList asm, int... entries) {
+        for (int i = 0; i < asm.size(); i++) {
+            Node n = new Node();
+            n.ins = asm.get(i);
+            n.bytes = n.ins.getBytes();
+            _byAddress.put(n.ins.startAddress, n);
+            _code.add(n);
+        }
+        _end.bytes = new byte[0];
+        _byAddress.put(asm.getSize(), _end);
+        _code.add(_end);
+        _oldSize = asm.getSize();
+        for (Node n : _code) {
+            if (isBranch(n.bytes)) {
+                int target = n.ins.startAddress + n.bytes.length + branchOffset(n.bytes);
+                n.target = _byAddress.get(target);
+                if (n.target == null)
+                    throw new IllegalArgumentException("Branch at " + n.ins.startAddress + " does not target an instruction");
+                n.target.refs++;
+            }
+        }
+        for (int entry : entries)
+            _byAddress.get(entry).refs++;
+    }
+
+    /**
+     * @return the optimized code
+     */
+    public InstructionList run() {
+        while (pass())
+            ;
+        int address = 0;
+        for (Node n : _code) {
+            n.newAddress = address;
+            address += n.bytes.length;
+        }
+        _newSize = address;
+        InstructionList asm = new InstructionList(true);
+        for (Node n : _code) {
+            if (n != _end)
+                asm.add(n.target != null ? retarget(n) : n.ins);
+        }
+        return asm;
+    }
+
+    /**
+     * @return where the instruction at oldAddress went, valid after run()
+     */
+    public int mapAddress(int oldAddress) {
+        return resolve(_byAddress.get(oldAddress)).newAddress;
+    }
+
+    public int getRemovedBytes() {
+        return _oldSize - _newSize;
+    }
+
+    private boolean pass() {
+        _out = new ArrayList<>(_code.size());
+        boolean changed = false;
+        int i = 0;
+        while (i < _code.size()) {
+            int consumed = rewrite(i);
+            if (consumed == 0) {
+                emit(_code.get(i));
+                i++;
+            } else {
+                changed = true;
+                i += consumed;
+            }
+        }
+        _code = _out;
+        return changed;
+    }
+
+    // apply the first rule that matches at i, @return number of nodes it consumed
+    private int rewrite(int i) {
+        Node a = _code.get(i);
+        if (a == _end)
+            return 0;
+        Node last = _out.isEmpty() ? null : _out.get(_out.size() - 1);
+        // unreachable
+        if (last != null && isUnconditional(last.bytes) && a.refs == 0 && !reachedThroughPending()) {
+            remove(a);
+            return 1;
+        }
+        // branch to the next instruction
+        if (a.target != null && !isCall(a.bytes) && resolve(a.target) == _code.get(i + 1)) {
+            remove(a);
+            return 1;
+        }
+        // mov r, r
+        int dst = movDestination(a.bytes);
+        if (dst >= 0 && dst == movSource(a.bytes)) {
+            remove(a);
+            return 1;
+        }
+        Node b = free(i + 1);
+        if (b == null)
+            return 0;
+        int r = popRegister(b.bytes);
+        if (r >= 0) {
+            Instruction mov = forward(a.bytes, r);
+            if (mov != null) {
+                replace(a, mov);
+                remove(b);
+                return 2;
+            }
+        }
+        // mov r, a; mov r, b
+        if (dst >= 0 && dst == movDestination(b.bytes) && (registersRead(b.bytes) & 1 << dst) == 0) {
+            remove(a);
+            return 1;
+        }
+        Node c = free(i + 2);
+        if (c == null)
+            return 0;
+        r = popRegister(c.bytes);
+        if (r >= 0 && isMov(b.bytes) && (registersUsed(b.bytes) & (1 << r | 1 << RSP)) == 0) {
+            Instruction mov = forward(a.bytes, r);
+            if (mov != null) {
+                replace(a, mov);
+                emit(b);
+                remove(c);
+                return 3;
+            }
+        }
+        // cmp a; jcc; cmp a
+        if (isCompare(a.bytes) && isJcc(b.bytes) && Arrays.equals(a.bytes, c.bytes)) {
+            emit(a);
+            emit(b);
+            remove(c);
+            return 3;
+        }
+        return 0;
+    }
+
+    // a removed node that is still branched to lets control fall through to the next one
+    private boolean reachedThroughPending() {
+        for (Node n : _pending) {
+            if (n.refs > 0)
+                return true;
+        }
+        return false;
+    }
+
+    // the node at i if a window may include it
+    private Node free(int i) {
+        if (i >= _code.size())
+            return null;
+        Node n = _code.get(i);
+        return n != _end && n.refs == 0 ? n : null;
+    }
+
+    private void emit(Node n) {
+        for (Node removed : _pending) {
+            removed.forward = n;
+            n.refs += removed.refs;
+        }
+        _pending.clear();
+        _out.add(n);
+    }
+
+    private void remove(Node n) {
+        if (n.target != null)
+            resolve(n.target).refs--;
+        _pending.add(n);
+    }
+
+    private void replace(Node n, Instruction ins) {
+        Node replacement = new Node();
+        replacement.ins = ins;
+        replacement.bytes = ins.getBytes();
+        _pending.add(n);
+        emit(replacement);
+    }
+
+    private static Node resolve(Node n) {
+        while (n.forward != null)
+            n = n.forward;
+        return n;
+    }
+
+    private Instruction retarget(Node n) {
+        int cur = n.newAddress;
+        int dest = resolve(n.target).newAddress;
+        int op = n.bytes[0] & 0xFF;
+        if (op == 0xE8)
+            return new Call(cur, dest);
+        if (op == 0xE9 || op == 0xEB)
+            return new Jmp(cur, dest, op == 0xEB);
+        if (op == 0x0F)
+            return new Jcc(cur, dest, Condition.values()[n.bytes[1] & 0xF], false);
+        return new Jcc(cur, dest, Condition.values()[op & 0xF], true);
+    }
+
+    // mov r, x for the push x in bytes, or null if bytes is not a push
+    private static Instruction forward(byte[] bytes, int r) {
+        Reg64 dst = reg(r);
+        int src = pushRegister(bytes);
+        if (src >= 0)
+            return src == r ? new Mov_rmr(new R(dst, dst)) : new Mov_rmr(new R(dst, reg(src)));
+        if (bytes.length == 5 && (bytes[0] & 0xFF) == 0x68)
+            return new Mov_rmi(new R(dst, true), readInt(bytes, 1));
+        int p = prefix(bytes);
+        if (bytes.length > p + 1 && (bytes[p] & 0xFF) == 0xFF && mod(bytes) != 3 && regField(bytes) == 6) {
+            R memory = memory(bytes, dst);
+            return memory != null ? new Mov_rrm(memory) : null;
+        }
+        return null;
+    }
+
+    private static Reg64 reg(int idx) {
+        for (Reg64 r : Reg64.values()) {
+            if (r.getIdx() == idx)
+                return r;
+        }
+        throw new IllegalArgumentException("No register " + idx);
+    }
+
+    // decoding, only as far as needed for the instructions CodeGenerator emits
+
+    private static int prefix(byte[] b) {
+        return b.length > 0 && (b[0] & 0xF0) == 0x40 ? 1 : 0;
+    }
+
+    private static int rex(byte[] b) {
+        return prefix(b) == 1 ? b[0] & 0xF : 0;
+    }
+
+    private static int opcode(byte[] b) {
+        return b[prefix(b)] & 0xFF;
+    }
+
+    private static int mod(byte[] b) {
+        return (b[prefix(b) + 1] & 0xFF) >> 6;
+    }
+
+    private static int regField(byte[] b) {
+        return ((b[prefix(b) + 1] & 0xFF) >> 3 & 7) | ((rex(b) & REX_R) != 0 ? 8 : 0);
+    }
+
+    private static int rmField(byte[] b) {
+        return (b[prefix(b) + 1] & 7) | ((rex(b) & REX_B) != 0 ? 8 : 0);
+    }
+
+    private static int pushRegister(byte[] b) {
+        return shortForm(b, 0x50);
+    }
+
+    private static int popRegister(byte[] b) {
+        return shortForm(b, 0x58);
+    }
+
+    private static int shortForm(byte[] b, int base) {
+        int p = prefix(b);
+        if (b.length != p + 1 || (rex(b) & ~REX_B) != 0)
+            return -1;
+        int op = b[p] & 0xFF;
+        if (op < base || op > base + 7)
+            return -1;
+        return (op - base) | ((rex(b) & REX_B) != 0 ? 8 : 0);
+    }
+
+    private static boolean isMov(byte[] b) {
+        if (b.length < 2 || (rex(b) & REX_W) == 0)
+            return false;
+        int op = opcode(b);
+        return op == 0x89 || op == 0x8B || (op == 0xC7 && (regField(b) & 7) == 0);
+    }
+
+    // register a 64-bit mov writes, or -1
+    private static int movDestination(byte[] b) {
+        if (!isMov(b))
+            return -1;
+        int op = opcode(b);
+        if (op == 0x8B)
+            return regField(b);
+        return mod(b) == 3 ? rmField(b) : -1;
+    }
+
+    // register a 64-bit register to register mov reads, or -1
+    private static int movSource(byte[] b) {
+        if (!isMov(b) || mod(b) != 3)
+            return -1;
+        int op = opcode(b);
+        return op == 0x89 ? regField(b) : op == 0x8B ? rmField(b) : -1;
+    }
+
+    // bit set of the registers a mov reads
+    private static int registersRead(byte[] b) {
+        int read = mod(b) == 3 ? 0 : memoryRegisters(b);
+        int src = movSource(b);
+        if (src >= 0)
+            read |= 1 << src;
+        if (opcode(b) == 0x89 && mod(b) != 3)
+            read |= 1 << regField(b);
+        return read;
+    }
+
+    // bit set of the registers a mov reads or writes
+    private static int registersUsed(byte[] b) {
+        int dst = movDestination(b);
+        return registersRead(b) | (dst >= 0 ? 1 << dst : 0);
+    }
+
+    private static int memoryRegisters(byte[] b) {
+        int p = prefix(b);
+        int rm = b[p + 1] & 7;
+        int rexBits = rex(b);
+        if (rm == 4) {
+            int sib = b[p + 2] & 0xFF;
+            int used = 0;
+            int index = (sib >> 3 & 7) | ((rexBits & REX_X) != 0 ? 8 : 0);
+            if (index != RSP)
+                used |= 1 << index;
+            if (!(mod(b) == 0 && (sib & 7) == 5))
+                used |= 1 << ((sib & 7) | ((rexBits & REX_B) != 0 ? 8 : 0));
+            return used;
+        }
+        if (mod(b) == 0 && rm == 5)
+            return 0;
+        return 1 << rmField(b);
+    }
+
+    // the memory operand of a modrm instruction, with r as the register operand
+    private static R memory(byte[] b, Reg64 r) {
+        int p = prefix(b);
+        int modrm = b[p + 1] & 0xFF;
+        int mod = modrm >> 6;
+        int pos = p + 2;
+        Reg64 base;
+        Reg64 index = null;
+        int mult = 1;
+        if ((modrm & 7) == 4) {
+            int sib = b[pos++] & 0xFF;
+            if (mod == 0 && (sib & 7) == 5)
+                return null;
+            int idx = (sib >> 3 & 7) | ((rex(b) & REX_X) != 0 ? 8 : 0);
+            if (idx != RSP) {
+                index = reg(idx);
+                mult = 1 << (sib >> 6);
+            }
+            base = reg((sib & 7) | ((rex(b) & REX_B) != 0 ? 8 : 0));
+        } else {
+            if (mod == 0 && (modrm & 7) == 5)
+                return null;
+            base = reg(rmField(b));
+        }
+        int disp = mod == 1 ? b[pos] : mod == 2 ? readInt(b, pos) : 0;
+        return index == null ? new R(base, disp, r) : new R(base, index, mult, disp, r);
+    }
+
+    private static boolean isCall(byte[] b) {
+        return b.length == 5 && (b[0] & 0xFF) == 0xE8;
+    }
+
+    private static boolean isJcc(byte[] b) {
+        int op = b.length > 0 ? b[0] & 0xFF : 0;
+        return (b.length == 6 && op == 0x0F && (b[1] & 0xF0) == 0x80) || (b.length == 2 && (op & 0xF0) == 0x70);
+    }
+
+    private static boolean isBranch(byte[] b) {
+        int op = b.length > 0 ? b[0] & 0xFF : 0;
+        return isCall(b) || isJcc(b) || (b.length == 5 && op == 0xE9) || (b.length == 2 && op == 0xEB);
+    }
+
+    private static boolean isUnconditional(byte[] b) {
+        int op = b.length > 0 ? b[0] & 0xFF : 0;
+        return (b.length == 1 && op == 0xC3) || (b.length == 5 && op == 0xE9) || (b.length == 2 && op == 0xEB);
+    }
+
+    private static boolean isCompare(byte[] b) {
+        if (b.length < 2)
+            return false;
+        int op = opcode(b);
+        return op == 0x39 || op == 0x3B || ((op == 0x81 || op == 0x83) && (regField(b) & 7) == 7);
+    }
+
+    private static int branchOffset(byte[] b) {
+        return b.length == 2 ? b[1] : readInt(b, b.length - 4);
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8 | (b[pos + 2] & 0xFF) << 16 | b[pos + 3] << 24;
+    }
+}
@@ -0,0 +1,578 @@
+package miniJava.CodeGeneration;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates one method with its locals, parameters and expression temporaries kept in registers
+ * chosen by LinearScanAllocator, instead of on the stack.
+ * Calls keep the stack machine's convention (receiver and arguments pushed, result in rax),
+ * so a method generated here can call and be called by any other.
+ * Visiting an expression returns where its value is: a LiveInterval, or an Integer constant.
+ */
+class RegisterCodeGenerator implements Visitor<Object, Object> {
+    private final CodeGenerator _gen;
+    private final InstructionList _asm;
+    private final MethodDecl _method;
+
+    private Map<Declaration, LiveInterval> _vars;
+    private Map<AST, LiveInterval> _temps;
+    private LiveInterval _this;
+    private List<Reg64> _saved;
+    // [rbp+_savedOffset] holds the first saved callee-saved register
+    private int _savedOffset;
+
+    RegisterCodeGenerator(CodeGenerator gen, InstructionList asm, MethodDecl md) {
+        this._gen = gen;
+        this._asm = asm;
+        this._method = md;
+    }
+
+    void generate() {
+        LiveIntervalBuilder live = new LiveIntervalBuilder(_method);
+        LinearScanAllocator allocator = new LinearScanAllocator();
+        allocator.allocate(live.intervals);
+        _vars = live.vars;
+        _temps = live.temps;
+        _this = live.thisValue;
+        _saved = allocator.getUsedCalleeSaved();
+        _savedOffset = -8 * (allocator.getSpillSlots() + _saved.size());
+
+        // method prologue
+        _asm.add(new Push(Reg64.RBP));
+        _asm.add(new Mov_rmr(new R(Reg64.RBP, Reg64.RSP)));
+        if (_savedOffset != 0)
+            _asm.add(new Sub(new R(Reg64.RSP, true), -_savedOffset));
+        for (int i = 0; i < _saved.size(); i++)
+            _asm.add(new Mov_rmr(new R(Reg64.RBP, _savedOffset + 8 * i, _saved.get(i))));
+        // arguments arrive on the stack
+        List<LiveInterval> arguments = new ArrayList<>();
+        if (_this != null)
+            arguments.add(_this);
+        _method.parameterDeclList.forEach(pd -> arguments.add(_vars.get(pd)));
+        for (LiveInterval argument : arguments) {
+            if (argument.reg != null && argument.end > 0)
+                _asm.add(new Mov_rrm(new R(Reg64.RBP, argument.frameOffset, argument.reg)));
+        }
+        _method.statementList.forEach(stmt -> stmt.visit(this, null));
+        // void methods may end without a return
+        makeReturn();
+    }
+
+    private void makeReturn() {
+        if (_gen.isMainMethod(_method)) {
+            _gen.makeExitJump();
+            return;
+        }
+        for (int i = 0; i < _saved.size(); i++)
+            _asm.add(new Mov_rrm(new R(Reg64.RBP, _savedOffset + 8 * i, _saved.get(i))));
+        _asm.add(new Mov_rmr(new R(Reg64.RSP, Reg64.RBP)));
+        _asm.add(new Pop(Reg64.RBP));
+        _asm.add(new Ret());
+    }
+
+    // the register value is in, after loading it into scratch if it is in the frame or a constant
+    private Reg64 load(Object value, Reg64 scratch) {
+        if (value instanceof LiveInterval && ((LiveInterval) value).reg != null)
+            return ((LiveInterval) value).reg;
+        move(scratch, value);
+        return scratch;
+    }
+
+    private void move(Reg64 dst, Object value) {
+        if (value instanceof Integer) {
+            _asm.add(new Mov_rmi(new R(dst, true), (int) value));
+            return;
+        }
+        LiveInterval interval = (LiveInterval) value;
+        if (interval.reg == null)
+            _asm.add(new Mov_rrm(new R(Reg64.RBP, interval.frameOffset, dst)));
+        else if (interval.reg != dst)
+            _asm.add(new Mov_rmr(new R(dst, interval.reg)));
+    }
+
+    private void assign(LiveInterval dst, Object value) {
+        if (dst.reg != null) {
+            move(dst.reg, value);
+            return;
+        }
+        if (value instanceof Integer)
+            _asm.add(new Mov_rmi(new R(Reg64.RBP, dst.frameOffset), (int) value));
+        else
+            store(dst, load(value, Reg64.RAX));
+    }
+
+    private void store(LiveInterval dst, Reg64 src) {
+        if (dst.reg == null)
+            _asm.add(new Mov_rmr(new R(Reg64.RBP, dst.frameOffset, src)));
+        else if (dst.reg != src)
+            _asm.add(new Mov_rmr(new R(dst.reg, src)));
+    }
+
+    // the register an expression result is computed in before assign() puts it in place
+    private static Reg64 target(LiveInterval result) {
+        return result.reg != null ? result.reg : Reg64.RAX;
+    }
+
+    private static boolean isIn(Object value, Reg64 reg) {
+        return value instanceof LiveInterval && ((LiveInterval) value).reg == reg;
+    }
+
+    private void push(Object value) {
+        if (value instanceof Integer)
+            _asm.add(new Push((int) value));
+        else if (((LiveInterval) value).reg != null)
+            _asm.add(new Push(((LiveInterval) value).reg));
+        else
+            _asm.add(new Push(new R(Reg64.RBP, ((LiveInterval) value).frameOffset)));
+    }
+
+    // cmp value, 0
+    private void compareToZero(LiveInterval value) {
+        if (value.reg != null)
+            _asm.add(new Cmp(new R(value.reg, true), 0));
+        else
+            _asm.add(new Cmp(new R(Reg64.RBP, value.frameOffset), 0));
+    }
+
+    // cmp left, right; the flags then hold the relation between them
+    private void compare(Object left, Object right) {
+        Reg64 l = load(left, Reg64.RAX);
+        if (right instanceof Integer)
+            _asm.add(new Cmp(new R(l, true), (int) right));
+        else
+            _asm.add(new Cmp(new R(l, load(right, Reg64.R11))));
+    }
+
+    /**
+     * compile cond into control flow: jump when it evaluates to when, fall through otherwise,
+     * as CodeGenerator does for the stack machine
+     * @return the jumps to patch with the target
+     */
+    private List<Jump> makeBranch(Expression cond, boolean when) {
+        List<Jump> jumps = new ArrayList<>();
+        if (cond instanceof UnaryExpr && ((UnaryExpr) cond).operator.spelling.equals("!"))
+            return makeBranch(((UnaryExpr) cond).expr, !when);
+        if (cond instanceof BinaryExpr) {
+            BinaryExpr expr = (BinaryExpr) cond;
+            String op = expr.operator.spelling;
+            if (op.equals("&&") || op.equals("||")) {
+                boolean decides = op.equals("||");
+                if (when == decides) {
+                    jumps.addAll(makeBranch(expr.left, when));
+                    jumps.addAll(makeBranch(expr.right, when));
+                } else {
+                    List<Jump> skip = makeBranch(expr.left, decides);
+                    jumps.addAll(makeBranch(expr.right, when));
+                    _gen.patch(skip, _asm.getSize());
+                }
+                return jumps;
+            }
+            Condition relation = CodeGenerator.relation(op);
+            if (relation != null) {
+                Object left = expr.left.visit(this, null);
+                Object right = expr.right.visit(this, null);
+                compare(left, right);
+                jumps.add(_gen.makeJump(when ? relation : relation.negate()));
+                return jumps;
+            }
+        }
+        Object value = cond.visit(this, null);
+        if (value instanceof Integer) {
+            // decided at compile time
+            if (((int) value != 0) == when)
+                jumps.add(_gen.makeJump(null));
+            return jumps;
+        }
+        compareToZero((LiveInterval) value);
+        jumps.add(_gen.makeJump(when ? Condition.NE : Condition.E));
+        return jumps;
+    }
+
+    private void makeCall(Reference methodRef, ExprList args, LiveInterval result) {
+        MethodDecl md = (MethodDecl) methodRef.decl;
+        if (CodeGenerator.isPrintln(md)) {
+            push(args.get(0).visit(this, null));
+            _gen.makePrintln();
+            return;
+        }
+        Object receiver = null;
+        if (!md.isStatic)
+            receiver = methodRef instanceof QualRef ? ((QualRef) methodRef).ref.visit(this, null) : _this;
+        List<Object> values = new ArrayList<>();
+        args.forEach(a -> values.add(a.visit(this, null)));
+        if (receiver != null)
+            push(receiver);
+        values.forEach(this::push);
+        _gen.makeCall(md);
+        int pushed = values.size() + (md.isStatic ? 0 : 1);
+        if (pushed > 0)
+            _asm.add(new Add(new R(Reg64.RSP, true), 8 * pushed));
+        if (result != null)
+            store(result, Reg64.RAX);
+    }
+
+    private Object fieldLoad(AST node, Object base, int offset, int size) {
+        LiveInterval result = _temps.get(node);
+        Reg64 w = target(result);
+        _asm.add(ObjectLayout.load(new R(load(base, Reg64.R11), offset, w), size));
+        store(result, w);
+        return result;
+    }
+
+    private Object staticLoad(AST node, Declaration decl) {
+        LiveInterval result = _temps.get(node);
+        Reg64 w = target(result);
+        _asm.add(new Mov_rrm(R.rip(decl.runtimeEntity.offset, w)));
+        store(result, w);
+        return result;
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitFieldDecl(FieldDecl fd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitVarDecl(VarDecl decl, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBaseType(BaseType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitClassType(ClassType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitArrayType(ArrayType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        stmt.sl.forEach(s -> s.visit(this, null));
+        return null;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        assign(_vars.get(stmt.varDecl), stmt.initExp.visit(this, null));
+        return null;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        Declaration decl = stmt.ref.decl;
+        if (CodeGenerator.isStaticField(decl)) {
+            Object value = stmt.val.visit(this, null);
+            if (value instanceof Integer)
+                _asm.add(new Mov_rmi(R.rip(decl.runtimeEntity.offset), (int) value));
+            else
+                _asm.add(new Mov_rmr(R.rip(decl.runtimeEntity.offset, load(value, Reg64.RAX))));
+            return null;
+        }
+        if (decl instanceof LocalDecl) {
+            assign(_vars.get(decl), stmt.val.visit(this, null));
+            return null;
+        }
+        Object base = stmt.ref instanceof QualRef ? ((QualRef) stmt.ref).ref.visit(this, null) : _this;
+        Object value = stmt.val.visit(this, null);
+        Reg64 b = load(base, Reg64.R11);
+        RuntimeEntity fieldRT = decl.runtimeEntity;
+        if (value instanceof Integer)
+            _asm.add(ObjectLayout.store(new R(b, fieldRT.offset), (int) value, fieldRT.size));
+        else
+            _asm.add(ObjectLayout.store(new R(b, fieldRT.offset, load(value, Reg64.RAX)), fieldRT.size));
+        return null;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        Object array = stmt.ref.visit(this, null);
+        Object index = stmt.ix.visit(this, null);
+        Object value = stmt.exp.visit(this, null);
+        Reg64 a = load(array, Reg64.R11);
+        R element = index instanceof Integer
+                ? new R(a, 8 + 8 * (int) index)
+                : new R(a, load(index, Reg64.RCX), 8, 8);
+        if (value instanceof Integer) {
+            _asm.add(new Mov_rmi(element, (int) value));
+            return null;
+        }
+        element.SetRegR(load(value, Reg64.RAX));
+        _asm.add(new Mov_rmr(element));
+        return null;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        makeCall(stmt.methodRef, stmt.argList, null);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        if (stmt.returnExpr != null)
+            move(Reg64.RAX, stmt.returnExpr.visit(this, null));
+        makeReturn();
+        return null;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        List<Jump> elseJumps = makeBranch(stmt.cond, false);
+        stmt.thenStmt.visit(this, null);
+        if (stmt.elseStmt == null) {
+            _gen.patch(elseJumps, _asm.getSize());
+            return null;
+        }
+        Jump endJump = _gen.makeJump(null);
+        _gen.patch(elseJumps, _asm.getSize());
+        stmt.elseStmt.visit(this, null);
+        _gen.patch(List.of(endJump), _asm.getSize());
+        return null;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        int startAddr = _asm.getSize();
+        List<Jump> endJumps = makeBranch(stmt.cond, false);
+        stmt.body.visit(this, null);
+        _asm.add(new Jmp(_asm.getSize(), startAddr, false));
+        _gen.patch(endJumps, _asm.getSize());
+        return null;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        Object value = expr.expr.visit(this, null);
+        LiveInterval result = _temps.get(expr);
+        Reg64 w = target(result);
+        move(w, value);
+        if (expr.operator.spelling.equals("-"))
+            _asm.add(new Neg(new R(w, true)));
+        else
+            _asm.add(new Xor(new R(w, true), 1));
+        store(result, w);
+        return result;
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        String op = expr.operator.spelling;
+        LiveInterval result = _temps.get(expr);
+        if (op.equals("&&") || op.equals("||")) {
+            // result := left, and only when that does not decide, result := right
+            assign(result, expr.left.visit(this, null));
+            compareToZero(result);
+            Jump endJump = _gen.makeJump(op.equals("&&") ? Condition.E : Condition.NE);
+            assign(result, expr.right.visit(this, null));
+            _gen.patch(List.of(endJump), _asm.getSize());
+            return result;
+        }
+        Object left = expr.left.visit(this, null);
+        Object right = expr.right.visit(this, null);
+        Reg64 w = target(result);
+
+        Condition relation = CodeGenerator.relation(op);
+        if (relation != null) {
+            compare(left, right);
+            _asm.add(new Setcc(relation, Reg64.RAX));
+            _asm.add(new Movzx(w, Reg64.RAX));
+        } else if (op.equals("/")) {
+            // idiv divides rdx:rax
+            move(Reg64.RAX, left);
+            _asm.add(new Cqo());
+            _asm.add(new Idiv(new R(load(right, Reg64.R11), true)));
+            w = Reg64.RAX;
+        } else {
+            boolean commutative = !op.equals("-");
+            if (isIn(right, w) && !isIn(left, w)) {
+                if (commutative) {
+                    Object swap = left;
+                    left = right;
+                    right = swap;
+                } else {
+                    // w holds the subtrahend, work in rax instead
+                    w = Reg64.RAX;
+                }
+            }
+            move(w, left);
+            arithmetic(op, w, right);
+        }
+        store(result, w);
+        return result;
+    }
+
+    // w := w op right
+    private void arithmetic(String op, Reg64 w, Object right) {
+        if (right instanceof Integer) {
+            int imm = (int) right;
+            switch (op) {
+                case "+":
+                    _asm.add(new Add(new R(w, true), imm));
+                    break;
+                case "-":
+                    _asm.add(new Sub(new R(w, true), imm));
+                    break;
+                case "*":
+                    _asm.add(new Imul(w, new R(w, true), imm));
+                    break;
+            }
+            return;
+        }
+        Reg64 r = load(right, Reg64.R11);
+        switch (op) {
+            case "+":
+                _asm.add(new Add(new R(w, r)));
+                break;
+            case "-":
+                _asm.add(new Sub(new R(w, r)));
+                break;
+            case "*":
+                _asm.add(new Imul(w, new R(r, true)));
+                break;
+        }
+    }
+
+    @Override
+    public Object visitRefExpr(RefExpr expr, Object arg) {
+        return expr.ref.visit(this, null);
+    }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        Object array = expr.ref.visit(this, null);
+        Object index = expr.ixExpr.visit(this, null);
+        LiveInterval result = _temps.get(expr);
+        Reg64 w = target(result);
+        Reg64 a = load(array, Reg64.R11);
+        if (index instanceof Integer)
+            _asm.add(new Mov_rrm(new R(a, 8 + 8 * (int) index, w)));
+        else
+            _asm.add(new Mov_rrm(new R(a, load(index, Reg64.RCX), 8, 8, w)));
+        store(result, w);
+        return result;
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        LiveInterval result = _temps.get(expr);
+        makeCall(expr.functionRef, expr.argList, result);
+        return result;
+    }
+
+    @Override
+    public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+        return expr.lit.visit(this, null);
+    }
+
+    @Override
+    public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+        _asm.add(new Mov_rmi(new R(Reg64.RSI, true), CodeGenerator.objectSize(expr.classtype)));
+        _gen.makeMalloc(CodeGenerator.HEADER_OBJECT);
+        LiveInterval result = _temps.get(expr);
+        store(result, Reg64.RAX);
+        return result;
+    }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        Object size = expr.sizeExpr.visit(this, null);
+        // rsi := length*8 + 8, the length is stored before the elements
+        move(Reg64.RSI, size);
+        _asm.add(new Push(Reg64.RSI));
+        _asm.add(new Imul(Reg64.RSI, new R(Reg64.RSI, true), 8));
+        _asm.add(new Add(new R(Reg64.RSI, true), 8));
+        _gen.makeMalloc(CodeGenerator.headerKind(expr));
+        _asm.add(new Pop(Reg64.RCX));
+        _asm.add(new Mov_rmr(new R(Reg64.RAX, 0, Reg64.RCX)));
+        LiveInterval result = _temps.get(expr);
+        store(result, Reg64.RAX);
+        return result;
+    }
+
+    @Override
+    public Object visitThisRef(ThisRef ref, Object arg) {
+        return _this;
+    }
+
+    @Override
+    public Object visitIdRef(IdRef ref, Object arg) {
+        Declaration decl = ref.decl;
+        if (CodeGenerator.isStaticField(decl))
+            return staticLoad(ref, decl);
+        if (decl instanceof FieldDecl)
+            return fieldLoad(ref, _this, decl.runtimeEntity.offset, decl.runtimeEntity.size);
+        return _vars.get(decl);
+    }
+
+    @Override
+    public Object visitQRef(QualRef ref, Object arg) {
+        Declaration decl = ref.decl;
+        // the qualifier of a static field only names it
+        if (CodeGenerator.isStaticField(decl))
+            return staticLoad(ref, decl);
+        Object base = ref.ref.visit(this, null);
+        // arrays keep their length at offset 0
+        if (CodeGenerator.isArrayLength(ref))
+            return fieldLoad(ref, base, 0, 8);
+        return fieldLoad(ref, base, decl.runtimeEntity.offset, decl.runtimeEntity.size);
+    }
+
+    @Override
+    public Object visitIdentifier(Identifier id, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitOperator(Operator op, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitIntLiteral(IntLiteral num, Object arg) {
+        return Integer.parseInt(num.spelling);
+    }
+
+    @Override
+    public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+        return bool.spelling.equals("true") ? 1 : 0;
+    }
+
+    @Override
+    public Object visitNullLiteral(NullLiteral nil, Object arg) {
+        return 0;
+    }
+}
@@ -0,0 +1,84 @@
+package miniJava.CodeGeneration.x64;
+
+import java.util.Arrays;
+
+/**
+ * Growable little-endian byte buffer. Instructions encode straight into the one an InstructionList
+ * owns, which becomes the code section; only held instructions keep small ones of their own.
+ */
+public class CodeBuffer {
+	private byte[] _buf;
+	private int _size;
+
+	public CodeBuffer() {
+		this(16);
+	}
+
+	public CodeBuffer(int capacity) {
+		_buf = new byte[Math.max(1, capacity)];
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public void write(int b) {
+		ensure(1);
+		_buf[_size++] = (byte)b;
+	}
+
+	public void writeShort(int n) {
+		ensure(2);
+		_buf[_size++] = (byte)n;
+		_buf[_size++] = (byte)(n >> 8);
+	}
+
+	public void writeInt(int n) {
+		ensure(4);
+		putInt(_size, n);
+		_size += 4;
+	}
+
+	public void writeLong(long n) {
+		ensure(8);
+		for( int i = 0; i < 8; ++i )
+			_buf[_size++] = (byte)(n >> (8 * i));
+	}
+
+	public void write(CodeBuffer b) {
+		ensure(b._size);
+		System.arraycopy(b._buf, 0, _buf, _size, b._size);
+		_size += b._size;
+	}
+
+	public int byteAt(int pos) {
+		return _buf[pos] & 0xFF;
+	}
+
+	public int intAt(int pos) {
+		return (_buf[pos] & 0xFF) | (_buf[pos + 1] & 0xFF) << 8 | (_buf[pos + 2] & 0xFF) << 16 | _buf[pos + 3] << 24;
+	}
+
+	// overwrite bytes that were already written
+	public void putInt(int pos, int n) {
+		for( int i = 0; i < 4; ++i )
+			_buf[pos + i] = (byte)(n >> (8 * i));
+	}
+
+	// overwrite the bytes starting at pos with the encoding of i, which must end within them
+	public void put(int pos, Instruction i) {
+		int end = _size;
+		_size = pos;
+		i.encode(this);
+		_size = end;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(_buf, _size);
+	}
+
+	private void ensure(int n) {
+		if( _size + n > _buf.length )
+			_buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _size + n));
+	}
+}
@@ -0,0 +1,15 @@
+package miniJava.CodeGeneration.x64;
+
+// condition codes, numbered as in the low nibble of the Jcc and SETcc opcodes
+public enum Condition {
+	O, NO, B, AE, E, NE, BE, A, S, NS, P, NP, L, GE, LE, G;
+	
+	public int code() {
+		return ordinal();
+	}
+	
+	// conditions come in pairs that differ in the lowest bit
+	public Condition negate() {
+		return values()[ordinal() ^ 1];
+	}
+}
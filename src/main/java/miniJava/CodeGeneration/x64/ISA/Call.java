@@ -6,21 +6,25 @@ import miniJava.CodeGeneration.x64.x64;
 
 public class Call extends Instruction {
 	public Call(int offset) {
-		opcodeBytes.write(0xE8);
-		x64.writeInt(immBytes,offset);
+		opcode(0xE8);
+		imm32(offset);
 	}
 	
 	public Call(int curAddr, int destAddr) {
-		opcodeBytes.write(0xE8);
-		x64.writeInt(immBytes, destAddr - curAddr - 5);
+		opcode(0xE8);
+		imm32(destAddr - curAddr - 5);
 	}
 	
 	public Call(R modrmsib) {
-		opcodeBytes.write(0xFF);
+		opcode(0xFF);
 		
 		modrmsib.SetRegR(x64.mod543ToReg(2));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		operand(modrmsib);
+	}
+	
+	@Override
+	public boolean isPatchSite() {
+		return true;
 	}
 }
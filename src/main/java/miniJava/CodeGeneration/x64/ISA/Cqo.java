@@ -0,0 +1,11 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+
+public class Cqo extends Instruction {
+	// RDX:RAX:= sign-extend of RAX, before idiv
+	public Cqo() {
+		rexW = true;
+		opcode(0x99);
+	}
+}
@@ -10,10 +10,9 @@ public class Idiv extends Instruction {
 	// RAX:= quotient
 	// RDX:= remainder
 	public Idiv(R modrmsib) {
-		opcodeBytes.write(0xF7);
+		opcode(0xF7);
 		modrmsib.SetRegR(x64.mod543ToReg(7));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		operand(modrmsib);
 	}
 }
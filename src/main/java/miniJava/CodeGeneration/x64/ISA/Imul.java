@@ -9,35 +9,31 @@ public class Imul extends Instruction {
 	// imul rm, where RDX:RAX:= RAX * rm
 	public Imul(R rm) {
 		rm.SetRegR(x64.mod543ToReg(5));
-		opcodeBytes.write(0xF7);
-		byte[] rmsib = rm.getBytes();
+		opcode(0xF7);
 		importREX(rm);
-		x64.writeBytes(immBytes,rmsib);
+		operand(rm);
 	}
 	
 	// imul r,rm, where r:= r * rm
 	public Imul(Reg r, R rm) {
-		opcodeBytes.write(0x0F);
-		opcodeBytes.write(0xAF);
+		opcode(0x0F, 0xAF);
 		rm.SetRegR(r);
-		byte[] rmsib = rm.getBytes();
 		importREX(rm);
-		x64.writeBytes(immBytes,rmsib);
+		operand(rm);
 	}
 	
 	// imul r,rm,imm, where r:= rm * imm
 	public Imul(Reg r, R rm, int imm) {
 		rm.SetRegR(r);
-		byte[] rmsib = rm.getBytes();
 		importREX(rm);
-		x64.writeBytes(immBytes,rmsib);
+		operand(rm);
 		
 		if( x64.isOneByte(imm) ) {
-			opcodeBytes.write(0x6B);
-			immBytes.write((int)imm);
+			opcode(0x6B);
+			imm8(imm);
 		} else  {
-			opcodeBytes.write(0x69);
-			x64.writeInt(immBytes,imm);
+			opcode(0x69);
+			imm32(imm);
 		}
 	}
 }
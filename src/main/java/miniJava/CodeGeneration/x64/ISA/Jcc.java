@@ -0,0 +1,34 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Condition;
+import miniJava.CodeGeneration.x64.Instruction;
+
+public class Jcc extends Instruction {
+	// jcc imm32 (offset from next instruction)
+	public Jcc(Condition cond, int offset) {
+		opcode(0x0F, 0x80 + cond.code());
+		imm32(offset);
+	}
+	
+	// jcc imm8 (offset from next instruction)
+	public Jcc(Condition cond, byte offset) {
+		opcode(0x70 + cond.code());
+		imm8(offset);
+	}
+	
+	// jcc imm8/32 (offset calculated)
+	public Jcc(int curAddr, int destAddr, Condition cond, boolean asByte) {
+		if( asByte ) {
+			opcode(0x70 + cond.code());
+			imm8(destAddr - curAddr - 2);
+			return;
+		}
+		opcode(0x0F, 0x80 + cond.code());
+		imm32(destAddr - curAddr - 6);
+	}
+	
+	@Override
+	public boolean isPatchSite() {
+		return true;
+	}
+}
@@ -7,34 +7,38 @@ import miniJava.CodeGeneration.x64.x64;
 public class Jmp extends Instruction {
 	// jmp (some register combination)
 	public Jmp(R modrmsib) {
-		opcodeBytes.write(0xFF);
+		opcode(0xFF);
 		
 		modrmsib.SetRegR(x64.mod543ToReg(4));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		operand(modrmsib);
 	}
 	
 	// jmp imm32 (offset from next instruction)
 	public Jmp(int offset) {
-		opcodeBytes.write(0xE9);
-		x64.writeInt(immBytes,offset);
+		opcode(0xE9);
+		imm32(offset);
 	}
 	
 	// jmp imm8 (offset from next instruction)
 	public Jmp(byte offset) {
-		opcodeBytes.write(0xEB);
-		immBytes.write(offset);
+		opcode(0xEB);
+		imm8(offset);
 	}
 	
 	// jmp imm8/32 (offset calculated)
 	public Jmp(int curAddr, int destAddr, boolean asByte) {
 		if( asByte ) {
-			opcodeBytes.write(0xEB);
-			immBytes.write( destAddr - curAddr - 2 );
+			opcode(0xEB);
+			imm8(destAddr - curAddr - 2);
 			return;
 		}
-		opcodeBytes.write(0xE9);
-		x64.writeInt(immBytes, destAddr - curAddr - 5);
+		opcode(0xE9);
+		imm32(destAddr - curAddr - 5);
+	}
+	
+	@Override
+	public boolean isPatchSite() {
+		return true;
 	}
 }
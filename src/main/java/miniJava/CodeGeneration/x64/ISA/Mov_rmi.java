@@ -7,21 +7,25 @@ import miniJava.CodeGeneration.x64.x64;
 public class Mov_rmi extends Instruction {
 	// rm,imm32 variants
 	public Mov_rmi(R modrmsib, int imm) {
+		this(modrmsib, imm, x64.isOneByte(imm) && modrmsib.IsRegRM_R8());
+	}
+	
+	// rm8,imm8 when isByte, which is how a memory operand is written a byte at a time
+	public Mov_rmi(R modrmsib, int imm, boolean isByte) {
 		modrmsib.SetRegR(x64.mod543ToReg(0));
-		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		
-		if( x64.isOneByte(imm) && modrmsib.IsRegRM_R8() ) {
+		if( isByte ) {
 			// mov rm8, imm8
-			opcodeBytes.write(0xC6);
-			x64.writeBytes(immBytes,modrmsibBytes);
-			immBytes.write(imm);
+			opcode(0xC6);
+			operand(modrmsib);
+			imm8(imm);
 			return;
 		}
 		
 		// mov rm64, imm32
-		opcodeBytes.write(0xC7);
-		x64.writeBytes(immBytes,modrmsibBytes);
-		x64.writeInt(immBytes,imm);
+		opcode(0xC7);
+		operand(modrmsib);
+		imm32(imm);
 	}
 }
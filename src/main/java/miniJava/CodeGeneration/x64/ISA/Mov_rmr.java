@@ -2,14 +2,17 @@ package miniJava.CodeGeneration.x64.ISA;
 
 import miniJava.CodeGeneration.x64.Instruction;
 import miniJava.CodeGeneration.x64.R;
-import miniJava.CodeGeneration.x64.x64;
 
 public class Mov_rmr extends Instruction {
 	// rm,r variants
 	public Mov_rmr(R modrmsib) {
-		byte[] modrmsibBytes = modrmsib.getBytes();
+		this(modrmsib, false);
+	}
+	
+	// rm8,r8 when isByte: the low byte of r, which the REX prefix of a Reg64 makes sil or dil, not dh or bh
+	public Mov_rmr(R modrmsib, boolean isByte) {
 		importREX(modrmsib);
-		opcodeBytes.write(0x89);
-		x64.writeBytes(immBytes,modrmsibBytes);
+		opcode(isByte ? 0x88 : 0x89);
+		operand(modrmsib);
 	}
 }
@@ -0,0 +1,22 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.Reg64;
+
+public class Movzx extends Instruction {
+	// movzx r64, r/m8, where the source is the low byte of rm
+	public Movzx(Reg64 r, Reg64 rm) {
+		opcode(0x0F, 0xB6);
+		R modrmsib = new R(rm, r);
+		importREX(modrmsib);
+		operand(modrmsib);
+	}
+	
+	// movzx r64, m8
+	public Movzx(R modrmsib) {
+		opcode(0x0F, 0xB6);
+		importREX(modrmsib);
+		operand(modrmsib);
+	}
+}
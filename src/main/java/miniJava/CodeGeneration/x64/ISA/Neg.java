@@ -6,10 +6,9 @@ import miniJava.CodeGeneration.x64.x64;
 
 public class Neg extends Instruction {
 	public Neg(R modrmsib) {
-		opcodeBytes.write(0xF7);
+		opcode(0xF7);
 		modrmsib.SetRegR(x64.mod543ToReg(3));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		operand(modrmsib);
 	}
 }
@@ -6,10 +6,9 @@ import miniJava.CodeGeneration.x64.x64;
 
 public class Not extends Instruction {
 	public Not(R modrmsib) {
-		opcodeBytes.write(0xF7);
+		opcode(0xF7);
 		modrmsib.SetRegR(x64.mod543ToReg(2));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		operand(modrmsib);
 	}
 }
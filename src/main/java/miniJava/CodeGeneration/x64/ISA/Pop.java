@@ -13,14 +13,13 @@ public class Pop extends Instruction {
 		// TODO: second, find the opcode for pop r, where r is a plain 64-bit register
 		// NOTE: x64.getIdx(r) will return a 0-7 index, whereas r.getIdx() returns an index from 0-15
 		// opcode: 58 + rd
-		opcodeBytes.write( 0x58 + x64.getIdx(r));
+		opcode(0x58 + x64.getIdx(r));
 	}
 	
 	public Pop(R modrmsib) {
-		opcodeBytes.write(0x8F);
+		opcode(0x8F);
 		modrmsib.SetRegR(x64.mod543ToReg(0));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		operand(modrmsib);
 	}
 }
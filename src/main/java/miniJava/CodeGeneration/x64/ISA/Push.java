@@ -9,26 +9,25 @@ public class Push extends Instruction {
 	public Push(int imm) {
 		// TODO: how can we do a push imm32?
 		//68 id -> immediate dword (imm32)
-		opcodeBytes.write(0x68);
-		x64.writeInt(immBytes, imm);
+		opcode(0x68);
+		imm32(imm);
 	}
 	
 	public Push(Reg64 reg) {
 		// no need to set rexW, push is always r64 (cannot access ecx/r9d)
 		if( reg.getIdx() > 7 )
 			rexB = true;
-		opcodeBytes.write(0x50 + x64.getIdx(reg));
+		opcode(0x50 + x64.getIdx(reg));
 	}
 	
 	public Push(R modrmsib) {
 		// no need to set rexW, push is always r64 (cannot access ecx/r9d)
-		opcodeBytes.write(0xFF);
+		opcode(0xFF);
 
 		// set r to rsi
 		modrmsib.SetRegR(x64.mod543ToReg(6));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		// writing rmsib into immediate bytes
-		x64.writeBytes(immBytes,rmsib);
+		// the modrm operand
+		operand(modrmsib);
 	}
 }
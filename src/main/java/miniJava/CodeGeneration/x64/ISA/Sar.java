@@ -0,0 +1,15 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.R;
+
+// arithmetic shift right, keeping the sign
+public class Sar extends ShiftInstruction {
+	@Override
+	protected int _thisOp() {
+		return 7;
+	}
+
+	public Sar(R modrmsib, int count) {
+		super(modrmsib, count);
+	}
+}
@@ -0,0 +1,21 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Condition;
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.CodeGeneration.x64.x64;
+
+public class Setcc extends Instruction {
+	// setcc r8, where r8 is the low byte of r
+	// the low bytes of rsp..rdi would need an empty REX prefix, which we never emit
+	public Setcc(Condition cond, Reg64 r) {
+		if( r.getIdx() >= 4 && r.getIdx() <= 7 )
+			throw new IllegalArgumentException("setcc cannot address the low byte of " + r);
+		opcode(0x0F, 0x90 + cond.code());
+		R modrmsib = new R(r, true);
+		modrmsib.SetRegR(x64.mod543ToReg(0));
+		rexB = r.getIdx() > 7;
+		operand(modrmsib);
+	}
+}
@@ -0,0 +1,32 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.x64;
+
+// shift rm by an immediate count: C1 /n ib, or D1 /n for a count of one; or by cl: D3 /n
+public abstract class ShiftInstruction extends Instruction {
+	// the /n opcode extension
+	abstract protected int _thisOp();
+	
+	public ShiftInstruction(R modrmsib, int count) {
+		modrmsib.SetRegR(x64.mod543ToReg(_thisOp()));
+		importREX(modrmsib);
+		if( count == 1 ) {
+			opcode(0xD1);
+			operand(modrmsib);
+			return;
+		}
+		opcode(0xC1);
+		operand(modrmsib);
+		imm8(count);
+	}
+	
+	// shift by cl
+	public ShiftInstruction(R modrmsib) {
+		modrmsib.SetRegR(x64.mod543ToReg(_thisOp()));
+		importREX(modrmsib);
+		opcode(0xD3);
+		operand(modrmsib);
+	}
+}
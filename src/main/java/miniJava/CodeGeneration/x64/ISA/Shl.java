@@ -0,0 +1,19 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.R;
+
+// shift left
+public class Shl extends ShiftInstruction {
+	@Override
+	protected int _thisOp() {
+		return 4;
+	}
+
+	public Shl(R modrmsib, int count) {
+		super(modrmsib, count);
+	}
+
+	public Shl(R modrmsib) {
+		super(modrmsib);
+	}
+}
@@ -0,0 +1,15 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.R;
+
+// logical shift right
+public class Shr extends ShiftInstruction {
+	@Override
+	protected int _thisOp() {
+		return 5;
+	}
+
+	public Shr(R modrmsib, int count) {
+		super(modrmsib, count);
+	}
+}
@@ -14,26 +14,24 @@ public abstract class SimpleMathInstruction extends Instruction {
 	
 	// rm,r variants
 	public SimpleMathInstruction(R modrmsib) {
-		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
-		opcodeBytes.write(_RegRegOpcode.get(_thisOp()));
-		x64.writeBytes(immBytes,modrmsibBytes);
+		opcode(_RegRegOpcode.get(_thisOp()));
+		operand(modrmsib);
 	}
 	
 	// do we have an immediate afterwards?
 	public SimpleMathInstruction(R modrmsib, int imm) {
 		//rexW = true;
 		modrmsib.SetRegR(x64.mod543ToReg(_thisOp().idx));
-		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		if( x64.isOneByte(imm) ) {
-			opcodeBytes.write(0x83);
-			x64.writeBytes(immBytes,modrmsibBytes);
-			immBytes.write(imm);
+			opcode(0x83);
+			operand(modrmsib);
+			imm8(imm);
 		} else {
-			opcodeBytes.write(0x81);
-			x64.writeBytes(immBytes,modrmsibBytes);
-			x64.writeInt(immBytes,imm);
+			opcode(0x81);
+			operand(modrmsib);
+			imm32(imm);
 		}
 	}
 	
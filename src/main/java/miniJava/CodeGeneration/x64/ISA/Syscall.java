@@ -5,7 +5,6 @@ import miniJava.CodeGeneration.x64.Instruction;
 public class Syscall extends Instruction {
 	public Syscall() {
 		// TODO: syscall is two bytes
-		opcodeBytes.write(0x0F);
-		opcodeBytes.write(0x05);
+		opcode(0x0F, 0x05);
 	}
 }
@@ -1,49 +1,172 @@
 package miniJava.CodeGeneration.x64;
 
-import java.io.ByteArrayOutputStream;
-
+/**
+ * One x64 instruction. Its constructor records the form: a REX prefix, a one or two byte opcode,
+ * an optional modrm operand and an optional immediate. encode() writes the form straight into the
+ * code. Only two kinds of instruction also hold their bytes in opcodeBytes and immBytes:
+ *  - a patch replacement, which is measured before it is placed
+ *  - an instruction that a keepInstructions list keeps, which passes read back and lay out again
+ */
 public abstract class Instruction {
-	protected ByteArrayOutputStream opcodeBytes = new ByteArrayOutputStream();
-	protected ByteArrayOutputStream immBytes = new ByteArrayOutputStream();
+	// the held encoding after the REX prefix, null until hold()
+	protected CodeBuffer opcodeBytes;
+	protected CodeBuffer immBytes;
 	protected boolean rexW = false;
 	protected boolean rexR = false;
 	protected boolean rexX = false;
 	protected boolean rexB = false;
 	public int startAddress;
 	public int listIdx;
+	// .bss offset a [rip+disp] operand refers to, or -1; InstructionList.link() fills in disp
+	public int bssOffset = -1;
+
+	// the form: opcode holds opcodeSize bytes, the first in its high byte
+	private int _opcode;
+	private int _opcodeSize;
+	private R _operand;
+	private long _imm;
+	private int _immSize;
+
+	// set by encode(): bytes written, and where the modrm byte is among them
 	private int _size = -1;
-	
-	// caching could be done better here, instructions are "kinda" immutable
+	private int _operandAt;
+
 	public int size() {
-		if( _size == -1 )
-			_size = getBytes().length;
+		// measuring an instruction before it is placed holds its encoding
+		if( _size < 0 )
+			hold();
 		return _size;
 	}
-	
+
 	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-		Byte rex = getRex();
-		if( rex != null )
-			b.write(rex);
-		if( opcodeBytes.size() > 0 )
-			x64.writeBytes(b, opcodeBytes.toByteArray());
-		if( immBytes.size() > 0 )
-			x64.writeBytes(b, immBytes.toByteArray() );
-		byte[] retBytes = b.toByteArray();
-		_size = retBytes.length;
-		return retBytes;
-	}
-	
-	private Byte getRex() {
-		if( !( rexW || rexX || rexB || rexR ) )
-			return null;
-		return (byte)((4 << 4) | (rexW ? 1 << 3 : 0) | (rexR ? 1 << 2 : 0) | (rexX ? 1 << 1 : 0) | (rexB ? 1 : 0));
-	}
-	
+		CodeBuffer b = new CodeBuffer(16);
+		encode(b);
+		return b.toByteArray();
+	}
+
+	/**
+	 * append this instruction's encoding to b
+	 */
+	public void encode(CodeBuffer b) {
+		int start = b.size();
+		if( hasRex() )
+			b.write(getRex());
+		if( opcodeBytes != null ) {
+			b.write(opcodeBytes);
+			_operandAt = b.size() - start;
+			b.write(immBytes);
+		} else {
+			encodeOpcode(b);
+			_operandAt = b.size() - start;
+			encodeOperands(b);
+		}
+		_size = b.size() - start;
+	}
+
+	/**
+	 * keep this instruction's encoding, so it no longer reads its operand and can be laid out again
+	 */
+	public void hold() {
+		if( opcodeBytes != null )
+			return;
+		CodeBuffer opcode = new CodeBuffer(_opcodeSize);
+		encodeOpcode(opcode);
+		CodeBuffer operands = new CodeBuffer(10);
+		encodeOperands(operands);
+		opcodeBytes = opcode;
+		immBytes = operands;
+		_size = (hasRex() ? 1 : 0) + opcodeBytes.size() + immBytes.size();
+		_operandAt = _size - immBytes.size();
+	}
+
+	/**
+	 * whether InstructionList must remember where this instruction starts so it can be patched
+	 * once its target is known
+	 */
+	public boolean isPatchSite() {
+		return false;
+	}
+
+	private boolean hasRex() {
+		return rexW || rexX || rexB || rexR;
+	}
+
+	private int getRex() {
+		return (4 << 4) | (rexW ? 1 << 3 : 0) | (rexR ? 1 << 2 : 0) | (rexX ? 1 << 1 : 0) | (rexB ? 1 : 0);
+	}
+
 	protected void importREX(R rm64) {
 		rexW = rexW || rm64.getRexW();
 		rexR = rexR || rm64.getRexR();
 		rexX = rexX || rm64.getRexX();
 		rexB = rexB || rm64.getRexB();
+		if( rm64.isRipRelative() )
+			bssOffset = rm64.getDisp();
+	}
+
+	protected void opcode(int op) {
+		_opcode = op;
+		_opcodeSize = 1;
+	}
+
+	// two byte opcodes: 0F xx
+	protected void opcode(int op1, int op2) {
+		_opcode = op1 << 8 | op2;
+		_opcodeSize = 2;
+	}
+
+	// the modrm operand, encoded when the instruction is
+	protected void operand(R modrmsib) {
+		_operand = modrmsib;
+	}
+
+	protected void imm8(int imm) {
+		_imm = imm;
+		_immSize = 1;
+	}
+
+	protected void imm16(int imm) {
+		_imm = imm;
+		_immSize = 2;
+	}
+
+	protected void imm32(int imm) {
+		_imm = imm;
+		_immSize = 4;
+	}
+
+	protected void imm64(long imm) {
+		_imm = imm;
+		_immSize = 8;
+	}
+
+	private void encodeOpcode(CodeBuffer b) {
+		if( _opcodeSize == 2 )
+			b.write(_opcode >> 8);
+		b.write(_opcode);
+	}
+
+	private void encodeOperands(CodeBuffer b) {
+		if( _operand != null )
+			_operand.encode(b);
+		switch( _immSize ) {
+			case 1: b.write((int)_imm); break;
+			case 2: b.writeShort((int)_imm); break;
+			case 4: b.writeInt((int)_imm); break;
+			case 8: b.writeLong(_imm); break;
+			default: break;
+		}
+	}
+
+	/**
+	 * aim the [rip+disp] operand at address target, both relative to the start of the code, in this
+	 * instruction and in code, where it was placed
+	 */
+	public void resolve(int target, CodeBuffer code) {
+		int disp = target - (startAddress + size());
+		// the disp32 follows the modrm byte
+		code.putInt(startAddress + _operandAt + 1, disp);
+		if( immBytes != null )
+			immBytes.putInt(1, disp);
 	}
 }
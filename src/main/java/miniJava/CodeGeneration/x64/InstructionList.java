@@ -0,0 +1,247 @@
+package miniJava.CodeGeneration.x64;
+
+import miniJava.CodeGeneration.x64.ISA.Call;
+import miniJava.CodeGeneration.x64.ISA.Jcc;
+import miniJava.CodeGeneration.x64.ISA.Jmp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The code section under construction. Each added instruction is encoded straight into one
+ * growable byte buffer; by default the Instruction objects are then dropped and only the
+ * location of patch sites (jumps and calls) is kept, so a later patch() can rewrite them in place.
+ * Passes that need to revisit the instructions construct the list with keepInstructions.
+ * Jumps are patched in their rel32 form, relax() shortens them once the code is finished.
+ * Instructions that address .bss are always kept, for link() to aim them once .bss is placed.
+ */
+public class InstructionList {
+	private CodeBuffer _code = new CodeBuffer(4096);
+	private final List<Instruction> _instructions;
+	private int _count = 0;
+
+	// patch sites in list order: list index, start address and encoded size of each
+	private int[] _patchIdx = new int[64];
+	private int[] _patchStart = new int[64];
+	private int[] _patchSize = new int[64];
+	private int _patchCount = 0;
+
+	// instructions with a [rip+disp] operand into .bss
+	private final List<Instruction> _bssRefs = new ArrayList<>();
+
+	// start addresses of every instruction before and after relax(), in list order
+	private int[] _oldStart;
+	private int[] _newStart;
+
+	public InstructionList() {
+		this(false);
+	}
+
+	/**
+	 * @param keepInstructions keep every added Instruction so it can be read back with get()
+	 */
+	public InstructionList(boolean keepInstructions) {
+		_instructions = keepInstructions ? new ArrayList<>() : null;
+	}
+
+	/**
+	 * encode i at the end of the code section
+	 * @return the list index of i, also stored in i.listIdx
+	 */
+	public int add(Instruction i) {
+		i.startAddress = _code.size();
+		i.listIdx = _count++;
+		if( _instructions != null )
+			i.hold();
+		i.encode(_code);
+		if( _instructions != null )
+			_instructions.add(i);
+		else if( i.isPatchSite() )
+			addPatchSite(i);
+		if( i.bssOffset >= 0 )
+			_bssRefs.add(i);
+		return i.listIdx;
+	}
+
+	/**
+	 * replace the instruction at idx with one of the same encoded size
+	 */
+	public void patch(int idx, Instruction replacement) {
+		int start, size;
+		if( _instructions != null ) {
+			Instruction old = _instructions.get(idx);
+			start = old.startAddress;
+			size = old.size();
+		} else {
+			int site = Arrays.binarySearch(_patchIdx, 0, _patchCount, idx);
+			if( site < 0 )
+				throw new IllegalArgumentException("Instruction " + idx + " is not a patch site");
+			start = _patchStart[site];
+			size = _patchSize[site];
+		}
+		if( replacement.size() != size )
+			throw new IllegalArgumentException("Patch at " + idx + " is " + replacement.size()
+					+ " bytes, expected " + size);
+		_code.put(start, replacement);
+		replacement.startAddress = start;
+		replacement.listIdx = idx;
+		if( _instructions != null )
+			_instructions.set(idx, replacement);
+	}
+
+	public Instruction get(int idx) {
+		if( _instructions == null )
+			throw new IllegalStateException("InstructionList was built without keepInstructions");
+		return _instructions.get(idx);
+	}
+
+	public boolean keepsInstructions() {
+		return _instructions != null;
+	}
+
+	/**
+	 * @return number of instructions added
+	 */
+	public int size() {
+		return _count;
+	}
+
+	/**
+	 * @return size of the code section in bytes, which is also the address of the next instruction
+	 */
+	public int getSize() {
+		return _code.size();
+	}
+
+	public byte[] getBytes() {
+		return _code.toByteArray();
+	}
+
+	/**
+	 * Shorten every jmp and jcc whose target is within reach of a rel8 displacement, then lay the code
+	 * out again with each jmp, jcc and call re-aimed at its target. Shortening a branch only brings
+	 * others closer to their targets, so starting from the rel32 forms and repeating until no more
+	 * fit reaches a fixed point without ever growing one back. Requires keepInstructions.
+	 * @return number of branches shortened
+	 */
+	public int relax() {
+		if( _instructions == null )
+			throw new IllegalStateException("InstructionList was built without keepInstructions");
+		int n = _instructions.size();
+		_oldStart = new int[n + 1];
+		int[] target = new int[n];
+		int[] size = new int[n];
+		boolean[] relaxable = new boolean[n];
+		for( int i = 0; i < n; i++ )
+			_oldStart[i] = _instructions.get(i).startAddress;
+		_oldStart[n] = _code.size();
+		for( int i = 0; i < n; i++ ) {
+			Instruction ins = _instructions.get(i);
+			size[i] = ins.size();
+			byte[] bytes = ins.getBytes();
+			target[i] = -1;
+			if( !isRelative(bytes) )
+				continue;
+			int dest = ins.startAddress + bytes.length + displacement(bytes);
+			target[i] = Arrays.binarySearch(_oldStart, dest);
+			if( target[i] < 0 )
+				throw new IllegalArgumentException("Branch at " + ins.startAddress + " does not target an instruction");
+			relaxable[i] = (bytes[0] & 0xFF) != 0xE8 && bytes.length > 2;
+		}
+
+		_newStart = new int[n + 1];
+		int shortened = 0;
+		boolean changed = true;
+		while( changed ) {
+			for( int i = 0; i < n; i++ )
+				_newStart[i + 1] = _newStart[i] + size[i];
+			changed = false;
+			for( int i = 0; i < n; i++ ) {
+				if( !relaxable[i] )
+					continue;
+				// a forward target moves closer by what this branch itself saves
+				int dest = _newStart[target[i]] - (target[i] > i ? size[i] - 2 : 0);
+				int offset = dest - (_newStart[i] + 2);
+				if( offset >= Byte.MIN_VALUE && offset <= Byte.MAX_VALUE ) {
+					size[i] = 2;
+					relaxable[i] = false;
+					shortened++;
+					changed = true;
+				}
+			}
+		}
+
+		_code = new CodeBuffer(_newStart[n]);
+		for( int i = 0; i < n; i++ ) {
+			Instruction ins = _instructions.get(i);
+			if( target[i] >= 0 ) {
+				ins = retarget(ins.getBytes(), _newStart[i], _newStart[target[i]], size[i] == 2);
+				ins.hold();
+				_instructions.set(i, ins);
+			}
+			ins.startAddress = _newStart[i];
+			ins.listIdx = i;
+			ins.encode(_code);
+		}
+		return shortened;
+	}
+
+	/**
+	 * Point every [rip+disp] operand at its .bss slot, once the code is laid out for good.
+	 * @param bssAddress where .bss starts, relative to the start of the code
+	 */
+	public void link(int bssAddress) {
+		for( Instruction ins : _bssRefs )
+			ins.resolve(bssAddress + ins.bssOffset, _code);
+	}
+
+	/**
+	 * @return where the instruction at oldAddress went, valid after relax()
+	 */
+	public int mapAddress(int oldAddress) {
+		int i = Arrays.binarySearch(_oldStart, oldAddress);
+		if( i < 0 )
+			throw new IllegalArgumentException("No instruction started at " + oldAddress);
+		return _newStart[i];
+	}
+
+	// call, jmp or jcc with a displacement from the next instruction
+	private static boolean isRelative(byte[] b) {
+		int op = b[0] & 0xFF;
+		if( b.length == 5 )
+			return op == 0xE8 || op == 0xE9;
+		if( b.length == 6 )
+			return op == 0x0F && (b[1] & 0xF0) == 0x80;
+		return b.length == 2 && (op == 0xEB || (op & 0xF0) == 0x70);
+	}
+
+	private static int displacement(byte[] b) {
+		if( b.length == 2 )
+			return b[1];
+		int p = b.length - 4;
+		return (b[p] & 0xFF) | (b[p + 1] & 0xFF) << 8 | (b[p + 2] & 0xFF) << 16 | b[p + 3] << 24;
+	}
+
+	private static Instruction retarget(byte[] b, int cur, int dest, boolean asByte) {
+		int op = b[0] & 0xFF;
+		if( op == 0xE8 )
+			return new Call(cur, dest);
+		if( op == 0xE9 || op == 0xEB )
+			return new Jmp(cur, dest, asByte);
+		Condition cond = Condition.values()[(op == 0x0F ? b[1] : op) & 0xF];
+		return new Jcc(cur, dest, cond, asByte);
+	}
+
+	private void addPatchSite(Instruction i) {
+		if( _patchCount == _patchIdx.length ) {
+			_patchIdx = Arrays.copyOf(_patchIdx, _patchCount * 2);
+			_patchStart = Arrays.copyOf(_patchStart, _patchCount * 2);
+			_patchSize = Arrays.copyOf(_patchSize, _patchCount * 2);
+		}
+		_patchIdx[_patchCount] = i.listIdx;
+		_patchStart[_patchCount] = i.startAddress;
+		_patchSize[_patchCount] = _code.size() - i.startAddress;
+		_patchCount++;
+	}
+}
@@ -1,9 +1,7 @@
 package miniJava.CodeGeneration.x64;
 
-import java.io.ByteArrayOutputStream;
-
 public class R {
-	private ByteArrayOutputStream _b;
+	private CodeBuffer _b;
 	private boolean rexW = false;
 	private boolean rexR = false;
 	private boolean rexX = false;
@@ -26,9 +24,20 @@ public class R {
 	}
 	
 	public byte[] getBytes() {
-		_b = new ByteArrayOutputStream();
+		CodeBuffer b = new CodeBuffer(6);
+		encode(b);
+		return b.toByteArray();
+	}
+	
+	/**
+	 * append the modrm (and sib/displacement) bytes to b
+	 */
+	public void encode(CodeBuffer b) {
+		_b = b;
 		// construct
-		if( rdisp != null && ridx != null && r != null )
+		if( rip && r != null )
+			MakeRip(disp,r);
+		else if( rdisp != null && ridx != null && r != null )
 			Make(rdisp,ridx,mult,disp,r);
 		else if( ridx != null && r != null )
 			Make(ridx,mult,disp,r);
@@ -39,13 +48,32 @@ public class R {
 		else if( r != null )
 			Make(disp,r);
 		else throw new IllegalArgumentException("Cannot determine R");
-		
-		return _b.toByteArray();
+		_b = null;
 	}
 	
 	private Reg64 rdisp = null, ridx = null;
 	private Reg rm = null, r = null;
 	private int disp = 0, mult = 0;
+	private boolean rip = false;
+	
+	private R() {
+	}
+	
+	// r will be set by some instruction to a mod543
+	// [rip+disp] addressing .bss at offset disp, until InstructionList.link() makes disp relative
+	public static R rip(int bssOffset) {
+		R m = new R();
+		m.rip = true;
+		m.disp = bssOffset;
+		return m;
+	}
+	
+	// [rip+disp],r addressing .bss at offset disp
+	public static R rip(int bssOffset, Reg r) {
+		R m = rip(bssOffset);
+		m.SetRegR(r);
+		return m;
+	}
 	
 	// [rdisp+ridx*mult+disp],r32/64
 	public R(Reg64 rdisp, Reg64 ridx, int mult, int disp, Reg r) {
@@ -93,6 +121,14 @@ public class R {
 			SetRegR(r_or_rm);
 	}
 	
+	public boolean isRipRelative() {
+		return rip;
+	}
+	
+	public int getDisp() {
+		return disp;
+	}
+	
 	public int getRMSize() {
 		if( rm == null ) return 0;
 		return rm.size();
@@ -157,16 +193,15 @@ public class R {
 	
 	// [rdisp+disp],r
 	private void Make(Reg64 rdisp, int disp, Reg r) {
-		// TODO: construct the byte and write to _b
 		// Operands: [rdisp+disp],r
 		// mod = 2 | 1 | 0
-		int mod = Math.abs(disp) > 1 << 7 - 1 ? 2 : Math.abs(disp) > 0 ? 1 : 0;
+		int mod = dispMod(rdisp, disp);
 		int regByte = ( mod << 6 ) | ( getIdx(r) << 3 ) | getIdx(rdisp);
 		_b.write( regByte );
-		if (mod == 2)
-			x64.writeInt(_b, disp);
-		else if (mod == 1)
-			_b.write((byte)disp);
+		// rsp/r12 in the rm field means a sib byte follows, so give it one with no index
+		if( getIdx(rdisp) == 4 )
+			_b.write( ( 4 << 3 ) | 4 );
+		writeDisp(mod, disp);
 	}
 	
 	// [ridx*mult+disp],r
@@ -176,15 +211,14 @@ public class R {
 		if( ridx == Reg64.RSP )
 			throw new IllegalArgumentException("Index cannot be rsp");
 		
-		// TODO: construct the modrm byte and SIB byte
 		// Operands: [ridx*mult + disp], r
-		int mod = disp > 1 << 7 - 1 ? 2 : disp > 0 ? 1 : 0;
+		// no base: mod=0 with base=rbp in the sib byte, which always takes a disp32
 		int ss = mult == 8 ? 3 : mult == 4 ? 2 : mult == 2 ? 1 : 0;
-		int regByte = (mod << 6) | (getIdx(r) << 3) | getIdx(Reg64.RSP);
-		int sibByte = (ss << 6) | getIdx(Reg64.RSP) << 3 | getIdx(ridx);
+		int regByte = (getIdx(r) << 3) | getIdx(Reg64.RSP);
+		int sibByte = (ss << 6) | (getIdx(ridx) << 3) | getIdx(Reg64.RBP);
 		_b.write(regByte);
 		_b.write(sibByte);
-		x64.writeInt(_b, disp);
+		_b.writeInt(disp);
 	}
 	
 	// [rdisp+ridx*mult+disp],r
@@ -193,23 +227,42 @@ public class R {
 			throw new IllegalArgumentException("Invalid multiplier value: " + mult);
 		if( ridx == Reg64.RSP )
 			throw new IllegalArgumentException("Index cannot be rsp");
-		// TODO: construct the modrm byte and SIB byte
 		// Operands: [rdisp + ridx*mult + disp], r
 		int mod, ss;
-		mod = disp > 1 << 7 - 1 ? 2 : disp > 0 ? 1 : 0;
+		mod = dispMod(rdisp, disp);
 		ss = mult == 8 ? 3 : mult == 4 ? 2 : mult == 2 ? 1 : 0;
 		int regByte = (mod << 6) | (getIdx(r) << 3) | getIdx(Reg64.RSP);
-		int sibByte = (ss << 6) | getIdx(rdisp) | getIdx(ridx);
+		int sibByte = (ss << 6) | (getIdx(ridx) << 3) | getIdx(rdisp);
 		_b.write(regByte);
 		_b.write(sibByte);
-		x64.writeInt(_b, disp);
+		writeDisp(mod, disp);
+	}
+	
+	// mod=0 with rbp/r13 as the base means no base at all, so those always carry a displacement
+	private int dispMod(Reg64 rdisp, int disp) {
+		if( disp == 0 && getIdx(rdisp) != 5 )
+			return 0;
+		return x64.isOneByte(disp) ? 1 : 2;
+	}
+	
+	private void writeDisp(int mod, int disp) {
+		if( mod == 2 )
+			_b.writeInt(disp);
+		else if( mod == 1 )
+			_b.write(disp);
+	}
+	
+	// [rip+disp],r: mod=0 with rbp as rm, always a disp32
+	private void MakeRip( int disp, Reg r ) {
+		_b.write( ( getIdx(r) << 3 ) | 5 );
+		_b.writeInt(disp);
 	}
 	
 	// [disp],r
 	private void Make( int disp, Reg r ) {
 		_b.write( ( getIdx(r) << 3 ) | 4 );
 		_b.write( ( 4 << 3 ) | 5 ); // ss doesn't matter
-		x64.writeInt(_b,disp);
+		_b.writeInt(disp);
 	}
 	
 	private int getIdx(Reg r) {
@@ -0,0 +1,101 @@
+package miniJava;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-phase measurements of one compilation: wall time and bytes allocated by the compiling
+ * thread for each phase, plus the size of what every phase produced. Rendered as JSON for
+ * Compiler --stats.
+ */
+public class CompileStats {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String file;
+    private final List<String> phases = new ArrayList<>();
+    private final List<long[]> measurements = new ArrayList<>();
+    private long startNanos;
+    private long startBytes;
+
+    public int status;
+    public long tokens;
+    public long astNodes;
+    public long instructions;
+    public long codeBytes;
+    public long peepholeRemovedBytes;
+    // counts reported by the IR passes
+    public Map<String, Integer> passes = new LinkedHashMap<>();
+
+    public CompileStats(String file) {
+        this.file = file;
+    }
+
+    /**
+     * start measuring the next phase on the current thread
+     */
+    public void start() {
+        startBytes = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * record the phase started by the last start()
+     */
+    public void stop(String phase) {
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes() - startBytes;
+        phases.add(phase);
+        measurements.add(new long[]{nanos, startBytes < 0 ? -1 : bytes});
+    }
+
+    // -1 when the JVM cannot measure per-thread allocation
+    private static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        long totalNanos = 0;
+        long totalBytes = 0;
+        sb.append("{\"file\": ").append(quote(file)).append(", \"status\": ").append(status).append(", \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            long[] m = measurements.get(i);
+            totalNanos += m[0];
+            totalBytes = m[1] < 0 || totalBytes < 0 ? -1 : totalBytes + m[1];
+            sb.append(i == 0 ? "" : ", ").append("{\"phase\": ").append(quote(phases.get(i)))
+                    .append(", \"wallNanos\": ").append(m[0]).append(", \"allocatedBytes\": ").append(m[1]).append('}');
+        }
+        sb.append("], \"wallNanos\": ").append(totalNanos).append(", \"allocatedBytes\": ").append(totalBytes)
+                .append(", \"tokens\": ").append(tokens).append(", \"astNodes\": ").append(astNodes)
+                .append(", \"instructions\": ").append(instructions).append(", \"codeBytes\": ").append(codeBytes)
+                .append(", \"peepholeRemovedBytes\": ").append(peepholeRemovedBytes)
+                .append(", \"passes\": {");
+        int i = 0;
+        for (Map.Entry<String, Integer> pass : passes.entrySet())
+            sb.append(i++ == 0 ? "" : ", ").append(quote(pass.getKey())).append(": ").append(pass.getValue());
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
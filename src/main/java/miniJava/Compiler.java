@@ -1,61 +1,322 @@
 package miniJava;
 
 import miniJava.AbstractSyntaxTrees.AST;
-import miniJava.AbstractSyntaxTrees.ASTDisplay;
+import miniJava.AbstractSyntaxTrees.ASTCounter;
+import miniJava.CodeGeneration.CodeGenOptions;
 import miniJava.CodeGeneration.CodeGenerator;
 import miniJava.ContextualAnalysis.ScopedIdentification;
 import miniJava.ContextualAnalysis.TypeChecker;
+import miniJava.IR.IRFunction;
+import miniJava.Optimization.ConstantFolder;
 import miniJava.SyntacticAnalyzer.LexerImpl;
 import miniJava.SyntacticAnalyzer.ParserImpl;
+import miniJava.SyntacticAnalyzer.SourceBuffer;
 import miniJava.SyntacticAnalyzer.SyntaxError;
+import miniJava.SyntacticAnalyzer.TokenStream;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Compiler {
+    // per-file compilation status; a single-file run still exits 0 whatever the status, as it always has,
+    // and a batch run exits 1 if any file did not compile
+    public static final int SUCCESS = 0;
+    public static final int IO_ERROR = 1;
+    public static final int SYNTAX_ERROR = 2;
+    public static final int CONTEXT_ERROR = 3;
+    public static final int CODEGEN_ERROR = 4;
+    public static final int INTERNAL_ERROR = 5;
+
+    /**
+     * usage: Compiler [--stats[=file]] [-O | --regalloc | --peephole | --relax | --fold | --ir | --ssa | --loops | --inline | --tailcalls | --dump-ir | --inline-report | --alloc-stats | --gc[=bytes] | --buffer-output | --decimal-println] file.java, or the batch form described at compileBatch.
+     * --stats writes per-phase measurements as JSON to file, or to stderr when no file is given.
+     * -O turns on the IR backend with --ssa, --loops, --inline, --tailcalls, --peephole, --relax, --fold and --buffer-output; the flags pick single ones, see CodeGenOptions.
+     * --dump-ir also writes the IR of every method to a.out.ir, --inline-report the inlining decisions to a.out.inline.
+     * --alloc-stats makes the executable report what it allocated on stderr as it exits.
+     * --gc gives the executable a garbage collector that runs every 4 MB of allocation, or every given number of bytes.
+     * --buffer-output has println write through a buffer flushed at exit, --decimal-println print ints in decimal.
+     */
     public static void main(String[] args) {
-        AST syntaxTree = null;
-        ErrorReporter reporter = new ErrorReporter();
+        String statsFile = null;
+        boolean stats = false;
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--stats"))
+                stats = true;
+            else if (arg.startsWith("--stats=")) {
+                stats = true;
+                statsFile = arg.substring("--stats=".length());
+            } else
+                rest.add(arg);
+        }
+        CodeGenOptions options = CodeGenOptions.parse(rest);
+        args = rest.toArray(new String[0]);
         if (args.length < 1) {
             throw new IllegalArgumentException("File must be provided for compilation");
         }
-        try {
-            FileInputStream in = new FileInputStream(args[0]);
-            LexerImpl lexer = new LexerImpl(in, reporter);
-            ParserImpl parser = new ParserImpl(lexer, reporter);
-            try {
-            syntaxTree = parser.parse();
-            } catch (SyntaxError e) {
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } finally {
-            if (reporter.hasErrors()) {
+        List<CompileStats> results = stats ? new ArrayList<>() : null;
+        int exitCode = 0;
+        if (args.length == 1 && !Files.isDirectory(Paths.get(args[0]))) {
+            ErrorReporter reporter = new ErrorReporter();
+            CompileStats fileStats = new CompileStats(args[0]);
+            int status = compile(args[0], "a.out", reporter, fileStats, options);
+            if (status == IO_ERROR || status == SYNTAX_ERROR)
                 System.out.println("Error");
+            if (status != CODEGEN_ERROR)
                 reporter.outputErrors();
-            } else {
-                ASTDisplay astDisplay = new ASTDisplay();
-                try {
-                    ScopedIdentification sI = new ScopedIdentification(reporter, syntaxTree);
-                } catch (IdentificationError e) {
-                } finally {
-                    if (reporter.hasErrors()) {
-//                        System.out.println("Error");
-                        reporter.outputErrors();
-                    } else {
-                        TypeChecker typeChecker = new TypeChecker(syntaxTree, reporter);
-                        if (reporter.hasErrors()) {
-//                            System.out.println("Error");
-                            reporter.outputErrors();
-                        } else {
-                                CodeGenerator codeGen = new CodeGenerator(reporter, syntaxTree);
-                        }
-                }
-                // astDisplay.showTree(syntaxTree);
-                }
+            if (stats)
+                results.add(fileStats);
+        } else
+            exitCode = compileBatch(args, results, options);
+        if (stats)
+            writeStats(results, statsFile);
+        if (exitCode != 0)
+            System.exit(exitCode);
+    }
+
+    /**
+     * run every phase on one source file, writing the executable to outputName
+     * (no executable is written when outputName is null)
+     * @return SUCCESS or the status of the first phase that reported errors
+     */
+    public static int compile(String fileName, String outputName, ErrorReporter reporter) {
+        return compile(fileName, outputName, reporter, new CompileStats(fileName));
+    }
+
+    /**
+     * compile as above, recording the cost and output size of each phase in stats
+     */
+    public static int compile(String fileName, String outputName, ErrorReporter reporter, CompileStats stats) {
+        return compile(fileName, outputName, reporter, stats, new CodeGenOptions());
+    }
+
+    public static int compile(String fileName, String outputName, ErrorReporter reporter, CompileStats stats,
+                              CodeGenOptions options) {
+        stats.status = runPhases(fileName, outputName, reporter, stats, options);
+        return stats.status;
+    }
 
+    private static int runPhases(String fileName, String outputName, ErrorReporter reporter, CompileStats stats,
+                                 CodeGenOptions options) {
+        AST syntaxTree = null;
+        try {
+            stats.start();
+            SourceBuffer source = SourceBuffer.fromFile(fileName);
+            LexerImpl lexer = new LexerImpl(source, reporter);
+            TokenStream tokens = lexer.tokenize();
+            stats.stop("lex");
+            stats.tokens = tokens.size();
+            stats.start();
+            ParserImpl parser = new ParserImpl(tokens, reporter);
+            syntaxTree = parser.parse();
+            stats.stop("parse");
+        } catch (IOException e) {
+            reporter.reportError("Cannot read " + fileName + ": " + e.getMessage());
+            return IO_ERROR;
+        } catch (SyntaxError e) {
+        }
+        if (reporter.hasErrors())
+            return SYNTAX_ERROR;
+        stats.astNodes = ASTCounter.count(syntaxTree);
+        try {
+            stats.start();
+            new ScopedIdentification(reporter, syntaxTree);
+            stats.stop("identification");
+        } catch (IdentificationError e) {
+        }
+        if (reporter.hasErrors())
+            return CONTEXT_ERROR;
+        stats.start();
+        new TypeChecker(syntaxTree, reporter);
+        stats.stop("typecheck");
+        if (reporter.hasErrors())
+            return CONTEXT_ERROR;
+        int folded = 0;
+        if (options.fold) {
+            stats.start();
+            folded = new ConstantFolder(syntaxTree).getFolded();
+            stats.stop("fold");
+        }
+        stats.start();
+        CodeGenerator codeGen = new CodeGenerator(reporter, syntaxTree, null, options);
+        stats.stop("codegen");
+        stats.instructions = codeGen.getInstructionCount();
+        stats.codeBytes = codeGen.getInstructions().getSize();
+        stats.peepholeRemovedBytes = codeGen.getPeepholeRemovedBytes();
+        if (options.fold)
+            codeGen.getPassStats().add("fold.nodes", folded);
+        stats.passes = codeGen.getPassStats().counts();
+        if (reporter.hasErrors())
+            return CODEGEN_ERROR;
+        if (outputName != null) {
+            stats.start();
+            codeGen.makeElf(outputName);
+            stats.stop("elf");
+            if (options.dumpIR)
+                writeIR(codeGen.getIR(), outputName + ".ir", reporter);
+            if (options.inlineReport)
+                writeLines(codeGen.getInlineReport(), outputName + ".inline", reporter);
+        }
+        return reporter.hasErrors() ? CODEGEN_ERROR : SUCCESS;
+    }
+
+    private static void writeIR(List<IRFunction> ir, String fileName, ErrorReporter reporter) {
+        StringBuilder dump = new StringBuilder();
+        for (IRFunction fn : ir)
+            dump.append(fn).append("\n");
+        write(dump.toString(), fileName, reporter);
+    }
+
+    private static void writeLines(List<String> lines, String fileName, ErrorReporter reporter) {
+        StringBuilder text = new StringBuilder();
+        lines.forEach(line -> text.append(line).append("\n"));
+        write(text.toString(), fileName, reporter);
+    }
+
+    private static void write(String text, String fileName, ErrorReporter reporter) {
+        try {
+            Files.write(Paths.get(fileName), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            reporter.reportError("Cannot write " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeStats(List<CompileStats> results, String statsFile) {
+        StringBuilder json = new StringBuilder();
+        if (results.size() == 1)
+            json.append(results.get(0).toJson());
+        else {
+            json.append("[");
+            for (int i = 0; i < results.size(); i++)
+                json.append(i == 0 ? "\n  " : ",\n  ").append(results.get(i).toJson());
+            json.append("\n]");
+        }
+        json.append("\n");
+        writeStats(json.toString(), statsFile);
+    }
+
+    // to statsFile, or to stderr when it is null
+    static void writeStats(String json, String statsFile) {
+        if (statsFile == null) {
+            System.err.print(json);
+            return;
+        }
+        try {
+            Files.write(Paths.get(statsFile), json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Cannot write stats to " + statsFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * usage: Compiler [-j threads] [-d outputDir] (file.java | dir)...
+     * Directories are searched for .java files. Every file is compiled with its own
+     * ErrorReporter; its executable is named after the source and written to outputDir,
+     * or next to the source when no -d is given.
+     * @return 0 if every file compiled, 1 otherwise
+     */
+    public static int compileBatch(String[] args) {
+        return compileBatch(args, null);
+    }
+
+    /**
+     * compile as above, adding the stats of every file to stats in input order when it is not null
+     */
+    public static int compileBatch(String[] args, List<CompileStats> stats) {
+        return compileBatch(args, stats, new CodeGenOptions());
+    }
+
+    public static int compileBatch(String[] args, List<CompileStats> stats, CodeGenOptions options) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path outputDir = null;
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length)
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-d") && i + 1 < args.length)
+                outputDir = Paths.get(args[++i]);
+            else
+                addSources(Paths.get(args[i]), sources);
+        }
+        if (outputDir != null) {
+            try {
+                Files.createDirectories(outputDir);
+            } catch (IOException e) {
+                System.out.println("Error");
+                System.out.println("Cannot create output directory " + outputDir + ": " + e.getMessage());
+                return 1;
             }
         }
 
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<String>> tasks = new ArrayList<>();
+        for (Path source : sources) {
+            String outputName = outputPath(source, outputDir).toString();
+            CompileStats fileStats = new CompileStats(source.toString());
+            if (stats != null)
+                stats.add(fileStats);
+            tasks.add(pool.submit(() -> compileReport(source, outputName, fileStats, options)));
+        }
+        // results are printed in the order the files were given
+        int failed = 0;
+        for (ForkJoinTask<String> task : tasks) {
+            String report = task.join();
+            if (!report.startsWith("OK"))
+                failed++;
+            System.out.print(report);
+        }
+        pool.shutdown();
+        System.out.println(sources.size() - failed + "/" + sources.size() + " compiled");
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static String compileReport(Path source, String outputName, CompileStats stats,
+                                        CodeGenOptions options) {
+        ErrorReporter reporter = new ErrorReporter();
+        int status;
+        try {
+            status = compile(source.toString(), outputName, reporter, stats, options);
+        } catch (RuntimeException | StackOverflowError e) {
+            // one broken file must not take the rest of the batch down with it
+            reporter.reportError("Internal compiler error: " + e);
+            status = INTERNAL_ERROR;
+            stats.status = status;
+        }
+        if (status == SUCCESS)
+            return "OK " + source + " -> " + outputName + "\n";
+        return "Error(" + status + ") " + source + "\n" + reporter;
+    }
+
+    private static void addSources(Path path, List<Path> sources) {
+        if (!Files.isDirectory(path)) {
+            sources.add(path);
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            sources.addAll(files.filter(p -> p.toString().endsWith(".java") && Files.isRegularFile(p))
+                    .sorted().collect(Collectors.toList()));
+        } catch (IOException e) {
+            // unreadable directory: report it as a file that cannot be read
+            sources.add(path);
+        }
+    }
+
+    private static Path outputPath(Path source, Path outputDir) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(".java"))
+            name = name.substring(0, name.length() - ".java".length());
+        if (outputDir != null)
+            return outputDir.resolve(name);
+        Path parent = source.getParent();
+        return parent == null ? Paths.get(name) : parent.resolve(name);
     }
 }
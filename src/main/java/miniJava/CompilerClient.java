@@ -0,0 +1,100 @@
+package miniJava;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drop-in replacement for running Compiler on a single file: same arguments, same output, a.out
+ * written to the working directory. The compile itself is done by a CompilerServer on the port
+ * given by the miniJava.port system property, with the same options, authenticated by the token the
+ * server left in CompilerServer.tokenFile. Without a server running, or for several sources or a
+ * directory, it compiles in process.
+ */
+public class CompilerClient {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("File must be provided for compilation");
+        }
+        String statsFile = null;
+        boolean stats = false;
+        List<String> options = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--stats"))
+                stats = true;
+            else if (arg.startsWith("--stats=")) {
+                stats = true;
+                statsFile = arg.substring("--stats=".length());
+            } else if (isOption(arg))
+                options.add(arg);
+            else
+                sources.add(arg);
+        }
+        if (sources.size() != 1 || Files.isDirectory(Paths.get(sources.get(0)))) {
+            // batch mode gains nothing from the daemon
+            Compiler.main(args);
+            return;
+        }
+        if (stats)
+            options.add("--stats");
+        int port = Integer.getInteger("miniJava.port", CompilerServer.DEFAULT_PORT);
+        String token;
+        try {
+            token = new String(Files.readAllBytes(CompilerServer.tokenFile(port)), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            // no server has run as this user on port
+            Compiler.main(args);
+            return;
+        }
+        String source = Paths.get(sources.get(0)).toAbsolutePath().toString();
+        String output = Paths.get("a.out").toAbsolutePath().toString();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            out.write(token + "\nCOMPILE\n" + String.join(" ", options) + "\n" + source + "\n" + output + "\n");
+            out.flush();
+            String header = in.readLine();
+            if (header == null || !header.matches("\\d+ \\d+")) {
+                // the server went away, rejected the token, or is not a miniJava server at all
+                System.err.println("No answer from the compiler server on port " + port + ", compiling in process");
+                Compiler.main(args);
+                return;
+            }
+            int status = Integer.parseInt(header.split(" ")[0]);
+            int errorCount = Integer.parseInt(header.split(" ")[1]);
+            // print exactly what Compiler.main prints for the same status
+            if (status == Compiler.IO_ERROR || status == Compiler.SYNTAX_ERROR)
+                System.out.println("Error");
+            for (int i = 0; i < errorCount; i++) {
+                String error = in.readLine();
+                if (status != Compiler.CODEGEN_ERROR)
+                    System.out.println(error);
+            }
+            if (stats)
+                Compiler.writeStats(in.readLine() + "\n", statsFile);
+        } catch (ConnectException e) {
+            Compiler.main(args);
+        }
+    }
+
+    // whether CodeGenOptions.parse takes arg out of the command line
+    private static boolean isOption(String arg) {
+        List<String> single = new ArrayList<>(List.of(arg));
+        CodeGenOptions.parse(single);
+        return single.isEmpty();
+    }
+}
@@ -0,0 +1,223 @@
+package miniJava;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running compiler daemon. It listens on a loopback TCP port so repeated compiles do not pay
+ * JVM startup and JIT warm-up again. Any local user can connect, so the server writes a random token to
+ * tokenFile(port), which only its owner can read, and ignores requests that do not start with it.
+ * One request per connection, every line UTF-8 and '\n' terminated:
+ *   client: the token, then COMPILE, options (Compiler's flags, space separated, possibly empty), source path,
+ *           output path (absolute, "-" for no executable)
+ *   server: status and error count, then one line per error, then the stats as one JSON line when
+ *           the options hold --stats
+ * A client may send SHUTDOWN instead of COMPILE to stop the daemon. An output path that is not a plain
+ * file in a directory the server's owner can write is refused with IO_ERROR.
+ */
+public class CompilerServer {
+    public static final int DEFAULT_PORT = 5520;
+
+    private static final String WARM_UP_PROGRAM =
+            "class Main { public static void main(String[] args) { int x = 3; int y = x * 2 + 1;"
+            + " boolean b = y > x && !(y == 0); System.out.println(y); } }";
+
+    private final ServerSocket _socket;
+    private final ExecutorService _workers;
+    private final byte[] _token;
+    private volatile boolean _running = true;
+
+    public CompilerServer(int port, int threads) throws IOException {
+        this._socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this._workers = Executors.newFixedThreadPool(threads);
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random)
+            token.append(String.format("%02x", b));
+        this._token = token.toString().getBytes(StandardCharsets.UTF_8);
+        writeToken(tokenFile(getPort()), token.toString());
+    }
+
+    /**
+     * where the server on port keeps its token: in ~/.miniJava, readable by its owner only
+     */
+    public static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".miniJava", "server-" + port + ".token");
+    }
+
+    private static void writeToken(Path file, String token) throws IOException {
+        Path dir = file.getParent();
+        Files.createDirectories(dir);
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+        // created 0600 before the token goes in, then moved into place
+        Path temp = Files.createTempFile(dir, "server", ".token",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        Files.write(temp, (token + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * usage: CompilerServer [-p port] [-j threads]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-p"))
+                port = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-j"))
+                threads = Math.max(1, Integer.parseInt(args[i + 1]));
+        }
+        CompilerServer server = new CompilerServer(port, threads);
+        server.warmUp();
+        System.out.println("miniJava compiler server listening on " + server.getPort());
+        server.serve();
+    }
+
+    public int getPort() {
+        return _socket.getLocalPort();
+    }
+
+    /**
+     * run every phase a few times so the first client request already sees compiled code
+     */
+    public void warmUp() throws IOException {
+        Path source = Files.createTempFile("miniJava-warmup", ".java");
+        try {
+            Files.write(source, WARM_UP_PROGRAM.getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 200; i++) {
+                try {
+                    Compiler.compile(source.toString(), null, new ErrorReporter());
+                } catch (RuntimeException e) {
+                    // the front end is warm even if code generation gave up
+                }
+            }
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+
+    public void serve() throws IOException {
+        try {
+            while (_running) {
+                Socket client;
+                try {
+                    client = _socket.accept();
+                } catch (IOException e) {
+                    if (!_running)
+                        break;
+                    throw e;
+                }
+                _workers.execute(() -> handle(client));
+            }
+        } finally {
+            _workers.shutdown();
+            Files.deleteIfExists(tokenFile(getPort()));
+        }
+    }
+
+    public void shutdown() {
+        _running = false;
+        try {
+            _socket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket c = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new PrintWriter(new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8))) {
+            String token = in.readLine();
+            if (token == null || !MessageDigest.isEqual(_token, token.getBytes(StandardCharsets.UTF_8)))
+                return;
+            String command = in.readLine();
+            if ("SHUTDOWN".equals(command)) {
+                shutdown();
+                return;
+            }
+            if (!"COMPILE".equals(command))
+                return;
+            String flags = in.readLine();
+            String source = in.readLine();
+            String output = in.readLine();
+            if (flags == null || source == null || output == null)
+                return;
+            List<String> rest = new ArrayList<>();
+            for (String flag : flags.split(" ")) {
+                if (!flag.isEmpty())
+                    rest.add(flag);
+            }
+            boolean stats = rest.remove("--stats");
+            CodeGenOptions options = CodeGenOptions.parse(rest);
+            ErrorReporter reporter = new ErrorReporter();
+            CompileStats fileStats = new CompileStats(source);
+            int status;
+            if (!output.equals("-") && !isWritable(output)) {
+                reporter.reportError("Cannot write " + output);
+                status = Compiler.IO_ERROR;
+                fileStats.status = status;
+            } else
+                status = compile(source, output.equals("-") ? null : output, reporter, fileStats, options);
+            out.write(status + " " + reporter.getErrors().size() + "\n");
+            for (String error : reporter.getErrors())
+                out.write(error.replace('\n', ' ') + "\n");
+            if (stats)
+                out.write(fileStats.toJson() + "\n");
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, nothing to report to
+        }
+    }
+
+    private static int compile(String source, String output, ErrorReporter reporter, CompileStats stats,
+                               CodeGenOptions options) {
+        try {
+            return Compiler.compile(source, output, reporter, stats, options);
+        } catch (RuntimeException | StackOverflowError e) {
+            reporter.reportError("Internal compiler error: " + e);
+            stats.status = Compiler.INTERNAL_ERROR;
+            return stats.status;
+        }
+    }
+
+    // an absolute path to a plain file, or to none yet, in a directory the owner can write to
+    private static boolean isWritable(String name) {
+        Path output;
+        try {
+            output = Paths.get(name);
+        } catch (InvalidPathException e) {
+            return false;
+        }
+        Path dir = output.getParent();
+        if (!output.isAbsolute() || dir == null || !Files.isDirectory(dir) || !Files.isWritable(dir))
+            return false;
+        if (!Files.exists(output, LinkOption.NOFOLLOW_LINKS))
+            return true;
+        return Files.isRegularFile(output, LinkOption.NOFOLLOW_LINKS) && Files.isWritable(output);
+    }
+}
@@ -1,6 +1,7 @@
 package miniJava;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ErrorReporter {
@@ -24,6 +25,10 @@ public class ErrorReporter {
         _errorQueue.add(sb.toString());
     }
 
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(_errorQueue);
+    }
+
     public void clearErrors() {
         this._errorQueue.clear();
     }
@@ -0,0 +1,38 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight run of instructions, entered only at the top and left only by the terminator at the bottom.
+ */
+public class BasicBlock {
+    public final int id;
+    public final List<Instr> instrs = new ArrayList<>();
+    // filled in by IRFunction.computeEdges
+    public final List<BasicBlock> preds = new ArrayList<>();
+    public final List<BasicBlock> succs = new ArrayList<>();
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public String label() {
+        return "L" + id;
+    }
+
+    /**
+     * @return the last instruction if it ends the block, null while the block is still open
+     */
+    public Instr terminator() {
+        if (instrs.isEmpty())
+            return null;
+        Instr last = instrs.get(instrs.size() - 1);
+        return last.op.isTerminator() ? last : null;
+    }
+
+    @Override
+    public String toString() {
+        return label();
+    }
+}
@@ -0,0 +1,27 @@
+package miniJava.IR;
+
+/**
+ * An int, boolean (0 or 1) or null (0) constant.
+ */
+public class Const extends Value {
+    public final int value;
+
+    public Const(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Const && ((Const) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(value);
+    }
+}
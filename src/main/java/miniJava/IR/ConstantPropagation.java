@@ -0,0 +1,268 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) over a function in SSA form.
+ * A register is undefined until shown to hold one constant, or varying once it may hold two; only
+ * edges shown executable carry values into phis, so branches on constants also prune what they skip.
+ * Afterwards constant registers are replaced by their value, branches on constants become jumps,
+ * and blocks never executed are removed.
+ * Folding follows the generated code: results that do not fit 32 bits and division by zero vary.
+ */
+public class ConstantPropagation {
+    // lattice value of a register that may hold more than one value; undefined registers have none
+    private static final Object VARYING = new Object();
+
+    private final IRFunction _fn;
+    private final Map<VReg, Object> _values = new HashMap<>();
+    private final Map<VReg, List<Instr>> _uses = new HashMap<>();
+    private final Map<Instr, BasicBlock> _blockOf = new HashMap<>();
+    private final Set<BasicBlock> _executable = new HashSet<>();
+    // executable edges, as from -> to
+    private final Map<BasicBlock, Set<BasicBlock>> _edges = new HashMap<>();
+    private final List<BasicBlock[]> _flowWork = new ArrayList<>();
+    private final List<VReg> _ssaWork = new ArrayList<>();
+
+    public ConstantPropagation(IRFunction fn) {
+        this._fn = fn;
+    }
+
+    public void run(PassStats stats) {
+        for (BasicBlock b : _fn.blocks) {
+            for (Instr ins : b.instrs) {
+                _blockOf.put(ins, b);
+                for (VReg use : ins.uses())
+                    _uses.computeIfAbsent(use, k -> new ArrayList<>()).add(ins);
+            }
+        }
+        if (_fn.thisReg != null)
+            _values.put(_fn.thisReg, VARYING);
+        _fn.params.forEach(p -> _values.put(p, VARYING));
+        _flowWork.add(new BasicBlock[] {null, _fn.entry()});
+        while (!_flowWork.isEmpty() || !_ssaWork.isEmpty()) {
+            if (!_flowWork.isEmpty()) {
+                BasicBlock[] edge = _flowWork.remove(_flowWork.size() - 1);
+                BasicBlock to = edge[1];
+                if (edge[0] != null && !_edges.computeIfAbsent(edge[0], k -> new HashSet<>()).add(to))
+                    continue;
+                if (_executable.add(to))
+                    to.instrs.forEach(this::visit);
+                else
+                    to.instrs.stream().filter(ins -> ins.op == Op.PHI).forEach(this::visit);
+                continue;
+            }
+            VReg reg = _ssaWork.remove(_ssaWork.size() - 1);
+            for (Instr use : _uses.getOrDefault(reg, List.of())) {
+                if (_executable.contains(_blockOf.get(use)))
+                    visit(use);
+            }
+        }
+        rewrite(stats);
+    }
+
+    private Object value(Value v) {
+        if (v instanceof Const)
+            return ((Const) v).value;
+        return _values.get(v);
+    }
+
+    private void set(VReg reg, Object value) {
+        Object old = _values.get(reg);
+        if (value == null || old == VARYING || value.equals(old))
+            return;
+        // values only move down the lattice
+        _values.put(reg, old == null ? value : VARYING);
+        _ssaWork.add(reg);
+    }
+
+    private void flow(BasicBlock from, BasicBlock to) {
+        _flowWork.add(new BasicBlock[] {from, to});
+    }
+
+    private void visit(Instr ins) {
+        BasicBlock b = _blockOf.get(ins);
+        switch (ins.op) {
+            case PHI: {
+                Object meet = null;
+                for (int i = 0; i < ins.args.length; i++) {
+                    if (!isExecutable(ins.targets[i], b))
+                        continue;
+                    Object v = value(ins.args[i]);
+                    if (v == null)
+                        continue;
+                    meet = meet == null || meet.equals(v) ? v : VARYING;
+                }
+                set(ins.dst, meet);
+                return;
+            }
+            case JMP:
+                flow(b, ins.targets[0]);
+                return;
+            case BR: {
+                Object cond = value(ins.args[0]);
+                if (cond == VARYING) {
+                    flow(b, ins.targets[0]);
+                    flow(b, ins.targets[1]);
+                } else if (cond != null)
+                    flow(b, (int) cond != 0 ? ins.targets[0] : ins.targets[1]);
+                return;
+            }
+            default:
+                if (ins.dst != null)
+                    set(ins.dst, evaluate(ins));
+        }
+    }
+
+    private boolean isExecutable(BasicBlock from, BasicBlock to) {
+        return _edges.getOrDefault(from, Set.of()).contains(to);
+    }
+
+    private Object evaluate(Instr ins) {
+        switch (ins.op) {
+            case LOAD:
+            case ALLOC:
+            case CALL:
+                return VARYING;
+            default:
+                break;
+        }
+        Object[] operands = new Object[ins.args.length];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = value(ins.args[i]);
+            // wait until every operand is known
+            if (operands[i] == null)
+                return null;
+        }
+        for (Object operand : operands) {
+            if (operand == VARYING)
+                return VARYING;
+        }
+        Integer folded = ins.args.length == 1
+                ? fold(ins.op, (int) operands[0], 0)
+                : fold(ins.op, (int) operands[0], (int) operands[1]);
+        return folded != null ? folded : VARYING;
+    }
+
+    /**
+     * @return the value of op on constants as the generated code computes it, or null if it is not a constant
+     */
+    public static Integer fold(Op op, long a, long b) {
+        long value;
+        switch (op) {
+            case MOV:
+                value = a;
+                break;
+            case NEG:
+                value = -a;
+                break;
+            case NOT:
+                value = a ^ 1;
+                break;
+            case ADD:
+                value = a + b;
+                break;
+            case SUB:
+                value = a - b;
+                break;
+            case MUL:
+                value = a * b;
+                break;
+            case DIV:
+                if (b == 0)
+                    return null;
+                value = a / b;
+                break;
+            case AND:
+                value = a & b;
+                break;
+            case OR:
+                value = a | b;
+                break;
+            case SHL:
+                value = a << b;
+                break;
+            case SAR:
+                value = a >> b;
+                break;
+            case SHR:
+                value = a >>> b;
+                break;
+            case LT:
+                return a < b ? 1 : 0;
+            case LE:
+                return a <= b ? 1 : 0;
+            case GT:
+                return a > b ? 1 : 0;
+            case GE:
+                return a >= b ? 1 : 0;
+            case EQ:
+                return a == b ? 1 : 0;
+            case NE:
+                return a != b ? 1 : 0;
+            default:
+                return null;
+        }
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (int) value : null;
+    }
+
+    private void rewrite(PassStats stats) {
+        int constants = 0, branches = 0;
+        for (BasicBlock b : _fn.blocks) {
+            if (!_executable.contains(b))
+                continue;
+            for (Instr ins : b.instrs) {
+                for (int i = 0; i < ins.args.length; i++) {
+                    Object v = value(ins.args[i]);
+                    if (ins.args[i] instanceof VReg && v instanceof Integer)
+                        ins.args[i] = new Const((int) v);
+                }
+                // drop the phi arguments of edges never taken
+                if (ins.op == Op.PHI)
+                    dropDeadArgs(ins, b);
+            }
+            int before = b.instrs.size();
+            // every instruction with a constant result is free of side effects
+            b.instrs.removeIf(ins -> ins.dst != null && value(ins.dst) instanceof Integer);
+            constants += before - b.instrs.size();
+            Instr last = b.terminator();
+            if (last != null && last.op == Op.BR && last.args[0] instanceof Const) {
+                BasicBlock taken = ((Const) last.args[0]).value != 0 ? last.targets[0] : last.targets[1];
+                b.instrs.set(b.instrs.size() - 1, Instr.jump(taken));
+                branches++;
+            }
+        }
+        int blocks = _fn.blocks.size();
+        _fn.blocks.removeIf(b -> !_executable.contains(b));
+        _fn.computeEdges();
+        // a phi left with one argument is a copy
+        for (BasicBlock b : _fn.blocks) {
+            for (int i = 0; i < b.instrs.size(); i++) {
+                Instr ins = b.instrs.get(i);
+                if (ins.op == Op.PHI && ins.args.length == 1)
+                    b.instrs.set(i, new Instr(Op.MOV, ins.dst, ins.args[0]));
+            }
+        }
+        stats.add("sccp.constants", constants);
+        stats.add("sccp.branches", branches);
+        stats.add("sccp.blocks", blocks - _fn.blocks.size());
+    }
+
+    private void dropDeadArgs(Instr phi, BasicBlock b) {
+        List<Value> args = new ArrayList<>();
+        List<BasicBlock> preds = new ArrayList<>();
+        for (int i = 0; i < phi.args.length; i++) {
+            if (isExecutable(phi.targets[i], b)) {
+                args.add(phi.args[i]);
+                preds.add(phi.targets[i]);
+            }
+        }
+        phi.args = args.toArray(new Value[0]);
+        phi.targets = preds.toArray(new BasicBlock[0]);
+    }
+}
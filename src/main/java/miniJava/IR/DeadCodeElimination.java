@@ -0,0 +1,154 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggressive dead code elimination (Cytron et al.) over a function in SSA form. Only instructions with
+ * an effect are assumed live: stores, calls, output, returns, and the loads and divisions that may trap.
+ * Liveness spreads to the definitions of their operands and to the branches they are control
+ * dependent on. Everything else is deleted, and a dead branch becomes a jump to its immediate
+ * postdominator. Loop back edges are kept, so a loop that may not end is never removed.
+ */
+public class DeadCodeElimination {
+    private final IRFunction _fn;
+    private final Set<Instr> _live = new HashSet<>();
+    private final Set<BasicBlock> _liveBlocks = new HashSet<>();
+    private final Map<VReg, Instr> _defs = new HashMap<>();
+    private final Map<Instr, BasicBlock> _blockOf = new HashMap<>();
+    private final List<Instr> _work = new ArrayList<>();
+    private Dominators _postdom;
+    // the virtual exit every return flows to
+    private final BasicBlock _exit = new BasicBlock(-1);
+
+    public DeadCodeElimination(IRFunction fn) {
+        this._fn = fn;
+    }
+
+    public void run(PassStats stats) {
+        _fn.computeEdges();
+        List<BasicBlock> returns = new ArrayList<>();
+        for (BasicBlock b : _fn.blocks) {
+            for (Instr ins : b.instrs) {
+                _blockOf.put(ins, b);
+                if (ins.dst != null)
+                    _defs.put(ins.dst, ins);
+            }
+            if (b.terminator() != null && b.terminator().op == Op.RET)
+                returns.add(b);
+        }
+        _postdom = new Dominators(_exit, b -> b == _exit ? returns : b.preds,
+                b -> b.terminator() != null && b.terminator().op == Op.RET ? List.of(_exit) : b.succs);
+        // without a path to a return from every block, control dependence is not defined: keep every branch
+        boolean keepBranches = _fn.blocks.stream().anyMatch(b -> !_postdom.reaches(b));
+        Dominators dom = Dominators.of(_fn);
+        for (BasicBlock b : _fn.blocks) {
+            for (Instr ins : b.instrs) {
+                if (isCritical(ins, b, dom) || (keepBranches && ins.op == Op.BR))
+                    mark(ins);
+            }
+        }
+        while (!_work.isEmpty()) {
+            Instr ins = _work.remove(_work.size() - 1);
+            for (VReg use : ins.uses()) {
+                if (_defs.containsKey(use))
+                    mark(_defs.get(use));
+            }
+            // a phi needs the branches that choose between its predecessors
+            if (ins.op == Op.PHI) {
+                for (BasicBlock pred : ins.targets)
+                    markBlock(pred);
+            }
+            markBlock(_blockOf.get(ins));
+        }
+        rewrite(stats);
+    }
+
+    private boolean isCritical(Instr ins, BasicBlock b, Dominators dom) {
+        switch (ins.op) {
+            case STORE:
+            case PRINT:
+            case CALL:
+            case RET:
+                return true;
+            case LOAD:
+                // this is never null, and static fields are always there
+                return ins.args[0] != _fn.thisReg && !(ins.args[0] instanceof Global);
+            case DIV:
+                return !(ins.args[1] instanceof Const) || ((Const) ins.args[1]).value == 0;
+            case JMP:
+            case BR:
+                for (BasicBlock target : ins.targets) {
+                    if (dom.dominates(target, b))
+                        return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void mark(Instr ins) {
+        if (_live.add(ins))
+            _work.add(ins);
+    }
+
+    // b is live: so are the branches it is control dependent on, found on its postdominance frontier
+    private void markBlock(BasicBlock b) {
+        if (!_liveBlocks.add(b))
+            return;
+        for (BasicBlock c : _postdom.frontier(b)) {
+            if (c.terminator() != null)
+                mark(c.terminator());
+        }
+    }
+
+    private void rewrite(PassStats stats) {
+        int instructions = 0, branches = 0;
+        for (BasicBlock b : _fn.blocks) {
+            int before = b.instrs.size();
+            b.instrs.removeIf(ins -> !_live.contains(ins) && !ins.op.isTerminator());
+            instructions += before - b.instrs.size();
+        }
+        for (BasicBlock b : _fn.blocks) {
+            Instr last = b.terminator();
+            if (last.op != Op.BR || _live.contains(last))
+                continue;
+            // a live phi in target would have made the branch live, as it chooses between the phi's predecessors
+            BasicBlock target = _postdom.idom(b);
+            if (target == null || target == _exit || (!target.instrs.isEmpty() && target.instrs.get(0).op == Op.PHI))
+                continue;
+            b.instrs.set(b.instrs.size() - 1, Instr.jump(target));
+            branches++;
+        }
+        int blocks = _fn.blocks.size();
+        _fn.removeUnreachable();
+        for (BasicBlock b : _fn.blocks) {
+            for (Instr phi : b.instrs) {
+                if (phi.op == Op.PHI)
+                    dropMissing(phi, b);
+            }
+        }
+        stats.add("adce.instructions", instructions);
+        stats.add("adce.branches", branches);
+        stats.add("adce.blocks", blocks - _fn.blocks.size());
+    }
+
+    // keep the arguments of the edges that still exist
+    private void dropMissing(Instr phi, BasicBlock b) {
+        List<Value> args = new ArrayList<>();
+        List<BasicBlock> preds = new ArrayList<>();
+        for (int i = 0; i < phi.args.length; i++) {
+            if (b.preds.contains(phi.targets[i]) && !preds.contains(phi.targets[i])) {
+                args.add(phi.args[i]);
+                preds.add(phi.targets[i]);
+            }
+        }
+        phi.args = args.toArray(new Value[0]);
+        phi.targets = preds.toArray(new BasicBlock[0]);
+    }
+}
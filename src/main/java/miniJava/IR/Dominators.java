@@ -0,0 +1,158 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The dominator tree and dominance frontiers of a graph of blocks, by the iterative algorithm of
+ * Cooper, Harvey and Kennedy. Given the edges of the reverse graph it computes postdominators instead.
+ * Blocks the root does not reach have no immediate dominator.
+ */
+public class Dominators {
+    private final BasicBlock _root;
+    private final Function<BasicBlock, List<BasicBlock>> _preds;
+    // reverse postorder of the blocks reached from the root
+    private final List<BasicBlock> _order = new ArrayList<>();
+    private final Map<BasicBlock, Integer> _postorder = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> _idom = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> _children = new HashMap<>();
+    private Map<BasicBlock, Set<BasicBlock>> _frontiers;
+
+    public Dominators(BasicBlock root, Function<BasicBlock, List<BasicBlock>> succs,
+                      Function<BasicBlock, List<BasicBlock>> preds) {
+        this._root = root;
+        this._preds = preds;
+        number(succs);
+        _idom.put(root, root);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock b : _order) {
+                if (b == root)
+                    continue;
+                BasicBlock idom = null;
+                for (BasicBlock p : preds.apply(b)) {
+                    if (_idom.containsKey(p))
+                        idom = idom == null ? p : intersect(p, idom);
+                }
+                if (idom != _idom.get(b)) {
+                    _idom.put(b, idom);
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock b : _order) {
+            _children.put(b, new ArrayList<>());
+            if (b != root)
+                _children.get(_idom.get(b)).add(b);
+        }
+    }
+
+    /**
+     * @return the dominators of the edges of fn, which must be up to date
+     */
+    public static Dominators of(IRFunction fn) {
+        return new Dominators(fn.entry(), b -> b.succs, b -> b.preds);
+    }
+
+    // depth-first postorder numbering, without recursion: nesting can be deep
+    private void number(Function<BasicBlock, List<BasicBlock>> succs) {
+        Set<BasicBlock> seen = new HashSet<>();
+        List<BasicBlock> stack = new ArrayList<>();
+        List<Integer> next = new ArrayList<>();
+        stack.add(_root);
+        next.add(0);
+        seen.add(_root);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock b = stack.get(top);
+            List<BasicBlock> out = succs.apply(b);
+            int i = next.get(top);
+            if (i < out.size()) {
+                next.set(top, i + 1);
+                if (seen.add(out.get(i))) {
+                    stack.add(out.get(i));
+                    next.add(0);
+                }
+                continue;
+            }
+            stack.remove(top);
+            next.remove(top);
+            _postorder.put(b, _postorder.size());
+            _order.add(b);
+        }
+        Collections.reverse(_order);
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (_postorder.get(a) < _postorder.get(b))
+                a = _idom.get(a);
+            while (_postorder.get(b) < _postorder.get(a))
+                b = _idom.get(b);
+        }
+        return a;
+    }
+
+    public boolean reaches(BasicBlock b) {
+        return _idom.containsKey(b);
+    }
+
+    /**
+     * @return the immediate dominator of b, null for the root and for blocks it does not reach
+     */
+    public BasicBlock idom(BasicBlock b) {
+        return b == _root ? null : _idom.get(b);
+    }
+
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if (!reaches(b))
+            return false;
+        while (b != a && b != _root)
+            b = _idom.get(b);
+        return b == a;
+    }
+
+    public List<BasicBlock> children(BasicBlock b) {
+        return _children.getOrDefault(b, List.of());
+    }
+
+    /**
+     * @return the blocks reached from the root, in reverse postorder
+     */
+    public List<BasicBlock> order() {
+        return _order;
+    }
+
+    /**
+     * @return the blocks where the dominance of b ends
+     */
+    public Set<BasicBlock> frontier(BasicBlock b) {
+        if (_frontiers == null) {
+            _frontiers = new HashMap<>();
+            _order.forEach(n -> _frontiers.put(n, new LinkedHashSet<>()));
+            for (BasicBlock n : _order) {
+                List<BasicBlock> preds = _preds.apply(n);
+                if (preds.size() < 2)
+                    continue;
+                for (BasicBlock p : preds) {
+                    BasicBlock runner = p;
+                    while (reaches(runner) && runner != _idom.get(n)) {
+                        _frontiers.get(runner).add(n);
+                        if (runner == _root)
+                            break;
+                        runner = _idom.get(runner);
+                    }
+                }
+            }
+        }
+        return _frontiers.getOrDefault(b, Set.of());
+    }
+}
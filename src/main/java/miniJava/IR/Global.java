@@ -0,0 +1,29 @@
+package miniJava.IR;
+
+import miniJava.AbstractSyntaxTrees.FieldDecl;
+
+/**
+ * The address of a static field in .bss, as the base of a load or store.
+ */
+public class Global extends Value {
+    public final FieldDecl field;
+
+    public Global(FieldDecl field) {
+        this.field = field;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Global && ((Global) o).field == field;
+    }
+
+    @Override
+    public int hashCode() {
+        return field.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "@" + field.name;
+    }
+}
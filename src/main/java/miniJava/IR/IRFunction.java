@@ -0,0 +1,165 @@
+package miniJava.IR;
+
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The IR of one method: its blocks in layout order, the first being the entry.
+ * Parameters arrive in registers defined on entry, the receiver first.
+ */
+public class IRFunction {
+    public final MethodDecl method;
+    // null for static methods
+    public VReg thisReg;
+    public final List<VReg> params = new ArrayList<>();
+    public final List<BasicBlock> blocks = new ArrayList<>();
+    private int _regs;
+    private int _blockIds;
+
+    public IRFunction(MethodDecl method) {
+        this.method = method;
+    }
+
+    public VReg newReg(String name) {
+        return new VReg(_regs++, name, null);
+    }
+
+    /**
+     * @return a new SSA version of the variable reg belongs to
+     */
+    public VReg newVersion(VReg reg) {
+        return new VReg(_regs++, reg.name, reg.origin);
+    }
+
+    public VReg newTemp() {
+        return newReg(null);
+    }
+
+    /**
+     * @return one more than the highest register id, for passes that index by id
+     */
+    public int regCount() {
+        return _regs;
+    }
+
+    /**
+     * @return a block that is not yet placed in blocks
+     */
+    public BasicBlock newBlock() {
+        return new BasicBlock(_blockIds++);
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * recompute the predecessors and successors of every block from the terminators
+     */
+    public void computeEdges() {
+        blocks.forEach(b -> {
+            b.preds.clear();
+            b.succs.clear();
+        });
+        for (BasicBlock b : blocks) {
+            Instr last = b.terminator();
+            if (last == null)
+                continue;
+            for (BasicBlock target : last.targets) {
+                if (!b.succs.contains(target)) {
+                    b.succs.add(target);
+                    target.preds.add(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * drop the blocks that cannot be reached from the entry, and recompute the edges
+     */
+    public void removeUnreachable() {
+        computeEdges();
+        Set<BasicBlock> reached = new HashSet<>();
+        List<BasicBlock> work = new ArrayList<>(List.of(entry()));
+        while (!work.isEmpty()) {
+            BasicBlock b = work.remove(work.size() - 1);
+            if (reached.add(b))
+                work.addAll(b.succs);
+        }
+        if (blocks.removeIf(b -> !reached.contains(b)))
+            computeEdges();
+    }
+
+    /**
+     * send the jumps into blocks that only jump on to where they go, turn branches with one target
+     * into jumps, and append a block to its only predecessor when that jumps straight to it;
+     * fn must not be in SSA form
+     * @return number of blocks removed
+     */
+    public int simplifyBlocks() {
+        int before = blocks.size();
+        for (BasicBlock b : blocks) {
+            Instr last = b.terminator();
+            for (int i = 0; i < last.targets.length; i++)
+                last.targets[i] = skip(last.targets[i]);
+            if (last.op == Op.BR && last.targets[0] == last.targets[1])
+                b.instrs.set(b.instrs.size() - 1, Instr.jump(last.targets[0]));
+        }
+        removeUnreachable();
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock b = blocks.get(i);
+            Instr last = b.terminator();
+            while (last.op == Op.JMP && last.targets[0] != b && last.targets[0] != entry()
+                    && last.targets[0].preds.size() == 1) {
+                BasicBlock next = last.targets[0];
+                b.instrs.remove(b.instrs.size() - 1);
+                b.instrs.addAll(next.instrs);
+                blocks.remove(next);
+                computeEdges();
+                last = b.terminator();
+            }
+        }
+        return before - blocks.size();
+    }
+
+    // where a jump to b ends up, stopping at loops of empty blocks
+    private BasicBlock skip(BasicBlock b) {
+        Set<BasicBlock> seen = new HashSet<>();
+        while (b.instrs.size() == 1 && b.instrs.get(0).op == Op.JMP && seen.add(b))
+            b = b.instrs.get(0).targets[0];
+        return b;
+    }
+
+    public String name() {
+        return (method.inClass != null ? method.inClass.name + "." : "") + method.name;
+    }
+
+    /**
+     * the textual dump: a header with the parameters, then every block with its instructions
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("method ").append(name()).append("(");
+        List<VReg> incoming = new ArrayList<>();
+        if (thisReg != null)
+            incoming.add(thisReg);
+        incoming.addAll(params);
+        for (int i = 0; i < incoming.size(); i++)
+            sb.append(i == 0 ? "" : ", ").append(incoming.get(i));
+        sb.append(")\n");
+        for (BasicBlock b : blocks) {
+            sb.append(b.label()).append(":");
+            if (!b.preds.isEmpty()) {
+                sb.append("    ; preds");
+                b.preds.forEach(p -> sb.append(" ").append(p.label()));
+            }
+            sb.append("\n");
+            b.instrs.forEach(ins -> sb.append("    ").append(ins).append("\n"));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package miniJava.IR;
+
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.CodeGeneration.CodeGenerator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls to small methods by a copy of their body. Every call is bound to its MethodDecl at
+ * compile time, so the call graph is exact; a method is inlined where it is not recursive (alone or
+ * through others), not the entry point, at most calleeLimit instructions long, and the caller stays
+ * within callerLimit instructions. Callers are processed after their callees, so what a callee
+ * inlined counts toward its own size. Runs before SSA construction.
+ * Every call site considered is described by one line of the report.
+ */
+public class Inliner {
+    public static final int CALLEE_LIMIT = 16;
+    public static final int CALLER_LIMIT = 400;
+
+    private final Map<MethodDecl, IRFunction> _functions = new HashMap<>();
+    private final int _calleeLimit;
+    private final int _callerLimit;
+    private final List<String> _report = new ArrayList<>();
+
+    // Tarjan's strongly connected components, which come out callees first
+    private final Map<IRFunction, Integer> _index = new HashMap<>();
+    private final Map<IRFunction, Integer> _low = new HashMap<>();
+    private final List<IRFunction> _stack = new ArrayList<>();
+    private final List<IRFunction> _order = new ArrayList<>();
+    private final Set<IRFunction> _recursive = new LinkedHashSet<>();
+
+    public Inliner(List<IRFunction> functions) {
+        this(functions, CALLEE_LIMIT, CALLER_LIMIT);
+    }
+
+    public Inliner(List<IRFunction> functions, int calleeLimit, int callerLimit) {
+        functions.forEach(fn -> _functions.put(fn.method, fn));
+        this._calleeLimit = calleeLimit;
+        this._callerLimit = callerLimit;
+        for (IRFunction fn : functions) {
+            if (!_index.containsKey(fn))
+                visit(fn);
+        }
+    }
+
+    /**
+     * @return one line per call site: caller, callee and what was decided
+     */
+    public List<String> getReport() {
+        return _report;
+    }
+
+    public void run(PassStats stats) {
+        for (IRFunction caller : _order) {
+            int inlined = 0;
+            for (int i = 0; i < caller.blocks.size(); i++) {
+                BasicBlock b = caller.blocks.get(i);
+                for (int j = 0; j < b.instrs.size(); j++) {
+                    Instr ins = b.instrs.get(j);
+                    if (ins.op != Op.CALL)
+                        continue;
+                    IRFunction callee = _functions.get(ins.callee);
+                    String reason = reject(caller, callee);
+                    _report.add(caller.name() + " -> " + (callee != null ? callee.name() : ins.callee.name) + ": "
+                            + (reason == null ? "inlined, " + size(callee) + " instructions" : reason));
+                    if (reason != null)
+                        continue;
+                    // the rest of b moved to a block after the copy, which the loop gets to later
+                    inline(caller, i, j, callee);
+                    inlined++;
+                    break;
+                }
+            }
+            if (inlined > 0) {
+                caller.simplifyBlocks();
+                stats.add("inline.calls", inlined);
+            }
+        }
+    }
+
+    // why callee is not inlined into caller, or null
+    private String reject(IRFunction caller, IRFunction callee) {
+        if (callee == null)
+            return "not compiled";
+        if (CodeGenerator.isEntryPoint(callee.method))
+            return "entry point";
+        if (_recursive.contains(callee))
+            return "recursive";
+        int size = size(callee);
+        if (size > _calleeLimit)
+            return "too large, " + size + " > " + _calleeLimit + " instructions";
+        if (size(caller) + size > _callerLimit)
+            return "caller would exceed " + _callerLimit + " instructions";
+        return null;
+    }
+
+    private static int size(IRFunction fn) {
+        int size = 0;
+        for (BasicBlock b : fn.blocks)
+            size += b.instrs.size();
+        return size;
+    }
+
+    private void visit(IRFunction fn) {
+        int index = _index.size();
+        _index.put(fn, index);
+        _low.put(fn, index);
+        _stack.add(fn);
+        for (IRFunction callee : callees(fn)) {
+            if (callee == fn)
+                _recursive.add(fn);
+            if (!_index.containsKey(callee)) {
+                visit(callee);
+                _low.put(fn, Math.min(_low.get(fn), _low.get(callee)));
+            } else if (_stack.contains(callee))
+                _low.put(fn, Math.min(_low.get(fn), _index.get(callee)));
+        }
+        if (_low.get(fn) != index)
+            return;
+        List<IRFunction> component = new ArrayList<>();
+        IRFunction top;
+        do {
+            top = _stack.remove(_stack.size() - 1);
+            component.add(top);
+        } while (top != fn);
+        if (component.size() > 1)
+            _recursive.addAll(component);
+        _order.addAll(component);
+    }
+
+    private Set<IRFunction> callees(IRFunction fn) {
+        Set<IRFunction> callees = new LinkedHashSet<>();
+        for (BasicBlock b : fn.blocks) {
+            for (Instr ins : b.instrs) {
+                if (ins.op == Op.CALL && _functions.containsKey(ins.callee))
+                    callees.add(_functions.get(ins.callee));
+            }
+        }
+        return callees;
+    }
+
+    // replace the call at instrs[index] of caller.blocks[at] by a copy of callee
+    private void inline(IRFunction caller, int at, int index, IRFunction callee) {
+        BasicBlock b = caller.blocks.get(at);
+        Instr call = b.instrs.get(index);
+        BasicBlock rest = caller.newBlock();
+        List<Instr> after = b.instrs.subList(index, b.instrs.size());
+        rest.instrs.addAll(after.subList(1, after.size()));
+        after.clear();
+
+        Map<Value, Value> regs = new HashMap<>();
+        Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+        callee.blocks.forEach(cb -> blocks.put(cb, caller.newBlock()));
+        Set<VReg> assigned = new HashSet<>();
+        int returns = 0;
+        // the temporary the only return returns, when the instruction just before computes it
+        VReg returned = null;
+        for (BasicBlock cb : callee.blocks) {
+            for (int i = 0; i < cb.instrs.size(); i++) {
+                Instr ins = cb.instrs.get(i);
+                if (ins.dst != null)
+                    assigned.add(ins.dst);
+                if (ins.op != Op.RET)
+                    continue;
+                returns++;
+                Instr prev = i > 0 ? cb.instrs.get(i - 1) : null;
+                if (ins.args.length > 0 && prev != null && prev.dst == ins.args[0] && prev.dst.name == null)
+                    returned = prev.dst;
+            }
+        }
+        // parameters the callee assigns get registers of their own, the others are the arguments
+        List<VReg> incoming = new ArrayList<>();
+        if (callee.thisReg != null)
+            incoming.add(callee.thisReg);
+        incoming.addAll(callee.params);
+        for (int i = 0; i < incoming.size(); i++) {
+            if (assigned.contains(incoming.get(i)))
+                b.instrs.add(new Instr(Op.MOV, copy(caller, regs, incoming.get(i)), call.args[i]));
+            else
+                regs.put(incoming.get(i), call.args[i]);
+        }
+        b.instrs.add(Instr.jump(blocks.get(callee.entry())));
+
+        // a temporary has one definition, a result returned from several places needs a name
+        VReg result = call.dst;
+        if (result != null && returns == 1 && returned != null) {
+            // computed straight into the result
+            regs.put(returned, result);
+            result = null;
+        } else if (result != null && result.name == null && returns > 1) {
+            result = caller.newReg(callee.method.name);
+            rest.instrs.add(0, new Instr(Op.MOV, call.dst, result));
+        }
+        List<BasicBlock> copies = new ArrayList<>();
+        for (BasicBlock cb : callee.blocks) {
+            BasicBlock copy = blocks.get(cb);
+            for (Instr ins : cb.instrs) {
+                if (ins.op == Op.RET) {
+                    if (result != null && ins.args.length > 0)
+                        copy.instrs.add(new Instr(Op.MOV, result, value(caller, regs, ins.args[0])));
+                    copy.instrs.add(Instr.jump(rest));
+                    continue;
+                }
+                Value[] args = new Value[ins.args.length];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = value(caller, regs, ins.args[i]);
+                Instr clone = new Instr(ins.op, ins.dst != null ? copy(caller, regs, ins.dst) : null, args);
+                clone.targets = new BasicBlock[ins.targets.length];
+                for (int i = 0; i < ins.targets.length; i++)
+                    clone.targets[i] = blocks.get(ins.targets[i]);
+                clone.callee = ins.callee;
+                clone.offset = ins.offset;
+                clone.size = ins.size;
+                copy.instrs.add(clone);
+            }
+            copies.add(copy);
+        }
+        copies.add(rest);
+        caller.blocks.addAll(at + 1, copies);
+    }
+
+    private static Value value(IRFunction caller, Map<Value, Value> regs, Value value) {
+        return value instanceof VReg ? regs.computeIfAbsent(value, r -> caller.newReg(((VReg) r).name)) : value;
+    }
+
+    private static VReg copy(IRFunction caller, Map<Value, Value> regs, VReg reg) {
+        return (VReg) value(caller, regs, reg);
+    }
+}
@@ -0,0 +1,107 @@
+package miniJava.IR;
+
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One three-address instruction: dst := op args.
+ */
+public class Instr {
+    public Op op;
+    // null when the instruction has no result
+    public VReg dst;
+    public Value[] args;
+    // JMP has one target, BR two, PHI the predecessor each argument comes from
+    public BasicBlock[] targets = new BasicBlock[0];
+    // CALL
+    public MethodDecl callee;
+    // LOAD and STORE: byte displacement from the base
+    public int offset;
+    // LOAD and STORE: bytes moved, 1 for a boolean field, which a load zero-extends
+    public int size = 8;
+
+    public Instr(Op op, VReg dst, Value... args) {
+        this.op = op;
+        this.dst = dst;
+        this.args = args;
+    }
+
+    public static Instr jump(BasicBlock target) {
+        Instr jump = new Instr(Op.JMP, null);
+        jump.targets = new BasicBlock[] {target};
+        return jump;
+    }
+
+    public static Instr phi(VReg dst, Value[] args, BasicBlock[] preds) {
+        Instr phi = new Instr(Op.PHI, dst, args);
+        phi.targets = preds;
+        return phi;
+    }
+
+    public static Instr branch(Value cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+        Instr branch = new Instr(Op.BR, null, cond);
+        branch.targets = new BasicBlock[] {ifTrue, ifFalse};
+        return branch;
+    }
+
+    // LOAD and STORE with an index operand address base + index*8 + offset
+    public boolean isIndexed() {
+        return op == Op.LOAD ? args.length == 2 : op == Op.STORE && args.length == 3;
+    }
+
+    /**
+     * @return the registers this instruction reads, in operand order
+     */
+    public List<VReg> uses() {
+        List<VReg> uses = new ArrayList<>();
+        for (Value arg : args) {
+            if (arg instanceof VReg)
+                uses.add((VReg) arg);
+        }
+        return uses;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (dst != null)
+            sb.append(dst).append(" = ");
+        sb.append(op.spelling);
+        switch (op) {
+            case LOAD:
+                sb.append(" ").append(address());
+                break;
+            case STORE:
+                sb.append(" ").append(address()).append(", ").append(args[args.length - 1]);
+                break;
+            case PHI:
+                for (int i = 0; i < args.length; i++)
+                    sb.append(i == 0 ? " " : ", ").append("[").append(args[i]).append(", ").append(targets[i].label()).append("]");
+                break;
+            case CALL:
+                sb.append(" ").append(callee.inClass != null ? callee.inClass.name + "." : "").append(callee.name)
+                        .append("(").append(list(0)).append(")");
+                break;
+            default:
+                if (args.length > 0)
+                    sb.append(" ").append(list(0));
+                for (BasicBlock target : targets)
+                    sb.append(args.length > 0 || target != targets[0] ? ", " : " ").append(target.label());
+        }
+        return sb.toString();
+    }
+
+    private String address() {
+        String index = isIndexed() ? " + " + args[1] + "*8" : "";
+        return (size == 1 ? "byte " : "") + "[" + args[0] + index + " + " + offset + "]";
+    }
+
+    private String list(int from) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < args.length; i++)
+            sb.append(i == from ? "" : ", ").append(args[i]);
+        return sb.toString();
+    }
+}
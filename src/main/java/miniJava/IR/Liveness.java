@@ -0,0 +1,53 @@
+package miniJava.IR;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The registers live on entry to and exit from every block, by backward dataflow iterated to a fixed point.
+ * Expects the edges of fn to be up to date.
+ */
+public class Liveness {
+    public final Map<BasicBlock, Set<VReg>> liveIn = new HashMap<>();
+    public final Map<BasicBlock, Set<VReg>> liveOut = new HashMap<>();
+
+    public Liveness(IRFunction fn) {
+        Map<BasicBlock, Set<VReg>> uses = new HashMap<>();
+        Map<BasicBlock, Set<VReg>> defs = new HashMap<>();
+        for (BasicBlock b : fn.blocks) {
+            Set<VReg> use = new HashSet<>();
+            Set<VReg> def = new HashSet<>();
+            for (Instr ins : b.instrs) {
+                // read before any write in this block
+                for (VReg r : ins.uses()) {
+                    if (!def.contains(r))
+                        use.add(r);
+                }
+                if (ins.dst != null)
+                    def.add(ins.dst);
+            }
+            uses.put(b, use);
+            defs.put(b, def);
+            liveIn.put(b, new HashSet<>());
+            liveOut.put(b, new HashSet<>());
+        }
+        List<BasicBlock> blocks = fn.blocks;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock b = blocks.get(i);
+                Set<VReg> out = liveOut.get(b);
+                for (BasicBlock s : b.succs)
+                    changed |= out.addAll(liveIn.get(s));
+                Set<VReg> in = new HashSet<>(out);
+                in.removeAll(defs.get(b));
+                in.addAll(uses.get(b));
+                changed |= liveIn.get(b).addAll(in);
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop-invariant code motion and induction variable strength reduction over a function in SSA form.
+ * Loops are the natural loops of back edges, each given a preheader, and are handled innermost first,
+ * so what leaves an inner loop may go on to leave the outer one.
+ * A temporary whose operands do not change in the loop moves to the preheader when computing it cannot
+ * trap, or, for a load, when it is in the header, before anything with an effect, and nothing in the
+ * loop stores or calls. A variable only has versions that do not overlap, so its definitions stay.
+ * A product of a basic induction variable i, stepped by a constant once an iteration, and an invariant
+ * k becomes a new variable that starts at i*k and is stepped by c*k right after i.
+ */
+public class LoopOptimizer {
+    private final IRFunction _fn;
+    private final Map<VReg, Instr> _defs = new HashMap<>();
+    private final Map<VReg, BasicBlock> _defBlock = new HashMap<>();
+
+    private static class Loop {
+        final BasicBlock header;
+        final Set<BasicBlock> body = new LinkedHashSet<>();
+        final List<BasicBlock> latches = new ArrayList<>();
+
+        Loop(BasicBlock header) {
+            this.header = header;
+        }
+    }
+
+    public LoopOptimizer(IRFunction fn) {
+        this._fn = fn;
+    }
+
+    public void run(PassStats stats) {
+        _fn.computeEdges();
+        List<Loop> loops = findLoops(Dominators.of(_fn));
+        loops.sort(Comparator.comparingInt(loop -> loop.body.size()));
+        int hoisted = 0, reduced = 0;
+        for (Loop loop : loops) {
+            BasicBlock pre = preheader(loop, loops);
+            if (pre == null)
+                continue;
+            index();
+            hoisted += hoist(loop, pre);
+            index();
+            reduced += reduce(loop, pre);
+        }
+        stats.add("licm.hoisted", hoisted);
+        stats.add("sr.iv", reduced);
+    }
+
+    // a back edge goes to a block that dominates its source; loops sharing a header are one loop
+    private List<Loop> findLoops(Dominators dom) {
+        Map<BasicBlock, Loop> byHeader = new HashMap<>();
+        List<Loop> loops = new ArrayList<>();
+        for (BasicBlock b : dom.order()) {
+            for (BasicBlock h : b.succs) {
+                if (!dom.dominates(h, b))
+                    continue;
+                Loop loop = byHeader.get(h);
+                if (loop == null) {
+                    loop = new Loop(h);
+                    loop.body.add(h);
+                    byHeader.put(h, loop);
+                    loops.add(loop);
+                }
+                loop.latches.add(b);
+                List<BasicBlock> work = new ArrayList<>(List.of(b));
+                while (!work.isEmpty()) {
+                    BasicBlock n = work.remove(work.size() - 1);
+                    if (loop.body.add(n))
+                        work.addAll(n.preds);
+                }
+            }
+        }
+        return loops;
+    }
+
+    // the only block outside the loop that enters it, made if there is none yet
+    private BasicBlock preheader(Loop loop, List<Loop> loops) {
+        BasicBlock h = loop.header;
+        List<BasicBlock> outside = new ArrayList<>();
+        for (BasicBlock p : h.preds) {
+            if (!loop.body.contains(p))
+                outside.add(p);
+        }
+        if (outside.isEmpty())
+            return null;
+        if (outside.size() == 1 && outside.get(0).terminator().targets.length == 1)
+            return outside.get(0);
+        BasicBlock pre = _fn.newBlock();
+        for (Instr phi : h.instrs) {
+            if (phi.op != Op.PHI)
+                break;
+            // the values from outside meet in the preheader
+            List<Value> args = new ArrayList<>(), inner = new ArrayList<>();
+            List<BasicBlock> from = new ArrayList<>(), innerFrom = new ArrayList<>();
+            for (int i = 0; i < phi.args.length; i++) {
+                boolean out = outside.contains(phi.targets[i]);
+                (out ? args : inner).add(phi.args[i]);
+                (out ? from : innerFrom).add(phi.targets[i]);
+            }
+            Value entering = args.get(0);
+            if (outside.size() > 1) {
+                VReg joined = _fn.newVersion(phi.dst);
+                pre.instrs.add(Instr.phi(joined, args.toArray(new Value[0]), from.toArray(new BasicBlock[0])));
+                entering = joined;
+            }
+            inner.add(entering);
+            innerFrom.add(pre);
+            phi.args = inner.toArray(new Value[0]);
+            phi.targets = innerFrom.toArray(new BasicBlock[0]);
+        }
+        pre.instrs.add(Instr.jump(h));
+        for (BasicBlock p : outside) {
+            Instr last = p.terminator();
+            for (int i = 0; i < last.targets.length; i++) {
+                if (last.targets[i] == h)
+                    last.targets[i] = pre;
+            }
+        }
+        _fn.blocks.add(_fn.blocks.indexOf(h), pre);
+        // an enclosing loop now enters the header through the preheader
+        for (Loop other : loops) {
+            if (other != loop && other.body.contains(h) && outside.stream().anyMatch(other.body::contains))
+                other.body.add(pre);
+        }
+        _fn.computeEdges();
+        return pre;
+    }
+
+    private void index() {
+        _defs.clear();
+        _defBlock.clear();
+        for (BasicBlock b : _fn.blocks) {
+            for (Instr ins : b.instrs) {
+                if (ins.dst != null) {
+                    _defs.put(ins.dst, ins);
+                    _defBlock.put(ins.dst, b);
+                }
+            }
+        }
+    }
+
+    // a constant, or a register defined outside the loop, parameters included
+    private boolean isInvariant(Value value, Loop loop) {
+        return value != null && (!(value instanceof VReg) || !loop.body.contains(_defBlock.get(value)));
+    }
+
+    private int hoist(Loop loop, BasicBlock pre) {
+        boolean memoryChanges = false;
+        for (BasicBlock b : loop.body) {
+            for (Instr ins : b.instrs)
+                memoryChanges |= ins.op == Op.STORE || ins.op == Op.CALL;
+        }
+        int hoisted = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock b : _fn.blocks) {
+                if (!loop.body.contains(b))
+                    continue;
+                // whether something before ins in the header has an effect
+                boolean effect = b != loop.header;
+                for (int i = 0; i < b.instrs.size(); i++) {
+                    Instr ins = b.instrs.get(i);
+                    boolean invariant = ins.dst != null && ins.dst.name == null
+                            && ins.uses().stream().allMatch(r -> isInvariant(r, loop));
+                    if (invariant && (isPure(ins) || (ins.op == Op.LOAD && !effect && !memoryChanges))) {
+                        b.instrs.remove(i--);
+                        pre.instrs.add(pre.instrs.size() - 1, ins);
+                        _defBlock.put(ins.dst, pre);
+                        hoisted++;
+                        changed = true;
+                        continue;
+                    }
+                    effect |= !isPure(ins) && ins.op != Op.PHI;
+                }
+            }
+        }
+        return hoisted;
+    }
+
+    // computed from its operands alone, without a chance to trap
+    private static boolean isPure(Instr ins) {
+        switch (ins.op) {
+            case MOV:
+            case NEG:
+            case NOT:
+            case ADD:
+            case SUB:
+            case MUL:
+            case AND:
+            case OR:
+            case SHL:
+            case SAR:
+            case SHR:
+                return true;
+            case DIV:
+                // the only trap of idiv besides a zero divisor is the quotient of the minimum by -1
+                return ins.args[1] instanceof Const && ((Const) ins.args[1]).value != 0
+                        && ((Const) ins.args[1]).value != -1;
+            default:
+                return ins.op.isRelation();
+        }
+    }
+
+    private int reduce(Loop loop, BasicBlock pre) {
+        if (loop.latches.size() != 1)
+            return 0;
+        BasicBlock latch = loop.latches.get(0);
+        int reduced = 0;
+        for (Instr phi : new ArrayList<>(loop.header.instrs)) {
+            if (phi.op != Op.PHI)
+                break;
+            if (phi.args.length != 2)
+                continue;
+            int fromPre = phi.targets[0] == pre ? 0 : 1;
+            if (phi.targets[fromPre] != pre || phi.targets[1 - fromPre] != latch)
+                continue;
+            Value init = phi.args[fromPre];
+            Integer step = step(phi.dst, phi.args[1 - fromPre], loop);
+            if (init == null || step == null)
+                continue;
+            Instr next = _defs.get((VReg) phi.args[1 - fromPre]);
+            // one new variable for every invariant factor of this induction variable
+            Map<Value, VReg> products = new HashMap<>();
+            for (BasicBlock b : loop.body) {
+                for (int i = 0; i < b.instrs.size(); i++) {
+                    Instr ins = b.instrs.get(i);
+                    Value factor = factor(ins, phi.dst, loop);
+                    if (factor == null)
+                        continue;
+                    VReg product = products.get(factor);
+                    if (product == null) {
+                        product = product(loop.header, phi, init, step, factor, pre, next);
+                        if (product == null)
+                            continue;
+                        products.put(factor, product);
+                        // the new phi went in front of the header
+                        i = b.instrs.indexOf(ins);
+                    }
+                    // a copy, not a rename: the versions of the new variable must not overlap
+                    b.instrs.set(i, new Instr(Op.MOV, ins.dst, product));
+                    reduced++;
+                }
+            }
+        }
+        return reduced;
+    }
+
+    // c when next is i + c, c + i or i - (-c), i being the variable of the phi
+    private Integer step(VReg i, Value next, Loop loop) {
+        if (!(next instanceof VReg) || !loop.body.contains(_defBlock.get(next)))
+            return null;
+        Instr def = _defs.get(next);
+        if (def.op == Op.ADD && def.args[0] == i && def.args[1] instanceof Const)
+            return ((Const) def.args[1]).value;
+        if (def.op == Op.ADD && def.args[1] == i && def.args[0] instanceof Const)
+            return ((Const) def.args[0]).value;
+        if (def.op == Op.SUB && def.args[0] == i && def.args[1] instanceof Const)
+            return ConstantPropagation.fold(Op.NEG, ((Const) def.args[1]).value, 0);
+        return null;
+    }
+
+    // k when ins is i*k or k*i with k invariant
+    private Value factor(Instr ins, VReg i, Loop loop) {
+        if (ins.op != Op.MUL)
+            return null;
+        Value k = ins.args[0] == i ? ins.args[1] : ins.args[1] == i ? ins.args[0] : null;
+        // i*0 and i*1 are no products worth a variable
+        if (!isInvariant(k, loop) || k.equals(new Const(0)) || k.equals(new Const(1)))
+            return null;
+        return k;
+    }
+
+    // the version of a new variable holding i*k in the loop, or null if c*k overflows
+    private VReg product(BasicBlock header, Instr phi, Value init, int step, Value k, BasicBlock pre, Instr next) {
+        Value stride;
+        if (k instanceof Const) {
+            Integer folded = ConstantPropagation.fold(Op.MUL, step, ((Const) k).value);
+            if (folded == null)
+                return null;
+            stride = new Const(folded);
+        } else if (step == 1) {
+            stride = k;
+        } else {
+            stride = _fn.newTemp();
+            pre.instrs.add(pre.instrs.size() - 1, new Instr(Op.MUL, (VReg) stride, k, new Const(step)));
+        }
+        VReg var = _fn.newReg(phi.dst.name != null ? phi.dst.name + "*" : "iv*");
+        VReg start = _fn.newVersion(var), current = _fn.newVersion(var), stepped = _fn.newVersion(var);
+        pre.instrs.add(pre.instrs.size() - 1, multiply(start, init, k));
+        BasicBlock[] preds = phi.targets.clone();
+        Value[] args = new Value[2];
+        for (int i = 0; i < 2; i++)
+            args[i] = preds[i] == pre ? start : stepped;
+        header.instrs.add(0, Instr.phi(current, args, preds));
+        BasicBlock at = _defBlock.get(next.dst);
+        at.instrs.add(at.instrs.indexOf(next) + 1, new Instr(Op.ADD, stepped, current, stride));
+        return current;
+    }
+
+    // dst := a*k, folded where a is 0 or 1 or both are constants
+    private static Instr multiply(VReg dst, Value a, Value k) {
+        if (a.equals(new Const(0)) || a.equals(new Const(1)))
+            return new Instr(Op.MOV, dst, a.equals(new Const(0)) ? a : k);
+        Integer folded = a instanceof Const && k instanceof Const
+                ? ConstantPropagation.fold(Op.MUL, ((Const) a).value, ((Const) k).value) : null;
+        return folded != null ? new Instr(Op.MOV, dst, new Const(folded)) : new Instr(Op.MUL, dst, a, k);
+    }
+}
@@ -0,0 +1,391 @@
+package miniJava.IR;
+
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lowers the body of a method to IR. Field offsets must already be laid out.
+ * Every local variable and parameter gets one register that is assigned with mov, every expression
+ * a fresh temporary; if and while become blocks joined by explicit jumps and branches, and && and ||
+ * branch past their right operand as in Java.
+ * Visiting an expression returns the Value holding its result.
+ */
+public class Lowering implements Visitor<Object, Object> {
+    private final ErrorReporter _errors;
+    private IRFunction _fn;
+    private BasicBlock _current;
+    private Map<Declaration, VReg> _vars;
+
+    public Lowering(ErrorReporter errors) {
+        this._errors = errors;
+    }
+
+    public IRFunction lower(MethodDecl md) {
+        _fn = new IRFunction(md);
+        _vars = new HashMap<>();
+        if (!md.isStatic)
+            _fn.thisReg = _fn.newReg("this");
+        md.parameterDeclList.forEach(pd -> {
+            VReg param = _fn.newReg(pd.name);
+            _vars.put(pd, param);
+            _fn.params.add(param);
+        });
+        _current = null;
+        startBlock(_fn.newBlock());
+        md.statementList.forEach(stmt -> stmt.visit(this, null));
+        // void methods may end without a return
+        if (_current.terminator() == null)
+            emit(new Instr(Op.RET, null));
+        _fn.removeUnreachable();
+        return _fn;
+    }
+
+    private Instr emit(Instr ins) {
+        // code after a return or jump starts a block nothing branches to
+        if (_current.terminator() != null)
+            startBlock(_fn.newBlock());
+        _current.instrs.add(ins);
+        return ins;
+    }
+
+    private VReg emit(Op op, Value... args) {
+        VReg dst = _fn.newTemp();
+        emit(new Instr(op, dst, args));
+        return dst;
+    }
+
+    private VReg load(Value base, int offset) {
+        return load(base, offset, 8);
+    }
+
+    private VReg load(Value base, int offset, int size) {
+        VReg dst = _fn.newTemp();
+        Instr load = emit(new Instr(Op.LOAD, dst, base));
+        load.offset = offset;
+        load.size = size;
+        return dst;
+    }
+
+    // var := value, computing value straight into var when it is the temporary just defined
+    private void assign(VReg var, Value value) {
+        int last = _current.instrs.size() - 1;
+        if (last >= 0 && _current.terminator() == null && value.equals(_current.instrs.get(last).dst)
+                && ((VReg) value).name == null) {
+            _current.instrs.get(last).dst = var;
+            return;
+        }
+        emit(new Instr(Op.MOV, var, value));
+    }
+
+    // end the current block with a jump to target, unless it has already returned
+    private void jumpTo(BasicBlock target) {
+        if (_current.terminator() == null)
+            _current.instrs.add(Instr.jump(target));
+    }
+
+    // place block after the current one, falling through into it
+    private void startBlock(BasicBlock block) {
+        if (_current != null)
+            jumpTo(block);
+        _fn.blocks.add(block);
+        _current = block;
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitFieldDecl(FieldDecl fd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        return lower(md);
+    }
+
+    @Override
+    public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitVarDecl(VarDecl decl, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBaseType(BaseType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitClassType(ClassType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitArrayType(ArrayType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        stmt.sl.forEach(s -> s.visit(this, null));
+        return null;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        VReg var = _fn.newReg(stmt.varDecl.name);
+        _vars.put(stmt.varDecl, var);
+        assign(var, (Value) stmt.initExp.visit(this, null));
+        return null;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        Declaration decl = stmt.ref.decl;
+        if (CodeGenerator.isStaticField(decl)) {
+            emit(new Instr(Op.STORE, null, new Global((FieldDecl) decl), (Value) stmt.val.visit(this, null)));
+            return null;
+        }
+        if (decl instanceof LocalDecl) {
+            assign(_vars.get(decl), (Value) stmt.val.visit(this, null));
+            return null;
+        }
+        Value base = stmt.ref instanceof QualRef ? (Value) ((QualRef) stmt.ref).ref.visit(this, null) : _fn.thisReg;
+        Value value = (Value) stmt.val.visit(this, null);
+        Instr store = emit(new Instr(Op.STORE, null, base, value));
+        store.offset = decl.runtimeEntity.offset;
+        store.size = decl.runtimeEntity.size;
+        return null;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        Value array = (Value) stmt.ref.visit(this, null);
+        Value index = (Value) stmt.ix.visit(this, null);
+        Value value = (Value) stmt.exp.visit(this, null);
+        // elements follow the length
+        emit(new Instr(Op.STORE, null, array, index, value)).offset = 8;
+        return null;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        call(stmt.methodRef, stmt.argList, null);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        if (stmt.returnExpr != null)
+            emit(new Instr(Op.RET, null, (Value) stmt.returnExpr.visit(this, null)));
+        else
+            emit(new Instr(Op.RET, null));
+        return null;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        BasicBlock thenBlock = _fn.newBlock();
+        BasicBlock elseBlock = stmt.elseStmt != null ? _fn.newBlock() : null;
+        BasicBlock join = _fn.newBlock();
+        branch(stmt.cond, thenBlock, elseBlock != null ? elseBlock : join);
+        startBlock(thenBlock);
+        stmt.thenStmt.visit(this, null);
+        if (elseBlock != null) {
+            jumpTo(join);
+            startBlock(elseBlock);
+            stmt.elseStmt.visit(this, null);
+        }
+        startBlock(join);
+        return null;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        BasicBlock header = _fn.newBlock();
+        startBlock(header);
+        BasicBlock body = _fn.newBlock();
+        BasicBlock exit = _fn.newBlock();
+        branch(stmt.cond, body, exit);
+        startBlock(body);
+        stmt.body.visit(this, null);
+        jumpTo(header);
+        startBlock(exit);
+        return null;
+    }
+
+    // jump to ifTrue or ifFalse on cond, evaluating && and || only as far as needed
+    private void branch(Expression cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+        if (cond instanceof UnaryExpr && ((UnaryExpr) cond).operator.spelling.equals("!")) {
+            branch(((UnaryExpr) cond).expr, ifFalse, ifTrue);
+            return;
+        }
+        if (cond instanceof BinaryExpr) {
+            BinaryExpr expr = (BinaryExpr) cond;
+            String op = expr.operator.spelling;
+            if (op.equals("&&") || op.equals("||")) {
+                BasicBlock right = _fn.newBlock();
+                if (op.equals("&&"))
+                    branch(expr.left, right, ifFalse);
+                else
+                    branch(expr.left, ifTrue, right);
+                startBlock(right);
+                branch(expr.right, ifTrue, ifFalse);
+                return;
+            }
+        }
+        emit(Instr.branch((Value) cond.visit(this, null), ifTrue, ifFalse));
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        Value value = (Value) expr.expr.visit(this, null);
+        return emit(expr.operator.spelling.equals("-") ? Op.NEG : Op.NOT, value);
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        String op = expr.operator.spelling;
+        if (op.equals("&&") || op.equals("||")) {
+            // assigned on two paths, so it is named like a variable
+            VReg result = _fn.newReg(op);
+            BasicBlock ifTrue = _fn.newBlock(), ifFalse = _fn.newBlock(), join = _fn.newBlock();
+            branch(expr, ifTrue, ifFalse);
+            startBlock(ifTrue);
+            emit(new Instr(Op.MOV, result, new Const(1)));
+            jumpTo(join);
+            startBlock(ifFalse);
+            emit(new Instr(Op.MOV, result, new Const(0)));
+            startBlock(join);
+            return result;
+        }
+        Value left = (Value) expr.left.visit(this, null);
+        Value right = (Value) expr.right.visit(this, null);
+        return emit(Op.binary(op), left, right);
+    }
+
+    @Override
+    public Object visitRefExpr(RefExpr expr, Object arg) {
+        return expr.ref.visit(this, null);
+    }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        Value array = (Value) expr.ref.visit(this, null);
+        Value index = (Value) expr.ixExpr.visit(this, null);
+        VReg dst = _fn.newTemp();
+        emit(new Instr(Op.LOAD, dst, array, index)).offset = 8;
+        return dst;
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        VReg dst = _fn.newTemp();
+        call(expr.functionRef, expr.argList, dst);
+        return dst;
+    }
+
+    private void call(Reference methodRef, ExprList args, VReg dst) {
+        MethodDecl md = (MethodDecl) methodRef.decl;
+        if (CodeGenerator.isPrintln(md)) {
+            emit(new Instr(Op.PRINT, null, (Value) args.get(0).visit(this, null)));
+            return;
+        }
+        int receiver = md.isStatic ? 0 : 1;
+        Value[] values = new Value[receiver + args.size()];
+        if (!md.isStatic)
+            values[0] = methodRef instanceof QualRef ? (Value) ((QualRef) methodRef).ref.visit(this, null) : _fn.thisReg;
+        for (int i = 0; i < args.size(); i++)
+            values[receiver + i] = (Value) args.get(i).visit(this, null);
+        emit(new Instr(Op.CALL, dst, values)).callee = md;
+    }
+
+    @Override
+    public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+        return expr.lit.visit(this, null);
+    }
+
+    @Override
+    public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+        return emit(Op.ALLOC, new Const(CodeGenerator.objectSize(expr.classtype)), new Const(CodeGenerator.HEADER_OBJECT));
+    }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        Value length = (Value) expr.sizeExpr.visit(this, null);
+        // the length is stored before the elements
+        VReg bytes = emit(Op.MUL, length, new Const(8));
+        VReg array = emit(Op.ALLOC, emit(Op.ADD, bytes, new Const(8)), new Const(CodeGenerator.headerKind(expr)));
+        emit(new Instr(Op.STORE, null, array, length));
+        return array;
+    }
+
+    @Override
+    public Object visitThisRef(ThisRef ref, Object arg) {
+        return _fn.thisReg;
+    }
+
+    @Override
+    public Object visitIdRef(IdRef ref, Object arg) {
+        Declaration decl = ref.decl;
+        if (CodeGenerator.isStaticField(decl))
+            return load(new Global((FieldDecl) decl), 0);
+        if (decl instanceof FieldDecl)
+            return load(_fn.thisReg, decl.runtimeEntity.offset, decl.runtimeEntity.size);
+        return _vars.get(decl);
+    }
+
+    @Override
+    public Object visitQRef(QualRef ref, Object arg) {
+        Declaration decl = ref.decl;
+        // the qualifier of a static field only names it
+        if (CodeGenerator.isStaticField(decl))
+            return load(new Global((FieldDecl) decl), 0);
+        Value base = (Value) ref.ref.visit(this, null);
+        // arrays keep their length at offset 0
+        if (CodeGenerator.isArrayLength(ref))
+            return load(base, 0);
+        return load(base, decl.runtimeEntity.offset, decl.runtimeEntity.size);
+    }
+
+    @Override
+    public Object visitIdentifier(Identifier id, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitOperator(Operator op, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitIntLiteral(IntLiteral num, Object arg) {
+        return new Const(Integer.parseInt(num.spelling));
+    }
+
+    @Override
+    public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+        return new Const(bool.spelling.equals("true") ? 1 : 0);
+    }
+
+    @Override
+    public Object visitNullLiteral(NullLiteral nil, Object arg) {
+        return new Const(0);
+    }
+}
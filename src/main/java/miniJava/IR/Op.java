@@ -0,0 +1,88 @@
+package miniJava.IR;
+
+public enum Op {
+    MOV("mov"),
+    NEG("neg"),
+    NOT("not"),
+    ADD("add"),
+    SUB("sub"),
+    MUL("mul"),
+    DIV("div"),
+    AND("and"),
+    OR("or"),
+    // by a constant count; SHR fills with zeros, SAR with the sign
+    SHL("shl"),
+    SAR("sar"),
+    SHR("shr"),
+    LT("lt"),
+    LE("le"),
+    GT("gt"),
+    GE("ge"),
+    EQ("eq"),
+    NE("ne"),
+    // dst := [base + offset], or [base + index*8 + offset]
+    LOAD("load"),
+    // [base + offset] := value, or [base + index*8 + offset] := value
+    STORE("store"),
+    // dst := zeroed memory of the given number of bytes, with the CodeGenerator.HEADER_ kind of what it holds
+    ALLOC("alloc"),
+    PRINT("print"),
+    CALL("call"),
+    RET("ret"),
+    JMP("jmp"),
+    // to the first target when the operand is true, to the second otherwise
+    BR("br"),
+    // SSA join: dst := args[i] when entered from targets[i]
+    PHI("phi");
+
+    public final String spelling;
+
+    Op(String spelling) {
+        this.spelling = spelling;
+    }
+
+    public boolean isTerminator() {
+        return this == RET || this == JMP || this == BR;
+    }
+
+    // calls and the syscalls of alloc and print clobber every caller-saved register
+    public boolean isCall() {
+        return this == CALL || this == ALLOC || this == PRINT;
+    }
+
+    public boolean isRelation() {
+        return compareTo(LT) >= 0 && compareTo(NE) <= 0;
+    }
+
+    // the IR operator for a miniJava binary operator
+    public static Op binary(String op) {
+        switch (op) {
+            case "+":
+                return ADD;
+            case "-":
+                return SUB;
+            case "*":
+                return MUL;
+            case "/":
+                return DIV;
+            case "&&":
+                return AND;
+            case "||":
+                return OR;
+            case "<":
+                return LT;
+            case "<=":
+                return LE;
+            case ">":
+                return GT;
+            case ">=":
+                return GE;
+            case "==":
+                return EQ;
+            case "!=":
+                return NE;
+            default:
+                throw new IllegalArgumentException("no IR operator for " + op);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package miniJava.IR;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts of what the IR passes did, summed over every method of a compilation, such as
+ * "sccp.constants" or "adce.instructions". Keys keep the order they were first counted in.
+ */
+public class PassStats {
+    private final Map<String, Integer> _counts = new LinkedHashMap<>();
+
+    public void add(String key, int n) {
+        _counts.merge(key, n, Integer::sum);
+    }
+
+    public int get(String key) {
+        return _counts.getOrDefault(key, 0);
+    }
+
+    public Map<String, Integer> counts() {
+        return _counts;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        _counts.forEach((key, n) -> sb.append(key).append(": ").append(n).append("\n"));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,173 @@
+package miniJava.IR;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversion of a function to and from SSA form. Phis are placed on the dominance frontiers of
+ * each variable's definitions, but only where the variable is live (pruned SSA), and definitions are
+ * renamed to fresh versions by a walk of the dominator tree; temporaries already have one definition.
+ * Leaving SSA renames every version back to its variable, which is only correct while the versions of
+ * one variable do not overlap: passes in between may replace uses by constants and delete code,
+ * but must not propagate copies.
+ */
+public class SSA {
+    private final IRFunction _fn;
+    private Dominators _dom;
+    private final Map<VReg, Deque<VReg>> _stacks = new HashMap<>();
+
+    private SSA(IRFunction fn) {
+        this._fn = fn;
+    }
+
+    /**
+     * put fn in SSA form, fn must have no unreachable blocks
+     */
+    public static void construct(IRFunction fn, PassStats stats) {
+        new SSA(fn).construct(stats);
+    }
+
+    private void construct(PassStats stats) {
+        _fn.computeEdges();
+        Liveness liveness = new Liveness(_fn);
+        _dom = Dominators.of(_fn);
+        Map<VReg, Set<BasicBlock>> defBlocks = new LinkedHashMap<>();
+        List<VReg> incoming = new ArrayList<>();
+        if (_fn.thisReg != null)
+            incoming.add(_fn.thisReg);
+        incoming.addAll(_fn.params);
+        incoming.forEach(r -> defBlocks.computeIfAbsent(r, k -> new HashSet<>()).add(_fn.entry()));
+        for (BasicBlock b : _fn.blocks) {
+            for (Instr ins : b.instrs) {
+                if (ins.dst != null && ins.dst.name != null)
+                    defBlocks.computeIfAbsent(ins.dst, k -> new HashSet<>()).add(b);
+            }
+        }
+        int phis = 0;
+        for (Map.Entry<VReg, Set<BasicBlock>> entry : defBlocks.entrySet()) {
+            VReg var = entry.getKey();
+            Set<BasicBlock> hasPhi = new HashSet<>();
+            List<BasicBlock> work = new ArrayList<>(entry.getValue());
+            while (!work.isEmpty()) {
+                BasicBlock b = work.remove(work.size() - 1);
+                for (BasicBlock y : _dom.frontier(b)) {
+                    if (hasPhi.contains(y) || !liveness.liveIn.get(y).contains(var))
+                        continue;
+                    y.instrs.add(0, Instr.phi(var, new Value[y.preds.size()], y.preds.toArray(new BasicBlock[0])));
+                    hasPhi.add(y);
+                    phis++;
+                    if (!entry.getValue().contains(y))
+                        work.add(y);
+                }
+            }
+        }
+        stats.add("ssa.phis", phis);
+        incoming.forEach(r -> push(r, r));
+        rename(_fn.entry());
+    }
+
+    private void push(VReg var, VReg version) {
+        _stacks.computeIfAbsent(var, k -> new ArrayDeque<>()).push(version);
+    }
+
+    private Value current(VReg var) {
+        Deque<VReg> stack = _stacks.get(var.origin);
+        return stack == null || stack.isEmpty() ? null : stack.peek();
+    }
+
+    private void rename(BasicBlock b) {
+        List<VReg> pushed = new ArrayList<>();
+        for (Instr ins : b.instrs) {
+            if (ins.op != Op.PHI) {
+                for (int i = 0; i < ins.args.length; i++) {
+                    if (ins.args[i] instanceof VReg && current((VReg) ins.args[i]) != null)
+                        ins.args[i] = current((VReg) ins.args[i]);
+                }
+            }
+            if (ins.dst != null && ins.dst.name != null) {
+                VReg version = _fn.newVersion(ins.dst);
+                push(ins.dst.origin, version);
+                pushed.add(ins.dst.origin);
+                ins.dst = version;
+            }
+        }
+        for (BasicBlock s : b.succs) {
+            for (Instr phi : s.instrs) {
+                if (phi.op != Op.PHI)
+                    break;
+                Value value = current(phi.dst);
+                for (int i = 0; i < phi.targets.length; i++) {
+                    // a variable is always initialized where it is live, so value is never missing
+                    if (phi.targets[i] == b)
+                        phi.args[i] = value != null ? value : new Const(0);
+                }
+            }
+        }
+        _dom.children(b).forEach(this::rename);
+        pushed.forEach(var -> _stacks.get(var).pop());
+    }
+
+    /**
+     * take fn out of SSA form: every version becomes its variable again, and each phi becomes copies
+     * at the end of the predecessors whose value is not already in the variable
+     */
+    public static void destruct(IRFunction fn) {
+        Map<BasicBlock, Map<BasicBlock, BasicBlock>> splits = new HashMap<>();
+        for (BasicBlock b : new ArrayList<>(fn.blocks)) {
+            while (!b.instrs.isEmpty() && b.instrs.get(0).op == Op.PHI) {
+                Instr phi = b.instrs.remove(0);
+                VReg var = phi.dst.origin;
+                for (int i = 0; i < phi.args.length; i++) {
+                    Value value = origin(phi.args[i]);
+                    if (value.equals(var))
+                        continue;
+                    BasicBlock pred = copyBlock(fn, phi.targets[i], b, splits);
+                    Instr copy = new Instr(Op.MOV, var, value);
+                    pred.instrs.add(pred.instrs.size() - 1, copy);
+                }
+            }
+        }
+        for (BasicBlock b : fn.blocks) {
+            for (Instr ins : b.instrs) {
+                for (int i = 0; i < ins.args.length; i++)
+                    ins.args[i] = origin(ins.args[i]);
+                if (ins.dst != null)
+                    ins.dst = ins.dst.origin;
+            }
+            b.instrs.removeIf(ins -> ins.op == Op.MOV && ins.args[0] == ins.dst);
+        }
+        fn.computeEdges();
+    }
+
+    private static Value origin(Value value) {
+        return value instanceof VReg ? ((VReg) value).origin : value;
+    }
+
+    // where copies for the edge pred -> b go: pred itself, or a new block on the edge if pred has other successors
+    private static BasicBlock copyBlock(IRFunction fn, BasicBlock pred, BasicBlock b,
+                                        Map<BasicBlock, Map<BasicBlock, BasicBlock>> splits) {
+        Instr last = pred.terminator();
+        if (last.targets.length == 1)
+            return pred;
+        Map<BasicBlock, BasicBlock> edges = splits.computeIfAbsent(pred, k -> new HashMap<>());
+        BasicBlock split = edges.get(b);
+        if (split == null) {
+            split = fn.newBlock();
+            split.instrs.add(Instr.jump(b));
+            for (int i = 0; i < last.targets.length; i++) {
+                if (last.targets[i] == b)
+                    last.targets[i] = split;
+            }
+            fn.blocks.add(fn.blocks.indexOf(pred) + 1, split);
+            edges.put(b, split);
+        }
+        return split;
+    }
+}
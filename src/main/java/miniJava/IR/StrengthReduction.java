@@ -0,0 +1,63 @@
+package miniJava.IR;
+
+import java.util.List;
+
+/**
+ * Multiplications and divisions by a power of two become shifts. A right shift rounds down, so a
+ * division first adds 2^k - 1 to a negative dividend, taken from its sign, to round toward zero.
+ */
+public class StrengthReduction {
+    private StrengthReduction() {
+    }
+
+    /**
+     * @return number of instructions replaced
+     */
+    public static int run(IRFunction fn) {
+        int replaced = 0;
+        for (BasicBlock b : fn.blocks) {
+            for (int i = 0; i < b.instrs.size(); i++) {
+                Instr ins = b.instrs.get(i);
+                if (ins.op == Op.MUL) {
+                    int right = log2(ins.args[1]), left = log2(ins.args[0]);
+                    if (right > 0)
+                        ins.args = new Value[] {ins.args[0], new Const(right)};
+                    else if (left > 0)
+                        ins.args = new Value[] {ins.args[1], new Const(left)};
+                    else
+                        continue;
+                    ins.op = Op.SHL;
+                    replaced++;
+                } else if (ins.op == Op.DIV && log2(ins.args[1]) > 0) {
+                    List<Instr> shifts = divide(fn, ins.dst, ins.args[0], log2(ins.args[1]));
+                    b.instrs.remove(i);
+                    b.instrs.addAll(i, shifts);
+                    i += shifts.size() - 1;
+                    replaced++;
+                }
+            }
+        }
+        return replaced;
+    }
+
+    // k for a constant 2^k, else -1
+    private static int log2(Value value) {
+        if (!(value instanceof Const))
+            return -1;
+        int n = ((Const) value).value;
+        return n > 0 && (n & (n - 1)) == 0 ? Integer.numberOfTrailingZeros(n) : -1;
+    }
+
+    // dst := (x + (x < 0 ? 2^k - 1 : 0)) >> k, in 64 bits
+    private static List<Instr> divide(IRFunction fn, VReg dst, Value x, int k) {
+        VReg sign = fn.newTemp(), bias = fn.newTemp(), biased = fn.newTemp();
+        Instr low = k == 1
+                ? new Instr(Op.SHR, bias, x, new Const(63))
+                : new Instr(Op.SHR, bias, sign, new Const(64 - k));
+        Instr add = new Instr(Op.ADD, biased, x, bias);
+        Instr shift = new Instr(Op.SAR, dst, biased, new Const(k));
+        if (k == 1)
+            return List.of(low, add, shift);
+        return List.of(new Instr(Op.SAR, sign, x, new Const(63)), low, add, shift);
+    }
+}
@@ -0,0 +1,67 @@
+package miniJava.IR;
+
+import miniJava.CodeGeneration.CodeGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns calls of a method to itself whose result is returned right away into assignments to the
+ * receiver and parameters and a jump back to the top, so such recursion runs in constant stack space.
+ * The jumps go to the old entry block, behind a new one that only falls into it.
+ * Runs before SSA construction.
+ */
+public class TailCalls {
+    private TailCalls() {
+    }
+
+    /**
+     * @return number of calls replaced
+     */
+    public static int run(IRFunction fn) {
+        if (CodeGenerator.isEntryPoint(fn.method))
+            return 0;
+        List<VReg> incoming = new ArrayList<>();
+        if (fn.thisReg != null)
+            incoming.add(fn.thisReg);
+        incoming.addAll(fn.params);
+        BasicBlock top = fn.entry();
+        int replaced = 0;
+        for (BasicBlock b : fn.blocks) {
+            int n = b.instrs.size();
+            if (n < 2 || !isTailCall(fn, b.instrs.get(n - 2), b.instrs.get(n - 1)))
+                continue;
+            Instr call = b.instrs.get(n - 2);
+            b.instrs.subList(n - 2, n).clear();
+            // an argument that reads a parameter must be taken before the parameters are overwritten
+            Value[] args = call.args.clone();
+            for (int i = 0; i < args.length; i++) {
+                if (incoming.contains(args[i]) && args[i] != incoming.get(i)) {
+                    VReg temp = fn.newTemp();
+                    b.instrs.add(new Instr(Op.MOV, temp, args[i]));
+                    args[i] = temp;
+                }
+            }
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] != incoming.get(i))
+                    b.instrs.add(new Instr(Op.MOV, incoming.get(i), args[i]));
+            }
+            b.instrs.add(Instr.jump(top));
+            replaced++;
+        }
+        if (replaced > 0) {
+            BasicBlock entry = fn.newBlock();
+            entry.instrs.add(Instr.jump(top));
+            fn.blocks.add(0, entry);
+            fn.computeEdges();
+        }
+        return replaced;
+    }
+
+    // call f(...); ret, returning what the call returned if anything
+    private static boolean isTailCall(IRFunction fn, Instr call, Instr ret) {
+        if (call.op != Op.CALL || call.callee != fn.method || ret.op != Op.RET)
+            return false;
+        return ret.args.length == 0 || (call.dst != null && ret.args[0] == call.dst);
+    }
+}
@@ -0,0 +1,23 @@
+package miniJava.IR;
+
+/**
+ * A virtual register. Variables keep their source name for the dump, as do the results of && and ||, which are
+ * assigned on two paths; temporaries have none.
+ * In SSA form every definition of a variable gets its own version, which remembers the variable as origin.
+ */
+public class VReg extends Value {
+    public final int id;
+    public final String name;
+    public final VReg origin;
+
+    VReg(int id, String name, VReg origin) {
+        this.id = id;
+        this.name = name;
+        this.origin = origin != null ? origin : this;
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "%" + id : "%" + name + "." + id;
+    }
+}
@@ -0,0 +1,7 @@
+package miniJava.IR;
+
+/**
+ * An instruction operand: a virtual register, a constant or the address of a static field.
+ */
+public abstract class Value {
+}
@@ -0,0 +1,422 @@
+package miniJava.Optimization;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+/**
+ * Folds int and boolean operators over literals, applies the identities x+0, x-0, x*1, x/1, x*0,
+ * !!b and the boolean ones of && and ||, and prunes if and while statements whose condition is
+ * constant. Runs on a type checked AST, replacing nodes in place.
+ * The generated code computes in 64-bit registers, so a fold is only made when its result fits the
+ * 32-bit immediate a literal becomes; division by zero is left for the program to trap on.
+ * Visiting a statement or expression returns the node that replaces it.
+ */
+public class ConstantFolder implements Visitor<Object, Object> {
+    private int _folded;
+
+    public ConstantFolder(AST ast) {
+        ast.visit(this, null);
+    }
+
+    /**
+     * @return number of nodes replaced
+     */
+    public int getFolded() {
+        return _folded;
+    }
+
+    private Expression fold(Expression e) {
+        return (Expression) e.visit(this, null);
+    }
+
+    private Statement fold(Statement s) {
+        return s == null ? null : (Statement) s.visit(this, null);
+    }
+
+    private void fold(StatementList sl) {
+        for (int i = 0; i < sl.size(); i++)
+            sl.set(i, fold(sl.get(i)));
+    }
+
+    private void fold(ExprList el) {
+        for (int i = 0; i < el.size(); i++)
+            el.set(i, fold(el.get(i)));
+    }
+
+    private <T> T replaced(T node) {
+        _folded++;
+        return node;
+    }
+
+    private static Long intValue(Expression e) {
+        if (!(e instanceof LiteralExpr) || !(((LiteralExpr) e).lit instanceof IntLiteral))
+            return null;
+        try {
+            return Long.parseLong(((LiteralExpr) e).lit.spelling);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static Boolean booleanValue(Expression e) {
+        if (e instanceof LiteralExpr && ((LiteralExpr) e).lit instanceof BooleanLiteral)
+            return ((LiteralExpr) e).lit.spelling.equals("true");
+        return null;
+    }
+
+    private static boolean isInt(Expression e, long value) {
+        Long v = intValue(e);
+        return v != null && v == value;
+    }
+
+    private static boolean isBoolean(Expression e, boolean value) {
+        Boolean v = booleanValue(e);
+        return v != null && v == value;
+    }
+
+    private static boolean fitsImmediate(long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    private Expression intLiteral(long value, SourcePosition posn) {
+        return replaced(new LiteralExpr(new IntLiteral(new Token(TokenType.INTLITERAL, Long.toString(value), posn)), posn));
+    }
+
+    private Expression booleanLiteral(boolean value, SourcePosition posn) {
+        TokenType kind = value ? TokenType.TRUE : TokenType.FALSE;
+        return replaced(new LiteralExpr(new BooleanLiteral(new Token(kind, kind.spelling, posn)), posn));
+    }
+
+    private Statement emptyBlock(SourcePosition posn) {
+        return replaced(new BlockStmt(new StatementList(), posn));
+    }
+
+    // evaluating e has no effect and cannot trap, so dropping it is safe
+    private static boolean isPure(Expression e) {
+        if (e instanceof LiteralExpr)
+            return true;
+        if (e instanceof RefExpr) {
+            Reference ref = ((RefExpr) e).ref;
+            return ref instanceof ThisRef || (ref instanceof IdRef && ref.decl instanceof LocalDecl);
+        }
+        if (e instanceof UnaryExpr)
+            return isPure(((UnaryExpr) e).expr);
+        if (e instanceof BinaryExpr) {
+            BinaryExpr b = (BinaryExpr) e;
+            return !b.operator.spelling.equals("/") && isPure(b.left) && isPure(b.right);
+        }
+        return false;
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        prog.classDeclList.forEach(cd -> cd.visit(this, null));
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        cd.methodDeclList.forEach(md -> md.visit(this, null));
+        return null;
+    }
+
+    @Override
+    public Object visitFieldDecl(FieldDecl fd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        fold(md.statementList);
+        return null;
+    }
+
+    @Override
+    public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitVarDecl(VarDecl decl, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBaseType(BaseType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitClassType(ClassType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitArrayType(ArrayType type, Object arg) {
+        return null;
+    }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        fold(stmt.sl);
+        return stmt;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        stmt.initExp = fold(stmt.initExp);
+        return stmt;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        stmt.val = fold(stmt.val);
+        return stmt;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        stmt.ix = fold(stmt.ix);
+        stmt.exp = fold(stmt.exp);
+        return stmt;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        fold(stmt.argList);
+        return stmt;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        if (stmt.returnExpr != null)
+            stmt.returnExpr = fold(stmt.returnExpr);
+        return stmt;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        stmt.cond = fold(stmt.cond);
+        stmt.thenStmt = fold(stmt.thenStmt);
+        stmt.elseStmt = fold(stmt.elseStmt);
+        Boolean cond = booleanValue(stmt.cond);
+        if (cond == null)
+            return stmt;
+        if (cond)
+            return replaced(stmt.thenStmt);
+        return stmt.elseStmt != null ? replaced(stmt.elseStmt) : emptyBlock(stmt.posn);
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        stmt.cond = fold(stmt.cond);
+        stmt.body = fold(stmt.body);
+        if (isBoolean(stmt.cond, false))
+            return emptyBlock(stmt.posn);
+        return stmt;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        expr.expr = fold(expr.expr);
+        String op = expr.operator.spelling;
+        if (op.equals("-")) {
+            Long v = intValue(expr.expr);
+            if (v != null && fitsImmediate(-v))
+                return intLiteral(-v, expr.posn);
+        } else {
+            Boolean v = booleanValue(expr.expr);
+            if (v != null)
+                return booleanLiteral(!v, expr.posn);
+            // !!b
+            if (expr.expr instanceof UnaryExpr && ((UnaryExpr) expr.expr).operator.spelling.equals("!"))
+                return replaced(((UnaryExpr) expr.expr).expr);
+        }
+        return expr;
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        expr.left = fold(expr.left);
+        expr.right = fold(expr.right);
+        Expression l = expr.left, r = expr.right;
+        String op = expr.operator.spelling;
+        Long li = intValue(l), ri = intValue(r);
+        if (li != null && ri != null) {
+            Expression folded = foldInts(op, li, ri, expr.posn);
+            if (folded != null)
+                return folded;
+        }
+        Boolean lb = booleanValue(l), rb = booleanValue(r);
+        if (lb != null && rb != null) {
+            switch (op) {
+                case "&&":
+                    return booleanLiteral(lb && rb, expr.posn);
+                case "||":
+                    return booleanLiteral(lb || rb, expr.posn);
+                case "==":
+                    return booleanLiteral(lb == rb, expr.posn);
+                case "!=":
+                    return booleanLiteral(lb != rb, expr.posn);
+            }
+        }
+        switch (op) {
+            case "+":
+                if (isInt(r, 0))
+                    return replaced(l);
+                if (isInt(l, 0))
+                    return replaced(r);
+                break;
+            case "-":
+                if (isInt(r, 0))
+                    return replaced(l);
+                break;
+            case "*":
+                if (isInt(r, 1))
+                    return replaced(l);
+                if (isInt(l, 1))
+                    return replaced(r);
+                if ((isInt(r, 0) && isPure(l)) || (isInt(l, 0) && isPure(r)))
+                    return intLiteral(0, expr.posn);
+                break;
+            case "/":
+                if (isInt(r, 1))
+                    return replaced(l);
+                break;
+            case "&&":
+                // the right operand is not evaluated when the left one is false
+                if (isBoolean(l, false))
+                    return booleanLiteral(false, expr.posn);
+                if (isBoolean(l, true))
+                    return replaced(r);
+                if (isBoolean(r, true))
+                    return replaced(l);
+                if (isBoolean(r, false) && isPure(l))
+                    return booleanLiteral(false, expr.posn);
+                break;
+            case "||":
+                if (isBoolean(l, true))
+                    return booleanLiteral(true, expr.posn);
+                if (isBoolean(l, false))
+                    return replaced(r);
+                if (isBoolean(r, false))
+                    return replaced(l);
+                if (isBoolean(r, true) && isPure(l))
+                    return booleanLiteral(true, expr.posn);
+                break;
+        }
+        return expr;
+    }
+
+    // the literal op yields on two int literals, or null if folding would change what the program does
+    private Expression foldInts(String op, long l, long r, SourcePosition posn) {
+        long value;
+        switch (op) {
+            case "+":
+                value = l + r;
+                break;
+            case "-":
+                value = l - r;
+                break;
+            case "*":
+                value = l * r;
+                break;
+            case "/":
+                if (r == 0)
+                    return null;
+                value = l / r;
+                break;
+            case "<":
+                return booleanLiteral(l < r, posn);
+            case "<=":
+                return booleanLiteral(l <= r, posn);
+            case ">":
+                return booleanLiteral(l > r, posn);
+            case ">=":
+                return booleanLiteral(l >= r, posn);
+            case "==":
+                return booleanLiteral(l == r, posn);
+            case "!=":
+                return booleanLiteral(l != r, posn);
+            default:
+                return null;
+        }
+        return fitsImmediate(value) ? intLiteral(value, posn) : null;
+    }
+
+    @Override
+    public Object visitRefExpr(RefExpr expr, Object arg) {
+        return expr;
+    }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        expr.ixExpr = fold(expr.ixExpr);
+        return expr;
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        fold(expr.argList);
+        return expr;
+    }
+
+    @Override
+    public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+        return expr;
+    }
+
+    @Override
+    public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+        return expr;
+    }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        expr.sizeExpr = fold(expr.sizeExpr);
+        return expr;
+    }
+
+    @Override
+    public Object visitThisRef(ThisRef ref, Object arg) {
+        return ref;
+    }
+
+    @Override
+    public Object visitIdRef(IdRef ref, Object arg) {
+        return ref;
+    }
+
+    @Override
+    public Object visitQRef(QualRef ref, Object arg) {
+        return ref;
+    }
+
+    @Override
+    public Object visitIdentifier(Identifier id, Object arg) {
+        return id;
+    }
+
+    @Override
+    public Object visitOperator(Operator op, Object arg) {
+        return op;
+    }
+
+    @Override
+    public Object visitIntLiteral(IntLiteral num, Object arg) {
+        return num;
+    }
+
+    @Override
+    public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+        return bool;
+    }
+
+    @Override
+    public Object visitNullLiteral(NullLiteral nil, Object arg) {
+        return nil;
+    }
+}
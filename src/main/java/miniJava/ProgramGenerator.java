@@ -0,0 +1,302 @@
+package miniJava;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Emits random but well-formed miniJava programs for scaling tests. Every generated program passes
+ * identification and type checking: locals are declared once at the top of each method, every
+ * method returns int, and calls only go to methods with a smaller global index, so the call graph
+ * is acyclic and the program terminates when run.
+ */
+public class ProgramGenerator {
+    private final Random random;
+    private int classes = 10;
+    private int fields = 4;
+    private int methods = 5;
+    private int statements = 8;
+    private int depth = 3;
+    private int exprLength = 4;
+    private int calls = 2;
+
+    // state of the method being generated
+    private StringBuilder out;
+    private int classIdx;
+    private int methodIdx;
+    private int params;
+    private int locals;
+    private int counters;
+    private List<Integer> objects;
+
+    public ProgramGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public ProgramGenerator classes(int n) {
+        this.classes = Math.max(1, n);
+        return this;
+    }
+
+    public ProgramGenerator fields(int n) {
+        this.fields = Math.max(0, n);
+        return this;
+    }
+
+    public ProgramGenerator methods(int n) {
+        this.methods = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * @param n statements per method body
+     */
+    public ProgramGenerator statements(int n) {
+        this.statements = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * @param n maximum nesting of if/while statements
+     */
+    public ProgramGenerator depth(int n) {
+        this.depth = Math.max(0, n);
+        return this;
+    }
+
+    /**
+     * @param n number of operands in a generated int expression
+     */
+    public ProgramGenerator exprLength(int n) {
+        this.exprLength = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * @param n calls to other methods per method body (call-graph density)
+     */
+    public ProgramGenerator calls(int n) {
+        this.calls = Math.max(0, n);
+        return this;
+    }
+
+    /**
+     * usage: ProgramGenerator [-seed n] [-classes n] [-fields n] [-methods n] [-statements n]
+     *                         [-depth n] [-expr n] [-calls n] [-o file]
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 520;
+        String output = null;
+        int[] settings = {10, 4, 5, 8, 3, 4, 2};
+        String[] names = {"-classes", "-fields", "-methods", "-statements", "-depth", "-expr", "-calls"};
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-seed"))
+                seed = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("-o"))
+                output = args[i + 1];
+            else {
+                int setting = List.of(names).indexOf(args[i]);
+                if (setting < 0)
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                settings[setting] = Integer.parseInt(args[i + 1]);
+            }
+        }
+        String program = new ProgramGenerator(seed).classes(settings[0]).fields(settings[1]).methods(settings[2])
+                .statements(settings[3]).depth(settings[4]).exprLength(settings[5]).calls(settings[6]).generate();
+        if (output == null) {
+            System.out.print(program);
+        } else {
+            try (PrintStream ps = new PrintStream(Files.newOutputStream(Paths.get(output)))) {
+                ps.print(program);
+            }
+        }
+    }
+
+    public String generate() {
+        out = new StringBuilder();
+        out.append("class Main {\n    public static void main(String[] args) {\n");
+        for (int c = 0; c < classes; c++)
+            out.append("        C").append(c).append(" o").append(c).append(" = new C").append(c).append("();\n");
+        out.append("        int r = 0;\n");
+        for (int c = 0; c < classes; c++)
+            out.append("        r = r + o").append(c).append(".m").append(methods - 1).append("(")
+                    .append(args(methods - 1, false)).append(");\n");
+        out.append("        System.out.println(r);\n    }\n}\n");
+        for (classIdx = 0; classIdx < classes; classIdx++)
+            generateClass();
+        return out.toString();
+    }
+
+    private void generateClass() {
+        out.append("\nclass C").append(classIdx).append(" {\n");
+        for (int f = 0; f < fields; f++)
+            out.append("    ").append(isIntField(f) ? "int" : "boolean").append(" f").append(f).append(";\n");
+        for (methodIdx = 0; methodIdx < methods; methodIdx++)
+            generateMethod();
+        out.append("}\n");
+    }
+
+    private void generateMethod() {
+        params = paramCount(methodIdx);
+        locals = 1 + random.nextInt(3);
+        counters = 0;
+        objects = new ArrayList<>();
+        StringBuilder header = out;
+        out = new StringBuilder();
+        int callsLeft = calls;
+        for (int s = 0; s < statements; s++) {
+            if (callsLeft > 0 && random.nextInt(statements) < calls) {
+                generateCall("        ");
+                callsLeft--;
+            } else
+                generateStatement("        ", depth);
+        }
+        out.append("        return ").append(intExpr()).append(";\n");
+        StringBuilder body = out;
+        out = header;
+
+        out.append("\n    public int m").append(methodIdx).append("(");
+        for (int p = 0; p < params; p++)
+            out.append(p == 0 ? "" : ", ").append("int p").append(p);
+        out.append(") {\n");
+        for (int v = 0; v < locals; v++)
+            out.append("        int v").append(v).append(" = ").append(random.nextInt(100)).append(";\n");
+        for (int w = 0; w < counters; w++)
+            out.append("        int w").append(w).append(" = 0;\n");
+        for (int c : objects)
+            out.append("        C").append(c).append(" o").append(c).append(" = new C").append(c).append("();\n");
+        out.append(body).append("    }\n");
+    }
+
+    private void generateStatement(String indent, int depthLeft) {
+        int kind = random.nextInt(depthLeft > 0 ? 5 : 3);
+        switch (kind) {
+            case 0:
+            case 1:
+                out.append(indent).append(intTarget()).append(" = ").append(intExpr()).append(";\n");
+                break;
+            case 2:
+                if (fields > 0 && !isIntField(fields - 1) && random.nextBoolean())
+                    out.append(indent).append("this.f").append(fields - 1).append(" = ").append(boolExpr()).append(";\n");
+                else
+                    out.append(indent).append("System.out.println(").append(intExpr()).append(");\n");
+                break;
+            case 3:
+                out.append(indent).append("if (").append(boolExpr()).append(") {\n");
+                generateBlock(indent + "    ", depthLeft - 1);
+                out.append(indent).append("} else {\n");
+                generateBlock(indent + "    ", 0);
+                out.append(indent).append("}\n");
+                break;
+            default:
+                // bounded loop on a counter of its own
+                String w = "w" + counters++;
+                out.append(indent).append("while (").append(w).append(" < ").append(1 + random.nextInt(4)).append(") {\n");
+                generateBlock(indent + "    ", depthLeft - 1);
+                out.append(indent).append("    ").append(w).append(" = ").append(w).append(" + 1;\n");
+                out.append(indent).append("}\n");
+        }
+    }
+
+    private void generateBlock(String indent, int depthLeft) {
+        int n = 1 + random.nextInt(Math.max(1, statements / 2));
+        for (int s = 0; s < n; s++)
+            generateStatement(indent, depthLeft);
+    }
+
+    private void generateCall(String indent) {
+        // any method with a smaller global index keeps the call graph acyclic
+        int callee = random.nextInt(classIdx * methods + methodIdx + 1);
+        int calleeClass = callee / methods;
+        int calleeMethod = callee % methods;
+        String target;
+        if (callee == classIdx * methods + methodIdx) {
+            // nothing earlier to call
+            out.append(indent).append(intTarget()).append(" = ").append(intExpr()).append(";\n");
+            return;
+        } else if (calleeClass == classIdx) {
+            target = "this";
+        } else {
+            target = "o" + calleeClass;
+            if (!objects.contains(calleeClass))
+                objects.add(calleeClass);
+        }
+        out.append(indent).append(intTarget()).append(" = ").append(target).append(".m").append(calleeMethod)
+                .append("(").append(args(calleeMethod, true)).append(");\n");
+    }
+
+    private String args(int callee, boolean inMethod) {
+        StringBuilder sb = new StringBuilder();
+        for (int p = 0; p < paramCount(callee); p++)
+            sb.append(p == 0 ? "" : ", ").append(inMethod ? intOperand() : String.valueOf(random.nextInt(10)));
+        return sb.toString();
+    }
+
+    private String intExpr() {
+        StringBuilder sb = new StringBuilder(intOperand());
+        for (int i = 1; i < exprLength; i++) {
+            // no division, so evaluation cannot fault
+            sb.append(random.nextInt(3) == 0 ? " * " : random.nextBoolean() ? " + " : " - ");
+            if (random.nextInt(4) == 0)
+                sb.append("(").append(intOperand()).append(" - ").append(intOperand()).append(")");
+            else
+                sb.append(intOperand());
+        }
+        return sb.toString();
+    }
+
+    private String boolExpr() {
+        String[] relations = {" < ", " <= ", " > ", " >= ", " == ", " != "};
+        String cmp = intOperand() + relations[random.nextInt(relations.length)] + intOperand();
+        switch (random.nextInt(4)) {
+            case 0:
+                return cmp + " && " + intOperand() + " < " + intOperand();
+            case 1:
+                return "!(" + cmp + ") || " + boolOperand();
+            default:
+                return cmp;
+        }
+    }
+
+    private String boolOperand() {
+        if (fields > 0 && !isIntField(fields - 1) && random.nextBoolean())
+            return "this.f" + (fields - 1);
+        return random.nextBoolean() ? "true" : "false";
+    }
+
+    private String intOperand() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return String.valueOf(random.nextInt(100));
+            case 1:
+                return params > 0 ? "p" + random.nextInt(params) : "v" + random.nextInt(locals);
+            case 2:
+                return fields > 0 && isIntField(0) ? "this.f" + intField() : "v" + random.nextInt(locals);
+            default:
+                return "v" + random.nextInt(locals);
+        }
+    }
+
+    private String intTarget() {
+        if (fields > 0 && random.nextInt(4) == 0)
+            return "this.f" + intField();
+        return "v" + random.nextInt(locals);
+    }
+
+    // the last field is boolean when there is more than one field, the rest are int
+    private boolean isIntField(int f) {
+        return fields == 1 || f < fields - 1;
+    }
+
+    private int intField() {
+        return random.nextInt(fields == 1 ? 1 : fields - 1);
+    }
+
+    private static int paramCount(int method) {
+        return method % 3;
+    }
+}
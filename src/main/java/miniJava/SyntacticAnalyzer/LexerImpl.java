@@ -2,190 +2,249 @@ package miniJava.SyntacticAnalyzer;
 
 import miniJava.ErrorReporter;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
 
 import static miniJava.SyntacticAnalyzer.TokenType.*;
 
 public class LexerImpl implements Lexer {
-    private static Map<String, TokenType> keywordMap;
+    private static final TokenType[] KEYWORDS = {
+            OR, WHILE, IF, ELSE, NEW, CLASS, STATIC, BOOLEAN, PUBLIC, PRIVATE, RETURN, THIS, VOID, TRUE, FALSE, INT, NULL
+    };
     private char charBuf;
     private boolean eot = false;
     private int currLine;
     private int currCol;
-    private StringBuilder stringBuf;
-    private InputStream in;
+    private SourceBuffer source;
+    private int sourcePos;
+    private SymbolTable symbols;
     private ErrorReporter reporter;
+    // extent of the lexeme recognized by the last scanToken(), and its symbol if it was interned
+    private int tokenStart;
+    private int tokenLength;
+    private int tokenSymbol;
 
     private static final char eolUnix = '\n';
     private static final char eolWindows = '\r';
 
-    public LexerImpl(FileInputStream in, ErrorReporter reporter) {
+    public LexerImpl(SourceBuffer source, ErrorReporter reporter) {
+        this.reporter = reporter;
+        start(source);
+    }
+
+    // compatibility path: drains (or maps) the stream up front and scans the buffer
+    public LexerImpl(InputStream in, ErrorReporter reporter) {
+        this.reporter = reporter;
+        SourceBuffer buffered;
+        try {
+            buffered = SourceBuffer.fromStream(in);
+        } catch (IOException e) {
+            lexError("I/O Exception");
+            buffered = SourceBuffer.fromBytes(new byte[0], 0);
+        }
+        start(buffered);
+    }
+
+    private void start(SourceBuffer source) {
         this.currLine = 1;
         this.currCol = 1;
-        this.stringBuf = new StringBuilder();
-        this.in = in;
-        this.reporter = reporter;
+        this.source = source;
+        this.sourcePos = 0;
+        this.symbols = new SymbolTable();
+        for (TokenType keyword : KEYWORDS)
+            symbols.enterKeyword(keyword);
         nextChar();
     }
 
     @Override
     public Token scan() {
+        TokenType type = scanToken();
+        return new Token(type, tokenText(type), new SourcePosition(currLine, currCol));
+    }
+
+    /**
+     * scan the rest of the source into a compact TokenStream, ending with EOT or with the first
+     * ERROR so no lexical errors are reported past the point where parsing stops
+     */
+    public TokenStream tokenize() {
+        TokenStream tokens = new TokenStream(source, symbols);
+        TokenType type;
+        do {
+            type = scanToken();
+            tokens.add(type, tokenStart, tokenLength, currLine, currCol);
+        } while (type != EOT && type != ERROR);
+        return tokens;
+    }
+
+    private String tokenText(TokenType type) {
+        if (type.spelling != null)
+            return type.spelling;
+        switch (type) {
+            case EOT:
+                return null;
+            case ERROR:
+                return source.substring(tokenStart, tokenStart + tokenLength);
+            default:
+                return symbols.getSpelling(tokenSymbol);
+        }
+    }
+
+    private TokenType scanToken() {
+        while (true) {
 //        System.out.println("scanning...");
-        stringBuf.setLength(0);
-        while (!eot && (charBuf == ' ' || charBuf == '\t' || charBuf == eolUnix || charBuf == eolWindows))
-            this.skipIt();
-        if (eot) return new Token(EOT, null, new SourcePosition(currLine, currCol));
-        switch (charBuf) {
-            // simple single character cases
-            case '(':
-                takeIt();
-                return new Token(LPAREN, "(", new SourcePosition(currLine, currCol));
-            case ')':
-                takeIt();
-                return new Token(RPAREN, ")", new SourcePosition(currLine, currCol));
-            case '[':
-                takeIt();
-                return new Token(LSQUARE, "[", new SourcePosition(currLine, currCol));
-            case ']':
-                takeIt();
-                return new Token(RSQUARE, "]", new SourcePosition(currLine, currCol));
-            case '{':
-                takeIt();
-                return new Token(LCURLY, "{", new SourcePosition(currLine, currCol));
-            case '}':
-                takeIt();
-                return new Token(RCURLY, "}", new SourcePosition(currLine, currCol));
-            case '+':
-            case '-':
-            case '*':
-                takeIt();
-                return new Token(OPERATOR, stringBuf.toString(), new SourcePosition(currLine, currCol));
-            case '.':
-                takeIt();
-                return new Token(PERIOD, ".", new SourcePosition(currLine, currCol));
-            case ',':
-                takeIt();
-                return new Token(COMMA, ",", new SourcePosition(currLine, currCol));
-            case ';':
-                takeIt();
-                return new Token(SEMICOLON, ";", new SourcePosition(currLine, currCol));
-            // one or two character lexemes
-            case '=':
-                takeIt();
-                if (charBuf == '=') {
-                    takeIt();
-                    return new Token(OPERATOR, "==", new SourcePosition(currLine, currCol));
-                }
-                return new Token(EQUALS, "=", new SourcePosition(currLine, currCol));
-            case '!':
-            case '>':
-            case '<':
-                takeIt();
-                if (charBuf == '=')
-                    takeIt();
-//                    System.out.println("operator: " + stringBuf.toString());
-//                System.out.println("operator: " + stringBuf.toString());
-                return new Token(OPERATOR, stringBuf.toString(), new SourcePosition(currLine, currCol));
-            // two character lexemes
-            case '&':
-                takeIt();
-                if (charBuf == '&') {
-                    takeIt();
-                    return new Token(OPERATOR, "&&", new SourcePosition(currLine, currCol));
-                }
-                lexError("& followed by: '" + charBuf + "'");
-                return new Token(ERROR, stringBuf.toString(), new SourcePosition(currLine, currCol));
-            case '|':
-                takeIt();
-                if (charBuf == '|') {
-                    takeIt();
-                    return new Token(OPERATOR, "||", new SourcePosition(currLine, currCol));
-                }
-                lexError("| followed by: '" + charBuf + "'");
-                return new Token(ERROR, stringBuf.toString(), new SourcePosition(currLine, currCol));
-            // indefinite lexemes
-            case '/':
-                takeIt();
-                stringBuf.setLength(0);
-                if (charBuf == '/') {
-                    skipIt();
-                    while (charBuf != '\n' && !eot)
+            while (!eot && (charBuf == ' ' || charBuf == '\t' || charBuf == eolUnix || charBuf == eolWindows))
+                this.skipIt();
+            tokenStart = sourcePos - 1;
+            if (eot) return finish(EOT);
+            switch (charBuf) {
+                // simple single character cases
+                case '(':
+                    takeIt();
+                    return finish(LPAREN);
+                case ')':
+                    takeIt();
+                    return finish(RPAREN);
+                case '[':
+                    takeIt();
+                    return finish(LSQUARE);
+                case ']':
+                    takeIt();
+                    return finish(RSQUARE);
+                case '{':
+                    takeIt();
+                    return finish(LCURLY);
+                case '}':
+                    takeIt();
+                    return finish(RCURLY);
+                case '+':
+                    takeIt();
+                    return finish(PLUS);
+                case '-':
+                    takeIt();
+                    return finish(MINUS);
+                case '*':
+                    takeIt();
+                    return finish(TIMES);
+                case '.':
+                    takeIt();
+                    return finish(PERIOD);
+                case ',':
+                    takeIt();
+                    return finish(COMMA);
+                case ';':
+                    takeIt();
+                    return finish(SEMICOLON);
+                // one or two character lexemes
+                case '=':
+                    takeIt();
+                    if (charBuf == '=') {
+                        takeIt();
+                        return finish(EQEQ);
+                    }
+                    return finish(EQUALS);
+                case '!':
+                    takeIt();
+                    if (charBuf == '=') {
+                        takeIt();
+                        return finish(NOTEQ);
+                    }
+                    return finish(NOT);
+                case '>':
+                    takeIt();
+                    if (charBuf == '=') {
+                        takeIt();
+                        return finish(GE);
+                    }
+                    return finish(GT);
+                case '<':
+                    takeIt();
+                    if (charBuf == '=') {
+                        takeIt();
+                        return finish(LE);
+                    }
+                    return finish(LT);
+                // two character lexemes
+                case '&':
+                    takeIt();
+                    if (charBuf == '&') {
+                        takeIt();
+                        return finish(ANDAND);
+                    }
+                    lexError("& followed by: '" + charBuf + "'");
+                    return finish(ERROR);
+                case '|':
+                    takeIt();
+                    if (charBuf == '|') {
+                        takeIt();
+                        return finish(OROR);
+                    }
+                    lexError("| followed by: '" + charBuf + "'");
+                    return finish(ERROR);
+                // indefinite lexemes
+                case '/':
+                    takeIt();
+                    if (charBuf == '/') {
                         skipIt();
-                    stringBuf.setLength(0);
-                    return scan();
-                } else if (charBuf == '*') {
-                    boolean endComment = false;
-                    skipIt();
-                    while (!endComment) {
-                        if (eot) {
-                            lexError("Comment not terminated properly.");
-                            throw new SyntaxError();
-                        }
-                        if (charBuf == '*') {
+                        while (charBuf != '\n' && !eot)
                             skipIt();
-                            endComment = charBuf == '/';
-                        } else
-                            skipIt();
-                    }
-                    skipIt();
-                    return scan();
-                } else return new Token(OPERATOR, "/", new SourcePosition(currLine, currCol));
-            case '0':
-            case '1':
-            case '2':
-            case '3':
-            case '4':
-            case '5':
-            case '6':
-            case '7':
-            case '8':
-            case '9':
-                while (isDigit(charBuf))
-                    takeIt();
-                return new Token(INTLITERAL, stringBuf.toString(), new SourcePosition(currLine, currCol));
-            default:
-                if (isAlpha(charBuf))
-                    return handleIdentifier();
-                lexError("Unrecognized character '" + charBuf + "' in input");
-                return new Token(ERROR, stringBuf.toString(), new SourcePosition(currLine, currCol));
+                        continue;
+                    } else if (charBuf == '*') {
+                        boolean endComment = false;
+                        skipIt();
+                        while (!endComment) {
+                            if (eot) {
+                                lexError("Comment not terminated properly.");
+                                throw new SyntaxError();
+                            }
+                            if (charBuf == '*') {
+                                skipIt();
+                                endComment = charBuf == '/';
+                            } else
+                                skipIt();
+                        }
+                        skipIt();
+                        continue;
+                    } else return finish(DIVIDE);
+                case '0':
+                case '1':
+                case '2':
+                case '3':
+                case '4':
+                case '5':
+                case '6':
+                case '7':
+                case '8':
+                case '9':
+                    while (isDigit(charBuf))
+                        takeIt();
+                    return finish(INTLITERAL);
+                default:
+                    if (isAlpha(charBuf))
+                        return handleIdentifier();
+                    lexError("Unrecognized character '" + charBuf + "' in input");
+                    return finish(ERROR);
+            }
         }
     }
 
+    private TokenType finish(TokenType type) {
+        // charBuf is the lookahead, so the lexeme ends just before it
+        tokenLength = sourcePos - 1 - tokenStart;
+        if (type == INTLITERAL)
+            tokenSymbol = symbols.intern(source, tokenStart, tokenLength);
+        return type;
+    }
 
-    static {
-        keywordMap = new HashMap<>();
-        keywordMap.put("or", TokenType.OR);
-        keywordMap.put("while", TokenType.WHILE);
-        keywordMap.put("if", TokenType.IF);
-        keywordMap.put("else", TokenType.ELSE);
-        keywordMap.put("new", TokenType.NEW);
-        keywordMap.put("class", TokenType.CLASS);
-        keywordMap.put("static", TokenType.STATIC);
-        keywordMap.put("boolean", TokenType.BOOLEAN);
-        keywordMap.put("public", TokenType.PUBLIC);
-        keywordMap.put("private", TokenType.PRIVATE);
-        keywordMap.put("return", TokenType.RETURN);
-        keywordMap.put("this", TokenType.THIS);
-        keywordMap.put("void", TokenType.VOID);
-        keywordMap.put("true", TokenType.TRUE);
-        keywordMap.put("false", TokenType.FALSE);
-        keywordMap.put("int", TokenType.INT);
-        keywordMap.put("null", TokenType.NULL);
-    }
-
-    private Token handleIdentifier() {
+    private TokenType handleIdentifier() {
         while (isAlphaNumeric(charBuf))
             takeIt();
-        TokenType type = keywordMap.get(stringBuf.toString());
-        if (stringBuf.charAt(0) == '_') {
-            lexError("cannot start identifier with underscore" + stringBuf.toString());
-            return new Token(ERROR, stringBuf.toString(), new SourcePosition(currLine, currCol));
+        tokenLength = sourcePos - 1 - tokenStart;
+        tokenSymbol = symbols.intern(source, tokenStart, tokenLength);
+        if (source.byteAt(tokenStart) == '_') {
+            lexError("cannot start identifier with underscore" + symbols.getSpelling(tokenSymbol));
+            return ERROR;
         }
-        return type != null ? new Token(type, stringBuf.toString(), new SourcePosition(currLine, currCol)) : new Token(IDENTIFIER, stringBuf.toString(), new SourcePosition(currLine, currCol));
+        return symbols.getKind(tokenSymbol);
     }
 
     private boolean peek(char expected) {
@@ -202,26 +261,20 @@ public class LexerImpl implements Lexer {
     }
 
     private void readChar() {
-        try {
-            int c = in.read();
-            if (c == -1)
-                eot = true;
-            else if (c == '\n') {
-                currLine++;
-                currCol = 0;
-            }
-            currCol++;
-            charBuf = (char) c;
-//            System.out.println("read: " + (char)c);
-        } catch (IOException e) {
-            lexError("I/O Exception");
+        int c = source.byteAt(sourcePos++);
+        if (c == -1)
             eot = true;
+        else if (c == '\n') {
+            currLine++;
+            currCol = 0;
         }
+        currCol++;
+        charBuf = (char) c;
+//            System.out.println("read: " + (char)c);
     }
 
     private void takeIt() {
-        stringBuf.append(charBuf);
-//        System.out.println("StringBuf: " + stringBuf);
+        // the lexeme is recovered from the source by offset, nothing to buffer
         nextChar();
     }
 
@@ -4,26 +4,60 @@ import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.AbstractSyntaxTrees.*;
 import miniJava.ErrorReporter;
 
+import java.util.ArrayDeque;
+
 import static miniJava.SyntacticAnalyzer.TokenType.*;
 
 public class ParserImpl implements Parser {
-    private Lexer lexer;
-    private Token currToken;
+    // binding power of each binary operator by TokenType ordinal, 0 for tokens that are not one
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCE[OROR.ordinal()] = 1;
+        PRECEDENCE[ANDAND.ordinal()] = 2;
+        PRECEDENCE[EQEQ.ordinal()] = PRECEDENCE[NOTEQ.ordinal()] = 3;
+        PRECEDENCE[LT.ordinal()] = PRECEDENCE[LE.ordinal()] = PRECEDENCE[GT.ordinal()] = PRECEDENCE[GE.ordinal()] = 4;
+        PRECEDENCE[PLUS.ordinal()] = PRECEDENCE[MINUS.ordinal()] = 5;
+        PRECEDENCE[TIMES.ordinal()] = PRECEDENCE[DIVIDE.ordinal()] = 6;
+    }
+
+    private static final int UNARY_PRECEDENCE = 7;
+    public static final int DEFAULT_MAX_DEPTH = 10000;
+
+    private final TokenStream tokens;
+    // index of the current token in tokens
+    private int cursor;
     private ErrorReporter reporter;
+    // open statement and expression frames, checked against maxDepth
+    private int depth;
+    private final int maxDepth;
 
-    public ParserImpl(Lexer lexer, ErrorReporter reporter) {
-        this.lexer = lexer;
+    public ParserImpl(TokenStream tokens, ErrorReporter reporter) {
+        this(tokens, reporter, DEFAULT_MAX_DEPTH);
+    }
+
+    public ParserImpl(LexerImpl lexer, ErrorReporter reporter) {
+        this(lexer.tokenize(), reporter);
+    }
+
+    /**
+     * @param maxDepth nesting budget; exceeding it is reported as a parse error
+     */
+    public ParserImpl(TokenStream tokens, ErrorReporter reporter, int maxDepth) {
+        this.tokens = tokens;
         this.reporter = reporter;
+        this.maxDepth = maxDepth;
     }
 
     @Override
     public Package parse() {
-        currToken = lexer.scan();
+        depth = 0;
+        cursor = 0;
         ClassDeclList classDeclList = new ClassDeclList();
-        Package aPackage = new Package(classDeclList, currToken.getTokenPosition());
+        Package aPackage = new Package(classDeclList, position());
 //        System.out.println("parsing...");
 
-        while (currToken.getTokenType() != TokenType.EOT) {
+        while (type() != TokenType.EOT) {
             ClassDecl classDecl = parseClassDecl();
             aPackage.classDeclList.add(classDecl);
         }
@@ -39,23 +73,23 @@ public class ParserImpl implements Parser {
         FieldDeclList fieldDeclList = new FieldDeclList();
 
         accept(TokenType.CLASS);
-        ClassDecl classDecl = new ClassDecl(currToken.getTokenText(), fieldDeclList, methodDeclList, currToken.getTokenPosition());
+        ClassDecl classDecl = new ClassDecl(text(), fieldDeclList, methodDeclList, position());
         accept(TokenType.IDENTIFIER);
         accept(TokenType.LCURLY);
 
-        while (currToken.getTokenType() != TokenType.RCURLY) {
+        while (type() != TokenType.RCURLY) {
             FieldDecl fieldDecl;
             boolean isPublic = parseVis(); boolean isStatic = parseAccess();
             if (matchType(TokenType.VOID)) {
                 acceptIt();
-                String name = currToken.getTokenText();
+                String name = text();
                 accept(TokenType.IDENTIFIER);
                 fieldDecl = new FieldDecl(!isPublic, isStatic, new BaseType(TypeKind.VOID, null), name, null);
                 MethodDecl methodDecl = parseMethodDecl(fieldDecl);
                 methodDeclList.add(methodDecl);
             } else {
                 TypeDenoter type = parseType();
-                String name = currToken.getTokenText();
+                String name = text();
                 fieldDecl = new FieldDecl(!isPublic, isStatic, type, name, null);
                 accept(TokenType.IDENTIFIER);
                 if (matchType(TokenType.LPAREN)) {
@@ -96,7 +130,7 @@ public class ParserImpl implements Parser {
     private ParameterDeclList parseParamList() {
         ParameterDeclList paramList = new ParameterDeclList();
         TypeDenoter type = parseType();
-        String name = currToken.getTokenText();
+        String name = text();
         accept(TokenType.IDENTIFIER);
         ParameterDecl paramDecl = new ParameterDecl(type, name, null);
         paramList.add(paramDecl);
@@ -104,7 +138,7 @@ public class ParserImpl implements Parser {
         while (!matchType(TokenType.RPAREN)) {
             accept(TokenType.COMMA);
             TypeDenoter type1 = parseType();
-            String name1 = currToken.getTokenText();
+            String name1 = text();
             paramDecl = new ParameterDecl(type1, name1, null);
             paramList.add(paramDecl);
             accept(TokenType.IDENTIFIER);
@@ -137,8 +171,8 @@ public class ParserImpl implements Parser {
             }
             return type;
         } else if (matchType(TokenType.IDENTIFIER)) {
-            Identifier id = new Identifier(currToken);
-            SourcePosition posn = currToken.getTokenPosition();
+            Identifier id = new Identifier(token());
+            SourcePosition posn = position();
             acceptIt();
             if (matchType(TokenType.LSQUARE)) {
                 acceptIt();
@@ -151,7 +185,7 @@ public class ParserImpl implements Parser {
             acceptIt();
             return new BaseType(TypeKind.BOOLEAN, null);
         } else {
-            parseError("unkown type: " + currToken.getTokenType());
+            parseError("unkown type: " + type());
             return new BaseType(TypeKind.ERROR, null);
         }
     }
@@ -181,7 +215,7 @@ public class ParserImpl implements Parser {
     private Reference parseRef() {
         // id | this | Reference.id
         // (id | this)(Reference.id)*
-        SourcePosition posn = currToken.getTokenPosition();
+        SourcePosition posn = position();
         Reference r;
         Identifier identifier = null;
         if (matchType(THIS)) {
@@ -189,14 +223,14 @@ public class ParserImpl implements Parser {
             // ThisRef
             r = new ThisRef(posn);
         } else {
-            identifier = new Identifier(currToken);
+            identifier = new Identifier(token());
             accept(IDENTIFIER);
             // IdRef
             r = new IdRef(identifier, posn);
         }
         while (matchType(TokenType.PERIOD)) {
             acceptIt();
-            identifier = new Identifier(currToken);
+            identifier = new Identifier(token());
             accept(IDENTIFIER);
             // qualRef
             r = new QualRef(r, identifier, null);
@@ -204,73 +238,103 @@ public class ParserImpl implements Parser {
         return r;
     }
 
+    /**
+     * parse one statement; nested blocks, ifs and whiles are kept on an explicit stack of
+     * frames rather than the Java stack, so nesting is bounded only by the depth budget
+     */
     private Statement parseStatement() {
-        SourcePosition posn = null;
-        Statement statement = null;
-        Expression expression = null;
-        Expression insideExpr = null;
-        VarDecl varDecl = null;
-//        System.out.println("parsing stmt");
-        switch (currToken.getTokenType()) {
-            case LCURLY:
-                posn = currToken.getTokenPosition();
-                acceptIt();
-                StatementList blockStmtList = new StatementList();
-                while (!matchType(TokenType.RCURLY))
-                    blockStmtList.add(parseStatement());
-                acceptIt();
-                return new BlockStmt(blockStmtList, posn);
-            case RETURN:
-                posn = currToken.getTokenPosition();
-                acceptIt();
-                // Expression?
-                if (!matchType(SEMICOLON))
-                    expression = parseExpr();
-                accept(SEMICOLON);
-                return new ReturnStmt(expression, posn);
-            case IF:
-                posn = currToken.getTokenPosition();
-                acceptIt();
-                accept(TokenType.LPAREN);
-                Expression b = parseExpr();
-                accept(TokenType.RPAREN);
-                Statement t = parseStatement();
-                Statement e;
-                if (matchType(TokenType.ELSE)) {
-                    acceptIt();
-                    e = parseStatement();
-                    return new IfStmt(b, t, e, posn);
+        ArrayDeque<StatementFrame> frames = new ArrayDeque<>();
+        Statement completed = null;
+        while (true) {
+            if (completed != null) {
+                // hand the finished statement to the innermost open compound statement
+                StatementFrame top = frames.peek();
+                if (top == null)
+                    return completed;
+                if (top.kind == LCURLY) {
+                    top.body.add(completed);
+                    completed = null;
+                } else if (top.kind == IF && top.thenStmt == null) {
+                    top.thenStmt = completed;
+                    completed = null;
+                    if (matchType(TokenType.ELSE))
+                        acceptIt();
+                    else {
+                        popFrame(frames);
+                        completed = new IfStmt(top.cond, top.thenStmt, top.posn);
+                    }
+                    continue;
+                } else {
+                    popFrame(frames);
+                    completed = top.kind == IF
+                            ? new IfStmt(top.cond, top.thenStmt, completed, top.posn)
+                            : new WhileStmt(top.cond, completed, top.posn);
+                    continue;
                 }
-                return new IfStmt(b, t, posn);
-            case WHILE:
-                posn = currToken.getTokenPosition();
+            }
+            StatementFrame top = frames.peek();
+            if (top != null && top.kind == LCURLY && matchType(TokenType.RCURLY)) {
                 acceptIt();
-                accept(TokenType.LPAREN);
-                expression = parseExpr();
-                accept(TokenType.RPAREN);
-                statement = parseStatement();
-                return new WhileStmt(expression, statement, posn);
-            default:
-                return parsePureStatement();
-
+                popFrame(frames);
+                completed = new BlockStmt(top.body, top.posn);
+                continue;
+            }
+//        System.out.println("parsing stmt");
+            SourcePosition posn = position();
+            switch (type()) {
+                case LCURLY:
+                    acceptIt();
+                    pushFrame(frames, new StatementFrame(LCURLY, posn, null));
+                    break;
+                case IF:
+                case WHILE:
+                    TokenType kind = type();
+                    acceptIt();
+                    accept(TokenType.LPAREN);
+                    Expression cond = parseExpr();
+                    accept(TokenType.RPAREN);
+                    pushFrame(frames, new StatementFrame(kind, posn, cond));
+                    break;
+                case RETURN:
+                    acceptIt();
+                    // Expression?
+                    Expression expression = null;
+                    if (!matchType(SEMICOLON))
+                        expression = parseExpr();
+                    accept(SEMICOLON);
+                    completed = new ReturnStmt(expression, posn);
+                    break;
+                default:
+                    completed = parsePureStatement();
+            }
         }
     }
 
+    private void pushFrame(ArrayDeque<StatementFrame> frames, StatementFrame frame) {
+        descend();
+        frames.push(frame);
+    }
+
+    private void popFrame(ArrayDeque<StatementFrame> frames) {
+        frames.pop();
+        depth--;
+    }
+
     private Statement parsePureStatement() {
         SourcePosition posn = null;
         Expression expression = null;
         VarDecl varDecl = null;
         Expression insideExpr = null;
-        switch (currToken.getTokenType()) {
+        switch (type()) {
 
             case BOOLEAN:
             case INT:
 //                System.out.println("hi");
                 // Type id = Expression;
-                posn = currToken.getTokenPosition();
+                posn = position();
                 TypeDenoter type = parseType();
 
-                Identifier id = new Identifier(currToken);
+                Identifier id = new Identifier(token());
                 accept(TokenType.IDENTIFIER);
                 Reference assnRef = new IdRef(id, posn);
                 accept(EQUALS);
@@ -279,10 +343,10 @@ public class ParserImpl implements Parser {
                 varDecl = new VarDecl(type, id.spelling, posn);
                 return new VarDeclStmt(varDecl, expression, posn);
             case THIS:
-                posn = currToken.getTokenPosition();
+                posn = position();
                 Reference ref = parseRef();
                 ExprList exprList = new ExprList();
-                if (currToken.getTokenType() == LSQUARE) {
+                if (type() == LSQUARE) {
                     // Ref [ Expression ] = Expression;
                     acceptIt();
                     insideExpr = parseExpr();
@@ -291,11 +355,11 @@ public class ParserImpl implements Parser {
                     expression = parseExpr();
                     accept(SEMICOLON);
                     return new IxAssignStmt(ref, insideExpr, expression, posn);
-                } else if (currToken.getTokenType() == LPAREN) {
+                } else if (type() == LPAREN) {
                     // Ref ( ArgList?);
                     acceptIt();
                     ExprList eL = new ExprList();
-                    if (currToken.getTokenType() != RPAREN)
+                    if (type() != RPAREN)
                         eL = parseArgList();
                     accept(RPAREN);
                     accept(SEMICOLON);
@@ -308,14 +372,14 @@ public class ParserImpl implements Parser {
                 }
             case IDENTIFIER:
             default:
-                id = new Identifier(currToken);
-//                System.out.println(currToken.getTokenText());
-                posn = currToken.getTokenPosition();
+                id = new Identifier(token());
+//                System.out.println(text());
+                posn = position();
                 accept(IDENTIFIER);
-                switch (currToken.getTokenType()) {
+                switch (type()) {
                     case IDENTIFIER:
                         // Type id = Expression;
-                        Identifier varId = new Identifier(currToken);
+                        Identifier varId = new Identifier(token());
                         accept(IDENTIFIER);
                         accept(EQUALS);
                         expression = parseExpr();
@@ -324,7 +388,7 @@ public class ParserImpl implements Parser {
                         return new VarDeclStmt(varDecl, expression, posn);
                     case LSQUARE:
                         acceptIt();
-                        if (currToken.getTokenType() != RSQUARE) {
+                        if (type() != RSQUARE) {
                             // Ref[Expression] = Expression;
                             insideExpr = parseExpr();
                             accept(RSQUARE);
@@ -335,7 +399,7 @@ public class ParserImpl implements Parser {
                         } else {
                             // id[] id = Expression;
                             accept(RSQUARE);
-                            String name = currToken.getTokenText();
+                            String name = text();
                             accept(IDENTIFIER);
                             accept(EQUALS);
                             expression = parseExpr();
@@ -350,17 +414,17 @@ public class ParserImpl implements Parser {
                             parseError("Reference error");
                             throw new SyntaxError();
                         }
-                        Identifier id2 = new Identifier(currToken);
+                        Identifier id2 = new Identifier(token());
                         accept(IDENTIFIER);
                         qualRef = new QualRef(qualRef, id2, null);
-                        while (currToken.getTokenType() == PERIOD) {
+                        while (type() == PERIOD) {
                             acceptIt();
-                            Identifier id3 = new Identifier(currToken);
-//                            System.out.println("CURRTOKEN: " + currToken.getTokenText());
+                            Identifier id3 = new Identifier(token());
+//                            System.out.println("CURRTOKEN: " + text());
                             accept(IDENTIFIER);
                             qualRef = new QualRef(qualRef, id3, null);
                         }
-                        if (currToken.getTokenType() == LSQUARE) {
+                        if (type() == LSQUARE) {
                             // id.id[5] = Expression;
                             acceptIt();
                             Expression ixExpression = parseExpr();
@@ -369,7 +433,7 @@ public class ParserImpl implements Parser {
                             expression = parseExpr();
                             accept(SEMICOLON);
                             return new IxAssignStmt(qualRef, ixExpression, expression, posn);
-                        } else if (currToken.getTokenType() == EQUALS) {
+                        } else if (type() == EQUALS) {
                             // id.id = Expression;
                             acceptIt();
                             expression = parseExpr();
@@ -380,7 +444,7 @@ public class ParserImpl implements Parser {
                             // id.id();
                             accept(LPAREN);
                             ExprList exprList1 = new ExprList();
-                            if (currToken.getTokenType() != RPAREN)
+                            if (type() != RPAREN)
                                 exprList1 = parseArgList();
                             acceptIt();
                             accept(SEMICOLON);
@@ -397,7 +461,7 @@ public class ParserImpl implements Parser {
                         // id();
                         acceptIt();
                         ExprList exprList2 = new ExprList();
-                        if (currToken.getTokenType() != RPAREN)
+                        if (type() != RPAREN)
                             exprList2 = parseArgList();
                         acceptIt();
                         accept(SEMICOLON);
@@ -406,199 +470,204 @@ public class ParserImpl implements Parser {
         }
     }
 
+    /**
+     * operator precedence parse over explicit operand and operator stacks. Parentheses, unary
+     * operators, argument lists, indices and array sizes each cost a stack entry instead of a
+     * Java call frame. Binary operators are left associative, unary ones bind tighter than any
+     * binary one.
+     */
     private Expression parseExpr() {
-        return parseOrExpr();
-    }
-
-    private Expression parseOrExpr() {
-//        System.out.println("or");
-        Expression expr1 = parseAndExpr();
-        while (currToken.getTokenText().equals("||")) {
-            Operator op = new Operator(currToken);
-            acceptIt();
-            Expression expr2 = parseAndExpr();
-            expr1 = new BinaryExpr(op, expr1, expr2, null);
-        }
-        return expr1;
-    }
-
-    private Expression parseAndExpr() {
-//        System.out.println("and");
-        Expression expr1 = parseEqualityExpr();
-        while (currToken.getTokenText().equals("&&")) {
-            Operator op = new Operator(currToken);
-            acceptIt();
-            Expression expr2 = parseEqualityExpr();
-            expr1 = new BinaryExpr(op, expr1, expr2, null);
+        ArrayDeque<Expression> operands = new ArrayDeque<>();
+        ArrayDeque<OperatorFrame> operators = new ArrayDeque<>();
+        while (true) {
+            // operand position: prefix operators and open groups, then a primary expression
+            Expression operand = null;
+            while (operand == null) {
+                if (matchType(MINUS) || matchType(NOT)) {
+                    Operator op = new Operator(token());
+                    acceptIt();
+                    pushOperator(operators, new OperatorFrame(FrameKind.UNARY, op, UNARY_PRECEDENCE));
+                } else if (matchType(LPAREN)) {
+                    acceptIt();
+                    pushOperator(operators, new OperatorFrame(FrameKind.PAREN, null, 0));
+                } else
+                    operand = parsePrimaryExpr(operators);
+            }
+            operands.push(operand);
+            // operator position: close groups until a binary operator or the end of the expression
+            int prec;
+            while ((prec = PRECEDENCE[type().ordinal()]) == 0) {
+                reduce(operands, operators, 1);
+                if (operators.isEmpty())
+                    return operands.pop();
+                if (!closeGroup(operands, operators))
+                    break;
+            }
+            if (prec != 0) {
+                reduce(operands, operators, prec);
+                pushOperator(operators, new OperatorFrame(FrameKind.BINARY, new Operator(token()), prec));
+                acceptIt();
+            }
         }
-        return expr1;
     }
 
-
-    private Expression parseEqualityExpr() {
-//        System.out.println("eq==");
-        Expression expr1 = parseRelExpr();
-        while (currToken.getTokenText().equals("==") || currToken.getTokenText().equals("!=")) {
-            Operator op = new Operator(currToken);
-            acceptIt();
-            Expression expr2 = parseRelExpr();
-            expr1 = new BinaryExpr(op, expr1, expr2, null);
+    /**
+     * apply pending operators that bind at least as tightly as prec, stopping at an open group
+     */
+    private void reduce(ArrayDeque<Expression> operands, ArrayDeque<OperatorFrame> operators, int prec) {
+        while (!operators.isEmpty() && operators.peek().prec >= prec) {
+            OperatorFrame frame = popOperator(operators);
+            Expression expr2 = operands.pop();
+            if (frame.kind == FrameKind.UNARY)
+                operands.push(new UnaryExpr(frame.op, expr2, null));
+            else
+                operands.push(new BinaryExpr(frame.op, operands.pop(), expr2, null));
         }
-        return expr1;
     }
 
-    private Expression parseRelExpr() {
-//        System.out.println("<>=");
-        Expression expr1 = parseAddExpr();
-        while (currToken.getTokenText().equals(">") || currToken.getTokenText().equals("<") || currToken.getTokenText().equals(">=")
-                || currToken.getTokenText().equals("<=")) {
-            Operator op = new Operator(currToken);
-            acceptIt();
-//            System.out.println("Token: " + currToken.getText());
-            Expression expr2 = parseAddExpr();
-            expr1 = new BinaryExpr(op, expr1, expr2, null);
+    /**
+     * close the innermost group around the operand on top of the stack
+     * @return false if a comma was accepted instead and another argument follows
+     */
+    private boolean closeGroup(ArrayDeque<Expression> operands, ArrayDeque<OperatorFrame> operators) {
+        OperatorFrame frame = operators.peek();
+        switch (frame.kind) {
+            case CALL:
+                frame.args.add(operands.pop());
+                if (!matchType(TokenType.RPAREN)) {
+                    accept(TokenType.COMMA);
+                    return false;
+                }
+                acceptIt();
+                operands.push(new CallExpr(frame.ref, frame.args, null));
+                break;
+            case INDEX:
+                accept(RSQUARE);
+                operands.push(new IxExpr(frame.ref, operands.pop(), null));
+                break;
+            case NEW_ARRAY:
+                accept(RSQUARE);
+                operands.push(new NewArrayExpr(frame.arrayType, operands.pop(), null));
+                break;
+            default:
+                accept(TokenType.RPAREN);
         }
-        return expr1;
+        popOperator(operators);
+        return true;
     }
 
-    private Expression parseAddExpr() {
-//        System.out.println("+");
-        Expression expr1 = parseMulExpr();
-        while (currToken.getTokenText().equals("+") || currToken.getTokenText().equals("-")) {
-            Operator op = new Operator(currToken);
-            acceptIt();
-            Expression expr2 = parseMulExpr();
-            expr1 = new BinaryExpr(op, expr1, expr2, null);
-        }
-        return expr1;
+    private void pushOperator(ArrayDeque<OperatorFrame> operators, OperatorFrame frame) {
+        descend();
+        operators.push(frame);
     }
 
-    private Expression parseMulExpr() {
-//        System.out.println("*");
-        Expression expr1 = parseUnaryOpExpr();
-//        System.out.println("currToken" + currToken.getText());
-        while (currToken.getTokenText().equals("*") || currToken.getTokenText().equals("/")) {
-//            System.out.println("MultExpr: " + currToken.getText() + currToken.getType());
-            Operator op = new Operator(currToken);
-            acceptIt();
-            Expression expr2 = parseUnaryOpExpr();
-            expr1 = new BinaryExpr(op, expr1, expr2, null);
-        }
-        return expr1;
+    private OperatorFrame popOperator(ArrayDeque<OperatorFrame> operators) {
+        depth--;
+        return operators.pop();
     }
 
-    private Expression parseUnaryOpExpr() {
-//        System.out.println("unary");
-
-        if (currToken.getTokenText().equals("-") || currToken.getTokenText().equals("!")) {
-            Operator op = new Operator(currToken);
-            acceptIt();
-            Expression expr = parseUnaryOpExpr();
-            return new UnaryExpr(op, expr, null);
-        } else return parseDefaultExpr();
+    private void descend() {
+        if (++depth > maxDepth)
+            parseError("nesting exceeds depth budget of " + maxDepth);
     }
 
-    private Expression parseDefaultExpr() {
+    /**
+     * @return the primary expression at the current token, or null if it opened an argument list, index
+     * or array size on the operator stack whose contents are parsed next
+     */
+    private Expression parsePrimaryExpr(ArrayDeque<OperatorFrame> operators) {
         SourcePosition posn;
 //        System.out.println("default expr");
-        switch (currToken.getTokenType()) {
-            case LPAREN:
-                acceptIt();
-                Expression expression = parseExpr();
-                accept(TokenType.RPAREN);
-                return expression;
+        switch (type()) {
             case INTLITERAL:
-                IntLiteral intLiteral = new IntLiteral(currToken);
+                IntLiteral intLiteral = new IntLiteral(token());
                 acceptIt();
-                return new LiteralExpr(intLiteral, currToken.getTokenPosition());
+                return new LiteralExpr(intLiteral, position());
             case NULL:
-                NullLiteral nullLiteral = new NullLiteral(currToken);
+                NullLiteral nullLiteral = new NullLiteral(token());
                 acceptIt();
-                return new LiteralExpr(nullLiteral, currToken.getTokenPosition());
+                return new LiteralExpr(nullLiteral, position());
             case TRUE:
             case FALSE:
-                posn = currToken.getTokenPosition();
-                BooleanLiteral bool = new BooleanLiteral(currToken);
+                posn = position();
+                BooleanLiteral bool = new BooleanLiteral(token());
                 acceptIt();
                 return new LiteralExpr(bool, posn);
             case NEW:
 //                System.out.println("new!");
-                posn = currToken.getTokenPosition();
+                posn = position();
                 acceptIt();
-                return handleNew();
+                return handleNew(operators);
             case IDENTIFIER:
             case THIS:
             default:
                 // Reference ( [ Expression ] | ( Expression ) )?
-//                System.out.println(currToken.getTokenType());
-//                System.out.println(currToken.getTokenText());
-//                System.out.println(currToken.getTokenText());
                 Reference refr = parseRef();
                 if (matchType(TokenType.LSQUARE)) {
                     acceptIt();
-                    Expression e = parseExpr();
-                    accept(RSQUARE);
-                    return new IxExpr(refr, e, null);
+                    pushOperator(operators, new OperatorFrame(FrameKind.INDEX, refr));
+                    return null;
                 } else if (matchType(TokenType.LPAREN)) {
                     acceptIt();
-                    ExprList el = new ExprList();
-                    if (currToken.getTokenType() != RPAREN) el = parseArgList();
-                    accept(TokenType.RPAREN);
-                    return new CallExpr(refr, el, null);
+                    if (matchType(TokenType.RPAREN)) {
+                        acceptIt();
+                        return new CallExpr(refr, new ExprList(), null);
+                    }
+                    pushOperator(operators, new OperatorFrame(FrameKind.CALL, refr));
+                    return null;
                 } else {
                     return new RefExpr(refr, null);
                 }
         }
     }
 
-    private Expression handleNew() {
+    private Expression handleNew(ArrayDeque<OperatorFrame> operators) {
         SourcePosition posn;
-        Expression expr;
-        switch (currToken.getTokenType()) {
+        switch (type()) {
             case IDENTIFIER:
-                Identifier id = new Identifier(currToken);
-                posn = currToken.getTokenPosition();
+                Identifier id = new Identifier(token());
+                posn = position();
                 acceptIt();
-                if (currToken.getTokenType() == LPAREN) {
+                if (type() == LPAREN) {
                     // new A()
                     acceptIt();
                     accept(TokenType.RPAREN);
                     return new NewObjectExpr(new ClassType(id, posn), posn);
-                } else if (currToken.getTokenType() == LSQUARE) {
+                } else if (type() == LSQUARE) {
                     // new A[]
                     acceptIt();
-                    expr = parseExpr();
-                    accept(RSQUARE);
-                    return new NewArrayExpr(new ArrayType(new ClassType(id, null), null), expr,null);
+                    pushOperator(operators, new OperatorFrame(new ArrayType(new ClassType(id, null), null)));
+                    return null;
                 } else {
                     parseError("Expression syntax error");
                 }
                 return null;
             case INT:
                 // new int[]
-                posn = currToken.getTokenPosition();
+                posn = position();
                 acceptIt();
                 accept(TokenType.LSQUARE);
-                expr = parseExpr();
-                accept(RSQUARE);
-                return new NewArrayExpr(new ArrayType(new BaseType(TypeKind.INT, posn), null), expr, null);
+                pushOperator(operators, new OperatorFrame(new ArrayType(new BaseType(TypeKind.INT, posn), null)));
+                return null;
             default:
-                parseError("Incorrect Type for new Object: " + currToken.getTokenText());
+                parseError("Incorrect Type for new Object: " + text());
                 return null;
         }
     }
 
     private void acceptIt() {
-        accept(currToken.getTokenType());
+        accept(type());
     }
 
     private void accept(TokenType expect) throws SyntaxError {
 //        System.out.println("expected token '" + expect
 //                + "' but received '" + currToken.getType() + "'");
-        if (expect == currToken.getTokenType())
-            currToken = lexer.scan();
-        else {
-            parseError("expected token '" + expect + "' but received '" + currToken.getTokenType() + "'");
+        if (expect == type()) {
+            // EOT repeats once reached
+            if (cursor < tokens.size() - 1)
+                cursor++;
+        } else {
+            parseError("expected token '" + expect + "' but received '" + type() + "'");
             throw new SyntaxError();
         }
     }
@@ -609,6 +678,69 @@ public class ParserImpl implements Parser {
     }
 
     private boolean matchType(TokenType expected) {
-        return expected == currToken.getTokenType();
+        return expected == type();
+    }
+
+    private TokenType type() {
+        return tokens.getType(cursor);
+    }
+
+    private SourcePosition position() {
+        return tokens.getPosition(cursor);
+    }
+
+    private String text() {
+        return tokens.getText(cursor);
+    }
+
+    // the current token as an object, only for the terminals the AST keeps
+    private Token token() {
+        return new Token(tokens, cursor);
+    }
+
+    // compound statement whose body is still being parsed; kind is LCURLY, IF or WHILE
+    private static class StatementFrame {
+        final TokenType kind;
+        final SourcePosition posn;
+        final Expression cond;
+        final StatementList body = new StatementList();
+        Statement thenStmt;
+
+        StatementFrame(TokenType kind, SourcePosition posn, Expression cond) {
+            this.kind = kind;
+            this.posn = posn;
+            this.cond = cond;
+        }
+    }
+
+    private enum FrameKind { PAREN, UNARY, BINARY, CALL, INDEX, NEW_ARRAY }
+
+    // pending operator or open group in an expression; groups have precedence 0 so reduce stops at them
+    private static class OperatorFrame {
+        final FrameKind kind;
+        final Operator op;
+        final int prec;
+        Reference ref;
+        ExprList args;
+        ArrayType arrayType;
+
+        OperatorFrame(FrameKind kind, Operator op, int prec) {
+            this.kind = kind;
+            this.op = op;
+            this.prec = prec;
+        }
+
+        // call arguments or an index applied to ref
+        OperatorFrame(FrameKind kind, Reference ref) {
+            this(kind, null, 0);
+            this.ref = ref;
+            if (kind == FrameKind.CALL)
+                this.args = new ExprList();
+        }
+
+        OperatorFrame(ArrayType arrayType) {
+            this(FrameKind.NEW_ARRAY, null, 0);
+            this.arrayType = arrayType;
+        }
     }
 }
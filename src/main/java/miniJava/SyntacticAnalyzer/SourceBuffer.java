@@ -0,0 +1,92 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Whole-file view of a miniJava source, scanned by index instead of one read() per character.
+ * Files are memory mapped through their FileChannel; other streams are drained into a heap buffer.
+ */
+public class SourceBuffer {
+    private static final int READ_WINDOW = 1 << 16;
+
+    private final ByteBuffer _bytes;
+    private final int _length;
+
+    private SourceBuffer(ByteBuffer bytes) {
+        this._bytes = bytes;
+        this._length = bytes.limit();
+    }
+
+    public static SourceBuffer fromFile(String fileName) throws IOException {
+        return fromFile(Paths.get(fileName));
+    }
+
+    public static SourceBuffer fromFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fromChannel(channel);
+        }
+    }
+
+    /**
+     * compatibility path for callers that already opened the source as a stream
+     */
+    public static SourceBuffer fromStream(InputStream in) throws IOException {
+        if (in instanceof FileInputStream)
+            return fromChannel(((FileInputStream) in).getChannel());
+        byte[] buf = new byte[READ_WINDOW];
+        int len = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) != -1) {
+            len += n;
+            if (len == buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        return fromBytes(buf, len);
+    }
+
+    public static SourceBuffer fromString(String text) {
+        byte[] buf = text.getBytes();
+        return fromBytes(buf, buf.length);
+    }
+
+    public static SourceBuffer fromBytes(byte[] buf, int len) {
+        return new SourceBuffer(ByteBuffer.wrap(buf, 0, len).slice());
+    }
+
+    private static SourceBuffer fromChannel(FileChannel channel) throws IOException {
+        // map from the current position so a partially consumed stream keeps its semantics
+        long start = channel.position();
+        long size = channel.size() - start;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("source file too large to map: " + size + " bytes");
+        return new SourceBuffer(channel.map(FileChannel.MapMode.READ_ONLY, start, size));
+    }
+
+    public int length() {
+        return _length;
+    }
+
+    /**
+     * @return unsigned byte at idx, or -1 past the end of the source
+     */
+    public int byteAt(int idx) {
+        if (idx >= _length)
+            return -1;
+        return _bytes.get(idx) & 0xFF;
+    }
+
+    public String substring(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++)
+            chars[i - start] = (char) (_bytes.get(i) & 0xFF);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,111 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.util.Arrays;
+
+/**
+ * Interning table for lexemes read from a SourceBuffer. A spelling is turned into a String the
+ * first time it is seen; every later occurrence is matched against the source bytes and resolves
+ * to the same symbol id and String instance without allocating.
+ */
+public class SymbolTable {
+    private int[] _slots; // open addressing, holds symbol id + 1 (0 is an empty slot)
+    private int[] _hashes;
+    private String[] _spellings;
+    private TokenType[] _kinds;
+    private int _count;
+
+    public SymbolTable() {
+        this._slots = new int[256];
+        this._hashes = new int[128];
+        this._spellings = new String[128];
+        this._kinds = new TokenType[128];
+    }
+
+    /**
+     * enter a reserved word so that looking up its spelling yields the keyword token type
+     */
+    public int enterKeyword(TokenType keyword) {
+        SourceBuffer spelling = SourceBuffer.fromString(keyword.spelling);
+        int sym = intern(spelling, 0, spelling.length());
+        _kinds[sym] = keyword;
+        return sym;
+    }
+
+    /**
+     * @return symbol id of source[start, start + len), entering it if it has not been seen yet
+     */
+    public int intern(SourceBuffer source, int start, int len) {
+        int hash = hash(source, start, len);
+        int mask = _slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = _slots[slot];
+            if (entry == 0)
+                return enter(slot, hash, source.substring(start, start + len));
+            int sym = entry - 1;
+            if (_hashes[sym] == hash && matches(_spellings[sym], source, start, len))
+                return sym;
+        }
+    }
+
+    public String getSpelling(int sym) {
+        return _spellings[sym];
+    }
+
+    /**
+     * @return keyword type for reserved words, IDENTIFIER otherwise
+     */
+    public TokenType getKind(int sym) {
+        TokenType kind = _kinds[sym];
+        return kind != null ? kind : TokenType.IDENTIFIER;
+    }
+
+    public int size() {
+        return _count;
+    }
+
+    private int enter(int slot, int hash, String spelling) {
+        int sym = _count++;
+        if (sym == _spellings.length) {
+            _hashes = Arrays.copyOf(_hashes, sym * 2);
+            _spellings = Arrays.copyOf(_spellings, sym * 2);
+            _kinds = Arrays.copyOf(_kinds, sym * 2);
+        }
+        _hashes[sym] = hash;
+        _spellings[sym] = spelling;
+        _slots[slot] = sym + 1;
+        // keep the load factor under one half
+        if (_count * 2 > _slots.length)
+            rehash();
+        return sym;
+    }
+
+    private void rehash() {
+        int[] slots = new int[_slots.length * 2];
+        int mask = slots.length - 1;
+        for (int sym = 0; sym < _count; sym++) {
+            int slot = _hashes[sym] & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = sym + 1;
+        }
+        _slots = slots;
+    }
+
+    private static int hash(SourceBuffer source, int start, int len) {
+        int h = 0;
+        for (int i = start; i < start + len; i++)
+            h = 31 * h + source.byteAt(i);
+        // spread the low bits used for slot selection
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String spelling, SourceBuffer source, int start, int len) {
+        if (spelling.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (spelling.charAt(i) != source.byteAt(start + i))
+                return false;
+        }
+        return true;
+    }
+}
@@ -4,21 +4,34 @@ public class Token {
     private TokenType _type;
     private String _text;
     private SourcePosition pos;
+    private TokenStream _stream;
+    private int _index;
     public Token(TokenType type, String text, SourcePosition pos) {
         this._type = type;
         this.pos = pos;
         this._text = text;
     }
 
+    // view of a TokenStream entry, text and position are looked up on first use
+    public Token(TokenStream stream, int index) {
+        this._type = stream.getType(index);
+        this._stream = stream;
+        this._index = index;
+    }
+
     public TokenType getTokenType() {
         return _type;
     }
 
     public SourcePosition getTokenPosition() {
+        if (pos == null && _stream != null)
+            pos = _stream.getPosition(_index);
         return pos;
     }
 
     public String getTokenText() {
+        if (_text == null && _stream != null)
+            _text = _stream.getText(_index);
         return _text;
     }
 }
@@ -0,0 +1,105 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.util.Arrays;
+
+/**
+ * Compact token sequence produced by LexerImpl.tokenize(). Every token is five ints in one
+ * array: (TokenType ordinal, start offset, length, line, col). Lexemes and positions are
+ * only materialized when a consumer asks for them.
+ */
+public class TokenStream implements Lexer {
+    private static final int FIELDS = 5;
+    private static final int TYPE = 0;
+    private static final int START = 1;
+    private static final int LENGTH = 2;
+    private static final int LINE = 3;
+    private static final int COL = 4;
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final SourceBuffer _source;
+    private final SymbolTable _symbols;
+    private int[] _tokens;
+    private int _count;
+    private int _cursor;
+
+    public TokenStream(SourceBuffer source, SymbolTable symbols) {
+        this._source = source;
+        this._symbols = symbols;
+        // roughly one token per six source bytes in typical miniJava
+        this._tokens = new int[FIELDS * Math.max(64, source.length() / 6)];
+    }
+
+    void add(TokenType type, int start, int length, int line, int col) {
+        int base = _count * FIELDS;
+        if (base + FIELDS > _tokens.length)
+            _tokens = Arrays.copyOf(_tokens, _tokens.length * 2);
+        _tokens[base + TYPE] = type.ordinal();
+        _tokens[base + START] = start;
+        _tokens[base + LENGTH] = length;
+        _tokens[base + LINE] = line;
+        _tokens[base + COL] = col;
+        _count++;
+    }
+
+    /**
+     * @return next token, lexeme and position are resolved lazily; the last token (EOT) repeats once reached
+     */
+    @Override
+    public Token scan() {
+        Token t = new Token(this, _cursor);
+        if (_cursor < _count - 1)
+            _cursor++;
+        return t;
+    }
+
+    public void reset() {
+        _cursor = 0;
+    }
+
+    public int size() {
+        return _count;
+    }
+
+    public TokenType getType(int idx) {
+        return TYPES[_tokens[idx * FIELDS + TYPE]];
+    }
+
+    public int getStart(int idx) {
+        return _tokens[idx * FIELDS + START];
+    }
+
+    public int getLength(int idx) {
+        return _tokens[idx * FIELDS + LENGTH];
+    }
+
+    public int getLine(int idx) {
+        return _tokens[idx * FIELDS + LINE];
+    }
+
+    public int getCol(int idx) {
+        return _tokens[idx * FIELDS + COL];
+    }
+
+    public SourcePosition getPosition(int idx) {
+        return new SourcePosition(getLine(idx), getCol(idx));
+    }
+
+    public String getText(int idx) {
+        TokenType type = getType(idx);
+        if (type.spelling != null)
+            return type.spelling;
+        switch (type) {
+            case EOT:
+                return null;
+            case ERROR:
+                return _source.substring(getStart(idx), getStart(idx) + getLength(idx));
+            default:
+                // identifiers and literals were interned while scanning
+                return _symbols.getSpelling(_symbols.intern(_source, getStart(idx), getLength(idx)));
+        }
+    }
+
+    public SymbolTable getSymbols() {
+        return _symbols;
+    }
+}
@@ -1,12 +1,27 @@
 package miniJava.SyntacticAnalyzer;
 
 public enum TokenType {
-    LPAREN, RPAREN, LSQUARE, RSQUARE, LCURLY, RCURLY, COMMA, SEMICOLON, PERIOD,
-    BOOLEAN, INT,
-    FALSE, TRUE,
-    OPERATOR, EQUALS,
-    STATIC, VOID,
-    IF, ELSE, WHILE, NEW, PUBLIC, PRIVATE, RETURN, CLASS, OR,
-    IDENTIFIER, INTLITERAL, NULL, THIS, VISIBILITY,
+    LPAREN("("), RPAREN(")"), LSQUARE("["), RSQUARE("]"), LCURLY("{"), RCURLY("}"), COMMA(","), SEMICOLON(";"), PERIOD("."),
+    BOOLEAN("boolean"), INT("int"),
+    FALSE("false"), TRUE("true"),
+    EQUALS("="),
+    // operators
+    PLUS("+"), MINUS("-"), TIMES("*"), DIVIDE("/"), NOT("!"),
+    LT("<"), LE("<="), GT(">"), GE(">="), EQEQ("=="), NOTEQ("!="), ANDAND("&&"), OROR("||"),
+    STATIC("static"), VOID("void"),
+    IF("if"), ELSE("else"), WHILE("while"), NEW("new"), PUBLIC("public"), PRIVATE("private"), RETURN("return"), CLASS("class"), OR("or"),
+    IDENTIFIER, INTLITERAL, NULL("null"), THIS("this"), VISIBILITY,
     ERROR, EOT,
+    ;
+
+    // fixed lexeme for punctuation and keywords, null when the text comes from the source
+    public final String spelling;
+
+    TokenType() {
+        this(null);
+    }
+
+    TokenType(String spelling) {
+        this.spelling = spelling;
+    }
 }
@@ -0,0 +1,39 @@
+package codegeneration;
+
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.ContextualAnalysis.ScopedIdentification;
+import miniJava.ContextualAnalysis.TypeChecker;
+import miniJava.ErrorReporter;
+import miniJava.Optimization.ConstantFolder;
+import miniJava.SyntacticAnalyzer.*;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * A class A holding the given members and an empty main, taken through the phases Compiler runs.
+ */
+final class CodeGenFixture {
+    final Package ast;
+    final CodeGenerator codeGen;
+
+    private CodeGenFixture(Package ast, CodeGenerator codeGen) {
+        this.ast = ast;
+        this.codeGen = codeGen;
+    }
+
+    static CodeGenFixture generate(String members, CodeGenOptions options) {
+        ErrorReporter reporter = new ErrorReporter();
+        String source = "class A { " + members + " public static void main(String[] args) { } }";
+        TokenStream tokens = new LexerImpl(SourceBuffer.fromString(source), reporter).tokenize();
+        Package ast = new ParserImpl(tokens, reporter, ParserImpl.DEFAULT_MAX_DEPTH).parse();
+        new ScopedIdentification(reporter, ast);
+        new TypeChecker(ast, reporter);
+        if (options.fold)
+            new ConstantFolder(ast);
+        CodeGenerator codeGen = new CodeGenerator(reporter, ast, null, options);
+        assertFalse(reporter.hasErrors(), reporter.toString());
+        return new CodeGenFixture(ast, codeGen);
+    }
+}
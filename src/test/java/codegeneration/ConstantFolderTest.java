@@ -0,0 +1,41 @@
+package codegeneration;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenOptions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConstantFolderTest {
+
+    @Test
+    void foldsLiteralsAndIdentities() {
+        StatementList sl = fold("x = 3 * 4 + x * 1; b = !(true && false);");
+        BinaryExpr sum = (BinaryExpr) ((AssignStmt) sl.get(0)).val;
+        assertEquals("12", ((LiteralExpr) sum.left).lit.spelling);
+        assertTrue(sum.right instanceof RefExpr);
+        assertEquals("true", ((LiteralExpr) ((AssignStmt) sl.get(1)).val).lit.spelling);
+    }
+
+    @Test
+    void keepsOverflowAndDivisionByZero() {
+        StatementList sl = fold("x = 2147483647 + 1; x = 1 / 0;");
+        assertTrue(((AssignStmt) sl.get(0)).val instanceof BinaryExpr);
+        assertTrue(((AssignStmt) sl.get(1)).val instanceof BinaryExpr);
+    }
+
+    @Test
+    void prunesConstantBranches() {
+        StatementList sl = fold("if (1 > 2) x = 1; else x = 2; while (false) x = 3;");
+        assertEquals("2", ((LiteralExpr) ((AssignStmt) sl.get(0)).val).lit.spelling);
+        assertEquals(0, ((BlockStmt) sl.get(1)).sl.size());
+    }
+
+    private static StatementList fold(String body) {
+        CodeGenOptions options = new CodeGenOptions();
+        options.fold = true;
+        Package p = CodeGenFixture.generate("int x; boolean b; void f() { " + body + " }", options).ast;
+        return p.classDeclList.get(0).methodDeclList.get(0).statementList;
+    }
+}
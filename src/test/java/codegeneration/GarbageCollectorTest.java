@@ -0,0 +1,49 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.x64.ISA.Mov_rmr;
+import miniJava.CodeGeneration.x64.ISA.Shl;
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.Reg64;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GarbageCollectorTest {
+
+    @Test
+    void allocationsCarryTheirHeaderKind() {
+        CodeGenOptions options = new CodeGenOptions();
+        options.ir = true;
+        String ir = CodeGenFixture.generate("int[] f(A[] as) { A a = new A(); as = new A[2]; return new int[3]; }", options)
+                .codeGen.getIR().get(0).toString();
+        assertTrue(ir.contains("alloc 8, " + CodeGenerator.HEADER_OBJECT), ir);
+        assertTrue(ir.contains(", " + CodeGenerator.HEADER_REFS + "\n"), ir);
+        assertTrue(ir.contains(", " + CodeGenerator.HEADER_INTS + "\n"), ir);
+    }
+
+    @Test
+    void entryRecordsTheStackBase() {
+        CodeGenOptions options = new CodeGenOptions();
+        options.gc = true;
+        options.relax = true;
+        CodeGenerator codeGen = CodeGenFixture.generate("A f() { return new A(); }", options).codeGen;
+        InstructionList asm = codeGen.getInstructions();
+        Instruction entry = null;
+        for (int i = 0; i < asm.size(); i++) {
+            if (asm.get(i).startAddress == codeGen.getMainMethodAddr())
+                entry = asm.get(i);
+        }
+        assertTrue(entry instanceof Mov_rmr);
+        assertTrue(entry.bssOffset >= 0);
+    }
+
+    @Test
+    void encodesShiftByCl() {
+        assertArrayEquals(new byte[] {0x49, (byte) 0xD3, (byte) 0xE0},
+                new Shl(new R(Reg64.R8, true)).getBytes());
+    }
+}
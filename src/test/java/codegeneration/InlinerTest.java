@@ -0,0 +1,63 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.IR.IRFunction;
+import miniJava.IR.Instr;
+import miniJava.IR.Op;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InlinerTest {
+
+    @Test
+    void inlinesGettersAndHelpers() {
+        CodeGenerator codeGen = generate("int x; int getX() { return x; } "
+                + "static int twice(int n) { n = n + n; return n; } "
+                + "int f() { return twice(getX()) + 1; }");
+        IRFunction f = function(codeGen, "f");
+        assertTrue(instrs(f).stream().noneMatch(ins -> ins.op == Op.CALL), f.toString());
+        assertTrue(f.toString().contains("load [%this.0 + 0]"), f.toString());
+        assertEquals(2, codeGen.getPassStats().get("inline.calls"));
+        assertTrue(codeGen.getInlineReport().contains("A.f -> A.getX: inlined, 2 instructions"));
+    }
+
+    @Test
+    void keepsRecursiveCalls() {
+        CodeGenerator codeGen = generate("int even(int n) { if (n == 0) return 1; return odd(n - 1); } "
+                + "int odd(int n) { if (n == 0) return 0; return even(n - 1); } "
+                + "int f() { return even(4); }");
+        assertEquals(1, instrs(function(codeGen, "f")).stream().filter(ins -> ins.op == Op.CALL).count());
+        assertTrue(codeGen.getInlineReport().contains("A.f -> A.even: recursive"));
+    }
+
+    @Test
+    void respectsTheSizeBudget() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            body.append("x = x + ").append(i).append("; ");
+        CodeGenerator codeGen = generate("int x; void big() { " + body + "} void f() { big(); }");
+        assertEquals(1, instrs(function(codeGen, "f")).stream().filter(ins -> ins.op == Op.CALL).count());
+        assertTrue(codeGen.getInlineReport().get(0).startsWith("A.f -> A.big: too large"),
+                codeGen.getInlineReport().toString());
+    }
+
+    private static IRFunction function(CodeGenerator codeGen, String name) {
+        return codeGen.getIR().stream().filter(fn -> fn.method.name.equals(name)).findFirst().orElseThrow();
+    }
+
+    private static List<Instr> instrs(IRFunction fn) {
+        return fn.blocks.stream().flatMap(b -> b.instrs.stream()).collect(Collectors.toList());
+    }
+
+    private static CodeGenerator generate(String members) {
+        CodeGenOptions options = new CodeGenOptions();
+        options.ir = true;
+        options.inline = true;
+        return CodeGenFixture.generate(members, options).codeGen;
+    }
+}
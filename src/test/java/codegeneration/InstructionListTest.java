@@ -0,0 +1,137 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.x64.Condition;
+import miniJava.CodeGeneration.x64.ISA.*;
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.Reg64;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstructionListTest {
+
+    private static void emit(InstructionList asm) {
+        asm.add(new Push(Reg64.RBP));
+        asm.add(new Mov_rmr(new R(Reg64.RBP, Reg64.RSP)));
+        asm.add(new Push(7));
+        asm.add(new Pop(Reg64.R9));
+        Instruction jump = new Jmp(0);
+        asm.add(jump);
+        asm.add(new Add(new R(Reg64.RAX, Reg64.RCX)));
+        asm.add(new Mov_ri64(Reg64.R12, 0x1122334455667788L));
+        asm.add(new Imul(Reg64.RAX, new R(Reg64.RCX, true), 1000));
+        asm.patch(jump.listIdx, new Jmp(jump.startAddress, asm.getSize(), false));
+        asm.add(new Ret());
+    }
+
+    @Test
+    void flatMatchesKeptInstructions() {
+        InstructionList flat = new InstructionList();
+        InstructionList kept = new InstructionList(true);
+        emit(flat);
+        emit(kept);
+        assertArrayEquals(kept.getBytes(), flat.getBytes());
+        assertEquals(kept.size(), flat.size());
+
+        // the bytes are the concatenation of the individual encodings
+        int length = 0;
+        for (int i = 0; i < kept.size(); i++) {
+            Instruction ins = kept.get(i);
+            assertEquals(length, ins.startAddress);
+            length += ins.getBytes().length;
+        }
+        assertEquals(length, flat.getSize());
+    }
+
+    @Test
+    void patchRewritesJumpInPlace() {
+        InstructionList asm = new InstructionList();
+        Instruction jump = new Jmp(0);
+        asm.add(jump);
+        asm.add(new Push(Reg64.RAX));
+        asm.patch(jump.listIdx, new Jmp(jump.startAddress, asm.getSize(), false));
+        byte[] code = asm.getBytes();
+        assertEquals((byte) 0xE9, code[0]);
+        assertEquals(1, code[1]); // skips the one-byte push
+        assertEquals((byte) 0x50, code[5]);
+    }
+
+    @Test
+    void onlyPatchSitesArePatchable() {
+        InstructionList asm = new InstructionList();
+        int push = asm.add(new Push(Reg64.RAX));
+        assertThrows(IllegalArgumentException.class, () -> asm.patch(push, new Pop(Reg64.RAX)));
+        int jump = asm.add(new Jmp(0));
+        assertThrows(IllegalArgumentException.class, () -> asm.patch(jump, new Jmp((byte) 0)));
+        assertThrows(IllegalStateException.class, () -> asm.get(jump));
+    }
+
+    @Test
+    void relaxShortensNearJumps() {
+        InstructionList asm = new InstructionList(true);
+        Instruction call = new Call(0);
+        asm.add(call);
+        Instruction outer = new Jcc(Condition.E, 0);
+        asm.add(outer);
+        // 123 bytes and a jmp: in reach of a rel8 jcc only once the jmp is shortened too
+        for (int i = 0; i < 12; i++)
+            asm.add(new Mov_ri64(Reg64.RAX, i));
+        asm.add(new Add(new R(Reg64.RAX, Reg64.RCX)));
+        Instruction inner = new Jmp(0);
+        asm.add(inner);
+        int outerTarget = asm.getSize();
+        for (int i = 0; i < 12; i++)
+            asm.add(new Mov_ri64(Reg64.RCX, i));
+        int innerTarget = asm.getSize();
+        for (int i = 0; i < 13; i++)
+            asm.add(new Mov_ri64(Reg64.RDX, i));
+        int callTarget = asm.getSize();
+        asm.add(new Ret());
+        asm.patch(call.listIdx, new Call(call.startAddress, callTarget));
+        asm.patch(outer.listIdx, new Jcc(outer.startAddress, outerTarget, Condition.E, false));
+        asm.patch(inner.listIdx, new Jmp(inner.startAddress, innerTarget, false));
+
+        assertEquals(2, asm.relax());
+        byte[] code = asm.getBytes();
+        // call +377; je +125; ...; jmp +120; calls have no short form
+        assertArrayEquals(new byte[] { (byte) 0xE8, 0x79, 1, 0, 0, 0x74, 125 }, Arrays.copyOf(code, 7));
+        assertEquals((byte) 0xEB, code[130]);
+        assertEquals(120, code[131]);
+        assertEquals(382, asm.mapAddress(callTarget));
+        assertEquals(asm.getSize(), asm.get(asm.size() - 1).startAddress + 1);
+    }
+
+    @Test
+    void relaxKeepsFarJumps() {
+        InstructionList asm = new InstructionList(true);
+        int top = asm.getSize();
+        for (int i = 0; i < 13; i++)
+            asm.add(new Mov_ri64(Reg64.RAX, i));
+        Instruction back = new Jmp(0);
+        asm.add(back);
+        asm.patch(back.listIdx, new Jmp(back.startAddress, top, false));
+        byte[] before = asm.getBytes();
+        assertEquals(0, asm.relax());
+        assertArrayEquals(before, asm.getBytes());
+    }
+
+    @Test
+    void linkAimsRipOperandsAtBss() {
+        for (InstructionList asm : new InstructionList[] {new InstructionList(), new InstructionList(true)}) {
+            asm.add(new Push(Reg64.RBP));
+            // mov rax, [rip+disp]; add qword [rip+disp], 1
+            asm.add(new Mov_rrm(R.rip(8, Reg64.RAX)));
+            asm.add(new Add(R.rip(16), 1));
+            asm.add(new Ret());
+            asm.link(0x100);
+            byte[] code = asm.getBytes();
+            assertArrayEquals(new byte[] {0x48, (byte) 0x8B, 0x05, 0x00, 0x01, 0, 0}, Arrays.copyOfRange(code, 1, 8));
+            // counted from the end of the instruction, past its immediate
+            assertArrayEquals(new byte[] {0x48, (byte) 0x83, 0x05, 0x00, 0x01, 0, 0, 1}, Arrays.copyOfRange(code, 8, 16));
+        }
+    }
+}
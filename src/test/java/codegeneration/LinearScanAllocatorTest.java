@@ -0,0 +1,73 @@
+package codegeneration;
+
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.VarDeclStmt;
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.LinearScanAllocator;
+import miniJava.CodeGeneration.LiveInterval;
+import miniJava.CodeGeneration.LiveIntervalBuilder;
+import miniJava.CodeGeneration.x64.Reg64;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LinearScanAllocatorTest {
+
+    private static LiveInterval interval(int start, int end) {
+        LiveInterval i = new LiveInterval(start);
+        i.use(end);
+        return i;
+    }
+
+    @Test
+    void disjointIntervalsShareARegister() {
+        LiveInterval a = interval(1, 4);
+        LiveInterval b = interval(5, 8);
+        new LinearScanAllocator().allocate(List.of(a, b));
+        assertNotNull(a.reg);
+        assertEquals(a.reg, b.reg);
+    }
+
+    @Test
+    void intervalAcrossCallGetsCalleeSaved() {
+        LiveInterval a = interval(1, 10);
+        a.crossesCall = true;
+        LinearScanAllocator allocator = new LinearScanAllocator();
+        allocator.allocate(List.of(a));
+        assertEquals(Reg64.RBX, a.reg);
+        assertEquals(List.of(Reg64.RBX), allocator.getUsedCalleeSaved());
+    }
+
+    @Test
+    void longestIntervalIsSpilled() {
+        LinearScanAllocator allocator = new LinearScanAllocator(
+                new Reg64[] { Reg64.RSI, Reg64.RDI }, new Reg64[0]);
+        LiveInterval longest = interval(1, 100);
+        List<LiveInterval> intervals = new ArrayList<>(List.of(longest, interval(3, 10), interval(5, 10)));
+        allocator.allocate(intervals);
+        assertTrue(longest.isSpilled());
+        assertEquals(-8, longest.frameOffset);
+        assertEquals(1, allocator.getSpillSlots());
+        assertNotEquals(intervals.get(1).reg, intervals.get(2).reg);
+    }
+
+    @Test
+    void localDeclaredJustBeforeLoopKeepsItsRegister() {
+        MethodDecl f = CodeGenFixture.generate("int f() { int i = 0; int acc = 0; int k = 7;"
+                + " while (i < 10) { acc = acc + i * k + k * 3; i = i + 1; } return acc; }", new CodeGenOptions())
+                .ast.classDeclList.get(0).methodDeclList.get(0);
+        LiveIntervalBuilder live = new LiveIntervalBuilder(f);
+        new LinearScanAllocator().allocate(live.intervals);
+        LiveInterval i = live.vars.get(((VarDeclStmt) f.statementList.get(0)).varDecl);
+        LiveInterval k = live.vars.get(((VarDeclStmt) f.statementList.get(2)).varDecl);
+        // k is read on every iteration, so it lives as long as the loop counter
+        assertTrue(k.end >= i.end, k + " ends before " + i);
+        for (LiveInterval other : live.intervals) {
+            if (other != k && other.reg != null && other.reg == k.reg)
+                assertTrue(other.end < k.start || k.end < other.start, other + " overlaps " + k);
+        }
+    }
+}
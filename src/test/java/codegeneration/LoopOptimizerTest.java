@@ -0,0 +1,54 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.x64.ISA.Sar;
+import miniJava.CodeGeneration.x64.ISA.Shl;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.IR.IRFunction;
+import miniJava.IR.Op;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopOptimizerTest {
+
+    @Test
+    void hoistsInvariantsAndReducesProducts() {
+        CodeGenerator codeGen = generate("int f(int n, int k) { int s = 0; int i = 0; "
+                + "while (i < n) { s = s + (k / 3 + 1) + i * k; i = i + 1; } return s; }");
+        IRFunction fn = codeGen.getIR().get(0);
+        // the division moved out of the loop and the product became an addition
+        assertTrue(fn.blocks.stream().flatMap(b -> b.instrs.stream()).noneMatch(ins -> ins.op == Op.MUL), fn.toString());
+        assertTrue(codeGen.getPassStats().get("licm.hoisted") >= 2, codeGen.getPassStats().toString());
+        assertEquals(1, codeGen.getPassStats().get("sr.iv"));
+        assertTrue(fn.toString().contains("%i*."), fn.toString());
+    }
+
+    @Test
+    void shiftsByPowersOfTwo() {
+        CodeGenerator codeGen = generate("static int f(int n) { return n * 8 + n / 4; }");
+        String ir = codeGen.getIR().get(0).toString();
+        assertTrue(ir.contains("shl %n.0, 3"), ir);
+        // a negative dividend is biased to round toward zero
+        assertTrue(ir.contains("shr %") && ir.contains(", 62"), ir);
+        assertEquals(2, codeGen.getPassStats().get("sr.shifts"));
+    }
+
+    @Test
+    void encodesShifts() {
+        assertArrayEquals(new byte[] {0x48, (byte) 0xC1, (byte) 0xE0, 0x03},
+                new Shl(new R(Reg64.RAX, true), 3).getBytes());
+        assertArrayEquals(new byte[] {0x49, (byte) 0xD1, (byte) 0xF9},
+                new Sar(new R(Reg64.R9, true), 1).getBytes());
+    }
+
+    private static CodeGenerator generate(String members) {
+        CodeGenOptions options = new CodeGenOptions();
+        options.ir = true;
+        options.ssa = true;
+        options.loops = true;
+        return CodeGenFixture.generate(members, options).codeGen;
+    }
+}
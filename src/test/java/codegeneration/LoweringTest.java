@@ -0,0 +1,72 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.IR.IRFunction;
+import miniJava.IR.Op;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoweringTest {
+
+    @Test
+    void lowersLoopsToBlocks() {
+        List<IRFunction> ir = lower("int f(int n) { int s = 0; while (n > 0) { s = s + n; n = n - 1; } return s; }");
+        assertEquals("method A.f(%this.0, %n.1)\n"
+                + "L0:\n"
+                + "    %s.2 = mov 0\n"
+                + "    jmp L1\n"
+                + "L1:    ; preds L0 L2\n"
+                + "    %3 = gt %n.1, 0\n"
+                + "    br %3, L2, L3\n"
+                + "L2:    ; preds L1\n"
+                + "    %s.2 = add %s.2, %n.1\n"
+                + "    %n.1 = sub %n.1, 1\n"
+                + "    jmp L1\n"
+                + "L3:    ; preds L1\n"
+                + "    ret %s.2\n", ir.get(0).toString());
+    }
+
+    @Test
+    void dropsCodeAfterReturn() {
+        IRFunction fn = lower("int f(boolean b) { if (b) return 1; else return 2; return 3; }").get(0);
+        assertEquals(3, fn.blocks.size());
+        fn.blocks.forEach(b -> assertEquals(b == fn.entry() ? Op.BR : Op.RET, b.terminator().op));
+    }
+
+    @Test
+    void lowersFieldsArraysAndCalls() {
+        String dump = lower("int x; int f(int[] a) { a[1] = x; return g(a.length); } int g(int n) { return n; }")
+                .get(0).toString();
+        assertTrue(dump.contains("%2 = load [%this.0 + 0]"), dump);
+        assertTrue(dump.contains("store [%a.1 + 1*8 + 8], %2"), dump);
+        assertTrue(dump.contains("%4 = load [%a.1 + 0]"), dump);
+        assertTrue(dump.contains("%3 = call A.g(%this.0, %4)"), dump);
+    }
+
+    @Test
+    void lowersStaticFieldsToGlobals() {
+        String dump = lower("static int n; static void f() { n = A.n + 1; }").get(0).toString();
+        assertTrue(dump.contains("%0 = load [@n + 0]"), dump);
+        assertTrue(dump.contains("store [@n + 0], %1"), dump);
+    }
+
+    @Test
+    void shortCircuitsConditions() {
+        IRFunction fn = lower("int f(A a) { if (a != null && a.g(1) > 0) return 1; return 0; } int g(int n) { return n; }")
+                .get(0);
+        // the call is in a block of its own, reached only when a is not null
+        assertEquals(4, fn.blocks.size());
+        assertEquals(Op.BR, fn.entry().terminator().op);
+        assertTrue(fn.entry().instrs.stream().noneMatch(ins -> ins.op.isCall()));
+        assertTrue(fn.blocks.stream().flatMap(b -> b.instrs.stream()).noneMatch(ins -> ins.op == Op.AND));
+    }
+
+    private static List<IRFunction> lower(String members) {
+        CodeGenOptions options = new CodeGenOptions();
+        options.ir = true;
+        return CodeGenFixture.generate(members, options).codeGen.getIR();
+    }
+}
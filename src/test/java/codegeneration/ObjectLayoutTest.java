@@ -0,0 +1,48 @@
+package codegeneration;
+
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.FieldDecl;
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.x64.ISA.Mov_rmi;
+import miniJava.CodeGeneration.x64.ISA.Mov_rmr;
+import miniJava.CodeGeneration.x64.ISA.Movzx;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.Reg64;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectLayoutTest {
+
+    @Test
+    void packsBooleansAfterWords() {
+        ClassDecl cd = layOut("boolean a; int x; boolean b; A next; static int s;");
+        Map<String, Integer> offsets = new HashMap<>();
+        for (FieldDecl fd : cd.fieldDeclList)
+            offsets.put(fd.name, fd.runtimeEntity.offset);
+        assertEquals(0, offsets.get("x"));
+        assertEquals(8, offsets.get("next"));
+        assertEquals(16, offsets.get("a"));
+        assertEquals(17, offsets.get("b"));
+        // rounded up to a word, and the static field is not in the object
+        assertEquals(24, cd.runtimeEntity.size);
+    }
+
+    @Test
+    void encodesByteFieldAccess() {
+        assertArrayEquals(new byte[] {0x48, 0x0F, (byte) 0xB6, 0x46, 0x10},
+                new Movzx(new R(Reg64.RSI, 16, Reg64.RAX)).getBytes());
+        // sil, not dh
+        assertArrayEquals(new byte[] {0x48, (byte) 0x88, 0x70, 0x11},
+                new Mov_rmr(new R(Reg64.RAX, 17, Reg64.RSI), true).getBytes());
+        assertArrayEquals(new byte[] {0x48, (byte) 0xC6, 0x40, 0x10, 0x01},
+                new Mov_rmi(new R(Reg64.RAX, 16), 1, true).getBytes());
+    }
+
+    private static ClassDecl layOut(String members) {
+        return CodeGenFixture.generate(members, new CodeGenOptions()).ast.classDeclList.get(0);
+    }
+}
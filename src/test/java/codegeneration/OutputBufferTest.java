@@ -0,0 +1,38 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.x64.ISA.Syscall;
+import miniJava.CodeGeneration.x64.InstructionList;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutputBufferTest {
+    private static final String PRINTS =
+            "static void f() { System.out.println(1); System.out.println(2); System.out.println(3); }";
+
+    @Test
+    void writesOncePerPrintlnWithoutBuffer() {
+        // three writes and the exit
+        assertEquals(4, syscalls(new CodeGenOptions()));
+    }
+
+    @Test
+    void sharesOneWriteBetweenPrintlns() {
+        CodeGenOptions options = new CodeGenOptions();
+        options.bufferOutput = true;
+        // the flush and the exit
+        assertEquals(2, syscalls(options));
+        options.decimalPrintln = true;
+        assertEquals(2, syscalls(options));
+    }
+
+    private static int syscalls(CodeGenOptions options) {
+        options.relax = true;
+        InstructionList asm = CodeGenFixture.generate(PRINTS, options).codeGen.getInstructions();
+        int syscalls = 0;
+        for (int i = 0; i < asm.size(); i++)
+            syscalls += asm.get(i) instanceof Syscall ? 1 : 0;
+        return syscalls;
+    }
+}
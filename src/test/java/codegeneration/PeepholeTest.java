@@ -0,0 +1,83 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.Peephole;
+import miniJava.CodeGeneration.x64.Condition;
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.CodeGeneration.x64.ISA.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeepholeTest {
+
+    private static byte[] bytes(int... b) {
+        byte[] out = new byte[b.length];
+        for (int i = 0; i < b.length; i++)
+            out[i] = (byte) b[i];
+        return out;
+    }
+
+    @Test
+    void forwardsPushPopAndRetargetsJumps() {
+        InstructionList asm = new InstructionList(true);
+        Instruction jump = new Jcc(Condition.E, 0);
+        asm.add(jump);
+        asm.add(new Push(Reg64.RAX));
+        asm.add(new Pop(Reg64.RAX));
+        asm.add(new Push(7));
+        asm.add(new Pop(Reg64.RCX));
+        int target = asm.getSize();
+        asm.add(new Ret());
+        asm.patch(jump.listIdx, new Jcc(jump.startAddress, target, Condition.E, false));
+
+        Peephole peephole = new Peephole(asm, 0);
+        InstructionList out = peephole.run();
+        // je +7; mov rcx,7; ret
+        assertArrayEquals(bytes(0x0F, 0x84, 7, 0, 0, 0, 0x48, 0xC7, 0xC1, 7, 0, 0, 0, 0xC3), out.getBytes());
+        assertEquals(13, peephole.mapAddress(target));
+        assertEquals(asm.getSize() - out.getSize(), peephole.getRemovedBytes());
+    }
+
+    @Test
+    void removesUnreachableCodeAndJumpsToNext() {
+        InstructionList asm = new InstructionList(true);
+        Instruction call = new Call(0);
+        asm.add(call);
+        Instruction jump = new Jmp(0);
+        asm.add(jump);
+        int method = asm.getSize();
+        asm.add(new Ret());
+        // epilogue after a return
+        asm.add(new Mov_rmr(new R(Reg64.RSP, Reg64.RBP)));
+        asm.add(new Pop(Reg64.RBP));
+        asm.add(new Ret());
+        int exit = asm.getSize();
+        asm.add(new Syscall());
+        asm.patch(call.listIdx, new Call(call.startAddress, method));
+        asm.patch(jump.listIdx, new Jmp(jump.startAddress, exit, false));
+
+        Peephole peephole = new Peephole(asm, 0);
+        InstructionList out = peephole.run();
+        // call +5; jmp +1; ret; syscall
+        assertArrayEquals(bytes(0xE8, 5, 0, 0, 0, 0xE9, 1, 0, 0, 0, 0xC3, 0x0F, 0x05), out.getBytes());
+        assertEquals(11, peephole.mapAddress(exit));
+    }
+
+    @Test
+    void keepsPairsAroundABranchTarget() {
+        InstructionList asm = new InstructionList(true);
+        Instruction jump = new Jcc(Condition.NE, 0);
+        asm.add(jump);
+        asm.add(new Push(Reg64.RAX));
+        int target = asm.getSize();
+        asm.add(new Pop(Reg64.RCX));
+        asm.add(new Ret());
+        asm.patch(jump.listIdx, new Jcc(jump.startAddress, target, Condition.NE, false));
+
+        InstructionList out = new Peephole(asm, 0).run();
+        assertArrayEquals(asm.getBytes(), out.getBytes());
+    }
+}
@@ -0,0 +1,51 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.IR.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SSATest {
+
+    @Test
+    void propagatesConstantsThroughBranches() {
+        CodeGenerator codeGen = generate("int f() { int x = 2; boolean b = x > 1; int y = 0;"
+                + " if (b) y = x * 3; else y = 100; return y; }");
+        assertEquals("method A.f(%this.0)\n"
+                + "L0:\n"
+                + "    ret 6\n", codeGen.getIR().get(0).toString());
+        assertEquals(1, codeGen.getPassStats().get("sccp.branches"));
+    }
+
+    @Test
+    void removesDeadCodeButKeepsEffects() {
+        CodeGenerator codeGen = generate("int f(int a, A o) { int t = a * a; int u = o.g(a); int v = a / 2;"
+                + " int w = a / t; o.x = t; return a; } int x; int g(int a) { return a; }");
+        String dump = codeGen.getIR().get(0).toString();
+        // the call, the store and the division that may trap stay
+        assertTrue(dump.contains("call A.g"), dump);
+        assertTrue(dump.contains("div %a.1, %t."), dump);
+        assertTrue(dump.contains("store"), dump);
+        assertFalse(dump.contains("div %a.1, 2"), dump);
+        assertEquals(1, codeGen.getPassStats().get("adce.instructions"));
+    }
+
+    @Test
+    void keepsLoopsAndMergesVersions() {
+        CodeGenerator codeGen = generate("int f(int n) { int s = 0; while (n > 0) { s = s + n; n = n - 1; } return s; }");
+        String dump = codeGen.getIR().get(0).toString();
+        assertFalse(dump.contains("phi"), dump);
+        assertTrue(dump.contains("%s.2 = add %s.2, %n.1"), dump);
+        assertTrue(dump.contains("%n.1 = sub %n.1, 1"), dump);
+        assertEquals(2, codeGen.getPassStats().get("ssa.phis"));
+    }
+
+    private static CodeGenerator generate(String members) {
+        CodeGenOptions options = new CodeGenOptions();
+        options.ir = true;
+        options.ssa = true;
+        return CodeGenFixture.generate(members, options).codeGen;
+    }
+}
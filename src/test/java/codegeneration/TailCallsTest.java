@@ -0,0 +1,38 @@
+package codegeneration;
+
+import miniJava.CodeGeneration.CodeGenOptions;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.IR.IRFunction;
+import miniJava.IR.Op;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TailCallsTest {
+
+    @Test
+    void turnsSelfTailCallsIntoJumps() {
+        CodeGenerator codeGen = generate("static int swap(int a, int b, int k) { if (k == 0) return a; return swap(b, a, k - 1); }");
+        IRFunction fn = codeGen.getIR().get(0);
+        assertTrue(fn.blocks.stream().flatMap(b -> b.instrs.stream()).noneMatch(ins -> ins.op == Op.CALL), fn.toString());
+        // a and b trade places through a temporary
+        assertTrue(fn.toString().contains("%b.1 = mov %"), fn.toString());
+        assertEquals(Op.JMP, fn.entry().terminator().op);
+        assertEquals(1, codeGen.getPassStats().get("tailcall.calls"));
+    }
+
+    @Test
+    void keepsCallsWhoseResultIsUsed() {
+        CodeGenerator codeGen = generate("int depth(int n) { if (n == 0) return 0; return 1 + depth(n - 1); }");
+        IRFunction fn = codeGen.getIR().get(0);
+        assertEquals(1, fn.blocks.stream().flatMap(b -> b.instrs.stream()).filter(ins -> ins.op == Op.CALL).count());
+        assertEquals(0, codeGen.getPassStats().get("tailcall.calls"));
+    }
+
+    private static CodeGenerator generate(String members) {
+        CodeGenOptions options = new CodeGenOptions();
+        options.ir = true;
+        options.tailCalls = true;
+        return CodeGenFixture.generate(members, options).codeGen;
+    }
+}
@@ -0,0 +1,76 @@
+package syntacticanalyzer;
+
+import miniJava.ErrorReporter;
+import miniJava.SyntacticAnalyzer.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static miniJava.SyntacticAnalyzer.TokenType.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class LexerImplTest {
+    private static final String SOURCE = "class A {\n  // comment\n  int x; /* block */ void f() { x = x >= 2; }\n}\n";
+
+    @Test
+    void bufferAndStreamAgree() {
+        ErrorReporter reporter = new ErrorReporter();
+        LexerImpl buffered = new LexerImpl(SourceBuffer.fromString(SOURCE), reporter);
+        LexerImpl streamed = new LexerImpl(new ByteArrayInputStream(SOURCE.getBytes()), reporter);
+        Token a, b;
+        do {
+            a = buffered.scan();
+            b = streamed.scan();
+            assertEquals(a.getTokenType(), b.getTokenType());
+            assertEquals(a.getTokenText(), b.getTokenText());
+            assertEquals(a.getTokenPosition().toString(), b.getTokenPosition().toString());
+        } while (a.getTokenType() != EOT);
+        assertFalse(reporter.hasErrors());
+    }
+
+    @Test
+    void scanFromBuffer() {
+        ErrorReporter reporter = new ErrorReporter();
+        LexerImpl lexer = new LexerImpl(SourceBuffer.fromString("class Foo { }"), reporter);
+        assertToken(lexer, CLASS, "class");
+        assertToken(lexer, IDENTIFIER, "Foo");
+        assertToken(lexer, LCURLY, "{");
+        assertToken(lexer, RCURLY, "}");
+        assertEquals(EOT, lexer.scan().getTokenType());
+    }
+
+    @Test
+    void tokenizeMatchesScan() {
+        ErrorReporter reporter = new ErrorReporter();
+        LexerImpl scanned = new LexerImpl(SourceBuffer.fromString(SOURCE), reporter);
+        TokenStream tokens = new LexerImpl(SourceBuffer.fromString(SOURCE), reporter).tokenize();
+        Token a, b;
+        do {
+            a = scanned.scan();
+            b = tokens.scan();
+            assertEquals(a.getTokenType(), b.getTokenType());
+            assertEquals(a.getTokenText(), b.getTokenText());
+            assertEquals(a.getTokenPosition().toString(), b.getTokenPosition().toString());
+        } while (a.getTokenType() != EOT);
+        // repeated identifiers share one interned spelling
+        assertEquals(tokens.getText(4), tokens.getText(11));
+        assertEquals(EOT, tokens.scan().getTokenType());
+    }
+
+    @Test
+    void operatorKinds() {
+        ErrorReporter reporter = new ErrorReporter();
+        LexerImpl lexer = new LexerImpl(SourceBuffer.fromString("+ - * / ! != < <= > >= == = && ||"), reporter);
+        TokenType[] expected = {PLUS, MINUS, TIMES, DIVIDE, NOT, NOTEQ, LT, LE, GT, GE, EQEQ, EQUALS, ANDAND, OROR, EOT};
+        for (TokenType type : expected)
+            assertEquals(type, lexer.scan().getTokenType());
+        assertFalse(reporter.hasErrors());
+    }
+
+    void assertToken(LexerImpl lexer, TokenType expectType, String expectStr) {
+        Token token = lexer.scan();
+        assertEquals(expectType, token.getTokenType());
+        assertEquals(expectStr, token.getTokenText());
+    }
+}
@@ -0,0 +1,59 @@
+package syntacticanalyzer;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.ErrorReporter;
+import miniJava.SyntacticAnalyzer.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParserImplTest {
+
+    @Test
+    void deepNestingParsesOnSmallStack() throws InterruptedException {
+        int n = 50000;
+        String body = repeat("if (x) ", n) + "x = " + repeat("- ", n) + repeat("(", n) + "f(" + repeat("a[", n) + "1"
+                + repeat("]", n) + ")" + repeat(")", n) + ";";
+        Package[] result = new Package[1];
+        ErrorReporter reporter = new ErrorReporter();
+        Thread thread = new Thread(null, () -> result[0] = parse(body, reporter, 1 << 20), "parser", 256 * 1024);
+        thread.start();
+        thread.join();
+        assertFalse(reporter.hasErrors());
+        assertNotNull(result[0]);
+    }
+
+    @Test
+    void precedenceAndAssociativity() {
+        ErrorReporter reporter = new ErrorReporter();
+        Package p = parse("x = -a - b * c - d;", reporter, ParserImpl.DEFAULT_MAX_DEPTH);
+        AssignStmt stmt = (AssignStmt) p.classDeclList.get(0).methodDeclList.get(0).statementList.get(0);
+        // ((-a) - (b * c)) - d
+        BinaryExpr outer = (BinaryExpr) stmt.val;
+        assertEquals("-", outer.operator.spelling);
+        BinaryExpr left = (BinaryExpr) outer.left;
+        assertTrue(left.left instanceof UnaryExpr);
+        assertEquals("*", ((BinaryExpr) left.right).operator.spelling);
+    }
+
+    @Test
+    void depthBudgetIsASyntaxError() {
+        ErrorReporter reporter = new ErrorReporter();
+        assertThrows(SyntaxError.class, () -> parse(repeat("{", 100) + repeat("}", 100), reporter, 50));
+        assertTrue(reporter.hasErrors());
+    }
+
+    private static Package parse(String body, ErrorReporter reporter, int maxDepth) {
+        String source = "class A { void f() { " + body + " } }";
+        TokenStream tokens = new LexerImpl(SourceBuffer.fromString(source), reporter).tokenize();
+        return new ParserImpl(tokens, reporter, maxDepth).parse();
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+}